@@ -1,8 +1,6 @@
 package beastfx.app.tools;
 
 
-import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.util.ArrayList;
@@ -64,60 +62,56 @@ public class EBSPAnalyser extends Runnable {
 
     void parse(String fileName, int burnInPercentage, CompoundPopulationFunction.Type type, PrintStream out) throws IOException {
         logln("Processing " + fileName);
-        BufferedReader fin = new BufferedReader(new FileReader(fileName));
-        String str;
-        int data = 0;
-        // first, sweep through the log file to determine size of the log
-        while (fin.ready()) {
-            str = fin.readLine();
-            // terrible hackish code, must improve later
-            if( str.charAt(0) == '#' ) {
-                int i = str.indexOf("spec=");
-                if( i > 0 ) {
+        // process log in a single pass, and remove burn-in afterwards
+        final List<double[]> rowTimes = new ArrayList<>();
+        final List<List<Double>> times = new ArrayList<>();
+        final List<List<Double>> popSizes = new ArrayList<>();
+        new TraceLogReader(fileName).scan(new TraceLogReader.RowHandler() {
+        	@Override
+        	public void preamble(String str) {
+                // terrible hackish code, must improve later
+                if (str.indexOf("spec=") > 0) {
                    if( str.indexOf("type=\"stepwise\"") > 0 ) {
                       m_type = Type.STEPWISE;
                    }  else if( str.indexOf("type=\"linear\"") > 0 ) {
                       m_type = Type.LINEAR;
                    }
                 }
-            }
-            if (str.indexOf('#') < 0 && str.matches(".*[0-9a-zA-Z].*")) {
-                data++;
-            }
-        }
-        final int burnIn = data * burnInPercentage / 100;
-        logln(" skipping " + burnIn + " line\n\n");
-        data = -burnIn - 1;
-        fin.close();
-        fin = new BufferedReader(new FileReader(fileName));
+        	}
 
-        // process log
-        final List<List<Double>> times = new ArrayList<>();
-        final List<List<Double>> popSizes = new ArrayList<>();
-        double[] alltimes = null;
-        while (fin.ready()) {
-            str = fin.readLine();
-            if (str.indexOf('#') < 0 && str.matches(".*[0-9a-zA-Z].*")) {
-                if (++data > 0) {
-                    final String[] strs = str.split("\t");
-                    final List<Double> times2 = new ArrayList<>();
-                    final List<Double> popSizes2 = new ArrayList<>();
-                    if (alltimes == null) {
-                        alltimes = new double[strs.length - 1];
-                    }
-                    for (int i = 1; i < strs.length; i++) {
-                        final String[] strs2 = strs[i].split(":");
-                        final Double time = Double.parseDouble(strs2[0]);
-                        alltimes[i - 1] += time;
-                        if (strs2.length > 1) {
-                            times2.add(time);
-                            popSizes2.add(Double.parseDouble(strs2[1]));
-                        }
+        	@Override
+        	public void row(TraceLogReader.Row row) {
+                final double[] times1 = new double[row.size() - 1];
+                final List<Double> times2 = new ArrayList<>();
+                final List<Double> popSizes2 = new ArrayList<>();
+                for (int i = 1; i < row.size(); i++) {
+                	final int colon = row.indexOf(i, ':');
+                    final Double time = colon < 0 ? row.getDouble(i) : row.getDouble(i, 0, colon);
+                    times1[i - 1] = time;
+                    if (colon >= 0 && colon + 1 < row.length(i)) {
+                        times2.add(time);
+                        popSizes2.add(row.getDouble(i, colon + 1, row.length(i)));
                     }
-                    times.add(times2);
-                    popSizes.add(popSizes2);
-
                 }
+                rowTimes.add(times1);
+                times.add(times2);
+                popSizes.add(popSizes2);
+        	}
+        });
+        // the header line counts as a line of the log, as it always has
+        final int burnIn = Math.min((times.size() + 1) * burnInPercentage / 100, times.size());
+        logln(" skipping " + burnIn + " line\n\n");
+        rowTimes.subList(0, burnIn).clear();
+        times.subList(0, burnIn).clear();
+        popSizes.subList(0, burnIn).clear();
+
+        double[] alltimes = null;
+        for (double[] times1 : rowTimes) {
+            if (alltimes == null) {
+                alltimes = new double[times1.length];
+            }
+            for (int i = 0; i < times1.length; i++) {
+                alltimes[i] += times1[i];
             }
         }
 
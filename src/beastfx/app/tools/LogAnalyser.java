@@ -3,22 +3,23 @@ package beastfx.app.tools;
 
 import static beast.base.parser.OutputUtils.format;
 
-import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
 
+import beastfx.app.util.AutocorrelationESS;
+import beastfx.app.util.LaggedSumESS;
 import beastfx.app.util.Utils;
 import beast.base.core.BEASTVersion2;
 import beast.base.core.Log;
-import beast.base.inference.util.ESS;
 import beast.base.parser.OutputUtils;
 import beast.base.util.CollectionUtils;
 
@@ -52,8 +53,18 @@ public class LogAnalyser {
 
 
     /**
-     * data from log file with burn-in removed *
+     * data from log file with burn-in removed, one array per column.
+     * These are the values calcStats() reads *
      */
+    protected double[][] m_fTraceValues;
+
+    /**
+     * boxed copy of m_fTraceValues. After reading a log file, it is only made when getTraces()
+     * is called, and is null before that; setData(Double[][], ...) keeps the traces it gets.
+     * calcStats() does not read it, so changes to it do not affect statistics.
+     * @deprecated use m_fTraceValues, or getTraces() for boxed values
+     */
+    @Deprecated
     protected Double[][] m_fTraces;
 
     /**
@@ -133,7 +144,15 @@ public class LogAnalyser {
 		this.m_f95HPDlow = m_f95HPDlow;
 	}
 
+	/** @return boxed traces, which are made on the first call after the data was loaded **/
 	public Double[][] getTraces() {
+		if (m_fTraces == null) {
+			Double[][] traces = new Double[m_fTraceValues.length][];
+			for (int i = 0; i < traces.length; i++) {
+				traces[i] = box(m_fTraceValues[i]);
+			}
+			m_fTraces = traces;
+		}
 		return m_fTraces;
 	}
 
@@ -147,6 +166,46 @@ public class LogAnalyser {
      */
     protected boolean quiet = false;
 
+    /**
+     * methods for estimating the effective sample size *
+     */
+    public enum ESSMethod {
+    	/** ESS.ACT, which sums autocorrelations up to a maximum lag **/
+    	ACT,
+    	/** AutocorrelationESS, from the autocovariance by FFT with Geyer's initial monotone sequence **/
+    	FFT
+    }
+
+    protected ESSMethod essMethod = ESSMethod.ACT;
+
+    public ESSMethod getESSMethod() {
+    	return essMethod;
+    }
+
+    /** sets the method for estimating ESS in the next call to calcStats **/
+    public void setESSMethod(ESSMethod essMethod) {
+    	this.essMethod = essMethod;
+    }
+
+    /** @return ESS method with the given name, ignoring case and surrounding white space, or null if there is none **/
+    static ESSMethod essMethodOf(String name) {
+    	for (ESSMethod method : ESSMethod.values()) {
+    		if (method.name().equalsIgnoreCase(name.trim())) {
+    			return method;
+    		}
+    	}
+    	return null;
+    }
+
+    /** @return names of the ESS methods as used on the command line, separated by | **/
+    static String essMethodNames() {
+    	StringBuilder b = new StringBuilder();
+    	for (ESSMethod method : ESSMethod.values()) {
+    		b.append(b.length() > 0 ? "|" : "").append(method.name().toLowerCase());
+    	}
+    	return b.toString();
+    }
+
     final protected static String BAR = "|---------|---------|---------|---------|---------|---------|---------|---------|";
 
     public LogAnalyser() {
@@ -212,66 +271,37 @@ public class LogAnalyser {
     @SuppressWarnings("unchecked")
 	protected void readLogFile(String fileName, int burnInPercentage) throws IOException {
         log("\nLoading " + fileName);
-        BufferedReader fin = new BufferedReader(new FileReader(fileName));
-        String str;
-        m_sPreAmble = "";
-        m_sLabels = null;
-        int data = 0;
-        // first, sweep through the log file to determine size of the log
-        while (fin.ready()) {
-            str = fin.readLine();
-            if (str.indexOf('#') < 0 && str.matches(".*[0-9a-zA-Z].*")) {
-                if (m_sLabels == null)
-                    m_sLabels = str.split("\\t");
-                else
-                    data++;
-            } else {
-                m_sPreAmble += str + "\n";
-            }
-        }
-        int lines = Math.max(1, data / 80);
-        // reserve memory
-        int items = m_sLabels.length;
-        m_ranges = new List[items];
+        logln("\n\n" + BAR);
+        // single pass through the log file, with progress by bytes read
+        TraceLogReader reader = new TraceLogReader(fileName);
+        int [] reported = new int[1];
+        reader.setProgressListener(fraction -> {
+			while (reported[0] < 81 && 1000.0 * reported[0] < 81000.0 * fraction) {
+                log("*");
+                reported[0]++;
+    	    }
+        });
+        reader.read();
+        logln("");
+        m_sPreAmble = reader.getPreamble();
+        m_sLabels = reader.getLabels();
+        int data = reader.getRowCount();
         int burnIn = data * burnInPercentage / 100;
-        int total = data - burnIn;
-        m_fTraces = new Double[items][data - burnIn];
-        fin.close();
-        fin = new BufferedReader(new FileReader(fileName));
-        data = -burnIn - 1;
-        logln(", burnin " + burnInPercentage + "%, skipping " + burnIn + " log lines\n\n" + BAR);
+        logln("burnin " + burnInPercentage + "%, skipping " + burnIn + " log lines");
+
         // grab data from the log, ignoring burn in samples
+        int items = m_sLabels.length;
+        m_fTraceValues = new double[items][];
+        m_fTraces = null;
+        m_ranges = new List[items];
         m_types = new type[items];
-        Arrays.fill(m_types, type.INTEGER);
-        int reported = 0;
-        while (fin.ready()) {
-            str = fin.readLine();
-            int i = 0;
-            if (str.indexOf('#') < 0 && str.matches("[-0-9].*"))
-                if (++data >= 0  && data < m_fTraces[0].length)
-                    for (String str2 : str.split("\\s")) {
-                        try {
-                            if (str2.indexOf('.') >= 0) {
-                                m_types[i] = type.REAL;
-                            }
-                            m_fTraces[i][data] = Double.parseDouble(str2);
-                        } catch (Exception e) {
-                            if (m_ranges[i] == null) {
-                                m_ranges[i] = new ArrayList<>();
-                            }
-                            if (!m_ranges[i].contains(str2)) {
-                                m_ranges[i].add(str2);
-                            }
-                            m_fTraces[i][data] = 1.0 * m_ranges[i].indexOf(str2);
-                        }
-                        i++;
-                    }
-			while (reported < 81 && 1000.0 * reported < 81000.0 * (data + 1)/ total) {
-                log("*");
-                reported++;
-    	    }
+        for (int i = 0; i < items; i++) {
+        	// the range has to be taken before the column is handed over
+        	m_ranges[i] = reader.getRange(i, burnIn);
+        	m_fTraceValues[i] = reader.takeColumn(i, burnIn);
+        	m_types[i] = reader.hasDecimalPoint(i, burnIn) ? type.REAL : type.INTEGER;
         }
-        logln("");
+
         // determine types
         for (int i = 0; i < items; i++)
             if (m_ranges[i] != null)
@@ -280,8 +310,6 @@ public class LogAnalyser {
                     m_types[i] = type.BOOL;
                 else
                     m_types[i] = type.NOMINAL;
-
-        fin.close();
     } // readLogFile
 
     /**
@@ -294,7 +322,7 @@ public class LogAnalyser {
 
     public void calcStats(String [] tags) {
         logln("\nCalculating statistics\n\n" + BAR);
-        int stars = 0;
+        int [] stars = new int[1];
         int items = m_sLabels.length;
         m_fMean = new Double[items];
         m_fStdError = new Double[items];
@@ -305,76 +333,98 @@ public class LogAnalyser {
         m_fESS = new Double[items];
         m_fACT = new Double[items];
         m_fGeometricMean = new Double[items];
-        int sampleInterval = (int) (m_fTraces[0][1] - m_fTraces[0][0]);
-        for (int i = 1; i < items; i++) {
-        	if (matchesTags(tags, i)) {
-	            // calc mean and standard deviation
-	            Double[] trace = m_fTraces[i];
-	            double sum = 0, sum2 = 0;
-	            for (double f : trace) {
-	                sum += f;
-	                sum2 += f * f;
-	            }
-	            if (m_types[i] != type.NOMINAL) {
-	                m_fMean[i] = sum / trace.length;
-	                m_fStdDev[i] = Math.sqrt(sum2 / trace.length - m_fMean[i] * m_fMean[i]);
-	            } else {
-	                m_fMean[i] = Double.NaN;
-	                m_fStdDev[i] = Double.NaN;
+        int sampleInterval = (int) (m_fTraceValues[0][1] - m_fTraceValues[0][0]);
+        // columns are independent, so process them in parallel on the fork-join pool
+        int [] done = new int[1];
+        IntStream.range(1, items).parallel().forEach(i -> {
+        	calcStats(tags, i, sampleInterval);
+        	synchronized (done) {
+        		done[0]++;
+	            while (stars[0] < 80 * (done[0] + 1) / items) {
+	                log("*");
+	                stars[0]++;
 	            }
+        	}
+        });
+        logln("\n");
+    } // calcStats
 
-	            if (m_types[i] == type.REAL || m_types[i] == type.INTEGER) {
-	                // calc median, and 95% HPD interval
-	                Double[] sorted = trace.clone();
-	                Arrays.sort(sorted);
-	                m_fMedian[i] = sorted[trace.length / 2];
-	                // n instances cover 95% of the trace, reduced down by 1 to match Tracer
-	                int n = (int) ((sorted.length - 1) * 95.0 / 100.0);
-	                double minRange = Double.MAX_VALUE;
-	                int hpdIndex = 0;
-	                for (int k = 0; k < sorted.length - n; k++) {
-	                    double range = sorted[k + n] - sorted[k];
-	                    if (range < minRange) {
-	                        minRange = range;
-	                        hpdIndex = k;
-	                    }
-	                }
-	                m_f95HPDlow[i] = sorted[hpdIndex];
-	                m_f95HPDup[i] = sorted[hpdIndex + n];
-
-	                // calc effective sample size
-	                m_fACT[i] = ESS.ACT(m_fTraces[i], sampleInterval);
-	                m_fStdError[i] = ESS.stdErrorOfMean(trace, sampleInterval);
-	                m_fESS[i] = trace.length / (m_fACT[i] / sampleInterval);
-
-	                // calc geometric mean
-	                if (sorted[0] > 0) {
-	                    // geometric mean is only defined when all elements are positive
-	                    double gm = 0;
-	                    for (double f : trace)
-	                        gm += Math.log(f);
-	                    m_fGeometricMean[i] = Math.exp(gm / trace.length);
-	                } else
-	                    m_fGeometricMean[i] = Double.NaN;
-	            }
+    /** calculates statistics of column i, which only changes element i of the statistics arrays **/
+    private void calcStats(String [] tags, int i, int sampleInterval) {
+        if (matchesTags(tags, i)) {
+            // calc mean and standard deviation
+            double[] trace = m_fTraceValues[i];
+            double sum = 0, sum2 = 0;
+            for (double f : trace) {
+                sum += f;
+                sum2 += f * f;
+            }
+            if (m_types[i] != type.NOMINAL) {
+                m_fMean[i] = sum / trace.length;
+                m_fStdDev[i] = Math.sqrt(sum2 / trace.length - m_fMean[i] * m_fMean[i]);
             } else {
-                m_fMedian[i] = Double.NaN;
-                m_f95HPDlow[i] = Double.NaN;
-                m_f95HPDup[i] = Double.NaN;
-                m_fACT[i] = Double.NaN;
-                m_fESS[i] = Double.NaN;
-                m_fGeometricMean[i] = Double.NaN;
+                m_fMean[i] = Double.NaN;
+                m_fStdDev[i] = Double.NaN;
             }
-            while (stars < 80 * (i + 1) / items) {
-                log("*");
-                stars++;
+
+            if (m_types[i] == type.REAL || m_types[i] == type.INTEGER) {
+                // calc median, and 95% HPD interval
+                double[] sorted = trace.clone();
+                Arrays.sort(sorted);
+                m_fMedian[i] = sorted[trace.length / 2];
+                // n instances cover 95% of the trace, reduced down by 1 to match Tracer
+                int n = (int) ((sorted.length - 1) * 95.0 / 100.0);
+                double minRange = Double.MAX_VALUE;
+                int hpdIndex = 0;
+                for (int k = 0; k < sorted.length - n; k++) {
+                    double range = sorted[k + n] - sorted[k];
+                    if (range < minRange) {
+                        minRange = range;
+                        hpdIndex = k;
+                    }
+                }
+                m_f95HPDlow[i] = sorted[hpdIndex];
+                m_f95HPDup[i] = sorted[hpdIndex + n];
+
+                // calc effective sample size
+                if (essMethod == ESSMethod.FFT) {
+                	AutocorrelationESS ess = new AutocorrelationESS(trace);
+                	m_fACT[i] = ess.getACT(sampleInterval);
+                	m_fStdError[i] = ess.getStdErrorOfMean();
+                } else {
+                	// as ESS.ACT and ESS.stdErrorOfMean, without boxing the trace
+                	LaggedSumESS ess = new LaggedSumESS(trace);
+                	m_fACT[i] = ess.getACT(sampleInterval);
+                	m_fStdError[i] = ess.getStdErrorOfMean();
+                }
+                m_fESS[i] = trace.length / (m_fACT[i] / sampleInterval);
+
+                // calc geometric mean
+                if (sorted[0] > 0) {
+                    // geometric mean is only defined when all elements are positive
+                    double gm = 0;
+                    for (double f : trace)
+                        gm += Math.log(f);
+                    m_fGeometricMean[i] = Math.exp(gm / trace.length);
+                } else
+                    m_fGeometricMean[i] = Double.NaN;
             }
+        } else {
+            m_fMedian[i] = Double.NaN;
+            m_f95HPDlow[i] = Double.NaN;
+            m_f95HPDup[i] = Double.NaN;
+            m_fACT[i] = Double.NaN;
+            m_fESS[i] = Double.NaN;
+            m_fGeometricMean[i] = Double.NaN;
         }
-        logln("\n");
-    } // calcStats
+    }
 
     public void setData(Double[][] traces, String[] labels, type[] types) {
         m_fTraces = traces.clone();
+        m_fTraceValues = new double[traces.length][];
+        for (int i = 0; i < traces.length; i++) {
+        	m_fTraceValues[i] = unbox(traces[i]);
+        }
         m_sLabels = labels.clone();
         m_types = types.clone();
         calcStats();
@@ -405,11 +455,27 @@ public class LogAnalyser {
     }
 
     public Double [] getTrace(int index) {
-    	return m_fTraces[index].clone();
+    	return box(m_fTraceValues[index]);
     }
 
     public Double [] getTrace(String label) {
-    	return m_fTraces[indexof(label)].clone();
+    	return box(m_fTraceValues[indexof(label)]);
+    }
+
+    static Double [] box(double [] trace) {
+    	Double [] boxed = new Double[trace.length];
+    	for (int i = 0; i < trace.length; i++) {
+    		boxed[i] = trace[i];
+    	}
+    	return boxed;
+    }
+
+    static double [] unbox(Double [] trace) {
+    	double [] unboxed = new double[trace.length];
+    	for (int i = 0; i < trace.length; i++) {
+    		unboxed[i] = trace[i];
+    	}
+    	return unboxed;
     }
 
     public double getMean(String label) {
@@ -604,7 +670,7 @@ public class LogAnalyser {
     }
 
 
-    private boolean matchesTags(String [] tags, int paramIdx) {
+    protected boolean matchesTags(String [] tags, int paramIdx) {
     	if (tags == null) {
     		return true;
     	}
@@ -663,8 +729,16 @@ public class LogAnalyser {
         System.out.println("-oneline Display only one line of output per file.\n" +
                 "         Header is generated from the first file only.\n" +
                 "         (Implies quiet mode.)");
-        System.out.println("-threads <threadcount> number of threads to use in oneline mode.");
+        System.out.println("-threads <threadcount> number of threads to use in oneline mode.\n" +
+                "         Lines are printed in order of the files, and with more than one thread,\n" +
+                "         the time per file goes to stderr.");
         System.out.println("-quiet Quiet mode.  Avoid printing status updates to stderr.");
+        System.out.println("-ess <" + essMethodNames() + "> method for estimating ESS, default act.\n" +
+                "         fft estimates autocorrelations by FFT and sums them with Geyer's initial\n" +
+                "         monotone sequence, which is much faster for long traces.");
+        System.out.println("-stream summarise logs in a single pass with constant memory per column, for logs\n" +
+                "         that do not fit in memory. Median, HPD, stderr, ACT and ESS are approximate,\n" +
+                "         and ESS is estimated by batch means, so -ess cannot be used with it.");
     	System.out.println("-help");
     	System.out.println("--help");
     	System.out.println("-h print this message");
@@ -672,51 +746,125 @@ public class LogAnalyser {
     	System.exit(0);
     }
 
-    class CoreRunnable implements java.lang.Runnable {
-        static private boolean headerPrinted = false;
-        static private int lineNr = 0;
-        int start, end;
-        CountDownLatch countDown;
-        List<String> files;
-        int burnInPercentage;
-        String [] tags;
-
-        CoreRunnable(int start, int end, List<String> files, CountDownLatch countDown, int burnInPercentage, String [] tags) {
-            this.start = start;
-            this.end = end;
-            this.countDown = countDown;
+    /**
+     * Analyses files for one-line mode on a work-stealing pool. Finished files go into a
+     * reorder buffer, and the worker that finishes the next file in input order prints it,
+     * followed by any later files that are already done. So lines appear in input order,
+     * while no worker waits for another. Time per file is reported on stderr.
+     *
+     * With a single thread, files are analysed in order on the calling thread, and only
+     * the header and lines are printed, as before there was a pool.
+     */
+    public static class OneLineAnalysis {
+        final private List<String> files;
+        final private int burnInPercentage;
+        final private String [] tags;
+        final private ESSMethod essMethod;
+        final private boolean streaming;
+        final private PrintStream out;
+
+        // reorder buffer, guarded by this
+        final private String [] headers;
+        final private String [] lines;
+        final private double [] milliseconds;
+        private int next = 0;
+        private boolean headerPrinted = false;
+        /** whether time per file is reported **/
+        private boolean timed = true;
+
+        public OneLineAnalysis(List<String> files, int burnInPercentage, String [] tags, ESSMethod essMethod, boolean streaming, PrintStream out) {
             this.files = files;
             this.burnInPercentage = burnInPercentage;
             this.tags = tags;
+            this.essMethod = essMethod;
+            this.streaming = streaming;
+            this.out = out;
+            headers = new String[files.size()];
+            lines = new String[files.size()];
+            milliseconds = new double[files.size()];
         }
 
-        @Override
-		public void run() {
-        	for (int i = start; i < end; i++) {
-        		LogAnalyser analyser;
-				try {
-					analyser = new LogAnalyser(files.get(i), burnInPercentage, true, tags);
-                    if (i == 0) {
-                        analyser.printOneLineHeader(System.out, tags);
-                        headerPrinted = true;
-                    }
-                    while (!headerPrinted) {
-						Thread.sleep(500);
-                    }
+        public void run(int threads) throws InterruptedException {
+            if (threads <= 1) {
+                timed = false;
+                for (int i = 0; i < files.size(); i++) {
+                    analyse(i);
+                }
+                return;
+            }
+            long start = System.nanoTime();
+            ExecutorService pool = Executors.newWorkStealingPool(threads);
+            for (int i = 0; i < files.size(); i++) {
+                final int index = i;
+                pool.execute(() -> analyse(index));
+            }
+            pool.shutdown();
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+            Log.warning.println(String.format("Analysed %d files in %.3f seconds on %d threads",
+                    files.size(), (System.nanoTime() - start) / 1e9, threads));
+        }
 
-                    synchronized (countDown) {
-                    	System.out.print(lineNr + "\t" + files.get(i) + "\t");
-                    	lineNr++;
-                    	analyser.printOneLine(System.out, tags);
-	                }
-				} catch (IOException | InterruptedException e) {
-					e.printStackTrace();
-				}
-        	}
-            countDown.countDown();
+        private void analyse(int index) {
+            long start = System.nanoTime();
+            String header = null, line = "";
+            try {
+                LogAnalyser analyser = newAnalyser(files.get(index), burnInPercentage, true, tags, essMethod, streaming);
+                ByteArrayOutputStream buf = new ByteArrayOutputStream();
+                PrintStream ps = new PrintStream(buf);
+                analyser.printOneLineHeader(ps, tags);
+                ps.flush();
+                header = buf.toString();
+                buf.reset();
+                ps.print(index + "\t" + files.get(index) + "\t");
+                analyser.printOneLine(ps, tags);
+                ps.flush();
+                line = buf.toString();
+            } catch (IOException | RuntimeException e) {
+                // report, and leave an empty line so that later files are still printed
+                e.printStackTrace();
+            } finally {
+                // also when an error is thrown, so later files are not held back
+                done(index, header, line, (System.nanoTime() - start) / 1e6);
+            }
+        }
+
+        /** puts the result of file index in the reorder buffer, and prints what is ready in input order **/
+        synchronized private void done(int index, String header, String line, double ms) {
+            headers[index] = header;
+            lines[index] = line;
+            milliseconds[index] = ms;
+            while (next < lines.length && lines[next] != null) {
+                // the header comes from the first file that could be analysed
+                if (!headerPrinted && headers[next] != null) {
+                    out.print(headers[next]);
+                    headerPrinted = true;
+                }
+                out.print(lines[next]);
+                out.flush();
+                if (timed) {
+                    Log.warning.println(String.format("%d\t%s\t%.1f ms", next, files.get(next), milliseconds[next]));
+                }
+                headers[next] = null;
+                lines[next] = null;
+                next++;
+            }
         }
+    } // OneLineAnalysis
 
-    } // CoreRunnable
+
+    /**
+     * @param streaming whether to summarise the log in constant memory with StreamingLogAnalyser, which ignores essMethod
+     * @return analyser of fileName with statistics calculated, using essMethod for ESS
+     */
+    static LogAnalyser newAnalyser(String fileName, int burnInPercentage, boolean quiet, String [] tags, ESSMethod essMethod, boolean streaming) throws IOException {
+    	if (streaming) {
+    		return new StreamingLogAnalyser(fileName, burnInPercentage, quiet, tags);
+    	}
+    	LogAnalyser analyser = new LogAnalyser(fileName, burnInPercentage, quiet, false);
+    	analyser.setESSMethod(essMethod);
+    	analyser.calcStats(tags);
+    	return analyser;
+    }
 
 
     /**
@@ -732,6 +880,9 @@ public class LogAnalyser {
             	List<String> files = new ArrayList<>();
             	String [] tags = null;
             	int threads = 1;
+            	ESSMethod essMethod = ESSMethod.ACT;
+            	boolean essGiven = false;
+            	boolean streaming = false;
             	int i = 0;
             	while (i < args.length) {
             		String arg = args[i];
@@ -774,6 +925,24 @@ public class LogAnalyser {
             			threads = Integer.parseInt(args[i+1].trim());
             			i += 2;
                         break;
+                    case "-stream":
+                        streaming = true;
+                        i += 1;
+                        break;
+
+                    case "-ess":
+            			if (i+1 >= args.length) {
+            				Log.warning.println("-ess argument requires another argument");
+            				printUsageAndExit();
+            			}
+            			essMethod = essMethodOf(args[i+1]);
+            			if (essMethod == null) {
+            				Log.warning.println("unknown ESS method " + args[i+1] + ", expected one of " + essMethodNames());
+            				printUsageAndExit();
+            			}
+            			essGiven = true;
+            			i += 2;
+                        break;
             		case "-h":
             		case "-help":
             		case "--help":
@@ -788,6 +957,10 @@ public class LogAnalyser {
             			i++;
             		}
             	}
+            	if (streaming && essGiven) {
+            		Log.warning.println("-ess cannot be used with -stream, since streaming estimates ESS by batch means");
+            		printUsageAndExit();
+            	}
             	if (files.size() == 0) {
             		// no file specified, open file dialog to select one
 	                BEASTVersion2 version = new BEASTVersion2();
@@ -796,31 +969,20 @@ public class LogAnalyser {
 	                if (file == null) {
 	                    return;
 	                }
-	                analyser = new LogAnalyser(file.getAbsolutePath(), burninPercentage, quiet, tags);
+	                analyser = newAnalyser(file.getAbsolutePath(), burninPercentage, quiet, tags, essMethod, streaming);
 	                analyser.print(System.out, tags);
             	} else {
             		// process files
                     if (oneLine) {
                     	if (threads > 0) {
-                    		ExecutorService exec = Executors.newFixedThreadPool(threads);
-                    		CountDownLatch countDown = new CountDownLatch(threads);
-                    		int start = 0;
-                    		for (int j = 0; j < threads; j++) {
-                    			int end = (j+1) * files.size()/threads;
-                                CoreRunnable coreRunnable = new LogAnalyser().new CoreRunnable(start, end, files, countDown, burninPercentage, tags);
-                                exec.execute(coreRunnable);
-                                start = end;
-
-                    		}
-                    		countDown.await();
+                    		new OneLineAnalysis(files, burninPercentage, tags, essMethod, streaming, System.out).run(threads);
 
                             // gracefully exit
-                            exec.shutdownNow();
                             System.exit(0);
 
                     	} else {
 	                        for (int idx=0; idx<files.size(); idx++) {
-	                            analyser = new LogAnalyser(files.get(idx), burninPercentage, true, tags);
+	                            analyser = newAnalyser(files.get(idx), burninPercentage, true, tags, essMethod, streaming);
 
 	                            if (idx == 0) {
 	                                analyser.printOneLineHeader(System.out, tags);
@@ -833,7 +995,7 @@ public class LogAnalyser {
 
                     } else {
                         for (String file : files) {
-                            analyser = new LogAnalyser(file, burninPercentage, quiet, tags);
+                            analyser = newAnalyser(file, burninPercentage, quiet, tags, essMethod, streaming);
                             analyser.print(System.out, tags);
                         }
                     }
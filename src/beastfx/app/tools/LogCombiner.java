@@ -137,23 +137,27 @@ public class LogCombiner extends LogAnalyser {
     @SuppressWarnings("unchecked")
 	protected long readLogFile(String fileName, int burnInPercentage, long state) throws IOException {
         log("\nLoading " + fileName);
-        BufferedReader fin = new BufferedReader(new FileReader(fileName));
-        String str;
-        m_sPreAmble = "";
-        m_sLabels = null;
-        int data = 0;
+        TraceLogReader reader = new TraceLogReader(fileName);
+        StringBuilder preAmble = new StringBuilder();
+        int [] data = new int[1];
         // first, sweep through the log file to determine size of the log
-        while (fin.ready()) {
-            str = fin.readLine();
-            if (str.indexOf('#') < 0 && str.matches(".*[0-9a-zA-Z].*")) {
-                if (m_sLabels == null)
-                    m_sLabels = str.split("\\s");
-                else
-                    data++;
-            } else {
-                m_sPreAmble += str + "\n";
-            }
-        }
+        reader.scan(new TraceLogReader.RowHandler() {
+        	@Override
+        	public void preamble(String line) {
+        		preAmble.append(line).append('\n');
+        	}
+
+        	@Override
+        	public void labels(String[] labels) {
+        		m_sLabels = labels;
+        	}
+
+        	@Override
+        	public void row(TraceLogReader.Row row) {
+        		data[0]++;
+        	}
+        });
+        m_sPreAmble = preAmble.toString();
         if (!preAmpleIsPrinted) {
         	m_out.print(m_sPreAmble);
             // header
@@ -164,27 +168,27 @@ public class LogCombiner extends LogAnalyser {
         	preAmpleIsPrinted = true;
         }
         
-        int lines = Math.max(1, data / 80);
-        // reserve memory
         int items = m_sLabels.length;
         m_ranges = new List[items];
-        int burnIn = data * burnInPercentage / 100;
-        int total = data - burnIn;
-        m_fTraces = new Double[items][data - burnIn];
-        fin.close();
-        fin = new BufferedReader(new FileReader(fileName));
-        data = -burnIn - 1;
+        int burnIn = data[0] * burnInPercentage / 100;
+        int total = data[0] - burnIn;
         logln(", burnin " + burnInPercentage + "%, skipping " + burnIn + " log lines\n\n" + BAR);
         // grab data from the log, ignoring burn in samples
-        long prevLogState = -1;
-        int reported = 0;
-        while (fin.ready()) {
-            str = fin.readLine();
-            if (str.indexOf('#') < 0 && str.matches("[0-9].*")) {
-                data++;
-                if (data >= 0) {
-                	String [] strs = str.split("\\s");
-                	long logState = Long.parseLong(strs[0]);
+        long [] result = new long[] {state};
+        reader.scan(new TraceLogReader.RowHandler() {
+        	int sample = -burnIn - 1;
+            long prevLogState = -1;
+            int reported = 0;
+
+        	@Override
+        	public void row(TraceLogReader.Row row) throws IOException {
+        		if (row.indexOf(0, '-') == 0) {
+        			// only lines starting with a digit are samples
+        			return;
+        		}
+                sample++;
+                if (sample >= 0) {
+                	long logState = row.getLong(0);
                     if (m_nSampleInterval < 0 && prevLogState >= 0) {
                         // need to renumber
                     	if (m_nResample < 0 && includeEvery <= 0) {
@@ -197,43 +201,42 @@ public class LogCombiner extends LogAnalyser {
                     	}
                     }
                     prevLogState = logState;
-                    if (columnCount != strs.length) {
+                    if (columnCount != row.size()) {
                     	if (columnCount < 0) {
-                    		columnCount = strs.length;
+                    		columnCount = row.size();
                     	} else {
-                            fin.close();
                             throw new IllegalArgumentException("ERROR: The number of columns in file " + fileName + " does not match that of the first file");
                     	}
                     }
                 	
                 	if (logState % m_nResample == 0 || m_nResample < 0) {
-	                	if (state < 0) {
-	                		state = 0;
+	                	if (result[0] < 0) {
+	                		result[0] = 0;
 	                	} else {
-	                		state += m_nSampleInterval;
+	                		result[0] += m_nSampleInterval;
 	                	}
-	                	m_out.print(state + "\t");
-	                	for (int k = 1; k < strs.length; k++) {
-		                	if (m_bUseDecimalFormat && strs[k].indexOf('.') > 0) {
-		                		double d = Double.parseDouble(strs[k]);
+	                	m_out.print(result[0] + "\t");
+	                	for (int k = 1; k < row.size(); k++) {
+		                	if (m_bUseDecimalFormat && row.indexOf(k, '.') > 0) {
+		                		double d = row.getDouble(k);
 		                		m_out.print(format.format(d));
 		                	} else {
-		                		m_out.print(strs[k]);
+		                		// copy the value as it appears in the log
+		                		row.write(m_out, k);
 		                	}
 	                		m_out.print('\t');
 	                	}
 	                	m_out.println();
                 	}
                 }
-				while (reported < 81 && 1000.0 * reported < 81000.0 * (data + 1)/ total) {
+				while (reported < 81 && 1000.0 * reported < 81000.0 * (sample + 1)/ total) {
 	                log("*");
 	                reported++;
         	    }
         	}
-        }
+        });
         logln("");
-        fin.close();
-        return state;
+        return result[0];
     } // readLogFile
 
 
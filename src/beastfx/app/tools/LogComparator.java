@@ -10,6 +10,7 @@ import java.util.List;
 
 import beastfx.app.util.Utils;
 import beast.base.core.BEASTVersion2;
+import beast.base.core.Log;
 import beast.base.parser.OutputUtils;
 import beast.base.util.CollectionUtils;
 
@@ -153,8 +154,23 @@ public class LogComparator {
                 analyser2 = new LogAnalyser(file.getAbsolutePath());
 
             } else {
-                analyser1 = new LogAnalyser(args[0]);
-                analyser2 = new LogAnalyser(args[1]);
+                // optional -ess <act|fft> selects the ESS method, which affects standard errors
+                LogAnalyser.ESSMethod essMethod = LogAnalyser.ESSMethod.ACT;
+                List<String> files = new ArrayList<>();
+                for (int i = 0; i < args.length; i++) {
+                    if (args[i].equals("-ess") && i + 1 < args.length) {
+                        essMethod = LogAnalyser.essMethodOf(args[++i]);
+                        if (essMethod == null) {
+                            Log.warning.println("unknown ESS method " + args[i] + ", expected one of " + LogAnalyser.essMethodNames());
+                            System.out.println("LogComparator [-ess <" + LogAnalyser.essMethodNames() + ">] <log1> <log2>");
+                            return;
+                        }
+                    } else {
+                        files.add(args[i]);
+                    }
+                }
+                analyser1 = LogAnalyser.newAnalyser(files.get(0), LogAnalyser.BURN_IN_PERCENTAGE, false, null, essMethod, false);
+                analyser2 = LogAnalyser.newAnalyser(files.get(1), LogAnalyser.BURN_IN_PERCENTAGE, false, null, essMethod, false);
             }
 
         } catch (Exception e) {
@@ -0,0 +1,290 @@
+package beastfx.app.tools;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import beastfx.app.util.StreamingStatistics;
+
+/**
+ * LogAnalyser that summarises a log without keeping its samples, so that logs larger than
+ * the available memory can be analysed. Memory per column is constant: mean and variance
+ * are kept by Welford's method, median and 95% HPD come from a mergeable quantile sketch,
+ * and standard error, ACT and ESS are estimated by batch means.
+ *
+ * Median, HPD, standard error, ACT and ESS are approximations, so print() and
+ * printOneLineHeader() start with the APPROXIMATE line. Traces are not available.
+ */
+public class StreamingLogAnalyser extends LogAnalyser {
+	/** line printed before the statistics, marking them as approximate **/
+	public final static String APPROXIMATE = "# approximate: streaming summary, median and 95% HPD from a quantile sketch, stderr, ACT and ESS from batch means";
+
+	// these are set by readLogFile(), which runs in the super constructor, so they must not have initialisers
+	private StreamingStatistics [] summaries;
+	private BatchMeans [] batchMeans;
+	/** sums of logs of the values, for geometric means **/
+	private double [] logSums;
+	private int sampleInterval;
+
+	public StreamingLogAnalyser(String fileName, int burnInPercentage, boolean quiet, String [] tags) throws IOException {
+		super(fileName, burnInPercentage, quiet, true, tags);
+	}
+
+	public StreamingLogAnalyser(String fileName, int burnInPercentage) throws IOException {
+		this(fileName, burnInPercentage, false, null);
+	}
+
+	/**
+	 * Summarises the samples after burn-in in a single pass. The burn-in takes a quick scan
+	 * for counting lines first, which does not parse any values.
+	 */
+	@Override
+	@SuppressWarnings("unchecked")
+	protected void readLogFile(String fileName, int burnInPercentage) throws IOException {
+		log("\nLoading " + fileName);
+		TraceLogReader reader = new TraceLogReader(fileName);
+		int burnIn = burnInPercentage > 0 ? reader.countRows() * burnInPercentage / 100 : 0;
+		logln(", burnin " + burnInPercentage + "%, skipping " + burnIn + " log lines\n\n" + BAR);
+		int [] reported = new int[1];
+		reader.setProgressListener(fraction -> {
+			while (reported[0] < 81 && 1000.0 * reported[0] < 81000.0 * fraction) {
+				log("*");
+				reported[0]++;
+			}
+		});
+
+		StringBuilder preAmble = new StringBuilder();
+		m_sLabels = null;
+		reader.scan(new TraceLogReader.RowHandler() {
+			int sample = 0;
+			double firstSample;
+			Map<String, Integer> [] codes;
+
+			@Override
+			public void preamble(String line) {
+				preAmble.append(line).append('\n');
+			}
+
+			@Override
+			public void labels(String [] labels) {
+				m_sLabels = labels;
+				int items = labels.length;
+				summaries = new StreamingStatistics[items];
+				batchMeans = new BatchMeans[items];
+				for (int i = 0; i < items; i++) {
+					summaries[i] = new StreamingStatistics();
+					batchMeans[i] = new BatchMeans();
+				}
+				logSums = new double[items];
+				m_types = new type[items];
+				Arrays.fill(m_types, type.INTEGER);
+				m_ranges = new List[items];
+				codes = new Map[items];
+			}
+
+			@Override
+			public void row(TraceLogReader.Row row) throws IOException {
+				if (sample++ < burnIn) {
+					return;
+				}
+				if (row.size() > m_sLabels.length) {
+					throw new IOException("Line " + row.getLineNr() + " of " + fileName + " has " + row.size() +
+							" values, but there are only " + m_sLabels.length + " column labels");
+				}
+				for (int i = 0; i < row.size(); i++) {
+					if (row.indexOf(i, '.') >= 0) {
+						m_types[i] = type.REAL;
+					}
+					double value = row.isNumber(i) ? row.getDouble(i) : code(i, row.getString(i));
+					summaries[i].add(value);
+					batchMeans[i].add(value);
+					logSums[i] += Math.log(value);
+				}
+				if (sample == burnIn + 1) {
+					firstSample = row.getDouble(0);
+				} else if (sample == burnIn + 2) {
+					sampleInterval = (int) (row.getDouble(0) - firstSample);
+				}
+			}
+
+			/** nominal values are numbered in order of appearance, as LogAnalyser does **/
+			private double code(int i, String value) {
+				if (m_ranges[i] == null) {
+					m_ranges[i] = new ArrayList<>();
+					codes[i] = new HashMap<>();
+				}
+				Integer code = codes[i].get(value);
+				if (code == null) {
+					code = m_ranges[i].size();
+					codes[i].put(value, code);
+					m_ranges[i].add(value);
+				}
+				return code;
+			}
+		});
+		logln("");
+		if (m_sLabels == null) {
+			throw new IOException("No column labels found in " + fileName);
+		}
+		m_sPreAmble = preAmble.toString();
+
+		// determine types
+		int items = m_sLabels.length;
+		for (int i = 0; i < items; i++)
+			if (m_ranges[i] != null)
+				if (m_ranges[i].size() == 2 && m_ranges[i].contains("true") && m_ranges[i].contains("false") ||
+						m_ranges[i].size() == 1 && (m_ranges[i].contains("true") || m_ranges[i].contains("false")))
+					m_types[i] = type.BOOL;
+				else
+					m_types[i] = type.NOMINAL;
+	} // readLogFile
+
+	/**
+	 * Statistics from the summaries collected while reading the log. ESS is always
+	 * estimated by batch means, whatever the ESS method is.
+	 */
+	@Override
+	public void calcStats(String [] tags) {
+		int items = m_sLabels.length;
+		m_fMean = new Double[items];
+		m_fStdError = new Double[items];
+		m_fStdDev = new Double[items];
+		m_fMedian = new Double[items];
+		m_f95HPDlow = new Double[items];
+		m_f95HPDup = new Double[items];
+		m_fESS = new Double[items];
+		m_fACT = new Double[items];
+		m_fGeometricMean = new Double[items];
+		for (int i = 1; i < items; i++) {
+			if (matchesTags(tags, i)) {
+				StreamingStatistics summary = summaries[i];
+				long n = summary.getCount();
+				// population variance, as LogAnalyser uses
+				double variance = summary.getVariance() * (n - 1) / n;
+				if (m_types[i] != type.NOMINAL) {
+					m_fMean[i] = summary.getMean();
+					m_fStdDev[i] = Math.sqrt(variance);
+				} else {
+					m_fMean[i] = Double.NaN;
+					m_fStdDev[i] = Double.NaN;
+				}
+
+				if (m_types[i] == type.REAL || m_types[i] == type.INTEGER) {
+					m_fMedian[i] = summary.getMedian();
+					double [] hpd = summary.getHPD(0.95);
+					m_f95HPDlow[i] = hpd[0];
+					m_f95HPDup[i] = hpd[1];
+
+					double asymptoticVariance = batchMeans[i].getAsymptoticVariance();
+					m_fStdError[i] = Math.sqrt(asymptoticVariance / n);
+					m_fESS[i] = n * variance / asymptoticVariance;
+					m_fACT[i] = sampleInterval * n / m_fESS[i];
+
+					// geometric mean is only defined when all elements are positive
+					m_fGeometricMean[i] = summary.getMin() > 0 ? Math.exp(logSums[i] / n) : Double.NaN;
+				}
+			} else {
+				m_fMedian[i] = Double.NaN;
+				m_f95HPDlow[i] = Double.NaN;
+				m_f95HPDup[i] = Double.NaN;
+				m_fACT[i] = Double.NaN;
+				m_fESS[i] = Double.NaN;
+				m_fGeometricMean[i] = Double.NaN;
+			}
+		}
+	} // calcStats
+
+	/** ESS is always estimated by batch means, so any other method is rejected **/
+	@Override
+	public void setESSMethod(ESSMethod essMethod) {
+		if (essMethod != ESSMethod.ACT) {
+			throw new IllegalArgumentException("ESS method " + essMethod + " cannot be used when streaming, since ESS is estimated by batch means");
+		}
+	}
+
+	@Override
+	public void print(PrintStream out, String [] tags) {
+		out.println(APPROXIMATE);
+		super.print(out, tags);
+	}
+
+	@Override
+	public void printOneLineHeader(PrintStream out, String [] tags) {
+		out.println(APPROXIMATE);
+		super.printOneLineHeader(out, tags);
+	}
+
+	@Override
+	public Double[][] getTraces() {
+		throw new UnsupportedOperationException("Traces are not kept when streaming");
+	}
+
+	@Override
+	public Double [] getTrace(int index) {
+		throw new UnsupportedOperationException("Traces are not kept when streaming");
+	}
+
+	@Override
+	public Double [] getTrace(String label) {
+		throw new UnsupportedOperationException("Traces are not kept when streaming");
+	}
+
+	/**
+	 * Means of consecutive batches of samples. When there are MAX_BATCHES batches, pairs of
+	 * batches are merged, so memory is constant and there are always between MAX_BATCHES/2
+	 * and MAX_BATCHES batches once enough samples have been added.
+	 */
+	static class BatchMeans {
+		final static int MAX_BATCHES = 128;
+
+		final private double [] sums = new double[MAX_BATCHES];
+		private int batchCount = 0;
+		private long batchSize = 1;
+		private double currentSum = 0;
+		private long currentSize = 0;
+
+		void add(double value) {
+			currentSum += value;
+			currentSize++;
+			if (currentSize == batchSize) {
+				sums[batchCount++] = currentSum;
+				currentSum = 0;
+				currentSize = 0;
+				if (batchCount == MAX_BATCHES) {
+					for (int k = 0; k < MAX_BATCHES / 2; k++) {
+						sums[k] = sums[2 * k] + sums[2 * k + 1];
+					}
+					Arrays.fill(sums, MAX_BATCHES / 2, MAX_BATCHES, 0);
+					batchCount = MAX_BATCHES / 2;
+					batchSize *= 2;
+				}
+			}
+		}
+
+		/**
+		 * @return batch size times the variance of the batch means, which estimates the
+		 * variance of the mean times the number of samples; samples in the last, incomplete
+		 * batch are not used
+		 */
+		double getAsymptoticVariance() {
+			if (batchCount < 2) {
+				return Double.NaN;
+			}
+			double mean = 0;
+			for (int k = 0; k < batchCount; k++) {
+				mean += sums[k] / batchSize;
+			}
+			mean /= batchCount;
+			double sum2 = 0;
+			for (int k = 0; k < batchCount; k++) {
+				double d = sums[k] / batchSize - mean;
+				sum2 += d * d;
+			}
+			return batchSize * sum2 / (batchCount - 1);
+		}
+	}
+}
@@ -0,0 +1,97 @@
+package beastfx.app.tools;
+
+import beast.base.evolution.tree.Node;
+import beast.base.evolution.tree.Tree;
+
+/**
+ * 128 bit fingerprint of the topology of a rooted tree, calculated from the set of
+ * clades of the tree without building a Newick string.
+ *
+ * Every taxon gets two pseudo random 64 bit values from its label (or node number).
+ * A clade is represented by the sums of these values over its taxa, and the fingerprint
+ * consists of two sums over all clades of a mix of both clade values. Since sums do not
+ * depend on order, the fingerprint does not depend on the order of children, so trees
+ * with the same topology always have the same fingerprint. Trees with different
+ * topologies have the same fingerprint with probability around 2^-128.
+ */
+public final class TopologyFingerprint {
+	final private long hi, lo;
+
+	private TopologyFingerprint(long hi, long lo) {
+		this.hi = hi;
+		this.lo = lo;
+	}
+
+	/**
+	 * @param useTaxonLabels identify taxa by their ID, as TreeUtils.sortedNewickTopology(node, true),
+	 * or by node number otherwise
+	 */
+	public static TopologyFingerprint of(Tree tree, boolean useTaxonLabels) {
+		long [] sums = new long[2];
+		long [] fingerprint = new long[2];
+		addClades(tree.getRoot(), useTaxonLabels, sums, fingerprint);
+		return new TopologyFingerprint(fingerprint[0], fingerprint[1]);
+	}
+
+	/** adds the taxon values of the clade below node to sums, and the clades below and including node to fingerprint **/
+	private static void addClades(Node node, boolean useTaxonLabels, long [] sums, long [] fingerprint) {
+		if (node.isLeaf()) {
+			if (useTaxonLabels) {
+				String id = node.getID();
+				sums[0] += mix(hash(id, 0xcbf29ce484222325L));
+				sums[1] += mix(hash(id, 0x84222325cbf29ce4L));
+			} else {
+				sums[0] += mix(node.getNr() + 0x243f6a8885a308d3L);
+				sums[1] += mix(node.getNr() + 0x13198a2e03707344L);
+			}
+			return;
+		}
+		long [] clade = new long[2];
+		for (Node child : node.getChildren()) {
+			addClades(child, useTaxonLabels, clade, fingerprint);
+		}
+		fingerprint[0] += mix(clade[0] ^ Long.rotateLeft(clade[1], 32));
+		fingerprint[1] += mix(clade[1] + 0x9e3779b97f4a7c15L * clade[0]);
+		sums[0] += clade[0];
+		sums[1] += clade[1];
+	}
+
+	/** FNV-1a hash of a string, starting from the given offset basis **/
+	private static long hash(String str, long basis) {
+		long h = basis;
+		if (str == null) {
+			return h;
+		}
+		for (int i = 0; i < str.length(); i++) {
+			h ^= str.charAt(i);
+			h *= 0x100000001b3L;
+		}
+		return h;
+	}
+
+	/** finaliser of the SplitMix64 generator **/
+	private static long mix(long z) {
+		z += 0x9e3779b97f4a7c15L;
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) return true;
+		if (!(o instanceof TopologyFingerprint)) return false;
+		TopologyFingerprint other = (TopologyFingerprint) o;
+		return hi == other.hi && lo == other.lo;
+	}
+
+	@Override
+	public int hashCode() {
+		return (int) (lo ^ (lo >>> 32));
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%016x%016x", hi, lo);
+	}
+}
@@ -0,0 +1,609 @@
+package beastfx.app.tools;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.DoubleConsumer;
+
+/**
+ * Reads tab separated trace logs as written by BEAST loggers. Bytes are scanned directly
+ * instead of reading lines into strings and splitting these with regular expressions, and
+ * numbers are parsed without creating strings.
+ *
+ * Lines are classified as LogAnalyser always did:
+ * <ul>
+ * <li>lines containing '#', and lines without letters or digits, belong to the preamble</li>
+ * <li>the first other line holds the column labels, separated by tabs</li>
+ * <li>after that, lines starting with a digit or '-' are samples, with values separated by white space</li>
+ * </ul>
+ * Other lines are ignored.
+ *
+ * read() keeps all samples in double columns in a single pass through the file, while
+ * scan(RowHandler) passes samples one by one to a handler without keeping them.
+ */
+public class TraceLogReader {
+	/** receives the lines of a log, in order of the file **/
+	public interface RowHandler {
+		default void preamble(String line) {}
+		default void labels(String [] labels) {}
+		void row(Row row) throws IOException;
+	}
+
+	/** values of the sample on a single line, which are only valid during RowHandler.row() **/
+	public static class Row {
+		private byte [] buffer;
+		private int [] start = new int[64], end = new int[64];
+		private int size;
+		private int lineNr;
+
+		/** number of values on the line **/
+		public int size() {
+			return size;
+		}
+
+		/** line number in the file, counting from 1 **/
+		public int getLineNr() {
+			return lineNr;
+		}
+
+		public String getString(int i) {
+			return new String(buffer, start[i], end[i] - start[i], StandardCharsets.UTF_8);
+		}
+
+		/** @throws NumberFormatException if value i is not a number, as Double.parseDouble **/
+		public double getDouble(int i) {
+			return parseDouble(buffer, start[i], end[i]);
+		}
+
+		/** as getDouble(i), but for characters from up to to of value i only **/
+		public double getDouble(int i, int from, int to) {
+			return parseDouble(buffer, start[i] + from, start[i] + to);
+		}
+
+		/** @return whether value i can be parsed as a number, otherwise it is a nominal value **/
+		public boolean isNumber(int i) {
+			if (start[i] == end[i]) {
+				return false;
+			}
+			byte b = buffer[start[i]];
+			if ((b >= '0' && b <= '9') || b == '-' || b == '+' || b == '.' || b == 'N' || b == 'I') {
+				try {
+					getDouble(i);
+					return true;
+				} catch (NumberFormatException e) {
+					return false;
+				}
+			}
+			return false;
+		}
+
+		public long getLong(int i) {
+			return Long.parseLong(getString(i));
+		}
+
+		/** @return position of the first c in value i, or -1 if there is none **/
+		public int indexOf(int i, char c) {
+			for (int k = start[i]; k < end[i]; k++) {
+				if (buffer[k] == c) {
+					return k - start[i];
+				}
+			}
+			return -1;
+		}
+
+		/** @return number of characters of value i **/
+		public int length(int i) {
+			return end[i] - start[i];
+		}
+
+		/** writes value i as it appears in the file **/
+		public void write(OutputStream out, int i) throws IOException {
+			out.write(buffer, start[i], end[i] - start[i]);
+		}
+
+		private void add(int from, int to) {
+			if (size == start.length) {
+				start = Arrays.copyOf(start, size * 2);
+				end = Arrays.copyOf(end, size * 2);
+			}
+			start[size] = from;
+			end[size] = to;
+			size++;
+		}
+	}
+
+	final static int BUFFER_SIZE = 1 << 20;
+
+	final private String fileName;
+	private DoubleConsumer progress = null;
+
+	// results of read()
+	private StringBuilder preamble;
+	private String [] labels;
+	private int rowCount;
+	private double [][] columns;
+	/** last sample with a '.' in a column, -1 if there is none **/
+	private int [] lastDecimalPoint;
+	private List<String> [] ranges;
+	/** samples of a column that hold an index in ranges instead of a number **/
+	private BitSet [] coded;
+
+	public TraceLogReader(String fileName) {
+		this.fileName = fileName;
+	}
+
+	/** @param progress gets the fraction of the file that has been read every now and then **/
+	public void setProgressListener(DoubleConsumer progress) {
+		this.progress = progress;
+	}
+
+	/**
+	 * passes the preamble, labels and samples to handler, in order of the file.
+	 * A last line that has no line end and fewer values than the line before is skipped,
+	 * since it is usually a sample that is still being written.
+	 */
+	public void scan(RowHandler handler) throws IOException {
+		try (InputStream in = new FileInputStream(fileName)) {
+			long fileSize = new java.io.File(fileName).length();
+			long bytesRead = 0;
+			byte [] buffer = new byte[BUFFER_SIZE];
+			Row row = new Row();
+			row.buffer = buffer;
+			int lineNr = 0;
+			boolean hasLabels = false;
+			int previousSize = -1;
+			// buffer[lineStart, filled) holds bytes not yet handled
+			int lineStart = 0, filled = 0;
+			boolean eof = false;
+			boolean skipLF = false;
+			while (true) {
+				// find the end of the line
+				int lineEnd = lineStart;
+				while (true) {
+					while (lineEnd < filled && buffer[lineEnd] != '\n' && buffer[lineEnd] != '\r') {
+						lineEnd++;
+					}
+					if (lineEnd < filled || eof) {
+						break;
+					}
+					// move the partial line to the start of the buffer and read more
+					int scanned = lineEnd - lineStart;
+					if (lineStart > 0) {
+						System.arraycopy(buffer, lineStart, buffer, 0, filled - lineStart);
+						filled -= lineStart;
+						lineStart = 0;
+					} else if (filled == buffer.length) {
+						buffer = Arrays.copyOf(buffer, buffer.length * 2);
+						row.buffer = buffer;
+					}
+					int n = in.read(buffer, filled, buffer.length - filled);
+					if (n < 0) {
+						eof = true;
+					} else {
+						filled += n;
+						bytesRead += n;
+						if (progress != null && fileSize > 0) {
+							progress.accept((double) bytesRead / fileSize);
+						}
+					}
+					lineEnd = lineStart + scanned;
+				}
+				if (skipLF && lineStart < filled && lineEnd == lineStart && buffer[lineStart] == '\n') {
+					// second half of \r\n
+					skipLF = false;
+					lineStart++;
+					continue;
+				}
+				skipLF = false;
+				if (eof && lineStart >= filled) {
+					break;
+				}
+				boolean complete = lineEnd < filled;
+				lineNr++;
+
+				boolean hasHash = false, hasAlphaNumeric = false;
+				for (int k = lineStart; k < lineEnd; k++) {
+					byte b = buffer[k];
+					if (b == '#') {
+						hasHash = true;
+						break;
+					}
+					if ((b >= '0' && b <= '9') || (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z')) {
+						hasAlphaNumeric = true;
+					}
+				}
+				if (hasHash || !hasAlphaNumeric) {
+					handler.preamble(new String(buffer, lineStart, lineEnd - lineStart, StandardCharsets.UTF_8));
+				} else if (!hasLabels) {
+					handler.labels(splitLabels(new String(buffer, lineStart, lineEnd - lineStart, StandardCharsets.UTF_8)));
+					hasLabels = true;
+				} else if (buffer[lineStart] == '-' || (buffer[lineStart] >= '0' && buffer[lineStart] <= '9')) {
+					split(buffer, lineStart, lineEnd, row);
+					row.lineNr = lineNr;
+					if (!complete && row.size < previousSize) {
+						// incomplete last line
+						break;
+					}
+					previousSize = row.size;
+					handler.row(row);
+				}
+
+				if (!complete) {
+					break;
+				}
+				skipLF = buffer[lineEnd] == '\r';
+				lineStart = lineEnd + 1;
+			}
+		}
+	}
+
+	/** labels are separated by tabs, without trailing empty labels, as String.split("\\t") **/
+	static String [] splitLabels(String str) {
+		return str.split("\\t");
+	}
+
+	/** splits line into values separated by single white space characters, without trailing empty values, as String.split("\\s") **/
+	private static void split(byte [] buffer, int from, int to, Row row) {
+		row.size = 0;
+		while (to > from && isWhiteSpace(buffer[to - 1])) {
+			to--;
+		}
+		int start = from;
+		for (int k = from; k < to; k++) {
+			if (isWhiteSpace(buffer[k])) {
+				row.add(start, k);
+				start = k + 1;
+			}
+		}
+		if (to > from) {
+			row.add(start, to);
+		}
+	}
+
+	private static boolean isWhiteSpace(byte b) {
+		return b == '\t' || b == ' ' || b == 0x0B || b == '\f';
+	}
+
+	/**
+	 * Reads the whole log in a single pass, keeping all samples in columns that grow in chunks.
+	 * Values that are not numbers are stored as their index in getRange(column), as LogAnalyser always did.
+	 */
+	@SuppressWarnings("unchecked")
+	public void read() throws IOException {
+		preamble = new StringBuilder();
+		labels = null;
+		rowCount = 0;
+		columns = null;
+		scan(new RowHandler() {
+			Map<String, Integer> [] codes;
+
+			@Override
+			public void preamble(String line) {
+				preamble.append(line).append('\n');
+			}
+
+			@Override
+			public void labels(String [] labels) {
+				TraceLogReader.this.labels = labels;
+				int n = labels.length;
+				columns = new double[n][1024];
+				lastDecimalPoint = new int[n];
+				Arrays.fill(lastDecimalPoint, -1);
+				ranges = new List[n];
+				coded = new BitSet[n];
+				codes = new Map[n];
+			}
+
+			@Override
+			public void row(Row row) throws IOException {
+				if (row.size() > columns.length) {
+					throw new IOException("Line " + row.getLineNr() + " of " + fileName + " has " + row.size() +
+							" values, but there are only " + columns.length + " column labels");
+				}
+				if (rowCount == columns[0].length) {
+					int capacity = rowCount + (rowCount >> 1);
+					for (int i = 0; i < columns.length; i++) {
+						columns[i] = Arrays.copyOf(columns[i], capacity);
+					}
+				}
+				int n = row.size();
+				for (int i = 0; i < n; i++) {
+					if (row.indexOf(i, '.') >= 0) {
+						lastDecimalPoint[i] = rowCount;
+					}
+					if (row.isNumber(i)) {
+						columns[i][rowCount] = row.getDouble(i);
+					} else {
+						columns[i][rowCount] = code(i, row.getString(i));
+						coded[i].set(rowCount);
+					}
+				}
+				for (int i = n; i < columns.length; i++) {
+					columns[i][rowCount] = Double.NaN;
+				}
+				rowCount++;
+			}
+
+			private double code(int i, String value) {
+				if (ranges[i] == null) {
+					ranges[i] = new ArrayList<>();
+					codes[i] = new HashMap<>();
+					coded[i] = new BitSet();
+				}
+				Integer code = codes[i].get(value);
+				if (code == null) {
+					code = ranges[i].size();
+					codes[i].put(value, code);
+					ranges[i].add(value);
+				}
+				return code;
+			}
+		});
+		if (labels == null) {
+			throw new IOException("No column labels found in " + fileName);
+		}
+	}
+
+	/** @return lines of the preamble read by read(), each followed by a new line **/
+	public String getPreamble() {
+		return preamble.toString();
+	}
+
+	public String [] getLabels() {
+		return labels;
+	}
+
+	/** @return number of samples read by read() **/
+	public int getRowCount() {
+		return rowCount;
+	}
+
+	/**
+	 * @return values of column i from sample from on, where values that are not numbers
+	 * are replaced by their index in getRange(i, from)
+	 */
+	public double [] getColumn(int i, int from) {
+		double [] column = Arrays.copyOfRange(columns[i], from, rowCount);
+		if (ranges[i] != null) {
+			recode(i, from, column, from);
+		}
+		return column;
+	}
+
+	/**
+	 * As getColumn(i, from), but hands over the column kept by the reader instead of copying it,
+	 * so that only one column at a time exists twice while a log is taken over column by column.
+	 * The column is only copied if it has to be trimmed. Afterwards, getColumn(i, ...) and
+	 * getRange(i, ...) cannot be used any more, so call getRange(i, from) first.
+	 */
+	public double [] takeColumn(int i, int from) {
+		double [] column = columns[i];
+		if (ranges[i] != null) {
+			// codes are replaced in place, each is read before it is overwritten
+			recode(i, from, column, 0);
+		}
+		columns[i] = null;
+		if (from == 0 && column.length == rowCount) {
+			return column;
+		}
+		return Arrays.copyOfRange(column, from, rowCount);
+	}
+
+	/**
+	 * @return values that are not numbers in column i from sample from on, in order of
+	 * appearance, or null if all these values are numbers
+	 */
+	public List<String> getRange(int i, int from) {
+		if (ranges[i] == null) {
+			return null;
+		}
+		List<String> range = recode(i, from, null, 0);
+		return range.size() > 0 ? range : null;
+	}
+
+	/**
+	 * renumbers codes in column i from sample from on by order of first appearance,
+	 * writing the new code of sample k to column[k - offset] if column is not null
+	 */
+	private List<String> recode(int i, int from, double [] column, int offset) {
+		List<String> range = new ArrayList<>();
+		int [] newCode = new int[ranges[i].size()];
+		Arrays.fill(newCode, -1);
+		for (int k = coded[i].nextSetBit(from); k >= 0; k = coded[i].nextSetBit(k + 1)) {
+			int code = (int) columns[i][k];
+			if (newCode[code] < 0) {
+				newCode[code] = range.size();
+				range.add(ranges[i].get(code));
+			}
+			if (column != null) {
+				column[k - offset] = newCode[code];
+			}
+		}
+		return range;
+	}
+
+	/** @return whether any value in column i from sample from on contains a '.' **/
+	public boolean hasDecimalPoint(int i, int from) {
+		return lastDecimalPoint[i] >= from;
+	}
+
+	/** @return number of samples in the log, without keeping any of them **/
+	public int countRows() throws IOException {
+		int [] count = new int[1];
+		scan(row -> count[0]++);
+		return count[0];
+	}
+
+
+	/**
+	 * Parses the characters from up to to as a number, exactly as Double.parseDouble does.
+	 * Decimal numbers with at most 19 significant digits are converted with the Eisel-Lemire
+	 * algorithm, which only needs a 64 by 128 bit multiplication. Anything else, and the
+	 * rare cases where that is not conclusive, are left to Double.parseDouble.
+	 * @throws NumberFormatException if the characters are not a number
+	 */
+	public static double parseDouble(byte [] b, int from, int to) {
+		int i = from;
+		boolean negative = false;
+		if (i < to && (b[i] == '-' || b[i] == '+')) {
+			negative = b[i] == '-';
+			i++;
+		}
+		long mantissa = 0;
+		int significantDigits = 0;
+		int exponent = 0;
+		boolean hasDigits = false, truncated = false;
+		while (i < to && b[i] >= '0' && b[i] <= '9') {
+			int d = b[i] - '0';
+			hasDigits = true;
+			if (significantDigits < 19) {
+				mantissa = 10 * mantissa + d;
+				if (mantissa != 0) {
+					significantDigits++;
+				}
+			} else {
+				truncated = true;
+			}
+			if (truncated) {
+				exponent++;
+			}
+			i++;
+		}
+		if (i < to && b[i] == '.') {
+			i++;
+			while (i < to && b[i] >= '0' && b[i] <= '9') {
+				int d = b[i] - '0';
+				hasDigits = true;
+				if (significantDigits < 19) {
+					mantissa = 10 * mantissa + d;
+					if (mantissa != 0) {
+						significantDigits++;
+					}
+					exponent--;
+				} else {
+					truncated = true;
+				}
+				i++;
+			}
+		}
+		if (hasDigits && i < to && (b[i] == 'e' || b[i] == 'E')) {
+			i++;
+			boolean negativeExponent = false;
+			if (i < to && (b[i] == '-' || b[i] == '+')) {
+				negativeExponent = b[i] == '-';
+				i++;
+			}
+			int e = 0;
+			boolean hasExponentDigits = false;
+			while (i < to && b[i] >= '0' && b[i] <= '9') {
+				if (e < 100000) {
+					e = 10 * e + b[i] - '0';
+				}
+				hasExponentDigits = true;
+				i++;
+			}
+			if (!hasExponentDigits) {
+				hasDigits = false;
+			}
+			exponent += negativeExponent ? -e : e;
+		}
+		if (hasDigits && i == to && !truncated) {
+			if (mantissa == 0) {
+				return negative ? -0.0 : 0.0;
+			}
+			long bits = eiselLemire(mantissa, exponent);
+			if (bits != -1) {
+				return Double.longBitsToDouble(negative ? bits | 0x8000000000000000L : bits);
+			}
+		}
+		return Double.parseDouble(new String(b, from, to - from, StandardCharsets.ISO_8859_1));
+	}
+
+	// 128 bit approximations, rounded down, of the powers of ten from MIN_EXPONENT to MAX_EXPONENT,
+	// normalised so that the highest bit is set
+	final static int MIN_EXPONENT = -348, MAX_EXPONENT = 347;
+	final static long [] POWERS_HI = new long[MAX_EXPONENT - MIN_EXPONENT + 1];
+	final static long [] POWERS_LO = new long[MAX_EXPONENT - MIN_EXPONENT + 1];
+	static {
+		BigInteger five = BigInteger.valueOf(5);
+		BigInteger mask = BigInteger.ONE.shiftLeft(64).subtract(BigInteger.ONE);
+		for (int e = MIN_EXPONENT; e <= MAX_EXPONENT; e++) {
+			BigInteger m;
+			if (e >= 0) {
+				BigInteger p = five.pow(e);
+				int bits = p.bitLength();
+				m = bits <= 128 ? p.shiftLeft(128 - bits) : p.shiftRight(bits - 128);
+			} else {
+				BigInteger p = five.pow(-e);
+				m = BigInteger.ONE.shiftLeft(p.bitLength() + 127).divide(p);
+			}
+			POWERS_HI[e - MIN_EXPONENT] = m.shiftRight(64).longValue();
+			POWERS_LO[e - MIN_EXPONENT] = m.and(mask).longValue();
+		}
+	}
+
+	/**
+	 * @param mantissa non-zero, unsigned
+	 * @return bits of the double closest to mantissa * 10^exponent, or -1 if this cannot be decided quickly
+	 */
+	private static long eiselLemire(long mantissa, int exponent) {
+		if (exponent < MIN_EXPONENT || exponent > MAX_EXPONENT) {
+			return -1;
+		}
+		int leadingZeros = Long.numberOfLeadingZeros(mantissa);
+		mantissa <<= leadingZeros;
+		long exponent2 = ((217706L * exponent) >> 16) + 64 + 1023 - leadingZeros;
+
+		int k = exponent - MIN_EXPONENT;
+		long xHi = unsignedMultiplyHigh(mantissa, POWERS_HI[k]);
+		long xLo = mantissa * POWERS_HI[k];
+		if ((xHi & 0x1FF) == 0x1FF && Long.compareUnsigned(xLo + mantissa, mantissa) < 0) {
+			// the lower bits matter, so include the lower half of the power of ten
+			long yHi = unsignedMultiplyHigh(mantissa, POWERS_LO[k]);
+			long yLo = mantissa * POWERS_LO[k];
+			long mergedHi = xHi, mergedLo = xLo + yHi;
+			if (Long.compareUnsigned(mergedLo, xLo) < 0) {
+				mergedHi++;
+			}
+			if ((mergedHi & 0x1FF) == 0x1FF && mergedLo + 1 == 0 && Long.compareUnsigned(yLo + mantissa, mantissa) < 0) {
+				return -1;
+			}
+			xHi = mergedHi;
+			xLo = mergedLo;
+		}
+
+		long msb = xHi >>> 63;
+		long result = xHi >>> (msb + 9);
+		exponent2 -= 1 ^ msb;
+
+		if (xLo == 0 && (xHi & 0x1FF) == 0 && (result & 3) == 1) {
+			// half way between two doubles
+			return -1;
+		}
+
+		result += result & 1;
+		result >>>= 1;
+		if ((result >>> 53) > 0) {
+			result >>>= 1;
+			exponent2++;
+		}
+		if (exponent2 <= 0 || exponent2 >= 0x7FF) {
+			// sub-normal, or out of range
+			return -1;
+		}
+		return (exponent2 << 52) | (result & 0x000FFFFFFFFFFFFFL);
+	}
+
+	private static long unsignedMultiplyHigh(long x, long y) {
+		return Math.multiplyHigh(x, y) + ((x >> 63) & y) + ((y >> 63) & x);
+	}
+}
@@ -0,0 +1,41 @@
+package beastfx.app.tools;
+
+import beast.base.core.Description;
+import beast.base.core.Input;
+import beast.base.core.Log;
+import beast.base.inference.Runnable;
+import beastfx.app.treeannotator.BinaryTreeLog;
+import beastfx.app.util.OutFile;
+import beastfx.app.util.TreeFile;
+
+@Description("Converts a tree log to a binary tree log, which TreeAnnotator and TreeTraceAnalysis read without parsing trees")
+public class TreeLogConverter extends Runnable {
+	final public Input<TreeFile> treesInput = new Input<>("trees", "tree log in NEXUS format, or with one Newick tree per line", new TreeFile("[[none]]"));
+	final public Input<OutFile> outputInput = new Input<>("out", "binary tree log to write. If not specified, " + BinaryTreeLog.EXTENSION + " is appended to the name of the tree log", new OutFile("[[none]]"));
+	final public Input<Integer> threadsInput = new Input<>("threads", "number of threads used for parsing the tree log", 1);
+
+	@Override
+	public void initAndValidate() {
+	}
+
+	@Override
+	public void run() throws Exception {
+		if (treesInput.get() == null || treesInput.get().getName().equals("[[none]]")) {
+			throw new IllegalArgumentException("No tree log specified");
+		}
+		String inputFileName = treesInput.get().getPath();
+		String outputFileName = inputFileName + BinaryTreeLog.EXTENSION;
+		if (outputInput.get() != null && !outputInput.get().getName().equals("[[none]]")) {
+			outputFileName = outputInput.get().getPath();
+		}
+		int threads = threadsInput.get() == null ? 1 : Math.max(1, threadsInput.get());
+
+		long start = System.currentTimeMillis();
+		int treeCount = BinaryTreeLog.convert(inputFileName, outputFileName, threads);
+		Log.info("Converted " + treeCount + " trees to " + outputFileName + " in " + (System.currentTimeMillis() - start) / 1000.0 + " seconds");
+	}
+
+	public static void main(String[] args) throws Exception {
+		new Application(new TreeLogConverter(), "Tree Log Converter", 600, 300, args);
+	}
+}
@@ -21,9 +21,12 @@ package beastfx.app.tools;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
 
 import beast.base.core.Description;
 import beast.base.core.Input;
@@ -33,6 +36,10 @@ import beast.base.evolution.tree.TreeUtils;
 import beast.base.parser.NexusParser;
 import beast.base.util.CredibleSet;
 import beast.base.util.FrequencySet;
+import beastfx.app.treeannotator.BinaryTreeLog;
+import beastfx.app.treeannotator.OrderedBatchExecutor;
+import beastfx.app.treeannotator.ParallelTreeLoader;
+import beastfx.app.treeannotator.TreeLogIndex;
 import beastfx.app.util.OutFile;
 import beastfx.app.util.TreeFile;
 
@@ -58,6 +65,10 @@ public class TreeTraceAnalysis extends beast.base.inference.Runnable {
 	final public Input<Integer> confidencePercentageInput = new Input<>("confidence", "percentage of confidence level covered by credible set", 95);
 	final public Input<OutFile> outputInput = new Input<>("out", "output file with tree statistics, or stdout if not specified",
 			new OutFile("[[none]]"));
+	final public Input<Boolean> fingerprintInput = new Input<>("fingerprint", "count topologies by a 128 bit fingerprint of their clades instead of by Newick string. "
+			+ "Much faster for large tree sets, since Newick strings are only built once per distinct topology");
+	final public Input<Boolean> checkFingerprintsInput = new Input<>("checkFingerprints", "when counting by fingerprint, check that all trees with the same fingerprint have the same Newick string");
+	final public Input<Integer> threadsInput = new Input<>("threads", "number of threads for parsing trees and calculating fingerprints", 1);
 
 
 	@Override
@@ -66,15 +77,16 @@ public class TreeTraceAnalysis extends beast.base.inference.Runnable {
 	
 	@Override
 	public void run() throws Exception {
-        List<Tree> trees = null;
+        setUseFingerprints(fingerprintInput.get() != null && fingerprintInput.get(),
+        		checkFingerprintsInput.get() != null && checkFingerprintsInput.get());
+        setThreads(threadsInput.get() == null ? 1 : threadsInput.get());
+        // there is no target tree, so trees can be analysed while reading the file
         try {
-            trees = TreeTraceAnalysis.Utils.getTrees(srcInput.get());
-        } catch (Exception e) {
+            addAllTrees(srcInput.get(), burnInPercentageInput.get()/100.0);
+        } catch (IOException e) {
             System.out.println("Error occurred while parsing input file.");
             System.exit(1);
         }
-
-        addAllTrees(trees, burnInPercentageInput.get()/100.0);
         computeCredibleSet(confidencePercentageInput.get()/100.0, null);
 
         PrintStream out = System.out;
@@ -93,6 +105,33 @@ public class TreeTraceAnalysis extends beast.base.inference.Runnable {
 
     protected boolean displayTaxonLabels = true; // false to display node index instead
 
+    /** if true, topologies are counted in fingerprintCounts and added to topologiesFrequencySet when needed **/
+    protected boolean useFingerprints = false;
+    protected boolean checkFingerprints = false;
+    protected int threads = 1;
+    /** trees per batch when calculating fingerprints on several threads **/
+    final static int BATCH_SIZE = 256;
+
+    /** counts per fingerprint, in order of the first tree with that fingerprint **/
+    private Map<TopologyFingerprint, TopologyCount> fingerprintCounts = new LinkedHashMap<>();
+    /** fingerprint of the tree passed to analyzeTree, if it was calculated beforehand **/
+    private TopologyFingerprint precomputedFingerprint = null;
+
+    /**
+     * Newick string of the first tree with a fingerprint and the number of trees with that fingerprint.
+     * The tree itself is not kept, so memory grows with the number of distinct topologies only.
+     **/
+    private static class TopologyCount {
+    	final String newick;
+    	int count = 0;
+    	/** part of count already added to topologiesFrequencySet **/
+    	int added = 0;
+
+    	TopologyCount(String newick) {
+    		this.newick = newick;
+    	}
+    }
+
     public TreeTraceAnalysis() { };
 
     public TreeTraceAnalysis(List<Tree> posteriorTreeList, double burninFraction) {
@@ -113,10 +152,76 @@ public class TreeTraceAnalysis extends beast.base.inference.Runnable {
     public void addAllTrees(List<Tree> trees, double burninFraction) {
         int burnin = (int)Math.round(trees.size()*burninFraction);
 
+        if (useFingerprints && threads > 1) {
+        	try {
+        		addAllTreesInParallel(trees.subList(burnin, trees.size())::forEach);
+        	} catch (IOException e) {
+        		throw new RuntimeException(e);
+        	}
+        	return;
+        }
         for (int i=burnin; i<trees.size(); i++)
             addTree(trees.get(i));
     }
 
+    /**
+     * Adds the trees of a file after burn-in, parsing them one at a time while they are
+     * analysed, so memory does not grow with the number of trees as with
+     * addAllTrees(Utils.getTrees(treeFile), burninFraction), which gives the same result.
+     * Trees are still passed to analyzeTree in file order, on the calling thread.
+     * Nothing is written next to treeFile.
+     */
+    public void addAllTrees(File treeFile, double burninFraction) throws IOException {
+    	if (useFingerprints && threads > 1) {
+    		addAllTreesInParallel(consumer -> Utils.forEachTree(treeFile, burninFraction, threads, consumer));
+    		return;
+    	}
+    	Utils.forEachTree(treeFile, burninFraction, threads, this::addTree);
+    }
+
+    /** source of trees that passes them to a consumer in order **/
+    private interface TreeSource {
+    	void forEach(Consumer<Tree> consumer) throws IOException;
+    }
+
+    /**
+     * as adding the trees one by one, but fingerprints are calculated on several threads.
+     * Trees are passed to analyzeTree in order, on the calling thread.
+     */
+    private void addAllTreesInParallel(TreeSource trees) throws IOException {
+    	try (OrderedBatchExecutor<Tree, TopologyFingerprint[]> batches = new OrderedBatchExecutor<>(threads, BATCH_SIZE,
+    			batch -> {
+    				TopologyFingerprint [] fingerprints = new TopologyFingerprint[batch.size()];
+    				for (int i = 0; i < fingerprints.length; i++) {
+    					fingerprints[i] = TopologyFingerprint.of(batch.get(i), displayTaxonLabels);
+    				}
+    				return fingerprints;
+    			},
+    			(batch, fingerprints) -> {
+    				for (int i = 0; i < fingerprints.length; i++) {
+    					precomputedFingerprint = fingerprints[i];
+    					try {
+    						addTree(batch.get(i));
+    					} finally {
+    						precomputedFingerprint = null;
+    					}
+    				}
+    			})) {
+    		try {
+    			trees.forEach(tree -> {
+    				try {
+    					batches.add(tree);
+    				} catch (IOException e) {
+    					throw new UncheckedIOException(e);
+    				}
+    			});
+    		} catch (UncheckedIOException e) {
+    			throw e.getCause();
+    		}
+    		batches.finish();
+    	}
+    }
+
     public void addAllTrees(List<Tree> trees) {
         addAllTrees(trees, 0);
     }
@@ -128,10 +233,58 @@ public class TreeTraceAnalysis extends beast.base.inference.Runnable {
      * @param tree tree being added
      */
     public void analyzeTree(Tree tree) {
+        if (useFingerprints) {
+            TopologyFingerprint fingerprint = precomputedFingerprint != null ?
+            		precomputedFingerprint : TopologyFingerprint.of(tree, displayTaxonLabels);
+            countFingerprint(tree, fingerprint);
+            return;
+        }
         String topology = uniqueNewick(tree);
         topologiesFrequencySet.add(topology, 1);
     }
 
+    private void countFingerprint(Tree tree, TopologyFingerprint fingerprint) {
+        TopologyCount topology = fingerprintCounts.get(fingerprint);
+        if (topology == null) {
+            // the Newick string is built once per distinct topology
+            topology = new TopologyCount(uniqueNewick(tree));
+            fingerprintCounts.put(fingerprint, topology);
+        } else if (checkFingerprints) {
+            String newick = uniqueNewick(tree);
+            if (!topology.newick.equals(newick)) {
+                throw new IllegalStateException("Topologies " + topology.newick + " and " + newick + " have the same fingerprint " + fingerprint);
+            }
+        }
+        topology.count++;
+    }
+
+    /**
+     * adds the topologies counted by fingerprint since the last call to topologiesFrequencySet,
+     * in order of their first tree, so that the frequency set is the same as when counting Newick strings
+     */
+    protected void addFingerprintCounts() {
+        for (TopologyCount topology : fingerprintCounts.values()) {
+            if (topology.count > topology.added) {
+                topologiesFrequencySet.add(topology.newick, topology.count - topology.added);
+                topology.added = topology.count;
+            }
+        }
+    }
+
+    /**
+     * @param useFingerprints count topologies by TopologyFingerprint instead of by Newick string
+     * @param checkFingerprints check that trees with the same fingerprint have the same Newick string
+     */
+    public void setUseFingerprints(boolean useFingerprints, boolean checkFingerprints) {
+        this.useFingerprints = useFingerprints;
+        this.checkFingerprints = checkFingerprints;
+    }
+
+    /** @param threads number of threads for calculating fingerprints **/
+    public void setThreads(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
     /**
      * Analyse tree topologies using default credibility threshold (0.95) and no target tree
      */
@@ -155,6 +308,7 @@ public class TreeTraceAnalysis extends beast.base.inference.Runnable {
      * @param targetTree target tree (null implies no target tree)
      */
     public void computeCredibleSet(double credSetProbability, Tree targetTree) {
+        addFingerprintCounts();
         topologiesFrequencySet.setCredSetProbability(credSetProbability);
 
         if (targetTree != null)
@@ -221,6 +375,7 @@ public class TreeTraceAnalysis extends beast.base.inference.Runnable {
     }
 
     public Map<String, Integer> getTopologyCounts() {
+        addFingerprintCounts();
         return topologiesFrequencySet.getFrequencyMap();
     }
 
@@ -243,17 +398,48 @@ public class TreeTraceAnalysis extends beast.base.inference.Runnable {
      */
     public static class Utils {
         /**
-         * get list of trees from file
+         * get list of trees from file, which is either a NEXUS file or a BinaryTreeLog
          * @param treeFile
          * @return
          * @throws IOException 
          */
         public static List<Tree> getTrees (File treeFile) throws IOException {
+            if (BinaryTreeLog.isBinaryTreeLog(treeFile.getPath())) {
+                try (BinaryTreeLog.Reader reader = new BinaryTreeLog.Reader(treeFile.getPath())) {
+                    return reader.getTrees(0);
+                }
+            }
             NexusParser parser = new NexusParser();
             parser.parseFile(treeFile);
             return parser.trees;
         }
 
+        /**
+         * passes the trees of a file after burn-in to consumer, in file order, on the calling thread,
+         * without keeping all trees in memory. As in addAllTrees(List, double), the number of
+         * burn-in trees is burninFraction times the number of trees, rounded.
+         * @param treeFile NEXUS file, file with a Newick tree per line, or BinaryTreeLog
+         * @param threads number of threads for parsing text files
+         * @return number of trees in the file, including burn-in
+         * @throws IOException
+         */
+        public static int forEachTree(File treeFile, double burninFraction, int threads, Consumer<Tree> consumer) throws IOException {
+            if (BinaryTreeLog.isBinaryTreeLog(treeFile.getPath())) {
+                try (BinaryTreeLog.Reader reader = new BinaryTreeLog.Reader(treeFile.getPath())) {
+                    int burnin = (int)Math.round(reader.size()*burninFraction);
+                    for (int i = burnin; i < reader.size(); i++) {
+                        consumer.accept(reader.get(i));
+                    }
+                    return reader.size();
+                }
+            }
+            // the index is not written next to the tree file, which may be in a read-only directory
+            TreeLogIndex index = TreeLogIndex.get(treeFile.getPath(), false);
+            int burnin = (int)Math.round(index.getTreeCount()*burninFraction);
+            new ParallelTreeLoader(treeFile.getPath(), index, burnin, Math.max(1, threads)).load(consumer);
+            return index.getTreeCount();
+        }
+
         /**
          * get a subset of trees from total trees in a range.
          * it can be used to
@@ -0,0 +1,387 @@
+package beastfx.app.treeannotator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import beastfx.app.util.StreamingStatistics;
+
+/**
+ * Values of one attribute collected over all trees for a single clade,
+ * stored in primitive arrays instead of an Object[] per tree.
+ *
+ * How values are stored is decided by the first value, as TreeAnnotator.annotateNode
+ * decides how to summarise the attribute from the first value:
+ * <ul>
+ * <li>numbers (and anything else without a special case) go in a double column,
+ * where values that are not numbers count as 0</li>
+ * <li>booleans go in a double column as 0 and 1</li>
+ * <li>arrays of doubles go in one double column per dimension</li>
+ * <li>strings and integers, which may be treated as discrete traits, are stored as codes in a Dictionary</li>
+ * <li>if the first value is missing, the attribute is ignored for this clade</li>
+ * </ul>
+ * Minimum and maximum of numeric values are updated while adding.
+ *
+ * Optionally, numeric attributes are summarised by StreamingStatistics instead of
+ * storing all values, which uses constant memory per clade.
+ */
+public class AttributeAccumulator {
+	enum Kind {IGNORED, NUMBER, BOOLEAN, DOUBLE_ARRAY, CODES, SUMMARY}
+
+	final private Dictionary dictionary;
+	final private boolean summarise;
+
+	private Kind kind = null;
+	private Object first = null;
+	private int size = 0;
+
+	// NUMBER and BOOLEAN
+	private double [] values;
+	// DOUBLE_ARRAY, one column per dimension
+	private double [][] arrayValues;
+	// CODES
+	private int [] codes;
+	// SUMMARY
+	private StreamingStatistics summary;
+
+	// over numeric values only, as in TreeAnnotator.annotateNode
+	private double minValue = Double.MAX_VALUE;
+	private double maxValue = -Double.MAX_VALUE;
+	private double [] minValueArray, maxValueArray;
+
+	/**
+	 * @param dictionary codes for strings and integers, shared by all clades
+	 * @param summarise whether to keep StreamingStatistics instead of all values for numeric attributes
+	 */
+	public AttributeAccumulator(Dictionary dictionary, boolean summarise) {
+		this.dictionary = dictionary;
+		this.summarise = summarise;
+	}
+
+	public void add(Object value) {
+		if (kind == null) {
+			first = value;
+			kind = kindOf(value);
+			switch (kind) {
+			case NUMBER:
+			case BOOLEAN:
+				values = new double[4];
+				break;
+			case DOUBLE_ARRAY:
+				int dim = ((Object[]) value).length;
+				arrayValues = new double[dim][4];
+				minValueArray = new double[dim];
+				maxValueArray = new double[dim];
+				Arrays.fill(minValueArray, Double.MAX_VALUE);
+				Arrays.fill(maxValueArray, -Double.MAX_VALUE);
+				break;
+			case CODES:
+				codes = new int[4];
+				break;
+			case SUMMARY:
+				summary = new StreamingStatistics();
+				break;
+			default:
+				break;
+			}
+		}
+
+		switch (kind) {
+		case NUMBER:
+			ensureCapacity();
+			values[size] = toDouble(value);
+			break;
+		case BOOLEAN:
+			ensureCapacity();
+			values[size] = value instanceof Boolean && (Boolean) value ? 1.0 : 0.0;
+			break;
+		case DOUBLE_ARRAY:
+			ensureCapacity();
+			if (value instanceof Object[]) {
+				Object [] array = (Object[]) value;
+				for (int k = 0; k < arrayValues.length; k++) {
+					// stop at the first entry that is not a double, leaving 0 for the rest
+					if (k >= array.length || !(array[k] instanceof Double)) {
+						break;
+					}
+					double x = (Double) array[k];
+					arrayValues[k][size] = x;
+					if (x < minValueArray[k]) minValueArray[k] = x;
+					if (x > maxValueArray[k]) maxValueArray[k] = x;
+				}
+			}
+			break;
+		case CODES:
+			ensureCapacity();
+			codes[size] = dictionary.getCode(value);
+			if (value instanceof Number) {
+				updateMinMax(((Number) value).doubleValue());
+			}
+			break;
+		case SUMMARY:
+			summary.add(toDouble(value));
+			break;
+		default:
+			break;
+		}
+		size++;
+	}
+
+	private Kind kindOf(Object value) {
+		if (value == null) {
+			return Kind.IGNORED;
+		}
+		if (value instanceof Boolean) {
+			return Kind.BOOLEAN;
+		}
+		if (value instanceof String || value instanceof Integer) {
+			return Kind.CODES;
+		}
+		if (value instanceof Object[]) {
+			Object [] array = (Object[]) value;
+			boolean isDoubleArray = array.length > 0;
+			for (Object x : array) {
+				if (!(x instanceof Double)) {
+					isDoubleArray = false;
+					break;
+				}
+			}
+			if (isDoubleArray) {
+				return Kind.DOUBLE_ARRAY;
+			}
+		}
+		return summarise ? Kind.SUMMARY : Kind.NUMBER;
+	}
+
+	private double toDouble(Object value) {
+		if (value instanceof Number) {
+			double x = ((Number) value).doubleValue();
+			updateMinMax(x);
+			return x;
+		}
+		return 0.0;
+	}
+
+	private void updateMinMax(double x) {
+		if (x < minValue) minValue = x;
+		if (x > maxValue) maxValue = x;
+	}
+
+	private void ensureCapacity() {
+		int capacity;
+		switch (kind) {
+		case NUMBER:
+		case BOOLEAN:
+			if (size == values.length) {
+				values = Arrays.copyOf(values, grow(size));
+			}
+			break;
+		case DOUBLE_ARRAY:
+			if (size == arrayValues[0].length) {
+				capacity = grow(size);
+				for (int k = 0; k < arrayValues.length; k++) {
+					arrayValues[k] = Arrays.copyOf(arrayValues[k], capacity);
+				}
+			}
+			break;
+		case CODES:
+			if (size == codes.length) {
+				codes = Arrays.copyOf(codes, grow(size));
+			}
+			break;
+		default:
+			break;
+		}
+	}
+
+	private int grow(int size) {
+		return size + (size >> 1) + 4;
+	}
+
+	/**
+	 * removes the first n values, as when the oldest trees drop out of a sliding window.
+	 * Minimum and maximum are recalculated from the remaining values, where values that
+	 * are not numbers count as the 0 they are stored as. Summarised values cannot be removed.
+	 */
+	public void removeFirst(int n) {
+		if (n > size) {
+			throw new IllegalArgumentException("cannot remove " + n + " of " + size + " values");
+		}
+		int remaining = size - n;
+		switch (kind) {
+		case NUMBER:
+		case BOOLEAN:
+			System.arraycopy(values, n, values, 0, remaining);
+			if (kind == Kind.NUMBER) {
+				minValue = Double.MAX_VALUE;
+				maxValue = -Double.MAX_VALUE;
+				for (int j = 0; j < remaining; j++) {
+					updateMinMax(values[j]);
+				}
+			}
+			break;
+		case DOUBLE_ARRAY:
+			for (int k = 0; k < arrayValues.length; k++) {
+				System.arraycopy(arrayValues[k], n, arrayValues[k], 0, remaining);
+				minValueArray[k] = Double.MAX_VALUE;
+				maxValueArray[k] = -Double.MAX_VALUE;
+				for (int j = 0; j < remaining; j++) {
+					double x = arrayValues[k][j];
+					if (x < minValueArray[k]) minValueArray[k] = x;
+					if (x > maxValueArray[k]) maxValueArray[k] = x;
+				}
+			}
+			break;
+		case CODES:
+			System.arraycopy(codes, n, codes, 0, remaining);
+			minValue = Double.MAX_VALUE;
+			maxValue = -Double.MAX_VALUE;
+			for (int j = 0; j < remaining; j++) {
+				Object value = dictionary.getValue(codes[j]);
+				if (value instanceof Number) {
+					updateMinMax(((Number) value).doubleValue());
+				}
+			}
+			break;
+		case SUMMARY:
+			throw new UnsupportedOperationException("summarised values cannot be removed");
+		default:
+			break;
+		}
+		size = remaining;
+	}
+
+	/** number of values added **/
+	public int size() {
+		return size;
+	}
+
+	/** the value added first, which determines how the attribute is summarised **/
+	public Object getFirst() {
+		return first;
+	}
+
+	/**
+	 * @return values as doubles: numbers as is, booleans as 0 or 1, and 0 for anything else.
+	 * For summarised attributes and arrays, all values are 0.
+	 */
+	public double [] getValues() {
+		double [] x = new double[size];
+		switch (kind) {
+		case NUMBER:
+		case BOOLEAN:
+			System.arraycopy(values, 0, x, 0, size);
+			break;
+		case CODES:
+			for (int j = 0; j < size; j++) {
+				Object value = dictionary.getValue(codes[j]);
+				if (value instanceof Number) {
+					x[j] = ((Number) value).doubleValue();
+				}
+			}
+			break;
+		default:
+			break;
+		}
+		return x;
+	}
+
+	/** @return for arrays of doubles, values[k][j] is entry k of value j, or 0 if it was missing **/
+	public double [][] getArrayValues() {
+		double [][] x = new double[arrayValues.length][];
+		for (int k = 0; k < x.length; k++) {
+			x[k] = Arrays.copyOf(arrayValues[k], size);
+		}
+		return x;
+	}
+
+	/** @return minimum over values that are numbers, or Double.MAX_VALUE if there are none **/
+	public double getMinValue() {
+		return minValue;
+	}
+
+	/** @return maximum over values that are numbers, or -Double.MAX_VALUE if there are none **/
+	public double getMaxValue() {
+		return maxValue;
+	}
+
+	public double [] getMinValueArray() {
+		return minValueArray;
+	}
+
+	public double [] getMaxValueArray() {
+		return maxValueArray;
+	}
+
+	/** @return number of times each value occurs, with values inserted in order of first appearance **/
+	public HashMap<Object, Integer> getCounts() {
+		HashMap<Object, Integer> counts = new HashMap<>();
+		switch (kind) {
+		case CODES:
+			for (int j = 0; j < size; j++) {
+				Object value = dictionary.getValue(codes[j]);
+				counts.merge(value, 1, Integer::sum);
+			}
+			break;
+		case NUMBER:
+		case BOOLEAN:
+		case DOUBLE_ARRAY:
+		case SUMMARY:
+			// not discrete
+			break;
+		default:
+			break;
+		}
+		return counts;
+	}
+
+	/** @return streaming summary when numeric values are not stored, null otherwise **/
+	public StreamingStatistics getSummary() {
+		return summary;
+	}
+
+	/**
+	 * @return value j as it was added, as far as it can be reconstructed:
+	 * summarised values and values that are not numbers in a numeric column are lost
+	 */
+	public Object get(int j) {
+		switch (kind) {
+		case NUMBER:
+			return values[j];
+		case BOOLEAN:
+			return values[j] != 0;
+		case DOUBLE_ARRAY:
+			Object [] array = new Object[arrayValues.length];
+			for (int k = 0; k < array.length; k++) {
+				array[k] = arrayValues[k][j];
+			}
+			return array;
+		case CODES:
+			return dictionary.getValue(codes[j]);
+		default:
+			return null;
+		}
+	}
+
+	/** assigns consecutive codes to distinct values **/
+	public static class Dictionary {
+		final private Map<Object, Integer> codes = new HashMap<>();
+		final private List<Object> values = new ArrayList<>();
+
+		public synchronized int getCode(Object value) {
+			Integer code = codes.get(value);
+			if (code == null) {
+				code = values.size();
+				codes.put(value, code);
+				values.add(value);
+			}
+			return code;
+		}
+
+		public synchronized Object getValue(int code) {
+			return values.get(code);
+		}
+	}
+}
@@ -0,0 +1,553 @@
+package beastfx.app.treeannotator;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import beast.base.evolution.tree.Node;
+import beast.base.evolution.tree.Tree;
+
+/**
+ * Binary tree log: a tree file converted once from NEXUS or Newick, after which trees
+ * can be read without parsing text, and any tree can be read directly by its sample number.
+ *
+ * All numbers are little endian. The file consists of
+ * <ul>
+ * <li>a header of HEADER_SIZE bytes: magic, version, number of trees, number of strings,
+ * offsets of the string table, the taxon table and the index, and the number of taxa</li>
+ * <li>the trees, each consisting of the number of nodes, the tree ID, and per node in post-order
+ * the node number, the position of the parent (-1 for the root), the label and the height
+ * as float64, followed by a typed column per metadata attribute</li>
+ * <li>the string table with all labels, tree IDs, attribute names and string values as UTF-8</li>
+ * <li>the taxon table: string indices of the taxa, ordered by node number of the first tree</li>
+ * <li>the index: offset of each tree, followed by the offset of the end of the last tree</li>
+ * </ul>
+ * A metadata column consists of the attribute name, a kind per node, and the values of the nodes
+ * that have one. Values are float64 numbers, strings, integers, booleans, or arrays of these.
+ *
+ * The Reader memory maps the file, so it only keeps the strings and the index in memory.
+ */
+public class BinaryTreeLog {
+	final static int MAGIC = 0x314c5442; // "BTL1"
+	final static int VERSION = 1;
+	final static int HEADER_SIZE = 48;
+
+	// value kinds in metadata columns
+	final static byte ABSENT = 0, DOUBLE = 1, STRING = 2, ARRAY = 3, INTEGER = 4, TRUE = 5, FALSE = 6;
+
+	/** default file extension for binary tree logs **/
+	public final static String EXTENSION = ".btl";
+
+	private BinaryTreeLog() {}
+
+	/** @return true if the file starts with the magic number of a binary tree log **/
+	public static boolean isBinaryTreeLog(String fileName) {
+		try (RandomAccessFile file = new RandomAccessFile(fileName, "r")) {
+			if (file.length() < HEADER_SIZE) {
+				return false;
+			}
+			return Integer.reverseBytes(file.readInt()) == MAGIC;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * convert a tree file in NEXUS format, or with one Newick tree per line, to a binary tree log.
+	 * All trees are converted, burn-in is left to the readers.
+	 * @param threads number of threads used for parsing
+	 * @return number of trees converted
+	 */
+	public static int convert(String inputFileName, String outputFileName, int threads) throws IOException {
+		boolean isNexus;
+		try (BufferedReader fin = new BufferedReader(new FileReader(inputFileName))) {
+			String str = fin.readLine();
+			if (str == null) {
+				throw new IOException("File appears empty");
+			}
+			isNexus = str.toUpperCase().trim().startsWith("#NEXUS");
+		}
+		try (Writer writer = new Writer(outputFileName)) {
+			IOException [] error = new IOException[1];
+			new ParallelTreeLoader(inputFileName, isNexus, 0, threads).load(tree -> {
+				if (error[0] == null) {
+					try {
+						writer.add(tree);
+					} catch (IOException e) {
+						error[0] = e;
+					}
+				}
+			});
+			if (error[0] != null) {
+				throw error[0];
+			}
+			return writer.size();
+		}
+	}
+
+	/** writes trees to a new binary tree log, the file is complete once closed **/
+	public static class Writer implements Closeable {
+		final private FileChannel channel;
+		private ByteBuffer buffer = newBuffer(1 << 20);
+		/** file position of the start of buffer **/
+		private long flushed = 0;
+
+		final private List<Long> offsets = new ArrayList<>();
+		final private Map<String, Integer> stringCodes = new HashMap<>();
+		final private List<String> strings = new ArrayList<>();
+		private int [] taxa = null;
+
+		// scratch used while adding a tree
+		private Node [] nodes = new Node[0];
+		private int [] positionOfNr = new int[0];
+
+		public Writer(String fileName) throws IOException {
+			channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+					StandardOpenOption.TRUNCATE_EXISTING);
+			// header is written on close
+			ensure(HEADER_SIZE);
+			buffer.position(HEADER_SIZE);
+		}
+
+		/** number of trees added **/
+		public int size() {
+			return offsets.size();
+		}
+
+		public void add(Tree tree) throws IOException {
+			int n = tree.getNodeCount();
+			if (nodes.length < n) {
+				nodes = new Node[n];
+				positionOfNr = new int[n];
+			}
+			int end = addPostOrder(tree.getRoot(), 0);
+			if (end != n) {
+				throw new IllegalArgumentException("Tree " + tree.getID() + " has " + n + " nodes, but " + end + " are reachable from the root");
+			}
+			if (taxa == null) {
+				setTaxa(n);
+			}
+
+			offsets.add(position());
+			ensure(8);
+			buffer.putInt(n);
+			buffer.putInt(tree.getID() == null ? -1 : code(tree.getID()));
+			ensure(12 * n);
+			for (int i = 0; i < n; i++) {
+				buffer.putInt(nodes[i].getNr());
+			}
+			for (int i = 0; i < n; i++) {
+				Node parent = nodes[i].getParent();
+				buffer.putInt(parent == null ? -1 : positionOfNr[parent.getNr()]);
+			}
+			for (int i = 0; i < n; i++) {
+				buffer.putInt(nodes[i].getID() == null ? -1 : code(nodes[i].getID()));
+			}
+			ensure(8 * n);
+			for (int i = 0; i < n; i++) {
+				buffer.putDouble(nodes[i].getHeight());
+			}
+
+			// metadata columns in order of first appearance in post-order
+			Map<String, Object[]> columns = new LinkedHashMap<>();
+			for (int i = 0; i < n; i++) {
+				Set<String> names = nodes[i].getMetaDataNames();
+				if (names != null) {
+					for (String name : names) {
+						Object value = nodes[i].getMetaData(name);
+						if (value != null) {
+							columns.computeIfAbsent(name, k -> new Object[n])[i] = value;
+						}
+					}
+				}
+			}
+			ensure(4);
+			buffer.putInt(columns.size());
+			for (Map.Entry<String, Object[]> column : columns.entrySet()) {
+				Object [] values = column.getValue();
+				ensure(4 + n);
+				buffer.putInt(code(column.getKey()));
+				for (int i = 0; i < n; i++) {
+					buffer.put(values[i] == null ? ABSENT : kindOf(values[i]));
+				}
+				for (int i = 0; i < n; i++) {
+					if (values[i] != null) {
+						putValue(values[i]);
+					}
+				}
+			}
+		}
+
+		private int addPostOrder(Node node, int pos) {
+			for (Node child : node.getChildren()) {
+				pos = addPostOrder(child, pos);
+			}
+			nodes[pos] = node;
+			positionOfNr[node.getNr()] = pos;
+			return pos + 1;
+		}
+
+		/** taxa are the labels of the leaves of the first tree, by node number **/
+		private void setTaxa(int n) {
+			List<Node> leaves = new ArrayList<>();
+			for (int i = 0; i < n; i++) {
+				if (nodes[i].isLeaf() && nodes[i].getID() != null) {
+					leaves.add(nodes[i]);
+				}
+			}
+			leaves.sort((a, b) -> Integer.compare(a.getNr(), b.getNr()));
+			taxa = new int[leaves.size()];
+			for (int i = 0; i < taxa.length; i++) {
+				taxa[i] = code(leaves.get(i).getID());
+			}
+		}
+
+		/**
+		 * other numbers than integers, such as longs and floats from NEXUS metadata, are stored as
+		 * doubles: TreeAnnotator summarises these as numbers, while integers may be discrete traits
+		 */
+		private byte kindOf(Object value) {
+			if (value instanceof Integer) {
+				return INTEGER;
+			} else if (value instanceof Number) {
+				return DOUBLE;
+			} else if (value instanceof String) {
+				return STRING;
+			} else if (value instanceof Boolean) {
+				return (Boolean) value ? TRUE : FALSE;
+			} else if (value instanceof Object[]) {
+				return ARRAY;
+			}
+			throw new IllegalArgumentException("Cannot store metadata value " + value + " of type " + value.getClass().getName());
+		}
+
+		private void putValue(Object value) throws IOException {
+			switch (kindOf(value)) {
+			case DOUBLE:
+				ensure(8);
+				buffer.putDouble(((Number) value).doubleValue());
+				break;
+			case STRING:
+				ensure(4);
+				buffer.putInt(code((String) value));
+				break;
+			case INTEGER:
+				ensure(4);
+				buffer.putInt((Integer) value);
+				break;
+			case ARRAY:
+				Object [] array = (Object[]) value;
+				ensure(4 + array.length);
+				buffer.putInt(array.length);
+				for (Object element : array) {
+					if (element == null) {
+						buffer.put(ABSENT);
+					} else {
+						buffer.put(kindOf(element));
+					}
+				}
+				for (Object element : array) {
+					if (element != null) {
+						putValue(element);
+					}
+				}
+				break;
+			default:
+				// booleans are stored in the kind
+				break;
+			}
+		}
+
+		private int code(String string) {
+			Integer code = stringCodes.get(string);
+			if (code == null) {
+				code = strings.size();
+				stringCodes.put(string, code);
+				strings.add(string);
+			}
+			return code;
+		}
+
+		private long position() {
+			return flushed + buffer.position();
+		}
+
+		/** make sure there is space for bytes more bytes in the buffer **/
+		private void ensure(int bytes) throws IOException {
+			if (buffer.remaining() >= bytes) {
+				return;
+			}
+			flush();
+			if (buffer.capacity() < bytes) {
+				buffer = newBuffer(bytes);
+			}
+		}
+
+		private void flush() throws IOException {
+			buffer.flip();
+			while (buffer.hasRemaining()) {
+				flushed += channel.write(buffer);
+			}
+			buffer.clear();
+		}
+
+		@Override
+		public void close() throws IOException {
+			try {
+				long treesEnd = position();
+				long stringTableOffset = treesEnd;
+				for (String string : strings) {
+					byte [] bytes = string.getBytes(StandardCharsets.UTF_8);
+					ensure(4 + bytes.length);
+					buffer.putInt(bytes.length);
+					buffer.put(bytes);
+				}
+				long taxonTableOffset = position();
+				int taxonCount = taxa == null ? 0 : taxa.length;
+				ensure(4 * taxonCount);
+				for (int i = 0; i < taxonCount; i++) {
+					buffer.putInt(taxa[i]);
+				}
+				long indexOffset = position();
+				ensure(8 * (offsets.size() + 1));
+				for (long offset : offsets) {
+					buffer.putLong(offset);
+				}
+				buffer.putLong(treesEnd);
+				flush();
+
+				ByteBuffer header = newBuffer(HEADER_SIZE);
+				header.putInt(MAGIC);
+				header.putInt(VERSION);
+				header.putInt(offsets.size());
+				header.putInt(strings.size());
+				header.putLong(stringTableOffset);
+				header.putLong(taxonTableOffset);
+				header.putLong(indexOffset);
+				header.putInt(taxonCount);
+				header.putInt(0);
+				header.flip();
+				long position = 0;
+				while (header.hasRemaining()) {
+					position += channel.write(header, position);
+				}
+			} finally {
+				channel.close();
+			}
+		}
+	}
+
+	/**
+	 * Reads trees from a memory mapped binary tree log. Every call to get() creates a new Tree object.
+	 */
+	public static class Reader implements Closeable {
+		/** size of the part of the file that is mapped at a time **/
+		final static int WINDOW_SIZE = 1 << 26;
+
+		final private String fileName;
+		final private FileChannel channel;
+		final private long fileSize;
+		final private int treeCount;
+		final private String [] strings;
+		final private List<String> taxa;
+		final private long [] offsets;
+
+		private ByteBuffer window = null;
+		private long windowStart = 0;
+
+		public Reader(String fileName) throws IOException {
+			this.fileName = fileName;
+			Path path = Paths.get(fileName);
+			fileSize = Files.size(path);
+			channel = FileChannel.open(path, StandardOpenOption.READ);
+			try {
+				if (fileSize < HEADER_SIZE) {
+					throw new IOException(fileName + " is not a binary tree log");
+				}
+				ByteBuffer header = map(0, HEADER_SIZE);
+				if (header.getInt() != MAGIC) {
+					throw new IOException(fileName + " is not a binary tree log");
+				}
+				int version = header.getInt();
+				if (version != VERSION) {
+					throw new IOException(fileName + " has binary tree log version " + version + ", but only version " + VERSION + " is supported");
+				}
+				treeCount = header.getInt();
+				int stringCount = header.getInt();
+				long stringTableOffset = header.getLong();
+				long taxonTableOffset = header.getLong();
+				long indexOffset = header.getLong();
+				int taxonCount = header.getInt();
+
+				ByteBuffer table = map(stringTableOffset, (int) (taxonTableOffset - stringTableOffset));
+				strings = new String[stringCount];
+				for (int i = 0; i < stringCount; i++) {
+					byte [] bytes = new byte[table.getInt()];
+					table.get(bytes);
+					strings[i] = new String(bytes, StandardCharsets.UTF_8);
+				}
+
+				table = map(taxonTableOffset, 4 * taxonCount);
+				List<String> taxa = new ArrayList<>(taxonCount);
+				for (int i = 0; i < taxonCount; i++) {
+					taxa.add(strings[table.getInt()]);
+				}
+				this.taxa = Collections.unmodifiableList(taxa);
+
+				table = map(indexOffset, 8 * (treeCount + 1));
+				offsets = new long[treeCount + 1];
+				table.asLongBuffer().get(offsets);
+			} catch (IOException | RuntimeException e) {
+				channel.close();
+				throw e;
+			}
+		}
+
+		/** number of trees in the log **/
+		public int size() {
+			return treeCount;
+		}
+
+		/** @return taxon names, ordered by node number of the first tree **/
+		public List<String> getTaxa() {
+			return taxa;
+		}
+
+		/** @return i-th tree of the log, counting from 0 **/
+		public synchronized Tree get(int i) throws IOException {
+			if (i < 0 || i >= treeCount) {
+				throw new IOException("Tree " + i + " not found in " + fileName + ", which has " + treeCount + " trees");
+			}
+			ByteBuffer in = region(offsets[i], (int) (offsets[i + 1] - offsets[i]));
+
+			int n = in.getInt();
+			int id = in.getInt();
+			Node [] nodes = new Node[n];
+			for (int pos = 0; pos < n; pos++) {
+				nodes[pos] = new Node();
+				nodes[pos].setNr(in.getInt());
+			}
+			int [] parent = new int[n];
+			for (int pos = 0; pos < n; pos++) {
+				parent[pos] = in.getInt();
+			}
+			for (int pos = 0; pos < n; pos++) {
+				int label = in.getInt();
+				if (label >= 0) {
+					nodes[pos].setID(strings[label]);
+				}
+			}
+			for (int pos = 0; pos < n; pos++) {
+				nodes[pos].setHeight(in.getDouble());
+			}
+
+			int columnCount = in.getInt();
+			byte [] kinds = new byte[n];
+			for (int c = 0; c < columnCount; c++) {
+				String name = strings[in.getInt()];
+				in.get(kinds);
+				for (int pos = 0; pos < n; pos++) {
+					if (kinds[pos] != ABSENT) {
+						nodes[pos].setMetaData(name, getValue(in, kinds[pos]));
+					}
+				}
+			}
+
+			// post-order: children are added to their parent in their original order
+			Node root = null;
+			for (int pos = 0; pos < n; pos++) {
+				if (parent[pos] < 0) {
+					root = nodes[pos];
+				} else {
+					nodes[parent[pos]].addChild(nodes[pos]);
+				}
+			}
+			Tree tree = new Tree(root);
+			if (id >= 0) {
+				tree.setID(strings[id]);
+			}
+			return tree;
+		}
+
+		private Object getValue(ByteBuffer in, byte kind) {
+			switch (kind) {
+			case DOUBLE:
+				return in.getDouble();
+			case STRING:
+				return strings[in.getInt()];
+			case INTEGER:
+				return in.getInt();
+			case TRUE:
+				return true;
+			case FALSE:
+				return false;
+			case ARRAY:
+				Object [] array = new Object[in.getInt()];
+				byte [] kinds = new byte[array.length];
+				in.get(kinds);
+				for (int k = 0; k < array.length; k++) {
+					if (kinds[k] != ABSENT) {
+						array[k] = getValue(in, kinds[k]);
+					}
+				}
+				return array;
+			default:
+				return null;
+			}
+		}
+
+		/** @return buffer positioned at offset, with at least length bytes remaining **/
+		private ByteBuffer region(long offset, int length) throws IOException {
+			if (window == null || offset < windowStart || offset + length > windowStart + window.capacity()) {
+				windowStart = offset;
+				window = map(offset, (int) Math.min(Math.max(WINDOW_SIZE, length), fileSize - offset));
+			}
+			ByteBuffer in = window.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+			in.position((int) (offset - windowStart));
+			return in;
+		}
+
+		private ByteBuffer map(long offset, int length) throws IOException {
+			if (offset < 0 || length < 0 || offset + length > fileSize) {
+				throw new IOException(fileName + " is truncated or damaged");
+			}
+			return channel.map(FileChannel.MapMode.READ_ONLY, offset, length).order(ByteOrder.LITTLE_ENDIAN);
+		}
+
+		/** @return all trees from index start on **/
+		public List<Tree> getTrees(int start) throws IOException {
+			List<Tree> trees = new ArrayList<>(Math.max(0, treeCount - start));
+			for (int i = start; i < treeCount; i++) {
+				trees.add(get(i));
+			}
+			return trees;
+		}
+
+		@Override
+		public void close() throws IOException {
+			window = null;
+			channel.close();
+		}
+	}
+
+	private static ByteBuffer newBuffer(int capacity) {
+		return ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN);
+	}
+}
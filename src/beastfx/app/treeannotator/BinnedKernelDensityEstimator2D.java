@@ -0,0 +1,146 @@
+package beastfx.app.treeannotator;
+
+
+/**
+ * Bi-variate kernel density smoother that bins the data before smoothing, so the
+ * cost of estimating the density on the grid hardly depends on the number of observations.
+ *
+ * Observations are distributed over the four surrounding points of a grid that is
+ * finer than the output grid (linear binning), with a spacing of at most 1/SPACING
+ * of the bandwidth. The bin counts are then convolved with the Gaussian kernel, which
+ * is separable, so this is done one dimension at a time, and only for the points of
+ * the output grid. The kernel is cut off at KERNEL_RANGE bandwidths.
+ *
+ * Compared to KernelDensityEstimator2D, densities differ by less than TOLERANCE
+ * times the maximum density. Grid, bandwidths and contouring are the same.
+ * The exact estimate is calculated instead when there are so few observations
+ * that it is cheaper, or when the fine grid would need more than MAX_REFINEMENT
+ * points per output grid interval.
+ */
+public class BinnedKernelDensityEstimator2D extends ContourWithSynder {
+	/** maximum difference with the exact estimate, relative to the maximum density **/
+	public final static double TOLERANCE = 1e-3;
+
+	final static int MAX_REFINEMENT = 16;
+	/** fine grid spacing is at most bandwidth / SPACING **/
+	final static double SPACING = 8;
+	final static double KERNEL_RANGE = 6.0;
+
+    public BinnedKernelDensityEstimator2D(final double[] x, final double[] y, final double[] h, final int n, final double[] lims) {
+        super(x, y, h, n, lims);
+    }
+
+    public BinnedKernelDensityEstimator2D(final double[] x, final double[] y, boolean bandwidthLimit) {
+        super(x, y, bandwidthLimit);
+    }
+
+    public BinnedKernelDensityEstimator2D(final double[] x, final double[] y) {
+        super(x, y);
+    }
+
+    public BinnedKernelDensityEstimator2D(final double[] x, final double[] y, int n) {
+        super(x, y, n);
+    }
+
+    /** note: called from the constructor of KernelDensityEstimator2D, so cannot rely on fields of this class **/
+    @Override
+    public void doKDE2D() {
+        final double dx = (lims[1] - lims[0]) / (n - 1);
+        final double dy = (lims[3] - lims[2]) / (n - 1);
+        if (n < 2 || !(dx > 0) || !(dy > 0) || !(h[0] > 0) || !(h[1] > 0) ||
+        		SPACING * dx > MAX_REFINEMENT * h[0] || SPACING * dy > MAX_REFINEMENT * h[1]) {
+        	// degenerate grid, or bandwidth too small compared to grid spacing
+        	super.doKDE2D();
+        	return;
+        }
+        final int mx = refinement(dx, h[0]);
+        final int my = refinement(dy, h[1]);
+        final int nxFine = (n - 1) * mx + 1;
+        final int nyFine = (n - 1) * my + 1;
+        if ((long) nx * n * n <= (long) nxFine * nyFine) {
+        	// summing over all observations is cheaper than binning
+        	super.doKDE2D();
+        	return;
+        }
+        final double deltaX = dx / mx;
+        final double deltaY = dy / my;
+        gx = makeSequence(lims[0], lims[1], n);
+        gy = makeSequence(lims[2], lims[3], n);
+
+        z = new double[n][n];
+        final double scale = nx * h[0] * h[1];
+
+        // linear binning
+        double[][] counts = new double[nxFine][nyFine];
+        for (int k = 0; k < nx; k++) {
+        	double u = (x[k] - lims[0]) / deltaX;
+        	double v = (y[k] - lims[2]) / deltaY;
+        	if (!(u >= 0 && u <= nxFine - 1 && v >= 0 && v <= nyFine - 1)) {
+        		// outside the grid, add its contribution directly
+        		for (int i = 0; i < n; i++) {
+        			double ax = pdf((gx[i] - x[k]) / h[0], 0, 1);
+        			for (int j = 0; j < n; j++) {
+        				z[i][j] += ax * pdf((gy[j] - y[k]) / h[1], 0, 1) / scale;
+        			}
+        		}
+        		continue;
+        	}
+        	int i = Math.min((int) u, nxFine - 2);
+        	int j = Math.min((int) v, nyFine - 2);
+        	double fu = u - i;
+        	double fv = v - j;
+        	counts[i][j] += (1 - fu) * (1 - fv);
+        	counts[i + 1][j] += fu * (1 - fv);
+        	counts[i][j + 1] += (1 - fu) * fv;
+        	counts[i + 1][j + 1] += fu * fv;
+        }
+
+        // convolve in x, for output grid points only
+        double[] kx = kernel(deltaX, h[0], nxFine);
+        double[][] t = new double[n][nyFine];
+        for (int i = 0; i < n; i++) {
+        	int centre = i * mx;
+        	int from = Math.max(0, centre - kx.length + 1);
+        	int to = Math.min(nxFine - 1, centre + kx.length - 1);
+        	double[] row = t[i];
+        	for (int a = from; a <= to; a++) {
+        		double w = kx[Math.abs(centre - a)];
+        		double[] c = counts[a];
+        		for (int b = 0; b < nyFine; b++) {
+        			row[b] += w * c[b];
+        		}
+        	}
+        }
+
+        // convolve in y
+        double[] ky = kernel(deltaY, h[1], nyFine);
+        for (int j = 0; j < n; j++) {
+        	int centre = j * my;
+        	int from = Math.max(0, centre - ky.length + 1);
+        	int to = Math.min(nyFine - 1, centre + ky.length - 1);
+        	for (int i = 0; i < n; i++) {
+        		double[] row = t[i];
+        		double value = 0;
+        		for (int b = from; b <= to; b++) {
+        			value += ky[Math.abs(centre - b)] * row[b];
+        		}
+        		z[i][j] += value / scale;
+        	}
+        }
+    }
+
+    /** @return number of fine grid intervals per output grid interval, so the fine spacing is at most bandwidth / SPACING **/
+    private static int refinement(double delta, double bandwidth) {
+    	return (int) Math.max(1, Math.ceil(SPACING * delta / bandwidth));
+    }
+
+    /** @return standard normal density at distances 0, delta, 2 delta, ... in units of bandwidth, up to KERNEL_RANGE bandwidths **/
+    private static double[] kernel(double delta, double bandwidth, int maxLength) {
+    	int length = (int) Math.min(maxLength, Math.ceil(KERNEL_RANGE * bandwidth / delta) + 1);
+    	double[] kernel = new double[length];
+    	for (int d = 0; d < length; d++) {
+    		kernel[d] = pdf(d * delta / bandwidth, 0, 1);
+    	}
+    	return kernel;
+    }
+}
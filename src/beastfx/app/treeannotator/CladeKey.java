@@ -0,0 +1,77 @@
+package beastfx.app.treeannotator;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Immutable set of bits identifying a clade, using the same encoding as the BitSets
+ * in CladeSystem: bit 2*i for taxon i, bit 2*i+1 if taxon i is a sampled ancestor.
+ *
+ * Words are stored without trailing zero words, as BitSet.toLongArray() does,
+ * and the 64 bit hash is calculated once when the key is created.
+ */
+public final class CladeKey {
+	final long [] words;
+	final long hash;
+
+	CladeKey(long [] words, int length, long hash) {
+		this.words = Arrays.copyOf(words, length);
+		this.hash = hash;
+	}
+
+	public static CladeKey valueOf(BitSet bits) {
+		long [] words = bits.toLongArray();
+		return new CladeKey(words, words.length, hash(words, words.length));
+	}
+
+	/** @return number of words ignoring trailing zero words **/
+	static int trimmedLength(long [] words, int length) {
+		while (length > 0 && words[length - 1] == 0) {
+			length--;
+		}
+		return length;
+	}
+
+	/** 64 bit hash of the first length words, where the last word should be non-zero **/
+	static long hash(long [] words, int length) {
+		long h = length;
+		for (int i = 0; i < length; i++) {
+			h = (h ^ words[i]) * 0x9E3779B97F4A7C15L;
+			h ^= h >>> 29;
+		}
+		// finaliser of MurmurHash3
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	/** @return true if this key has the given hash and consists of the first length words **/
+	boolean matches(long [] words, int length, long hash) {
+		return this.hash == hash && Arrays.equals(this.words, 0, this.words.length, words, 0, length);
+	}
+
+	public BitSet toBitSet() {
+		return BitSet.valueOf(words);
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) return true;
+		if (!(o instanceof CladeKey)) return false;
+		CladeKey other = (CladeKey) o;
+		return hash == other.hash && Arrays.equals(words, other.words);
+	}
+
+	@Override
+	public int hashCode() {
+		return (int) (hash ^ (hash >>> 32));
+	}
+
+	@Override
+	public String toString() {
+		return toBitSet().toString();
+	}
+}
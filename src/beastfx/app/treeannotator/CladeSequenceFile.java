@@ -0,0 +1,98 @@
+package beastfx.app.treeannotator;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Temporary file with one record of clade indices per tree, as produced by
+ * CladeSystem.add(Tree, boolean, CladeSequenceFile).
+ *
+ * Used by the low memory mode of TreeAnnotator, so that trees can be scored
+ * against the clade system without reading and parsing the tree file again.
+ * A record is the number of ints followed by the ints in post-order.
+ */
+public class CladeSequenceFile {
+	final private File file;
+	private DataOutputStream out;
+	private DataInputStream in;
+	private int treeCount = 0;
+
+	public CladeSequenceFile() throws IOException {
+		file = File.createTempFile("clades", ".bin");
+		file.deleteOnExit();
+		out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+	}
+
+	/** append the first length ints of sequence as a new record **/
+	public void write(int [] sequence, int length) throws IOException {
+		out.writeInt(length);
+		for (int i = 0; i < length; i++) {
+			out.writeInt(sequence[i]);
+		}
+		treeCount++;
+	}
+
+	/** number of records written **/
+	public int getTreeCount() {
+		return treeCount;
+	}
+
+	/** finish writing, and start reading from the first record **/
+	public void reset() throws IOException {
+		if (out != null) {
+			out.close();
+			out = null;
+		}
+		if (in != null) {
+			in.close();
+		}
+		in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+	}
+
+	/**
+	 * read the next record
+	 * @param buffer buffer to read into, replaced by a larger one if it is too small
+	 * @param length on return, length[0] is the number of ints in the record
+	 * @return buffer containing the record, or null if there are no more records
+	 */
+	public int [] read(int [] buffer, int [] length) throws IOException {
+		int n;
+		try {
+			n = in.readInt();
+		} catch (EOFException e) {
+			return null;
+		}
+		if (buffer == null || buffer.length < n) {
+			buffer = new int[n];
+		}
+		for (int i = 0; i < n; i++) {
+			buffer[i] = in.readInt();
+		}
+		length[0] = n;
+		return buffer;
+	}
+
+	/** close and remove the file **/
+	public void delete() {
+		try {
+			if (out != null) {
+				out.close();
+			}
+			if (in != null) {
+				in.close();
+			}
+		} catch (IOException e) {
+			// ignore
+		}
+		out = null;
+		in = null;
+		file.delete();
+	}
+}
@@ -1,7 +1,10 @@
 package beastfx.app.treeannotator;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.BitSet;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -12,12 +15,37 @@ import beast.base.evolution.tree.Tree;
 
 /**
  * extracted from TreeAnnotator
+ *
+ * Clades are identified by the bits 2*i for taxon i and 2*i+1 when taxon i is a sampled ancestor.
+ * They are stored in a CladeTable keyed by CladeKey, and the traversals below build the bits of each
+ * node in reusable scratch buffers (one per depth in the tree), so that no objects are created for
+ * clades that are already known.
  */
 //TODO merge with CladeSet?
 public class CladeSystem {
 	private boolean processSA = true;
 
-    protected Map<BitSet, Clade> cladeMap = new HashMap<>();
+    /** mask clearing the sampled ancestor bits of a word **/
+    private final static long TAXON_BITS = 0x5555555555555555L;
+
+    protected CladeTable cladeTable = new CladeTable();
+    /** clades in order of creation, so clade.index is the position in this list **/
+    protected List<Clade> cladeList = new ArrayList<>();
+
+    // post-order clade sequence of the tree being added, if it is recorded
+    private int [] sequence = null;
+    private int sequenceLength;
+    private int [] recordBuffer = null;
+
+    /** codes for discrete attribute values, shared by all clades **/
+    private AttributeAccumulator.Dictionary dictionary = new AttributeAccumulator.Dictionary();
+    /** if true, numeric attributes other than height are summarised instead of stored **/
+    private boolean summariseAttributes = false;
+
+    /** scratch buffers for traversals on the thread that builds the clade system **/
+    private final Buffers buffers = new Buffers();
+    /** scorer used by getLogCladeCredibility, getSumCladeCredibility and getCladeCredibility **/
+    private final Scorer scorer = new Scorer();
 
     public CladeSystem() { }
 
@@ -32,60 +60,212 @@ public class CladeSystem {
         // Recurse over the tree and add all the clades (or increment their
         // frequency if already present). The root clade is added too (for
         // annotation purposes).
-        addClades(tree.getRoot(), includeTips);
+        addClades(tree.getRoot(), 0, includeTips);
     }
 
-    private BitSet addClades(Node node, boolean includeTips) {
+    /**
+     * adds all the clades in the tree, and records the internal nodes of the tree in post-order to
+     * sequences as pairs of clade index and number of internal child nodes, so that the tree can
+     * be scored later by getCladeCredibility(int[], int, boolean) without parsing it again.
+     */
+    public void add(Tree tree, boolean includeTips, CladeSequenceFile sequences) throws IOException {
+        record(tree, includeTips);
+        sequences.write(recordBuffer, sequenceLength);
+    }
 
-        BitSet bits = new BitSet();
+    /**
+     * as add(Tree, boolean, CladeSequenceFile), but returns the recorded clade sequence of the tree
+     */
+    public int [] addAndRecord(Tree tree, boolean includeTips) {
+        record(tree, includeTips);
+        return Arrays.copyOf(recordBuffer, sequenceLength);
+    }
+
+    private void record(Tree tree, boolean includeTips) {
+        int n = 2 * tree.getInternalNodeCount();
+        if (recordBuffer == null || recordBuffer.length < n) {
+            recordBuffer = new int[n];
+        }
+        sequence = recordBuffer;
+        sequenceLength = 0;
+        try {
+            addClades(tree.getRoot(), 0, includeTips);
+        } finally {
+            sequence = null;
+        }
+    }
+
+    /**
+     * adds the clades of other, a clade system built from other trees, with their counts.
+     * Clades that are new to this system are added in the order of other, so merging clade systems
+     * built from consecutive ranges of trees in order of the ranges gives the same clades in the
+     * same order, hence with the same indices, as adding all trees to one clade system.
+     * Attributes are not merged.
+     * @return for each clade index in other, the index of that clade in this system
+     */
+    public int [] merge(CladeSystem other) {
+        int [] indices = new int[other.cladeList.size()];
+        for (Clade otherClade : other.cladeList) {
+            CladeKey key = otherClade.key;
+            Clade clade = cladeTable.get(key.words, key.words.length, key.hash);
+            if (clade == null) {
+                clade = new Clade(key);
+                clade.index = cladeList.size();
+                cladeTable.put(clade);
+                cladeList.add(clade);
+            }
+            clade.setCount(clade.getCount() + otherClade.getCount());
+            indices[otherClade.index] = clade.index;
+        }
+        return indices;
+    }
+
+    private void addClades(Node node, int depth, boolean includeTips) {
 
         if (node.isLeaf()) {
 
-            int index = getTaxonIndex(node);
-            bits.set(2*index);
+            buffers.setLeaf(node, depth);
 
             if (includeTips) {
-                addClade(bits);
+                addClade(depth);
             }
 
         } else {
 
+            buffers.clear(depth);
+            int internalChildCount = 0;
             for (int i = 0; i < node.getChildCount(); i++) {
 
                 Node node1 = node.getChild(i);
 
-                bits.or(addClades(node1, includeTips));
+                addClades(node1, depth + 1, includeTips);
+                buffers.orChild(depth);
+                if (!node1.isLeaf()) {
+                    internalChildCount++;
+                }
             }
 
-            for (int i=1; i<bits.length(); i=i+2) {
-                bits.set(i, false);
+            buffers.setInternal(node, depth);
+            Clade clade = addClade(depth);
+            if (sequence != null) {
+                sequence[sequenceLength++] = clade.index;
+                sequence[sequenceLength++] = internalChildCount;
             }
-            if (node.isFake() && processSA) {
-                int index = getTaxonIndex(node.getDirectAncestorChild());
-                bits.set(2 * index + 1);
-            }
-            addClade(bits);
         }
-
-        return bits;
     }
 
-    private void addClade(BitSet bits) {
-        Clade clade = cladeMap.get(bits);
+    private Clade addClade(int depth) {
+        long [] words = buffers.scratch[depth];
+        int length = CladeKey.trimmedLength(words, buffers.wordCount);
+        long hash = CladeKey.hash(words, length);
+        Clade clade = cladeTable.get(words, length, hash);
         if (clade == null) {
-            clade = new Clade(bits);
-            cladeMap.put(bits, clade);
+            clade = new Clade(new CladeKey(words, length, hash));
+            clade.index = cladeList.size();
+            cladeTable.put(clade);
+            cladeList.add(clade);
         }
         clade.setCount(clade.getCount() + 1);
+        return clade;
     }
 
-    public void collectAttributes(Tree tree, Set<String> attributeNames) {
-        collectAttributes(tree.getRoot(), attributeNames);
+    /** @return clade with the given bits, or null if there is no such clade **/
+    public Clade getClade(BitSet bits) {
+        long [] words = bits.toLongArray();
+        return cladeTable.get(words, words.length, CladeKey.hash(words, words.length));
     }
 
-    private BitSet collectAttributes(Node node, Set<String> attributeNames) {
+    /** @return number of distinct clades **/
+    public int getCladeCount() {
+        return cladeTable.size();
+    }
+
+    /**
+     * Scratch buffers for a traversal: scratch[d] holds the bits of the node at depth d.
+     * Buffers are not thread safe, so every thread needs its own.
+     */
+    private class Buffers {
+        long [][] scratch = new long[0][];
+        /** number of words in use in each scratch buffer **/
+        int wordCount = 1;
+
+        /** @return clade with the bits of the node at depth, or null if there is no such clade **/
+        Clade getClade(int depth) {
+            long [] words = scratch[depth];
+            int length = CladeKey.trimmedLength(words, wordCount);
+            return cladeTable.get(words, length, CladeKey.hash(words, length));
+        }
+
+        void clear(int depth) {
+            if (depth >= scratch.length) {
+                int n = Math.max(depth + 1, scratch.length * 2);
+                scratch = Arrays.copyOf(scratch, n);
+            }
+            if (scratch[depth] == null || scratch[depth].length < wordCount) {
+                scratch[depth] = new long[wordCount];
+            } else {
+                Arrays.fill(scratch[depth], 0, wordCount, 0L);
+            }
+        }
 
-        BitSet bits = new BitSet();
+        void setBit(int depth, int bit) {
+            if (bit < 0) {
+                throw new IndexOutOfBoundsException("bit < 0: " + bit);
+            }
+            int word = bit >>> 6;
+            if (word >= wordCount) {
+                // grow all buffers, so that they all have at least wordCount words
+                wordCount = word + 1;
+                for (int d = 0; d < scratch.length; d++) {
+                    if (scratch[d] != null && scratch[d].length < wordCount) {
+                        scratch[d] = Arrays.copyOf(scratch[d], wordCount);
+                    }
+                }
+            }
+            scratch[depth][word] |= 1L << bit;
+        }
+
+        /** bits of depth become those of leaf node **/
+        void setLeaf(Node node, int depth) {
+            clear(depth);
+            setBit(depth, 2 * getTaxonIndex(node));
+        }
+
+        /** adds the bits at depth + 1 to those at depth **/
+        void orChild(int depth) {
+            long [] words = scratch[depth];
+            long [] child = scratch[depth + 1];
+            for (int i = 0; i < wordCount; i++) {
+                words[i] |= child[i];
+            }
+        }
+
+        /** after adding bits of all children: clear sampled ancestor bits of children and set the one of node, if any **/
+        void setInternal(Node node, int depth) {
+            long [] words = scratch[depth];
+            for (int i = 0; i < wordCount; i++) {
+                words[i] &= TAXON_BITS;
+            }
+            if (node.isFake() && processSA) {
+                int index = getTaxonIndex(node.getDirectAncestorChild());
+                setBit(depth, 2 * index + 1);
+            }
+        }
+
+        BitSet toBitSet(int depth) {
+            return BitSet.valueOf(Arrays.copyOf(scratch[depth], wordCount));
+        }
+    }
+
+    public void collectAttributes(Tree tree, Set<String> attributeNames) {
+        collectAttributes(tree.getRoot(), 0, attributeNames, buffers, null);
+    }
+
+    /**
+     * traverses the tree below node, and for every node with a clade in this system either adds the attribute
+     * values to the clade, or if values is not null, appends the clade and attribute values to values
+     */
+    private void collectAttributes(Node node, int depth, Set<String> attributeNames, Buffers buffers, TreeAttributes values) {
 
         if (node.isLeaf()) {
 
@@ -93,66 +273,168 @@ public class CladeSystem {
             if (index < 0) {
                 throw new IllegalArgumentException("Taxon, " + node.getID() + ", not found in target tree");
             }
-            bits.set(2*index);
+            buffers.setLeaf(node, depth);
 
         } else {
 
+            buffers.clear(depth);
             for (int i = 0; i < node.getChildCount(); i++) {
 
                 Node node1 = node.getChild(i);
 
-                bits.or(collectAttributes(node1, attributeNames));
+                collectAttributes(node1, depth + 1, attributeNames, buffers, values);
+                buffers.orChild(depth);
             }
 
-            for (int i=1; i<bits.length(); i=i+2) {
-                bits.set(i, false);
-            }
-            if (node.isFake() && processSA) {
-                int index = getTaxonIndex(node.getDirectAncestorChild());
-                bits.set(2 * index + 1);
+            buffers.setInternal(node, depth);
+        }
+
+        Clade clade = buffers.getClade(depth);
+        if (clade != null) {
+            Object [] attributeValues = getAttributeValues(node, attributeNames);
+            if (values == null) {
+                addAttributes(clade, attributeValues, attributeNames);
+            } else {
+                values.add(clade, attributeValues);
             }
         }
+    }
 
-        collectAttributesForClade(bits, node, attributeNames);
+    private Object [] getAttributeValues(Node node, Set<String> attributeNames) {
+        Object [] values = new Object[attributeNames.size()];
+        int i = 0;
+        for (String attributeName : attributeNames) {
+
+            Object value;
+            switch (attributeName) {
+                case "height":
+                    value = node.getHeight();
+                    break;
+                case "length":
+                    value = getBranchLength(node);
+                    break;
+                default:
+                    value = node.getMetaData(attributeName);
+                    if (value instanceof String && ((String) value).startsWith("\"")) {
+                        value = ((String) value).replaceAll("\"", "");
+                    }
+                    break;
+            }
 
-        return bits;
+            values[i++] = value;
+        }
+        return values;
     }
 
-    private void collectAttributesForClade(BitSet bits, Node node, Set<String> attributeNames) {
-        Clade clade = cladeMap.get(bits);
-        if (clade != null) {
-
-            if (clade.attributeValues == null) {
-                clade.attributeValues = new ArrayList<>();
-            }
+    private void addAttributes(Clade clade, Object [] values, Set<String> attributeNames) {
+        addValues(clade, values, attributeNames);
+        clade.setCount(clade.getCount() + 1);
+    }
 
+    private void addValues(Clade clade, Object [] values, Set<String> attributeNames) {
+        if (clade.attributes == null) {
+            clade.attributes = new AttributeAccumulator[attributeNames.size()];
             int i = 0;
-            Object[] values = new Object[attributeNames.size()];
             for (String attributeName : attributeNames) {
+                clade.attributes[i++] = new AttributeAccumulator(dictionary, summariseAttributes && !attributeName.equals("height"));
+            }
+        }
 
-                Object value;
-                switch (attributeName) {
-                    case "height":
-                        value = node.getHeight();
-                        break;
-                    case "length":
-                        value = getBranchLength(node);
-                        break;
-                    default:
-                        value = node.getMetaData(attributeName);
-                        if (value instanceof String && ((String) value).startsWith("\"")) {
-                            value = ((String) value).replaceAll("\"", "");
-                        }
-                        break;
-                }
+        for (int i = 0; i < values.length; i++) {
+            clade.attributes[i].add(values[i]);
+        }
+    }
 
-                values[i] = value;
+    /**
+     * adds all the clades in the tree including tips, together with the attribute values of their nodes,
+     * so that counts and attributes stay up to date while trees are added one at a time.
+     * @return indices of the clades of all nodes of the tree, to pass to removeOldest when the tree is dropped
+     */
+    public int [] addWithAttributes(Tree tree, Set<String> attributeNames) {
+        add(tree, true);
+        TreeAttributes values = new TreeAttributes(tree.getNodeCount());
+        collectAttributes(tree.getRoot(), 0, attributeNames, buffers, values);
+        int [] indices = new int[values.size];
+        for (int i = 0; i < values.size; i++) {
+            addValues(values.clades[i], values.values[i], attributeNames);
+            indices[i] = values.clades[i].index;
+        }
+        return indices;
+    }
 
-                i++;
+    /**
+     * removes the trees that were added first by addWithAttributes: decrements the counts of their clades
+     * and drops the first attribute values of these clades. Clades that are not in any remaining tree
+     * are kept with count 0, so clade indices do not change.
+     * @param trees clade indices as returned by addWithAttributes, for the oldest trees
+     */
+    public void removeOldest(List<int[]> trees) {
+        int [] removed = new int[cladeList.size()];
+        for (int [] indices : trees) {
+            for (int index : indices) {
+                removed[index]++;
+            }
+        }
+        for (int i = 0; i < removed.length; i++) {
+            if (removed[i] > 0) {
+                Clade clade = cladeList.get(i);
+                clade.setCount(clade.getCount() - removed[i]);
+                if (clade.attributes != null) {
+                    for (AttributeAccumulator attribute : clade.attributes) {
+                        attribute.removeFirst(removed[i]);
+                    }
+                }
             }
-            clade.attributeValues.add(values);
+        }
+    }
+
+    /**
+     * adds attribute values collected by an AttributeCollector, with the same result as
+     * collectAttributes(Tree, Set) for the tree the values were collected from
+     */
+    public void addAttributes(TreeAttributes values, Set<String> attributeNames) {
+        for (int i = 0; i < values.size; i++) {
+            addAttributes(values.clades[i], values.values[i], attributeNames);
+        }
+    }
+
+    /**
+     * @return collector with its own scratch buffers, so attribute values of several trees can be
+     * collected on different threads at the same time, as long as no clades are added
+     */
+    public AttributeCollector newAttributeCollector() {
+        return new AttributeCollector();
+    }
 
-            clade.setCount(clade.getCount() + 1);
+    /** looks up the clades of a tree and their attribute values, without changing the clades **/
+    public class AttributeCollector {
+        private final Buffers buffers = new Buffers();
+
+        private AttributeCollector() {
+        }
+
+        public TreeAttributes collect(Tree tree, Set<String> attributeNames) {
+            TreeAttributes values = new TreeAttributes(tree.getNodeCount());
+            collectAttributes(tree.getRoot(), 0, attributeNames, buffers, values);
+            return values;
+        }
+    }
+
+    /** clades of a tree with the attribute values of their nodes, in post-order **/
+    public static class TreeAttributes {
+        private final Clade [] clades;
+        private final Object [][] values;
+        private int size = 0;
+
+        private TreeAttributes(int nodeCount) {
+            clades = new Clade[nodeCount];
+            values = new Object[nodeCount][];
+        }
+
+        private void add(Clade clade, Object [] attributeValues) {
+            clades[size] = clade;
+            values[size] = attributeValues;
+            size++;
         }
     }
 
@@ -163,12 +445,24 @@ public class CladeSystem {
         return node.getParent().getHeight() - node.getHeight();
     }
 
+    /**
+     * @return unmodifiable copy of the map from clade bits to clades. The clades are those
+     * of the clade system, but adding clades to the clade system does not change the map, and
+     * the map cannot be changed to add or remove clades. This used to be the protected field
+     * cladeMap, which is replaced by cladeTable and cladeList.
+     * @deprecated creates a new map on every call, use getClade(BitSet) and getCladeCount() instead
+     */
+    @Deprecated
     public Map<BitSet, Clade> getCladeMap() {
-        return cladeMap;
+        Map<BitSet, Clade> cladeMap = new HashMap<>();
+        for (Clade clade : cladeList) {
+            cladeMap.put(clade.key.toBitSet(), clade);
+        }
+        return Collections.unmodifiableMap(cladeMap);
     }
 
     public void calculateCladeCredibilities(int totalTreesUsed) {
-        for (Clade clade : cladeMap.values()) {
+        for (Clade clade : cladeList) {
 
             if (clade.getCount() > totalTreesUsed) {
 
@@ -181,125 +475,153 @@ public class CladeSystem {
     }
 
     public double getSumCladeCredibility(Node node, BitSet bits) {
+        return scorer.getCladeCredibility(node, bits, true);
+    }
 
-        double sum = 0.0;
+    public double getLogCladeCredibility(Node node, BitSet bits) {
+        return scorer.getCladeCredibility(node, bits, false);
+    }
 
-        if (node.isLeaf()) {
+    /**
+     * score a tree recorded by add(Tree, boolean, CladeSequenceFile).
+     * Values are added up in the same order as by getLogCladeCredibility(Node, BitSet)
+     * and getSumCladeCredibility(Node, BitSet), so the result is identical.
+     */
+    public double getCladeCredibility(int [] sequence, int length, boolean useSumCladeCredibility) {
+        return scorer.getCladeCredibility(sequence, length, useSumCladeCredibility);
+    }
 
-            int index = getTaxonIndex(node);
-            bits.set(2*index);
-        } else {
+    /**
+     * @return a scorer with its own scratch buffers, so trees can be scored on several threads at the
+     * same time, as long as clades and credibilities are no longer changed
+     */
+    public Scorer newScorer() {
+        return new Scorer();
+    }
 
-            BitSet bits2 = new BitSet();
-            for (int i = 0; i < node.getChildCount(); i++) {
+    /** scores trees by the clade credibilities of this clade system **/
+    public class Scorer {
+        private final Buffers buffers = new Buffers();
+        // scratch for scoring recorded sequences
+        private double [] scoreStack = new double[0];
 
-                Node node1 = node.getChild(i);
+        private Scorer() {
+        }
 
-                sum += getSumCladeCredibility(node1, bits2);
-            }
+        /** @return log clade credibility, or sum of clade credibilities, of the tree **/
+        public double score(Tree tree, boolean useSumCladeCredibility) {
+            return getCladeCredibility(tree.getRoot(), null, useSumCladeCredibility);
+        }
 
-            for (int i=1; i<bits2.length(); i=i+2) {
-                bits2.set(i, false);
-            }
+        /** @return log clade credibility, or sum of clade credibilities, of a tree recorded by add(Tree, boolean, CladeSequenceFile) **/
+        public double score(int [] sequence, int length, boolean useSumCladeCredibility) {
+            return getCladeCredibility(sequence, length, useSumCladeCredibility);
+        }
 
-            if (node.isFake() && processSA) {
-                int index = getTaxonIndex(node.getDirectAncestorChild());
-                bits2.set(2 * index + 1);
+        private double getCladeCredibility(Node node, BitSet bits, boolean useSumCladeCredibility) {
+            if (node.isLeaf()) {
+                int index = getTaxonIndex(node);
+                bits.set(2*index);
+                return 0.0;
             }
-
-            sum += getCladeCredibility(bits2);
-
+            double score = getCladeCredibility(node, 0, useSumCladeCredibility);
             if (bits != null) {
-                bits.or(bits2);
+                bits.or(buffers.toBitSet(0));
             }
+            return score;
         }
 
-        return sum;
-    }
+        /** sum of clade credibilities, or of their logs, of node and the nodes below it **/
+        private double getCladeCredibility(Node node, int depth, boolean useSumCladeCredibility) {
 
-    public double getLogCladeCredibility(Node node, BitSet bits) {
+            double score = 0.0;
 
-        double logCladeCredibility = 0.0;
+            if (node.isLeaf()) {
 
-        if (node.isLeaf()) {
+                buffers.setLeaf(node, depth);
+            } else {
 
-            int index = getTaxonIndex(node);
-            bits.set(2*index);
-        } else {
+                buffers.clear(depth);
+                for (int i = 0; i < node.getChildCount(); i++) {
 
-            BitSet bits2 = new BitSet();
-            for (int i = 0; i < node.getChildCount(); i++) {
+                    Node node1 = node.getChild(i);
 
-                Node node1 = node.getChild(i);
-
-                logCladeCredibility += getLogCladeCredibility(node1, bits2);
-            }
+                    score += getCladeCredibility(node1, depth + 1, useSumCladeCredibility);
+                    buffers.orChild(depth);
+                }
 
-            for (int i=1; i<bits2.length(); i=i+2) {
-                bits2.set(i, false);
-            }
+                buffers.setInternal(node, depth);
 
-            if (node.isFake() && processSA) {
-                int index = getTaxonIndex(node.getDirectAncestorChild());
-                bits2.set(2 * index + 1);
+                Clade clade = buffers.getClade(depth);
+                double credibility = clade == null ? 0.0 : clade.getCredibility();
+                if (useSumCladeCredibility) {
+                    score += credibility;
+                } else {
+                    score += Math.log(credibility);
+                }
             }
 
-            logCladeCredibility += Math.log(getCladeCredibility(bits2));
-
-            if (bits != null) {
-                bits.or(bits2);
-            }
+            return score;
         }
 
-        return logCladeCredibility;
-    }
-
-    private double getCladeCredibility(BitSet bits) {
-        Clade clade = cladeMap.get(bits);
-        if (clade == null) {
-            return 0.0;
+        private double getCladeCredibility(int [] sequence, int length, boolean useSumCladeCredibility) {
+            if (scoreStack.length < length / 2) {
+                scoreStack = new double[length / 2];
+            }
+            int top = 0;
+            for (int i = 0; i < length; i += 2) {
+                Clade clade = cladeList.get(sequence[i]);
+                int childCount = sequence[i + 1];
+                double score = 0.0;
+                for (int j = top - childCount; j < top; j++) {
+                    score += scoreStack[j];
+                }
+                top -= childCount;
+                if (useSumCladeCredibility) {
+                    score += clade.getCredibility();
+                } else {
+                    score += Math.log(clade.getCredibility());
+                }
+                scoreStack[top++] = score;
+            }
+            return scoreStack[0];
         }
-        return clade.getCredibility();
     }
 
     public BitSet removeClades(Node node, boolean includeTips) {
+        removeClades(node, 0, includeTips);
+        return buffers.toBitSet(0);
+    }
 
-        BitSet bits = new BitSet();
+    private void removeClades(Node node, int depth, boolean includeTips) {
 
         if (node.isLeaf()) {
 
-            int index = getTaxonIndex(node);
-            bits.set(2*index);
+            buffers.setLeaf(node, depth);
 
             if (includeTips) {
-                removeClade(bits);
+                removeClade(depth);
             }
 
         } else {
 
+            buffers.clear(depth);
             for (int i = 0; i < node.getChildCount(); i++) {
 
                 Node node1 = node.getChild(i);
 
-                bits.or(removeClades(node1, includeTips));
+                removeClades(node1, depth + 1, includeTips);
+                buffers.orChild(depth);
             }
 
-            for (int i=1; i<bits.length(); i=i+2) {
-                bits.set(i, false);
-            }
-            if (node.isFake() && processSA) {
-                int index = getTaxonIndex(node.getDirectAncestorChild());
-                bits.set(2 * index + 1);
-            }
+            buffers.setInternal(node, depth);
 
-            removeClade(bits);
+            removeClade(depth);
         }
-
-        return bits;
     }
 
-    private void removeClade(BitSet bits) {
-        Clade clade = cladeMap.get(bits);
+    private void removeClade(int depth) {
+        Clade clade = buffers.getClade(depth);
         if (clade != null) {
             clade.setCount(clade.getCount() - 1);
         }
@@ -336,7 +658,11 @@ public class CladeSystem {
 
     public class Clade {
         public Clade(BitSet bits) {
-            this.bits = bits;
+            this(CladeKey.valueOf(bits));
+        }
+
+        Clade(CladeKey key) {
+            this.key = key;
             count = 0;
             credibility = 0.0;
         }
@@ -357,8 +683,37 @@ public class CladeSystem {
             this.credibility = credibility;
         }
 
+        /** @return taxa in the clade, see CladeKey for the encoding **/
+        public CladeKey getKey() {
+            return key;
+        }
+
+        /** @return values collected for attribute i, in the order of the attribute names passed to collectAttributes, or null if none were collected **/
+        public AttributeAccumulator getAttribute(int i) {
+            return attributes == null ? null : attributes[i];
+        }
+
+        /**
+         * @return unmodifiable copy of the collected attribute values, one Object[] per tree.
+         * Changing the arrays does not change the values of the clade.
+         * @deprecated creates the list from the attribute accumulators on every call, so it is slow
+         * and uses a lot of memory: use getAttribute(int) instead
+         */
+        @Deprecated
         public List<Object[]> getAttributeValues() {
-            return attributeValues;
+            if (attributes == null) {
+                return null;
+            }
+            List<Object[]> attributeValues = new ArrayList<>();
+            int n = attributes.length == 0 ? 0 : attributes[0].size();
+            for (int j = 0; j < n; j++) {
+                Object[] values = new Object[attributes.length];
+                for (int i = 0; i < attributes.length; i++) {
+                    values[i] = attributes[i].get(j);
+                }
+                attributeValues.add(values);
+            }
+            return Collections.unmodifiableList(attributeValues);
         }
 
         @Override
@@ -368,28 +723,38 @@ public class CladeSystem {
 
             final Clade clade = (Clade) o;
 
-            return !(bits != null ? !bits.equals(clade.bits) : clade.bits != null);
+            return !(key != null ? !key.equals(clade.key) : clade.key != null);
 
         }
 
         @Override
         public int hashCode() {
-            return (bits != null ? bits.hashCode() : 0);
+            return (key != null ? key.hashCode() : 0);
         }
 
         @Override
         public String toString() {
-            return "clade " + bits.toString() + " #" + count;
+            return "clade " + key.toString() + " #" + count;
         }
 
         int count;
+        /** position in cladeList **/
+        int index;
         double credibility;
-        BitSet bits;
-        List<Object[]> attributeValues = null;
+        final CladeKey key;
+        AttributeAccumulator[] attributes = null;
     }
 
 	public void setProcessSA(boolean processSA) {
 		this.processSA = processSA;
 	}
 
+	/**
+	 * @param summariseAttributes if true, collectAttributes keeps running statistics for numeric attributes
+	 * other than height instead of all values, so medians and HPD intervals become approximate
+	 */
+	public void setSummariseAttributes(boolean summariseAttributes) {
+		this.summariseAttributes = summariseAttributes;
+	}
+
 }
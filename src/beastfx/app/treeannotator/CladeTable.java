@@ -0,0 +1,62 @@
+package beastfx.app.treeannotator;
+
+import beastfx.app.treeannotator.CladeSystem.Clade;
+
+/**
+ * Open addressing hash table of clades keyed by CladeKey, with linear probing.
+ * Lookups take the words of a clade in a scratch buffer, so no key object
+ * is created unless a new clade is added.
+ */
+class CladeTable {
+	final static int INITIAL_CAPACITY = 1024;
+
+	private Clade [] slots = new Clade[INITIAL_CAPACITY];
+	private int mask = INITIAL_CAPACITY - 1;
+	private int size = 0;
+
+	int size() {
+		return size;
+	}
+
+	/** @return clade consisting of the first length words, or null if there is none **/
+	Clade get(long [] words, int length, long hash) {
+		int i = (int) hash & mask;
+		Clade clade;
+		while ((clade = slots[i]) != null) {
+			if (clade.key.matches(words, length, hash)) {
+				return clade;
+			}
+			i = (i + 1) & mask;
+		}
+		return null;
+	}
+
+	/** add clade, which should not be in the table yet **/
+	void put(Clade clade) {
+		if (2 * (size + 1) > slots.length) {
+			resize();
+		}
+		insert(slots, mask, clade);
+		size++;
+	}
+
+	private static void insert(Clade [] slots, int mask, Clade clade) {
+		int i = (int) clade.key.hash & mask;
+		while (slots[i] != null) {
+			i = (i + 1) & mask;
+		}
+		slots[i] = clade;
+	}
+
+	private void resize() {
+		Clade [] newSlots = new Clade[slots.length * 2];
+		int newMask = newSlots.length - 1;
+		for (Clade clade : slots) {
+			if (clade != null) {
+				insert(newSlots, newMask, clade);
+			}
+		}
+		slots = newSlots;
+		mask = newMask;
+	}
+}
@@ -0,0 +1,299 @@
+package beastfx.app.treeannotator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import beast.base.evolution.tree.Node;
+import beast.base.evolution.tree.Tree;
+
+/**
+ * Column oriented in-memory store for a set of trees.
+ *
+ * Instead of keeping a Node object graph with a metadata map per node, every node
+ * of every tree occupies one position in a set of primitive arrays: node number,
+ * parent position, height and taxon label. Metadata is stored per attribute in a
+ * column with a type code and a double per node position. Strings and other
+ * objects are interned, and arrays go to a shared pool of doubles.
+ *
+ * Trees are materialised as Tree objects only when requested by get(int), so at
+ * most a few trees exist as object graphs at any time.
+ */
+public class CompactTreeStore {
+	// value kinds in metadata columns and in the array pool
+	final static byte ABSENT = 0, DOUBLE = 1, STRING = 2, ARRAY = 3, OBJECT = 4;
+
+	final static int INITIAL_CAPACITY = 1024;
+
+	/** first node position of each tree, treeStart[treeCount] is the total number of nodes **/
+	private int [] treeStart = new int[INITIAL_CAPACITY + 1];
+	private int treeCount = 0;
+	private final List<String> treeIDs = new ArrayList<>();
+
+	// per node position columns
+	private int [] nodeNr = new int[INITIAL_CAPACITY];
+	/** position of the parent relative to the start of the tree, -1 for the root **/
+	private int [] parent = new int[INITIAL_CAPACITY];
+	private double [] height = new double[INITIAL_CAPACITY];
+	/** index into labels, or -1 if the node has no ID **/
+	private int [] label = new int[INITIAL_CAPACITY];
+	private int nodeCapacity = INITIAL_CAPACITY;
+
+	/** interned node IDs (taxon names) **/
+	private final Interner<String> labels = new Interner<>();
+	/** interned string metadata values **/
+	private final Interner<String> strings = new Interner<>();
+	/** interned metadata values that are neither numbers, strings nor arrays **/
+	private final Interner<Object> objects = new Interner<>();
+
+	/** metadata attributes in order of first appearance **/
+	private final Map<String, MetaDataColumn> columns = new HashMap<>();
+	private final List<MetaDataColumn> columnList = new ArrayList<>();
+
+	/** pool for array valued metadata: length followed by (kind, value) pairs **/
+	private double [] arrayPool = new double[INITIAL_CAPACITY];
+	private int arrayPoolSize = 0;
+
+	// scratch used while adding a tree
+	private int [] positionOfNr = new int[0];
+
+	/** number of trees in the store **/
+	public int size() {
+		return treeCount;
+	}
+
+	/** total number of nodes over all trees in the store **/
+	public int getNodeCount() {
+		return treeStart[treeCount];
+	}
+
+	/** add tree to the end of the store. The tree itself is not referenced afterwards. **/
+	public void add(Tree tree) {
+		Node root = tree.getRoot();
+		int n = tree.getNodeCount();
+		int start = treeStart[treeCount];
+		ensureNodeCapacity(start + n);
+		if (positionOfNr.length < n) {
+			positionOfNr = new int[n];
+		}
+
+		// nodes are stored in post-order, so children precede their parent and keep their order
+		int end = addPostOrder(root, start);
+		if (end != start + n) {
+			throw new IllegalArgumentException("Tree " + tree.getID() + " has " + n + " nodes, but " + (end - start) + " are reachable from the root");
+		}
+		for (int pos = start; pos < end; pos++) {
+			parent[pos] = -1;
+		}
+		setParents(root, start);
+
+		if (treeCount + 1 >= treeStart.length) {
+			treeStart = Arrays.copyOf(treeStart, treeStart.length * 2);
+		}
+		treeCount++;
+		treeStart[treeCount] = end;
+		treeIDs.add(tree.getID());
+	}
+
+	private int addPostOrder(Node node, int pos) {
+		for (Node child : node.getChildren()) {
+			pos = addPostOrder(child, pos);
+		}
+		nodeNr[pos] = node.getNr();
+		height[pos] = node.getHeight();
+		label[pos] = node.getID() == null ? -1 : labels.intern(node.getID());
+		positionOfNr[node.getNr()] = pos;
+
+		Set<String> names = node.getMetaDataNames();
+		if (names != null) {
+			for (String name : names) {
+				Object value = node.getMetaData(name);
+				if (value != null) {
+					getColumn(name).set(pos, value);
+				}
+			}
+		}
+		return pos + 1;
+	}
+
+	private void setParents(Node node, int start) {
+		int pos = positionOfNr[node.getNr()];
+		for (Node child : node.getChildren()) {
+			parent[positionOfNr[child.getNr()]] = pos - start;
+			setParents(child, start);
+		}
+	}
+
+	/**
+	 * Create the i-th tree as a Tree object. Every call creates a new object graph.
+	 */
+	public Tree get(int i) {
+		int start = treeStart[i];
+		int end = treeStart[i + 1];
+		Node [] nodes = new Node[end - start];
+		for (int pos = start; pos < end; pos++) {
+			Node node = new Node();
+			node.setNr(nodeNr[pos]);
+			node.setHeight(height[pos]);
+			if (label[pos] >= 0) {
+				node.setID(labels.get(label[pos]));
+			}
+			for (MetaDataColumn column : columnList) {
+				Object value = column.get(pos);
+				if (value != null) {
+					node.setMetaData(column.name, value);
+				}
+			}
+			nodes[pos - start] = node;
+		}
+		// post-order: children are added to their parent in their original order
+		Node root = null;
+		for (int pos = start; pos < end; pos++) {
+			int p = parent[pos];
+			if (p < 0) {
+				root = nodes[pos - start];
+			} else {
+				nodes[p].addChild(nodes[pos - start]);
+			}
+		}
+		Tree tree = new Tree(root);
+		tree.setID(treeIDs.get(i));
+		return tree;
+	}
+
+	private void ensureNodeCapacity(int capacity) {
+		if (capacity <= nodeCapacity) {
+			return;
+		}
+		int newCapacity = Math.max(capacity, nodeCapacity + (nodeCapacity >> 1));
+		nodeNr = Arrays.copyOf(nodeNr, newCapacity);
+		parent = Arrays.copyOf(parent, newCapacity);
+		height = Arrays.copyOf(height, newCapacity);
+		label = Arrays.copyOf(label, newCapacity);
+		nodeCapacity = newCapacity;
+	}
+
+	private MetaDataColumn getColumn(String name) {
+		MetaDataColumn column = columns.get(name);
+		if (column == null) {
+			column = new MetaDataColumn(name);
+			columns.put(name, column);
+			columnList.add(column);
+		}
+		return column;
+	}
+
+	/** encode value as kind + double, arrays are written to the pool **/
+	private byte kindOf(Object value) {
+		if (value instanceof Double) {
+			return DOUBLE;
+		} else if (value instanceof String) {
+			return STRING;
+		} else if (value instanceof Object[]) {
+			return ARRAY;
+		}
+		return OBJECT;
+	}
+
+	private double encode(byte kind, Object value) {
+		switch (kind) {
+		case DOUBLE:
+			return (Double) value;
+		case STRING:
+			return strings.intern((String) value);
+		case ARRAY:
+			Object [] array = (Object []) value;
+			int offset = arrayPoolSize;
+			ensurePoolCapacity(arrayPoolSize + 1 + 2 * array.length);
+			arrayPool[arrayPoolSize++] = array.length;
+			for (Object element : array) {
+				// nested arrays are interned as objects
+				byte elementKind = element instanceof Object[] ? OBJECT : kindOf(element);
+				arrayPool[arrayPoolSize++] = elementKind;
+				arrayPool[arrayPoolSize++] = elementKind == OBJECT ? objects.intern(element) : encode(elementKind, element);
+			}
+			return offset;
+		default:
+			return objects.intern(value);
+		}
+	}
+
+	private Object decode(byte kind, double value) {
+		switch (kind) {
+		case DOUBLE:
+			return value;
+		case STRING:
+			return strings.get((int) value);
+		case ARRAY:
+			int offset = (int) value;
+			int length = (int) arrayPool[offset];
+			Object [] array = new Object[length];
+			for (int k = 0; k < length; k++) {
+				array[k] = decode((byte) arrayPool[offset + 1 + 2 * k], arrayPool[offset + 2 + 2 * k]);
+			}
+			return array;
+		case OBJECT:
+			return objects.get((int) value);
+		default:
+			return null;
+		}
+	}
+
+	private void ensurePoolCapacity(int capacity) {
+		if (capacity > arrayPool.length) {
+			arrayPool = Arrays.copyOf(arrayPool, Math.max(capacity, arrayPool.length + (arrayPool.length >> 1)));
+		}
+	}
+
+	/** metadata values of one attribute for all node positions **/
+	private class MetaDataColumn {
+		final String name;
+		byte [] kind = new byte[0];
+		double [] value = new double[0];
+
+		MetaDataColumn(String name) {
+			this.name = name;
+		}
+
+		void set(int pos, Object v) {
+			if (pos >= kind.length) {
+				int newCapacity = Math.max(nodeCapacity, pos + 1);
+				kind = Arrays.copyOf(kind, newCapacity);
+				value = Arrays.copyOf(value, newCapacity);
+			}
+			byte k = kindOf(v);
+			kind[pos] = k;
+			value[pos] = encode(k, v);
+		}
+
+		Object get(int pos) {
+			if (pos >= kind.length) {
+				return null;
+			}
+			return decode(kind[pos], value[pos]);
+		}
+	}
+
+	/** assigns consecutive codes to distinct values **/
+	private static class Interner<T> {
+		final Map<T, Integer> codes = new HashMap<>();
+		final List<T> values = new ArrayList<>();
+
+		int intern(T value) {
+			Integer code = codes.get(value);
+			if (code == null) {
+				code = values.size();
+				codes.put(value, code);
+				values.add(value);
+			}
+			return code;
+		}
+
+		T get(int code) {
+			return values.get(code);
+		}
+	}
+}
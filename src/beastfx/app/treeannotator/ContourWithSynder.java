@@ -1,10 +1,5 @@
 package beastfx.app.treeannotator;
 
-import java.awt.geom.Point2D;
-import java.util.ArrayList;
-import java.util.LinkedList;
-import java.util.List;
-
 
 /**
  * @author Marc A. Suchard
@@ -34,25 +29,16 @@ public class ContourWithSynder extends KernelDensityEstimator2D  {
 
             double thresholdDensity = findLevelCorrespondingToMass(hpdValue);
 
-            SnyderContour contourPlot = new SnyderContour(getXGrid().length,getYGrid().length);
+            SnyderContour contourPlot = contourPlots.get();
+            contourPlot.setSteps(getXGrid().length,getYGrid().length);
             contourPlot.setDeltas(getXGrid()[1]-getXGrid()[0],getYGrid()[1]-getYGrid()[0] );
             contourPlot.setOffsets(getXGrid()[0],getYGrid()[0]);
 
-            List<LinkedList<Point2D>> allPaths = new ArrayList<>();
-            contourPlot.ContourKernel(getKDE(),allPaths,thresholdDensity);
-
-            contourPaths = new ContourPath[allPaths.size()];
-            for(int i=0; i<allPaths.size(); i++) {
-                LinkedList<Point2D> path = allPaths.get(i);
-                int len = path.size();
-                double[] x = new double[len];
-                double[] y = new double[len];
-                for(int j=0; j<len; j++) {
-                    Point2D pt = path.get(j);
-                    x[j] = pt.getX();
-                    y[j] = pt.getY();
-                }
-                contourPaths[i] = new ContourPath(new ContourAttrib(thresholdDensity),1,x,y);
+            contourPlot.ContourKernel(getKDE(),thresholdDensity);
+
+            contourPaths = new ContourPath[contourPlot.getPathCount()];
+            for(int i=0; i<contourPaths.length; i++) {
+                contourPaths[i] = new ContourPath(new ContourAttrib(thresholdDensity),1,contourPlot.getPathX(i),contourPlot.getPathY(i));
             }
         }
 
@@ -61,4 +47,7 @@ public class ContourWithSynder extends KernelDensityEstimator2D  {
 
     private ContourPath[] contourPaths = null;
 
+    /** contour tracer with its grid and work space per thread, reused for all densities contoured on that thread **/
+    private static final ThreadLocal<SnyderContour> contourPlots = ThreadLocal.withInitial(() -> new SnyderContour(0, 0));
+
 }
@@ -0,0 +1,260 @@
+package beastfx.app.treeannotator;
+
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Timings and throughput of the phases of a TreeAnnotator run, and the progress bar
+ * that is printed while trees are processed.
+ *
+ * A phase runs from start(phase) till the matching end(). Phases can be nested, as when
+ * the clade system is built while the topology is determined, in which case the time of
+ * the inner phase is not counted for the outer one. A phase that is started several
+ * times accumulates its time, trees and bytes.
+ *
+ * Every start and end of a phase, every step of the progress bar, and the summary written
+ * by finish() are passed to the listeners as a single line of JSON, for example
+ * <pre>
+ * {"event":"end","phase":"parse","ms":1520.3,"trees":10000,"bytes":52428800,"treesPerSecond":6578.1,"bytesPerSecond":34488651.9,"peakClades":8734}
+ * </pre>
+ */
+public class Instrumentation {
+
+	public enum Phase {
+		/** counting trees and indexing the tree log **/
+		COUNT,
+		/** parsing trees into memory, or reading trees appended to a followed tree log **/
+		PARSE,
+		/** counting clades, and collecting their attributes **/
+		CLADES,
+		/** finding the summary tree topology, apart from building the clade system **/
+		TOPOLOGY,
+		/** setting node heights of the summary tree **/
+		HEIGHTS,
+		/** annotating the summary tree with clade attributes **/
+		ANNOTATE,
+		/** writing the summary tree **/
+		WRITE;
+
+		/** @return name as used in JSON lines **/
+		public String getName() {
+			return name().toLowerCase();
+		}
+	}
+
+	public enum EventType {START, PROGRESS, END, SUMMARY}
+
+	public interface Listener {
+		/** @param phase phase the event is about, null for the summary **/
+		void event(EventType type, Phase phase, String json);
+	}
+
+	/** number of stars in a full progress bar **/
+	final static int PROGRESS_BAR_LENGTH = 61;
+
+	final private List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+	final private long [] nanos = new long[Phase.values().length];
+	final private long [] trees = new long[Phase.values().length];
+	final private long [] bytes = new long[Phase.values().length];
+	final private Deque<Phase> running = new ArrayDeque<>();
+	/** time the innermost running phase was started or resumed **/
+	private long resumed;
+	private long created = System.nanoTime();
+	private int peakCladeCount = 0;
+
+	// progress bar
+	private PrintStream progressStream;
+	private int progressTotal;
+	private int progressCount;
+	private int reported;
+
+	public void addListener(Listener listener) {
+		listeners.add(listener);
+	}
+
+	public void removeListener(Listener listener) {
+		listeners.remove(listener);
+	}
+
+	/** starts phase, pausing the phase that is running, if any **/
+	public synchronized void start(Phase phase) {
+		long now = System.nanoTime();
+		if (!running.isEmpty()) {
+			nanos[running.peek().ordinal()] += now - resumed;
+		}
+		running.push(phase);
+		resumed = now;
+		emit(EventType.START, phase, "{\"event\":\"start\",\"phase\":\"" + phase.getName() + "\"}");
+	}
+
+	/** ends the phase started last, and resumes the phase that was running before, if any **/
+	public synchronized void end() {
+		if (running.isEmpty()) {
+			throw new IllegalStateException("no phase to end");
+		}
+		long now = System.nanoTime();
+		Phase phase = running.pop();
+		nanos[phase.ordinal()] += now - resumed;
+		resumed = now;
+		emit(EventType.END, phase, "{\"event\":\"end\"," + toJSON(phase) + "}");
+	}
+
+	/** ends all running phases and passes the summary of all phases to the listeners **/
+	public synchronized void finish() {
+		while (!running.isEmpty()) {
+			end();
+		}
+		StringBuilder b = new StringBuilder();
+		b.append("{\"event\":\"summary\",\"ms\":").append(format((System.nanoTime() - created) / 1e6));
+		b.append(",\"peakClades\":").append(peakCladeCount).append(",\"phases\":[");
+		boolean first = true;
+		for (Phase phase : Phase.values()) {
+			if (nanos[phase.ordinal()] > 0) {
+				b.append(first ? "" : ",").append('{').append(toJSON(phase)).append('}');
+				first = false;
+			}
+		}
+		b.append("]}");
+		emit(EventType.SUMMARY, null, b.toString());
+	}
+
+	/** adds time and trees to phase without passing events to the listeners, for work that is repeated often **/
+	public synchronized void add(Phase phase, long nanos, long trees) {
+		this.nanos[phase.ordinal()] += nanos;
+		this.trees[phase.ordinal()] += trees;
+	}
+
+	/** adds to the number of trees processed by the running phase **/
+	public synchronized void addTrees(long count) {
+		if (!running.isEmpty()) {
+			trees[running.peek().ordinal()] += count;
+		}
+	}
+
+	/** adds to the number of bytes of the tree log read by the running phase **/
+	public synchronized void addBytes(long count) {
+		if (!running.isEmpty()) {
+			bytes[running.peek().ordinal()] += count;
+		}
+	}
+
+	/** records the size of a clade table, to keep track of the peak size **/
+	public synchronized void cladeCount(int count) {
+		peakCladeCount = Math.max(peakCladeCount, count);
+	}
+
+	/** prints the scale of a progress bar for total trees **/
+	public synchronized void startProgress(PrintStream progressStream, int total) {
+		this.progressStream = progressStream;
+		progressTotal = total;
+		progressCount = 0;
+		reported = 0;
+		progressStream.println("0              25             50             75            100");
+		progressStream.println("|--------------|--------------|--------------|--------------|");
+	}
+
+	/** to be called after every tree: counts the tree for the running phase, and extends the progress bar **/
+	public synchronized void progress() {
+		addTrees(1);
+		if (reported >= PROGRESS_BAR_LENGTH) {
+			progressCount++;
+			return;
+		}
+		boolean extended = false;
+		while (reported < PROGRESS_BAR_LENGTH && 1000.0 * reported < 61000.0 * (progressCount + 1) / progressTotal) {
+			progressStream.print("*");
+			reported++;
+			progressStream.flush();
+			extended = true;
+		}
+		progressCount++;
+		if (extended && !listeners.isEmpty()) {
+			Phase phase = running.peek();
+			emit(EventType.PROGRESS, phase, "{\"event\":\"progress\"" +
+					(phase == null ? "" : ",\"phase\":\"" + phase.getName() + "\"") +
+					",\"trees\":" + progressCount + ",\"total\":" + progressTotal + "}");
+		}
+	}
+
+	/** ends the line of the progress bar **/
+	public synchronized void endProgress() {
+		progressStream.println();
+		progressStream.println();
+	}
+
+	public synchronized double getMilliseconds(Phase phase) {
+		long t = nanos[phase.ordinal()];
+		if (running.peek() == phase) {
+			t += System.nanoTime() - resumed;
+		}
+		return t / 1e6;
+	}
+
+	public synchronized long getTrees(Phase phase) {
+		return trees[phase.ordinal()];
+	}
+
+	public synchronized long getBytes(Phase phase) {
+		return bytes[phase.ordinal()];
+	}
+
+	public synchronized int getPeakCladeCount() {
+		return peakCladeCount;
+	}
+
+	/** @return time and throughput of phase so far, as a line of text **/
+	public synchronized String describe(Phase phase) {
+		int i = phase.ordinal();
+		double seconds = getMilliseconds(phase) / 1000;
+		String str = String.format(Locale.US, "%s: %.3f s", phase.getName(), seconds);
+		if (seconds > 0 && trees[i] > 0) {
+			str += String.format(Locale.US, ", %.1f trees/s", trees[i] / seconds);
+		}
+		if (seconds > 0 && bytes[i] > 0) {
+			str += String.format(Locale.US, ", %.2f MB/s", bytes[i] / seconds / 1e6);
+		}
+		return str;
+	}
+
+	/** prints a table with time and throughput per phase **/
+	public synchronized void report(PrintStream out) {
+		out.println("Phase          time (s)     trees/s        MB/s");
+		for (Phase phase : Phase.values()) {
+			double seconds = getMilliseconds(phase) / 1000;
+			if (seconds <= 0) {
+				continue;
+			}
+			out.print(String.format(Locale.US, "%-10s %12.3f", phase.getName(), seconds));
+			out.print(trees[phase.ordinal()] > 0 ? String.format(Locale.US, " %11.1f", trees[phase.ordinal()] / seconds) : String.format("%12s", "-"));
+			out.println(bytes[phase.ordinal()] > 0 ? String.format(Locale.US, " %11.2f", bytes[phase.ordinal()] / seconds / 1e6) : String.format("%12s", "-"));
+		}
+		out.println("Peak clade table size: " + peakCladeCount);
+	}
+
+	private String toJSON(Phase phase) {
+		int i = phase.ordinal();
+		double seconds = getMilliseconds(phase) / 1000;
+		return "\"phase\":\"" + phase.getName() + "\"" +
+				",\"ms\":" + format(seconds * 1000) +
+				",\"trees\":" + trees[i] +
+				",\"bytes\":" + bytes[i] +
+				",\"treesPerSecond\":" + format(seconds > 0 ? trees[i] / seconds : 0) +
+				",\"bytesPerSecond\":" + format(seconds > 0 ? bytes[i] / seconds : 0) +
+				",\"peakClades\":" + peakCladeCount;
+	}
+
+	private static String format(double x) {
+		return String.format(Locale.US, "%.1f", x);
+	}
+
+	private void emit(EventType type, Phase phase, String json) {
+		for (Listener listener : listeners) {
+			listener.event(type, phase, json);
+		}
+	}
+}
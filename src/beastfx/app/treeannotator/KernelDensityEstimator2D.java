@@ -266,15 +266,15 @@ public class KernelDensityEstimator2D implements ContourMaker {
 
     public double[] getLims() { return lims; }
 
-    private final double[] x; // x coordinates
-    private final double[] y; // y coordinates
-    private double[] h; // h[0] x-bandwidth, h[1] y-bandwidth
-    private final int n; // grid size
-    private double[] lims; // x,y limits
-    private int nx; // length of vectors
-    private double[] gx; // x-grid points
-    private double[] gy; // y-grid points
-    private double[][] z; // KDE estimate;
+    protected final double[] x; // x coordinates
+    protected final double[] y; // y coordinates
+    protected double[] h; // h[0] x-bandwidth, h[1] y-bandwidth
+    protected final int n; // grid size
+    protected double[] lims; // x,y limits
+    protected int nx; // length of vectors
+    protected double[] gx; // x-grid points
+    protected double[] gy; // y-grid points
+    protected double[][] z; // KDE estimate;
 
     private final boolean limitBandwidth;
 
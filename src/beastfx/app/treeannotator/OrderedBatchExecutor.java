@@ -0,0 +1,100 @@
+package beastfx.app.treeannotator;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+/**
+ * Processes items in batches on a pool of threads, and passes the results to a consumer
+ * on the thread that adds the items, in the order the items were added.
+ *
+ * At most a few batches per thread are queued: add() waits for the oldest batch when the
+ * queue is full, so items can be read from a stream without holding all of them in memory.
+ */
+public class OrderedBatchExecutor<T, R> implements AutoCloseable {
+
+	/** receives a batch with its result, on the thread calling add() and finish() **/
+	public interface BatchConsumer<T, R> {
+		void accept(List<T> batch, R result) throws IOException;
+	}
+
+	final private int threads;
+	final private int batchSize;
+	final private Function<List<T>, R> task;
+	final private BatchConsumer<T, R> consumer;
+	final private ForkJoinPool pool;
+
+	final private Deque<List<T>> batches = new ArrayDeque<>();
+	final private Deque<Future<R>> results = new ArrayDeque<>();
+	private List<T> batch = new ArrayList<>();
+
+	/**
+	 * @param threads number of threads processing batches
+	 * @param batchSize number of items per batch
+	 * @param task processes a batch, called on the pool
+	 * @param consumer receives results in order of the batches
+	 */
+	public OrderedBatchExecutor(int threads, int batchSize, Function<List<T>, R> task, BatchConsumer<T, R> consumer) {
+		this.threads = threads;
+		this.batchSize = batchSize;
+		this.task = task;
+		this.consumer = consumer;
+		pool = new ForkJoinPool(threads);
+	}
+
+	public void add(T item) throws IOException {
+		batch.add(item);
+		if (batch.size() >= batchSize) {
+			submit();
+		}
+	}
+
+	/** process the remaining items, and pass all outstanding results to the consumer **/
+	public void finish() throws IOException {
+		if (!batch.isEmpty()) {
+			submit();
+		}
+		drain(0);
+	}
+
+	@Override
+	public void close() {
+		pool.shutdownNow();
+	}
+
+	private void submit() throws IOException {
+		final List<T> items = batch;
+		batch = new ArrayList<>();
+		batches.add(items);
+		results.add(pool.submit(() -> task.apply(items)));
+		drain(4 * threads);
+	}
+
+	/** hand completed batches at the head of the queue to consumer, waiting while more than maxPending are queued **/
+	private void drain(int maxPending) throws IOException {
+		try {
+			while (!results.isEmpty() && (results.size() > maxPending || results.peekFirst().isDone())) {
+				R result = results.pollFirst().get();
+				consumer.accept(batches.pollFirst(), result);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while processing trees");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new IOException(cause.getMessage(), cause);
+		}
+	}
+}
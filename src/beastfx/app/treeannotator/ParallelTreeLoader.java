@@ -0,0 +1,225 @@
+package beastfx.app.treeannotator;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+
+import beast.base.evolution.tree.Tree;
+
+/**
+ * Parses a tree file on multiple threads.
+ *
+ * The file is read sequentially and split into batches of tree lines, each starting at a
+ * "tree STATE_..." line (or a Newick line for files that are not NEXUS). Batches are parsed
+ * on a work-stealing pool while reading continues, and are collected in file order, so
+ * the trees come back in the same order as with the single threaded parsers.
+ * Burn-in trees are skipped without being parsed.
+ */
+public class ParallelTreeLoader {
+	/** number of characters of tree text after which a batch is handed to the pool **/
+	final static int BATCH_CHARACTERS = 1 << 20;
+	/** maximum number of trees in a batch **/
+	final static int BATCH_TREES = 256;
+
+	final private String inputFileName;
+	final private boolean isNexus;
+	final private int burninCount;
+	final private int threads;
+	/** if not null, used to jump past burn-in **/
+	final private TreeLogIndex index;
+
+	private List<String> taxa = null;
+	private int origin = -1;
+	/** if not null, gets the number of bytes of every read from the file **/
+	private LongConsumer bytesRead = null;
+
+	public ParallelTreeLoader(String inputFileName, boolean isNexus, int burninCount, int threads) {
+		this.inputFileName = inputFileName;
+		this.isNexus = isNexus;
+		this.burninCount = burninCount;
+		this.threads = threads;
+		this.index = null;
+	}
+
+	/** loader that uses index to start reading at the first tree after burn-in **/
+	public ParallelTreeLoader(String inputFileName, TreeLogIndex index, int burninCount, int threads) {
+		this.inputFileName = inputFileName;
+		this.isNexus = index.isNexus();
+		this.burninCount = burninCount;
+		this.threads = threads;
+		this.index = index;
+	}
+
+	/** @param bytesRead gets the number of bytes of every read from the file, on the thread calling load() **/
+	public ParallelTreeLoader setBytesRead(LongConsumer bytesRead) {
+		this.bytesRead = bytesRead;
+		return this;
+	}
+
+	/**
+	 * @return all trees after burn-in, in file order
+	 */
+	public Tree[] load() throws IOException {
+		List<Tree> trees = new ArrayList<>();
+		load(trees::add);
+		return trees.toArray(new Tree[0]);
+	}
+
+	/**
+	 * Passes all trees after burn-in to consumer, in file order, on the calling thread.
+	 * At most a few batches per thread are kept in memory, so this does not need to
+	 * hold all parsed trees at the same time.
+	 */
+	public void load(Consumer<Tree> consumer) throws IOException {
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		Deque<Future<Tree[]>> batches = new ArrayDeque<>();
+		try {
+			BufferedReader fin;
+			String str;
+			int treeCount = 0;
+			if (index != null && isNexus) {
+				if (index.getTranslateOffset() >= 0) {
+					try (BufferedReader translate = TreeLogIndex.openAt(inputFileName, index.getTranslateOffset(), bytesRead)) {
+						setTaxa(TreeLogParser.parseTranslateBlock(translate));
+					}
+				}
+				treeCount = Math.min(burninCount, index.getTreeCount());
+				fin = TreeLogIndex.openAt(inputFileName, index.getOffset(treeCount), bytesRead);
+				str = fin.readLine();
+			} else {
+				fin = TreeLogIndex.openAt(inputFileName, 0, bytesRead);
+				str = readHeader(fin);
+			}
+			try {
+				submitBatches(fin, str, treeCount, pool, batches, consumer);
+			} finally {
+				fin.close();
+			}
+			drain(batches, consumer, 0);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while parsing " + inputFileName);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new IOException("Could not parse " + inputFileName + ": " + cause.getMessage(), cause);
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/** hand completed batches at the head of the queue to consumer, waiting while more than maxPending are queued **/
+	private void drain(Deque<Future<Tree[]>> batches, Consumer<Tree> consumer, int maxPending) throws InterruptedException, ExecutionException {
+		while (!batches.isEmpty() && (batches.size() > maxPending || batches.peekFirst().isDone())) {
+			for (Tree tree : batches.pollFirst().get()) {
+				consumer.accept(tree);
+			}
+		}
+	}
+
+	/** read up to the first line that may contain a tree, and the translate block if there is one
+	 * @return first line that may contain a tree **/
+	private String readHeader(BufferedReader fin) throws IOException {
+		String str = fin.readLine();
+		if (!isNexus) {
+			return str;
+		}
+		// skip to the trees block
+		while (str != null && !TreeLogParser.isBeginTreesLine(str)) {
+			str = fin.readLine();
+		}
+		// read to first non-empty line within trees block
+		while ((str = fin.readLine()) != null && str.trim().length() == 0) {
+		}
+		if (str != null && str.toLowerCase().contains("translate")) {
+			setTaxa(TreeLogParser.parseTranslateBlock(fin));
+			str = fin.readLine();
+		}
+		return str;
+	}
+
+	private void setTaxa(Map<String, String> translationMap) {
+		origin = TreeLogParser.getIndexedTranslationMapOrigin(translationMap);
+		if (origin != -1) {
+			taxa = TreeLogParser.getIndexedTranslationMap(translationMap, origin);
+		}
+	}
+
+	/** str is the line just read from fin, treeCount the number of trees before that line **/
+	private void submitBatches(BufferedReader fin, String str, int treeCount, ForkJoinPool pool, Deque<Future<Tree[]>> batches, Consumer<Tree> consumer) throws IOException, InterruptedException, ExecutionException {
+		List<String> batch = new ArrayList<>();
+		int batchStart = 0;
+		int batchCharacters = 0;
+		while (str != null) {
+			boolean isTree = isNexus ? TreeLogParser.isTreeLine(str) : str.trim().length() > 0;
+			if (isTree) {
+				if (treeCount >= burninCount) {
+					if (batch.isEmpty()) {
+						batchStart = treeCount;
+					}
+					batch.add(str);
+					batchCharacters += str.length();
+					if (batch.size() >= BATCH_TREES || batchCharacters >= BATCH_CHARACTERS) {
+						batches.add(pool.submit(new ParseTask(batch, batchStart)));
+						batch = new ArrayList<>();
+						batchCharacters = 0;
+						drain(batches, consumer, 4 * threads);
+					}
+				}
+				treeCount++;
+			}
+			str = fin.readLine();
+		}
+		if (!batch.isEmpty()) {
+			batches.add(pool.submit(new ParseTask(batch, batchStart)));
+		}
+	}
+
+	/** parses a batch of tree lines, start is the index of the first tree in the file **/
+	private class ParseTask implements java.util.concurrent.Callable<Tree[]> {
+		final List<String> lines;
+		final int start;
+
+		ParseTask(List<String> lines, int start) {
+			this.lines = lines;
+			this.start = start;
+		}
+
+		@Override
+		public Tree[] call() {
+			Tree[] trees = new Tree[lines.size()];
+			for (int i = 0; i < trees.length; i++) {
+				String line = lines.get(i);
+				if (isNexus) {
+					trees[i] = TreeLogParser.parseNexusTree(line, taxa, origin, "" + (start + i + 1));
+				} else {
+					line = line.trim();
+					String id = "" + (start + i);
+					try {
+						int k = line.indexOf("(");
+						id = line.substring(5, k).split("=")[0].trim();
+					} catch (Exception e) {
+						// ignore
+					}
+					Tree tree = TreeLogParser.parseNewick(line, null, -1);
+					tree.setID(id);
+					trees[i] = tree;
+				}
+				// the line is no longer needed
+				lines.set(i, null);
+			}
+			return trees;
+		}
+	}
+}
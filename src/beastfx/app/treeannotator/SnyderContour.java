@@ -1,9 +1,7 @@
 package beastfx.app.treeannotator;
 
 import java.awt.Dimension;
-import java.awt.geom.Point2D;
-import java.util.LinkedList;
-import java.util.List;
+import java.util.Arrays;
 
 
 /* This class provides 2D contouring functionality.  This code is adapted from
@@ -12,6 +10,10 @@ import java.util.List;
  *
  *      Snyder WV (1978) "Algorithm 531, Contour Plotting [J6]", ACM Trans. Math. Softw., 4, 290-294.
  *
+ * Traced paths are kept in primitive arrays that grow as needed, and the grid and work space
+ * are reused by the next call to ContourKernel when the grid size does not change, so a single
+ * instance can contour many density grids without allocating much.
+ *
  * @author Marc Suchard
  */
 
@@ -60,6 +62,16 @@ public class SnyderContour {
     float cv[] = new float[ncv];
     boolean jump;
 
+    // Below, the traced paths: the coordinates of all points, path after path,
+    // and for path i the index of its first point in pathStart[i]
+    double pathX[] = new double[256];
+    double pathY[] = new double[256];
+    int pointCount;
+    int pathStart[] = new int[16];
+    int pathCount;
+    // work space of the last call to ContourKernel, reused if the grid size stays the same
+    boolean workArea[];
+
     //-------------------------------------------------------
     // A constructor method.
     //-------------------------------------------------------
@@ -69,6 +81,12 @@ public class SnyderContour {
         ySteps = y;
     }
 
+    /** change the grid size, for contouring another grid with the same instance **/
+    public void setSteps(int x, int y) {
+        xSteps = x;
+        ySteps = y;
+    }
+
     public void setDeltas(double xDelta, double yDelta) {
         this.deltaX = xDelta;
         this.deltaY = yDelta;
@@ -107,7 +125,7 @@ public class SnyderContour {
     // index is drawn adjacent to where the contour ends.
     //-------------------------------------------------------
 
-    void DrawKernel(List<LinkedList<Point2D>> allPaths) {
+    void DrawKernel() {
         double          //prevU,prevV,
                 u, v;
 
@@ -124,8 +142,7 @@ public class SnyderContour {
             // Interchange horizontal & vertical
 //			g.drawLine(PLOT_MARGIN+prevV,PLOT_MARGIN+prevU,
 //				   PLOT_MARGIN+v, PLOT_MARGIN+u);
-            LinkedList<Point2D> path = allPaths.get(allPaths.size() - 1);
-            path.add(new Point2D.Double(u, v));
+            addPoint(u, v);
 //			if ((SHOW_NUMBERS) && ((iflag==4) || (iflag==5))) {
 //				if      (u == 0)	u = u - WEE_BIT;
 //				else if	(u == d.width)  u = u + PLOT_MARGIN/2;
@@ -139,14 +156,26 @@ public class SnyderContour {
         if ((iflag == 2) || (iflag == 3)) { // start new path
             u = ((xy[0] - 1.0) * deltaX) + offsetX;
             v = ((xy[1] - 1.0) * deltaY) + offsetY;
-            LinkedList<Point2D> path = new LinkedList<>();
-            path.add(new Point2D.Double(u, v));
-            allPaths.add(path);
+            if (pathCount == pathStart.length) {
+                pathStart = Arrays.copyOf(pathStart, 2 * pathCount);
+            }
+            pathStart[pathCount++] = pointCount;
+            addPoint(u, v);
         }
         prevXY[0] = xy[0];
         prevXY[1] = xy[1];
     }
 
+    void addPoint(double u, double v) {
+        if (pointCount == pathX.length) {
+            pathX = Arrays.copyOf(pathX, 2 * pointCount);
+            pathY = Arrays.copyOf(pathY, 2 * pointCount);
+        }
+        pathX[pointCount] = u;
+        pathY[pointCount] = v;
+        pointCount++;
+    }
+
     //-------------------------------------------------------
     // "DetectBoundary"
     //-------------------------------------------------------
@@ -280,15 +309,13 @@ public class SnyderContour {
     // starting at label 200 in Synder's subroutine "GCONTR".
     // It has return values 0, 1 or 2.
     //-------------------------------------------------------
-    short Routine_label_200(//Graphics g
-                            List<LinkedList<Point2D>> allPaths
-            , boolean workSpace[]) {
+    short Routine_label_200(boolean workSpace[]) {
         while (true) {
             xy[elle] = 1.0 * ij[elle] + intersect[iedge - 1];
             xy[1 - elle] = 1.0 * ij[1 - elle];
             workSpace[2 * (xSteps * (ySteps * cntrIndex + ij[1] - 1)
                     + ij[0] - 1) + elle] = true;
-            DrawKernel(allPaths);
+            DrawKernel();
             if (iflag >= 4) {
                 icur = ij[0];
                 jcur = ij[1];
@@ -392,31 +419,60 @@ public class SnyderContour {
     }
 
 
-    void ContourKernel(double[][] data, List<LinkedList<Point2D>> allPaths, double level) {
+    /**
+     * traces the contour lines of data at the given level, which are then
+     * available through getPathCount(), getPathX(int) and getPathY(int)
+     */
+    void ContourKernel(double[][] data, double level) {
 
         ncv = 1;
         cv[0] = (float) level;
+        pointCount = 0;
+        pathCount = 0;
 
         int workLength = 2 * xSteps * ySteps * ncv;
-        boolean workSpace[]; // Allocate below if data valid
+        if (workArea == null || workArea.length != workLength) {
+            workArea = new boolean[workLength];
+        } else {
+            Arrays.fill(workArea, false);
+        }
 
-        z = new float[data.length][data[0].length];
+        if (z == null || z.length != data.length || z[0].length != data[0].length) {
+            z = new float[data.length][data[0].length];
+        }
         for (int i = 0; i < data.length; i++) {
             for (int j = 0; j < data[i].length; j++)
                 z[i][j] = (float) data[i][j];
         }
 
-        workSpace = new boolean[workLength];
-        ContourPlotKernel(allPaths, workSpace);
+        ContourPlotKernel(workArea);
+
+    }
+
+    /** @return number of paths traced by the last call to ContourKernel **/
+    int getPathCount() {
+        return pathCount;
+    }
+
+    /** @return x coordinates of path i **/
+    double[] getPathX(int i) {
+        return Arrays.copyOfRange(pathX, pathStart[i], pathEnd(i));
+    }
+
+    /** @return y coordinates of path i **/
+    double[] getPathY(int i) {
+        return Arrays.copyOfRange(pathY, pathStart[i], pathEnd(i));
+    }
 
+    private int pathEnd(int i) {
+        return i + 1 < pathCount ? pathStart[i + 1] : pointCount;
     }
 
     //-------------------------------------------------------
     // "ContourPlotKernel" is the guts of this class and
     // corresponds to Synder's subroutine "GCONTR".
     //-------------------------------------------------------
-    void ContourPlotKernel(List<LinkedList<Point2D>> allPaths,
-                           boolean workSpace[]) {
+    void ContourPlotKernel(boolean workSpace[]) {
         short val_label_200;
 
         l1[0] = xSteps;
@@ -456,7 +512,7 @@ public class SnyderContour {
                 iedge = ks + 2;
                 if (iedge > 4) iedge = iedge - 4;
                 intersect[iedge - 1] = intersect[ks - 1];
-                val_label_200 = Routine_label_200(allPaths, workSpace);
+                val_label_200 = Routine_label_200(workSpace);
                 if (val_label_200 == 1) {
                     if (Routine_label_020() && Routine_label_150()) return;
                     if (Routine_label_050()) return;
@@ -476,7 +532,7 @@ public class SnyderContour {
                 if (ix != 1) iedge = iedge + 2;
                 iflag = 2 + ibkey;
                 intersect[iedge - 1] = (cval - z1) / (z2 - z1);
-                val_label_200 = Routine_label_200(allPaths, workSpace);
+                val_label_200 = Routine_label_200(workSpace);
                 if (val_label_200 == 1) {
                     if (Routine_label_020() && Routine_label_150()) return;
                     if (Routine_label_050()) return;
@@ -128,6 +128,13 @@ public class TAGui extends Console {
 	            TreeAnnotator ta = new TreeAnnotator();
 	            ta.topologyInput.setValue(targetOption, ta);
 	            ta.heightInput.setValue(heightsOption, ta);
+	            Instrumentation instrumentation = ta.getInstrumentation();
+	            // show how long each phase took as soon as it is done
+	            instrumentation.addListener((type, phase, json) -> {
+	            	if (type == Instrumentation.EventType.END) {
+	            		TreeAnnotator.progressStream.println("[" + instrumentation.describe(phase) + "]");
+	            	}
+	            });
 	            ta.run(burninPercentage,
 	            		lowMem,
 	                    //heightsOption,
@@ -137,6 +144,9 @@ public class TAGui extends Console {
 	                    targetTreeFileName,
 	                    inputFileName,
 	                    outputFileName);
+	            instrumentation.finish();
+	            TreeAnnotator.progressStream.println();
+	            instrumentation.report(TreeAnnotator.progressStream);
 
 	        } catch (Exception ex) {
 	            Log.err.println("Exception: " + ex.getMessage());
@@ -27,9 +27,15 @@ package beastfx.app.treeannotator;
 
 
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
 
 import beastfx.app.tools.Application;
+import beastfx.app.treeannotator.Instrumentation.Phase;
+import beastfx.app.util.OrderStatistics;
+import beastfx.app.util.StreamingStatistics;
+import beastfx.app.treeannotator.services.MCCTopologyService;
 import beastfx.app.treeannotator.services.NodeHeightSettingService;
 import beastfx.app.treeannotator.services.TopologySettingService;
 import beastfx.app.treeannotator.services.UserTargetTreeTopologyService;
@@ -44,7 +50,6 @@ import beast.base.evolution.tree.TreeUtils;
 import beast.base.parser.NexusParser;
 import beast.base.util.CollectionUtils;
 import beast.base.util.DiscreteStatistics;
-import beast.base.util.HeapSort;
 import beast.pkgmgmt.BEASTClassLoader;
 import beast.pkgmgmt.BEASTVersion;
 import beast.pkgmgmt.PackageManager;
@@ -64,8 +69,16 @@ public class TreeAnnotator extends beast.base.inference.Runnable {
     final public Input<String> targetInput = new Input<> ("target", "target_file_name, specifies a user target tree to be annotated");
     final public Input<Boolean> forceDiscreteInput = new Input<> ("forceDiscrete", "forces integer traits to be treated as discrete traits.");
     final public Input<Boolean> lowMemInput = new Input<> ("lowMem", "use less memory, which is a bit slower.");
+    final public Input<Integer> threadsInput = new Input<> ("threads", "number of threads used for parsing the tree file (not when lowMem is set), for scoring trees for MCC and MSCC, and for annotating nodes", 1);
+    final public Input<Boolean> compactInput = new Input<> ("compact", "keep trees in a compact column based store instead of as tree objects. Uses much less memory than the default and is faster than lowMem (ignored when lowMem is set)");
+    final public Input<Boolean> streamingStatsInput = new Input<> ("streamingStats", "summarise numeric attributes other than height by running mean and a quantile sketch instead of keeping all values. Uses much less memory, but medians and HPD intervals are approximate");
+    final public Input<Integer> approximateAboveInput = new Input<> ("approximateAbove", "for attributes with more values than this, including heights, approximate medians and HPD intervals by a quantile sketch instead of sorting all values. For common ancestor heights of more trees than this, heights are summarised while reading the trees instead of stored, so memory does not grow with the number of trees. By default, values are always sorted");
     final public Input<Double> hpd2DInput = new Input<> ("hpd2D", "the HPD interval to be used for the bivariate traits");
     final public Input<Boolean> nohpd2DInput = new Input<> ("nohpd2D", "suppress calculation of HPD intervals for the bivariate traits");
+    final public Input<Boolean> binnedKDEInput = new Input<> ("binnedKDE", "estimate the densities for HPD intervals of bivariate traits from binned trait values. Much faster for large tree sets, and densities differ by less than 0.1% of the maximum density from the exact estimate");
+    final public Input<Boolean> followInput = new Input<> ("follow", "keep reading trees as a running analysis appends them to the tree log, and write the summary tree every followInterval seconds and when Enter is pressed. Burn-in is the percentage of all trees logged so far. Stops when the log is complete. Only for NEXUS tree logs with MCC or MSCC topology");
+    final public Input<Integer> followIntervalInput = new Input<> ("followInterval", "number of seconds between summary trees when following a tree log", 60);
+    final public Input<String> instrumentationInput = new Input<> ("instrumentation", "file to write progress, time per phase, trees and bytes per second, and peak clade table size to, as lines of JSON");
     final public Input<Boolean> noSAInput = new Input<> ("noSA", "interpret the tree set as begin from a not being from a sampled ancestor analysis, even if there are zero branch lengths in the tree set");
     final public Input<List<String>> versionFileInput = new Input<> ("version_file", "Provide a version file containing a list of services to explicitly allow. (Useful for package development.)", new ArrayList<>());
 
@@ -85,46 +98,64 @@ public class TreeAnnotator extends beast.base.inference.Runnable {
     // arguments that do not set any input option
 	public Input<List<File>> filesInput = new  Input<> ("file", "Specify the input filename and (optional) output file name" , new ArrayList<>());
 
-    public abstract class TreeSet {
+    public abstract class TreeSet implements Closeable {
     	public abstract boolean hasNext();
     	public abstract Tree next() throws IOException;
     	public abstract void reset() throws IOException;
 
+    	/** releases files held open by the set, after which it cannot be used any more **/
+    	@Override
+    	public void close() throws IOException {
+    	}
+
+    	/** @return tree with given index (counting from the first tree after burn-in), leaves the set positioned after that tree **/
+    	public Tree getTree(int index) throws IOException {
+    		reset();
+    		for (int i = 0; i < index; i++) {
+    			next();
+    		}
+    		return next();
+    	}
 
     	public String inputFileName;
         public int burninCount = 0;
         public int totalTrees = 0;
         public boolean isNexus = true;
 
+        /** index of trees in the file, set by countTrees **/
+        public TreeLogIndex index = null;
+
         /** determine number of trees in the file,
-    	 * and number of trees to skip as burnin
+    	 * and number of trees to skip as burnin.
+    	 * Uses the cached TreeLogIndex of the file, or builds it if it is missing or out of date.
     	 * @throws IOException
     	 * @throws FileNotFoundException **/
     	void countTrees(int burninPercentage) throws IOException  {
-            BufferedReader fin = new BufferedReader(new FileReader(new File(inputFileName)));
-            if (!fin.ready()) {
-            	throw new IOException("File appears empty");
-            }
-        	String str = fin.readLine();
-            if (!str.toUpperCase().trim().startsWith("#NEXUS")) {
-            	// the file contains a list of Newick trees instead of a list in Nexus format
-            	isNexus = false;
-            	if (str.trim().length() > 0) {
-            		totalTrees = 1;
-            	}
-            }
-            while (fin.ready()) {
-            	str = fin.readLine();
-                if (isNexus) {
-                    if (str.trim().toLowerCase().startsWith("tree ")) {
-                    	totalTrees++;
-                    }
-                } else if (str.trim().length() > 0) {
-            		totalTrees++;
-                }
-            }
-            fin.close();
+    		instrumentation.start(Phase.COUNT);
+    		try {
+	    		index = TreeLogIndex.get(inputFileName);
+	    		instrumentation.addBytes(index.getBytesRead());
+	    		isNexus = index.isNexus();
+	    		totalTrees = index.getTreeCount();
+    		} finally {
+    			instrumentation.end();
+    		}
+
+            setBurnin(burninPercentage);
+		}
 
+    	/** records that the running phase reads through the whole tree log **/
+    	void addPass() {
+    		instrumentation.addBytes(new File(inputFileName).length());
+    	}
+
+    	/** @return reader of the tree log starting at offset, which counts the bytes it reads for the running phase **/
+    	BufferedReader openAt(long offset) throws IOException {
+    		return TreeLogIndex.openAt(inputFileName, offset, instrumentation::addBytes);
+    	}
+
+    	/** determine number of trees to skip as burnin, once totalTrees is known **/
+    	void setBurnin(int burninPercentage) {
             burninCount = Math.max(0, (burninPercentage * totalTrees)/100);
 
             progressStream.println("Processing " + (totalTrees - burninCount) + " trees from file" +
@@ -138,9 +169,20 @@ public class TreeAnnotator extends beast.base.inference.Runnable {
     	Tree [] trees;
 
     	public FastTreeSet(String inputFileName, int burninPercentage) throws IOException  {
+    		this(inputFileName, burninPercentage, 1);
+    	}
+
+    	public FastTreeSet(String inputFileName, int burninPercentage, int threads) throws IOException  {
             this.inputFileName = inputFileName;
             countTrees(burninPercentage);
 
+            if (threads > 1) {
+            	trees = new ParallelTreeLoader(inputFileName, index, burninCount, threads).setBytesRead(instrumentation::addBytes).load();
+            	return;
+            }
+
+            // the whole file is read
+            addPass();
             List<Tree> parsedTrees;
             if (isNexus) {
                 NexusParser nexusParser = new NexusParser();
@@ -197,6 +239,82 @@ public class TreeAnnotator extends beast.base.inference.Runnable {
 		}
     }
     
+    /**
+     * Keeps trees in a CompactTreeStore and creates Tree objects only when next() is called.
+     * Every call to next() returns a new Tree object.
+     */
+    public class CompactTreeSet extends TreeSet {
+    	int current = 0;
+    	CompactTreeStore store;
+
+    	public CompactTreeSet(String inputFileName, int burninPercentage, int threads) throws IOException  {
+            this.inputFileName = inputFileName;
+            countTrees(burninPercentage);
+
+            store = new CompactTreeStore();
+            new ParallelTreeLoader(inputFileName, index, burninCount, threads).setBytesRead(instrumentation::addBytes).load(store::add);
+    	}
+
+		@Override
+		public boolean hasNext() {
+			return current < store.size();
+		}
+
+		@Override
+		public Tree next()  {
+			return store.get(current++);
+		}
+
+		@Override
+		public void reset()  {
+			current = 0;
+		}
+    }
+
+    /**
+     * Reads trees from a memory mapped BinaryTreeLog, so trees are not parsed and
+     * getTree(int) reads the requested tree directly.
+     */
+    public class BinaryTreeSet extends TreeSet {
+    	int current = 0;
+    	BinaryTreeLog.Reader reader;
+
+    	public BinaryTreeSet(String inputFileName, int burninPercentage) throws IOException  {
+            this.inputFileName = inputFileName;
+            reader = new BinaryTreeLog.Reader(inputFileName);
+            totalTrees = reader.size();
+            setBurnin(burninPercentage);
+    	}
+
+		@Override
+		public boolean hasNext() {
+			return burninCount + current < totalTrees;
+		}
+
+		@Override
+		public Tree next() throws IOException {
+			return reader.get(burninCount + current++);
+		}
+
+		@Override
+		public void reset()  {
+			current = 0;
+			addPass();
+		}
+
+		@Override
+		public Tree getTree(int index) throws IOException {
+			current = index + 1;
+			return reader.get(burninCount + index);
+		}
+
+		/** unmaps the binary tree log **/
+		@Override
+		public void close() throws IOException {
+			reader.close();
+		}
+    }
+
     public class MemoryFriendlyTreeSet extends TreeSet {
 //    	Tree [] trees;
     	int current = 0;
@@ -213,14 +331,24 @@ public class TreeAnnotator extends beast.base.inference.Runnable {
     		this.inputFileName = inputFileName;
     		countTrees(burninPercentage);
 
-            fin = new BufferedReader(new FileReader(inputFileName));
+            fin = openAt(0);
+    	}
+
+    	@Override
+    	public void close() throws IOException {
+    		fin.close();
     	}
 
 
     	@Override
-    	public void reset() throws FileNotFoundException  {
+    	public void reset() throws IOException  {
     		current = 0;
-            fin = new BufferedReader(new FileReader(new File(inputFileName)));
+    		if (isNexus && index != null) {
+    			resetFromIndex(0);
+    			return;
+    		}
+            fin.close();
+            fin = openAt(0);
             lineNr = 0;
             try {
                 if (isNexus) {
@@ -303,10 +431,10 @@ public class TreeAnnotator extends beast.base.inference.Runnable {
 
             // if first non-empty line is "translate" then parse translate block
             if (str.toLowerCase().contains("translate")) {
-                translationMap = parseTranslateBlock();
-                origin = getIndexedTranslationMapOrigin(translationMap);
+                translationMap = TreeLogParser.parseTranslateBlock(fin);
+                origin = TreeLogParser.getIndexedTranslationMapOrigin(translationMap);
                 if (origin != -1) {
-                    taxa = getIndexedTranslationMap(translationMap, origin);
+                    taxa = TreeLogParser.getIndexedTranslationMap(translationMap, origin);
                 }
             } else {
             	this.lineNr = lineNr;
@@ -323,68 +451,6 @@ public class TreeAnnotator extends beast.base.inference.Runnable {
             }
         }
 
-        private List<String> getIndexedTranslationMap(final Map<String, String> translationMap, final int origin) {
-
-            //System.out.println("translation map size = " + translationMap.size());
-
-            final String[] taxa = new String[translationMap.size()];
-
-            for (final String key : translationMap.keySet()) {
-                taxa[Integer.parseInt(key) - origin] = translationMap.get(key);
-            }
-            return Arrays.asList(taxa);
-        }
-
-        /**
-         * @param translationMap
-         * @return minimum key value if keys are a contiguous set of integers starting from zero or one, -1 otherwise
-         */
-        private int getIndexedTranslationMapOrigin(final Map<String, String> translationMap) {
-
-            final SortedSet<Integer> indices = new java.util.TreeSet<>();
-
-            int count = 0;
-            for (final String key : translationMap.keySet()) {
-                final int index = Integer.parseInt(key);
-                indices.add(index);
-                count += 1;
-            }
-            if ((indices.last() - indices.first() == count - 1) && (indices.first() == 0 || indices.first() == 1)) {
-                return indices.first();
-            }
-            return -1;
-        }
-
-        /**
-         * @return a map of taxa translations, keys are generally integer node number starting from 1
-         *         whereas values are generally descriptive strings.
-         * @throws IOException
-         */
-        private Map<String, String> parseTranslateBlock() throws IOException {
-
-            final Map<String, String> translationMap = new HashMap<>();
-
-            String line = readLine();
-            final StringBuilder translateBlock = new StringBuilder();
-            while (line != null && !line.trim().toLowerCase().equals(";")) {
-                translateBlock.append(line.trim());
-                line = readLine();
-            }
-            final String[] taxaTranslations = translateBlock.toString().split(",");
-            for (final String taxaTranslation : taxaTranslations) {
-                final String[] translation = taxaTranslation.split("[\t ]+");
-                if (translation.length == 2) {
-                    translationMap.put(translation[0], translation[1]);
-//                    System.out.println(translation[0] + " -> " + translation[1]);
-                } else {
-                    Log.err.println("Ignoring translation:" + Arrays.toString(translation));
-                }
-            }
-            return translationMap;
-        }
-
-    	
-    	
     	@Override
     	public boolean hasNext() {
     		return current < totalTrees;
@@ -394,59 +460,73 @@ public class TreeAnnotator extends beast.base.inference.Runnable {
     	public Tree next() throws IOException {
 			String str = nextLine();
     		if (!isNexus) {
-                TreeParser treeParser;
                 if (taxa == null) {
                 	collectTaxaNames(str);
                 }
             	current++;
-
-                if (origin != -1) {
-                    treeParser = new TreeParser(taxa, str, origin, false);
-                } else {
-                    try {
-                        treeParser = new TreeParser(taxa, str, 0, false);
-                    } catch (ArrayIndexOutOfBoundsException e) {
-                        treeParser = new TreeParser(taxa, str, 1, false);
-                    }
-                }
-                return treeParser;
+                return TreeLogParser.parseNewick(str, taxa, origin);
     		}
     		
             // read trees from NEXUS file
-            if (str.trim().toLowerCase().startsWith("tree ")) {
+            if (TreeLogParser.isTreeLine(str)) {
             	current++;
-                final int i = str.indexOf('(');
-
-                String id = "" + current;
-                try {
-	                 id = str.substring(5, i).split("=")[0].trim();
-                } catch (Exception e) {
-                	// ignore
-                }
-                
-                if (i > 0) {
-                    str = str.substring(i);
-                }
-                TreeParser treeParser;
-
-                if (origin != -1) {
-                    treeParser = new TreeParser(taxa, str, origin, false);
-                } else {
-                    try {
-                        treeParser = new TreeParser(taxa, str, 0, false);
-                    } catch (ArrayIndexOutOfBoundsException e) {
-                        treeParser = new TreeParser(taxa, str, 1, false);
-                    }
-                }
-
                 //if (translationMap != null) treeParser.translateLeafIds(translationMap);
-                treeParser.setID(id);
-                
-                return treeParser;
+                return TreeLogParser.parseNexusTree(str, taxa, origin, "" + current);
             }
     		return null;
     	}
     	
+        /**
+         * as reset(), but using the TreeLogIndex to read the translate block and
+         * jump to the first tree after burn-in plus skip, without reading anything in between
+         */
+        private void resetFromIndex(int skip) throws IOException {
+            translationMap = null;
+            taxa = null;
+            origin = -1;
+            fin.close();
+            if (index.getTranslateOffset() >= 0) {
+                try (BufferedReader translate = openAt(index.getTranslateOffset())) {
+                    translationMap = TreeLogParser.parseTranslateBlock(translate);
+                }
+                origin = TreeLogParser.getIndexedTranslationMapOrigin(translationMap);
+                if (origin != -1) {
+                    taxa = TreeLogParser.getIndexedTranslationMap(translationMap, origin);
+                }
+            }
+            int first = Math.min(burninCount + skip, totalTrees);
+            fin = openAt(index.getOffset(first));
+            lineNr = index.getLineNr(first);
+            current = first;
+        }
+
+    	@Override
+    	public Tree getTree(int index) throws IOException {
+    		if (isNexus && this.index != null) {
+    			resetFromIndex(index);
+    			return next();
+    		}
+    		reset();
+    		// skip trees without parsing them
+    		int skipped = 0;
+    		while (skipped < index) {
+    			String str = nextLine();
+    			if (str == null) {
+    				throw new IOException("Tree " + index + " not found in " + inputFileName);
+    			}
+    			if (!isNexus) {
+    				if (taxa == null) {
+    					collectTaxaNames(str);
+    				}
+    				skipped++;
+    			} else if (TreeLogParser.isTreeLine(str)) {
+    				skipped++;
+    			}
+    		}
+    		current += skipped;
+    		return next();
+    	}
+
     	private void collectTaxaNames(String str) {
     		taxa = new ArrayList<>();
     		int i = 0;
@@ -491,8 +571,112 @@ public class TreeAnnotator extends beast.base.inference.Runnable {
     		}		
     	}
     }
+
+    /**
+     * Trees read so far from a tree log that is being followed, without the oldest trees
+     * that have been evicted as burn-in. Clades and attribute values of the trees are
+     * added to a clade system when trees are added, and removed when they are evicted.
+     */
+    public class FollowedTreeSet extends TreeSet {
+    	final TreeLogFollower follower;
+    	/** byte offset of each tree in the tree log, trees are parsed again from there when iterating **/
+    	final List<Long> offsets = new ArrayList<>();
+    	/** clades of each tree, as returned by CladeSystem.addWithAttributes **/
+    	final List<int[]> clades = new ArrayList<>();
+    	int current = 0;
+    	/** reader positioned after tree current - 1, or null if it has not been opened yet **/
+    	BufferedReader fin = null;
+
+    	public FollowedTreeSet(String inputFileName) {
+    		this.inputFileName = inputFileName;
+    		follower = new TreeLogFollower(inputFileName);
+    	}
+
+    	@Override
+		public boolean hasNext() {
+			return current < offsets.size();
+		}
+
+    	@Override
+		public Tree next() throws IOException {
+    		if (fin == null) {
+    			fin = follower.openAt(offsets.get(current));
+    		}
+    		current++;
+			return follower.readTree(fin);
+		}
+
+    	@Override
+		public void reset() throws IOException {
+			close();
+			current = 0;
+		}
+
+    	@Override
+		public Tree getTree(int index) throws IOException {
+			close();
+			current = index + 1;
+			return follower.readTree(offsets.get(index));
+		}
+
+    	@Override
+    	public void close() throws IOException {
+    		if (fin != null) {
+    			fin.close();
+    			fin = null;
+    		}
+    	}
+
+    	/** @return number of trees after burn-in **/
+    	public int size() {
+    		return offsets.size();
+    	}
+
+    	/**
+    	 * reads the trees appended to the tree log since the last call, and adds their clades and attributes to cladeSystem.
+    	 * Only their offsets and clades are kept.
+    	 * @return number of trees added
+    	 */
+    	int readTrees(CladeSystem cladeSystem) throws IOException {
+    		List<Long> newOffsets = new ArrayList<>();
+    		List<Tree> newTrees = follower.readTrees(newOffsets);
+    		for (int i = 0; i < newTrees.size(); i++) {
+    			Tree tree = newTrees.get(i);
+    			if (totalTrees == 0) {
+    				setupAttributes(tree);
+    			}
+    			checkSampledAncestors(tree);
+    			clades.add(cladeSystem.addWithAttributes(tree, attributeNames));
+    			offsets.add(newOffsets.get(i));
+    			totalTrees++;
+    		}
+    		return newTrees.size();
+    	}
+
+    	/** evicts the oldest trees till burninPercentage of all trees read so far are left out **/
+    	void evict(int burninPercentage, CladeSystem cladeSystem) throws IOException {
+    		int evicted = Math.max(0, (burninPercentage * totalTrees)/100) - burninCount;
+    		if (evicted <= 0) {
+    			return;
+    		}
+    		reset();
+    		cladeSystem.removeOldest(clades.subList(0, evicted));
+    		clades.subList(0, evicted).clear();
+    		offsets.subList(0, evicted).clear();
+    		burninCount += evicted;
+    	}
+    }
+
     TreeSet treeSet;
 
+    /** phase timings, throughput and progress bar of this annotator **/
+    final private Instrumentation instrumentation = new Instrumentation();
+
+    // when set, getCladeSystem() records clades of every tree, so that low memory
+    // mode does not need to parse the tree file again for scoring trees
+    private boolean recordCladeSequences = false;
+    private CladeSequenceFile cladeSequences = null;
+
 
     enum Target {
         MAX_CLADE_CREDIBILITY("Maximum clade credibility tree"),
@@ -553,34 +737,12 @@ public class TreeAnnotator extends beast.base.inference.Runnable {
         topologySettingService = getTopologySettingService();
         nodeHeightSettingService = getNodeHeightSettingService();
 
-     // Get citations, only print if eihter of them is not empty.
-        
-
-        String nodeCitation = nodeHeightSettingService.getCitations();
- 
-
-        String topoCitation = topologySettingService.getCitations();
- 
-        if (!nodeCitation.isBlank() || !topoCitation.isBlank()) {
-            Log.warning("======================================================");
-            Log.warning("Please cite the following when using the summary tree:\n");
-            if (!nodeCitation.isBlank()) {
-            	Log.warning(nodeCitation);
-            }
-            // If both citations are present, print a separator line
-            if (!nodeCitation.isBlank() && !topoCitation.isBlank()) {
-            	Log.warning("\n-----------------------------------------------------\n");
-            }
-            if (!topoCitation.isBlank()) {
-            	Log.warning(topoCitation);
-            }
-            Log.warning("======================================================");
- 
-        }  // Finished printing citations
- 
+        printCitations();
 
         this.posteriorLimit = posteriorLimit;
         this.hpd2D = hpd2D;
+        int threads = getThreads();
+        boolean compact = compactInput.get() != null && compactInput.get();
 
         attributeNames.add("height");
         attributeNames.add("length");
@@ -588,50 +750,68 @@ public class TreeAnnotator extends beast.base.inference.Runnable {
         totalTrees = 10000;
         totalTreesUsed = 0;
 
+        // trees are only parsed here if they are kept in memory
+        instrumentation.start(Phase.PARSE);
         try {
-        	if (lowMemory) {
+        	if (BinaryTreeLog.isBinaryTreeLog(inputFileName)) {
+        		treeSet = new BinaryTreeSet(inputFileName, burninPercentage);
+        	} else if (lowMemory) {
         		treeSet = new MemoryFriendlyTreeSet(inputFileName, burninPercentage);
+        	} else if (compact) {
+        		treeSet = new CompactTreeSet(inputFileName, burninPercentage, threads);
+        		instrumentation.addTrees(treeSet.totalTrees - treeSet.burninCount);
         	} else {
-        		treeSet = new FastTreeSet(inputFileName, burninPercentage);
+        		treeSet = new FastTreeSet(inputFileName, burninPercentage, threads);
+        		instrumentation.addTrees(treeSet.totalTrees - treeSet.burninCount);
         	}
         } catch (Exception e) {
         	e.printStackTrace();
         	Log.err.println("Error Parsing Input Tree: " + e.getMessage());
         	return;
+        } finally {
+        	instrumentation.end();
+        }
+
+        try {
+        	summariseTreeSet(lowMemory, outputFileName);
+        } finally {
+        	treeSet.close();
         }
+    }
 
+    /** finds the target tree in treeSet, annotates it, and writes it to outputFileName **/
+    private void summariseTreeSet(boolean lowMemory, String outputFileName) throws IOException {
         Log.err.println();
-        if (!topologySettingService.getServiceName().equals(UserTargetTreeTopologyService.SERVICE_NAME)) {
+        // in low memory mode, MCC and MSCC count trees and check for sampled ancestors
+        // while building the clade system, which saves a pass through the tree file
+        recordCladeSequences = lowMemory && topologySettingService instanceof MCCTopologyService;
+        if (!topologySettingService.getServiceName().equals(UserTargetTreeTopologyService.SERVICE_NAME) && !recordCladeSequences) {
             // even when a user specified target tree is provided we still need to count the totalTreesUsed for subsequent steps.
-            treeSet.reset();
-            while (treeSet.hasNext()) {
-                Tree tree = treeSet.next();
-                tree.getLeafNodeCount();
-                if (tree.getDirectAncestorNodeCount() > 0 && !SAmode && processSA) {
-                    SAmode = true;
-                    Log.err("""
-                            [Info] A tree with sampled acnestors was detected.
-                                   Turning on sampled ancestor summary analysis.
-                            """
-                    );
-                    if (nodeHeightSettingService.getServiceName().equals("CA")) {
-                        throw new RuntimeException("Common ancestor height is unavailable for trees with sampled ancestors.\n" +
-                                "Please select a different height summary option.");
-                    }
-                    if (topologySettingService.getServiceName().contains("CCD")) {
-                        Log.err("""
-                                [Warning] Sampled ancestors are not directly supported by CCDs.
-                                          They will be treated as if they were tips of the tree.
-                                          Please interpret the resulting summary tree accordingly.
-                                """
-                        );
-                    }
-                }
-                totalTreesUsed++;
+            instrumentation.start(Phase.COUNT);
+            try {
+	            treeSet.reset();
+	            while (treeSet.hasNext()) {
+	                Tree tree = treeSet.next();
+	                checkSampledAncestors(tree);
+	                totalTreesUsed++;
+	            }
+	            instrumentation.addTrees(totalTreesUsed);
+            } finally {
+            	instrumentation.end();
             }
         }
 
-        Tree targetTree = topologySettingService.setTopology(treeSet, progressStream, this);
+        Tree targetTree;
+        instrumentation.start(Phase.TOPOLOGY);
+        try {
+        	targetTree = topologySettingService.setTopology(treeSet, progressStream, this);
+        } finally {
+        	instrumentation.end();
+        	if (cladeSequences != null) {
+        		cladeSequences.delete();
+        		cladeSequences = null;
+        	}
+        }
 
      
         cladeSystem = getCladeSystem(targetTree);
@@ -679,24 +859,68 @@ public class TreeAnnotator extends beast.base.inference.Runnable {
 //        progressStream.println();
 //        progressStream.println();
 //
+        annotateAndWrite(targetTree, outputFileName);
+    }
+
+    /** prints citations of the topology and node height services, if any **/
+    private void printCitations() {
+        String nodeCitation = nodeHeightSettingService.getCitations();
+        String topoCitation = topologySettingService.getCitations();
+        if (!nodeCitation.isBlank() || !topoCitation.isBlank()) {
+            Log.warning("======================================================");
+            Log.warning("Please cite the following when using the summary tree:\n");
+            if (!nodeCitation.isBlank()) {
+            	Log.warning(nodeCitation);
+            }
+            // If both citations are present, print a separator line
+            if (!nodeCitation.isBlank() && !topoCitation.isBlank()) {
+            	Log.warning("\n-----------------------------------------------------\n");
+            }
+            if (!topoCitation.isBlank()) {
+            	Log.warning(topoCitation);
+            }
+            Log.warning("======================================================");
+        }
+    }
+
+    /**
+     * annotates the target tree with summaries of the attributes in the clade system and writes it
+     * to outputFileName, or to standard output if outputFileName is null
+     * @return false if annotating or writing failed, in which case the error has been reported
+     */
+    private boolean annotateAndWrite(Tree targetTree, String outputFileName) {
         progressStream.println("Annotating target tree...");
 
         try {
-            annotateTree(cladeSystem, targetTree.getRoot(), null);//, heightsOption);
+            instrumentation.start(Phase.ANNOTATE);
+            try {
+	            if (getThreads() > 1 && beastObjects.isEmpty()) {
+	                annotateTreeInParallel(cladeSystem, targetTree);
+	            } else {
+	                annotateTree(cladeSystem, targetTree.getRoot(), null, null);//, heightsOption);
+	            }
+            } finally {
+            	instrumentation.end();
+            }
 
-            nodeHeightSettingService.setNodeHeights(targetTree, progressStream, this);
+            instrumentation.start(Phase.HEIGHTS);
+            try {
+            	nodeHeightSettingService.setNodeHeights(targetTree, progressStream, this);
+            } finally {
+            	instrumentation.end();
+            }
 //            if( heightsOption == HeightsSummary.CA_HEIGHTS ) {
 //                setTreeHeightsByCA(targetTree, targetOption);
 //            }
         } catch (Exception e) {
         	e.printStackTrace();
             Log.err.println("Error to annotate tree: " + e.getMessage() + "\nPlease check the tree log file format.");
-            return;
+            return false;
         }
 
         progressStream.println("Writing annotated tree....");
 
-        
+        instrumentation.start(Phase.WRITE);
         processMetaData(targetTree.getRoot());
         try {
             final PrintStream stream = outputFileName != null ?
@@ -716,11 +940,153 @@ public class TreeAnnotator extends beast.base.inference.Runnable {
 //            stream.println();
             targetTree.close(stream);
             stream.println();
+            if (stream != System.out) {
+            	stream.close();
+            }
         } catch (Exception e) {
             Log.err.println("Error to write annotated tree file: " + e.getMessage());
-            return;
+            return false;
+        } finally {
+        	instrumentation.end();
+        }
+        return true;
+    }
+
+    /** milliseconds to wait before looking for new trees when following a tree log **/
+    final static int FOLLOW_POLL_INTERVAL = 1000;
+
+    /**
+     * As run(int, boolean, double, double, String, String, String) with MCC or MSCC topology, but for a
+     * tree log that a running analysis is still writing to. Trees are read as they are appended, and
+     * their clades and attribute values kept in a single clade system. Burn-in is burninPercentage
+     * of the trees read so far, so as the log grows the oldest trees are evicted from the clade system.
+     * The summary tree is written every followInterval seconds if there are new trees, when Enter is
+     * pressed, and when the trees block of the log is closed, after which this method returns.
+     * Each summary replaces the previous one in outputFileName.
+     */
+    public void follow(final int burninPercentage,
+    					double posteriorLimit,
+    					double hpd2D,
+    					String inputFileName,
+    					String outputFileName) throws IOException, InterruptedException {
+
+        topologySettingService = getTopologySettingService();
+        nodeHeightSettingService = getNodeHeightSettingService();
+        if (!(topologySettingService instanceof MCCTopologyService)) {
+        	throw new IllegalArgumentException("Following a tree log requires MCC or MSCC topology, not " + topologySettingService.getServiceName());
+        }
+        if (streamingStatsInput.get() != null && streamingStatsInput.get()) {
+        	throw new IllegalArgumentException("streamingStats cannot be used when following a tree log, since summarised values cannot be evicted");
         }
+        printCitations();
 
+        this.posteriorLimit = posteriorLimit;
+        this.hpd2D = hpd2D;
+        long interval = 1000L * Math.max(1, followIntervalInput.get());
+
+        attributeNames.add("height");
+        attributeNames.add("length");
+
+        FollowedTreeSet trees = new FollowedTreeSet(inputFileName);
+        treeSet = trees;
+        cladeSystem = new CladeSystem();
+        cladeSystem.setProcessSA(processSA);
+        following = true;
+        try {
+	        progressStream.println("Following " + inputFileName + ", press Enter to write the summary tree now");
+	        long nextSummary = System.currentTimeMillis() + interval;
+	        boolean changed = false;
+	        while (true) {
+	        	long start = System.nanoTime();
+	        	int added = trees.readTrees(cladeSystem);
+	        	// accounted without events, since the log is polled every second
+	        	instrumentation.add(Phase.PARSE, System.nanoTime() - start, added);
+	        	instrumentation.cladeCount(cladeSystem.getCladeCount());
+	        	trees.evict(burninPercentage, cladeSystem);
+	        	changed |= added > 0;
+	        	boolean requested = summaryRequested();
+	        	boolean closed = trees.follower.isClosed();
+	        	if (trees.size() > 0 && (requested || (changed && (closed || System.currentTimeMillis() >= nextSummary)))) {
+	        		summariseFollowedTrees(trees, outputFileName);
+	        		changed = false;
+	        		nextSummary = System.currentTimeMillis() + interval;
+	        	}
+	        	if (closed) {
+	        		if (trees.size() == 0) {
+	        			Log.err.println("No trees to use: burnin too high or no trees in " + inputFileName);
+	        		}
+	        		return;
+	        	}
+	        	if (added == 0) {
+	        		Thread.sleep(FOLLOW_POLL_INTERVAL);
+	        	}
+	        }
+        } finally {
+        	following = false;
+        	trees.close();
+        }
+    }
+
+    /** @return true if Enter was pressed since the last call **/
+    private boolean summaryRequested() throws IOException {
+    	boolean requested = false;
+    	while (System.in.available() > 0) {
+    		requested |= System.in.read() == '\n';
+    	}
+    	return requested;
+    }
+
+    /** writes the summary of the trees read so far, replacing the previous one at once **/
+    private void summariseFollowedTrees(FollowedTreeSet trees, String outputFileName) throws IOException {
+        totalTrees = trees.totalTrees;
+        totalTreesUsed = trees.size();
+        cladeSystem.calculateCladeCredibilities(totalTreesUsed);
+        progressStream.println();
+        progressStream.println("Summarising " + totalTreesUsed + " of " + totalTrees + " trees read so far, " +
+        		"ignoring the first " + trees.burninCount + " trees as burn-in.");
+        progressStream.println("Total unique clades: " + cladeSystem.getCladeCount());
+
+        instrumentation.start(Phase.TOPOLOGY);
+        Tree targetTree;
+        try {
+        	// trees are parsed again by the tree set, so annotating the target tree does not change the clade system
+        	targetTree = topologySettingService.setTopology(trees, progressStream, this);
+        } finally {
+        	instrumentation.end();
+        }
+        if (outputFileName == null) {
+        	annotateAndWrite(targetTree, null);
+        	return;
+        }
+        File tmpFile = new File(outputFileName + ".tmp");
+        if (annotateAndWrite(targetTree, tmpFile.getPath())) {
+        	Files.move(tmpFile.toPath(), new File(outputFileName).toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /** switches on sampled ancestor mode when tree contains sampled ancestors **/
+    private void checkSampledAncestors(Tree tree) {
+        tree.getLeafNodeCount();
+        if (tree.getDirectAncestorNodeCount() > 0 && !SAmode && processSA) {
+            SAmode = true;
+            Log.err("""
+                    [Info] A tree with sampled acnestors was detected.
+                           Turning on sampled ancestor summary analysis.
+                    """
+            );
+            if (nodeHeightSettingService.getServiceName().equals("CA")) {
+                throw new RuntimeException("Common ancestor height is unavailable for trees with sampled ancestors.\n" +
+                        "Please select a different height summary option.");
+            }
+            if (topologySettingService.getServiceName().contains("CCD")) {
+                Log.err("""
+                        [Warning] Sampled ancestors are not directly supported by CCDs.
+                                  They will be treated as if they were tips of the tree.
+                                  Please interpret the resulting summary tree accordingly.
+                        """
+                );
+            }
+        }
     }
 
     private void processMetaData(Node node) {
@@ -818,7 +1184,11 @@ public class TreeAnnotator extends beast.base.inference.Runnable {
 //    }
 
 
-    private void annotateTree(CladeSystem cladeSystem, Node node, BitSet bits) { //, HeightsSummary heightsOption) {
+    /**
+     * annotate nodes in post-order, or if nodes is not null, only add the nodes with their clades
+     * to nodes in the order in which they would be annotated
+     */
+    private void annotateTree(CladeSystem cladeSystem, Node node, BitSet bits, List<NodeClade> nodes) { //, HeightsSummary heightsOption) {
 
         BitSet bits2 = new BitSet();
 
@@ -827,14 +1197,14 @@ public class TreeAnnotator extends beast.base.inference.Runnable {
             int index = cladeSystem.getTaxonIndex(node);
             bits2.set(2*index);
 
-            annotateNode(cladeSystem, node, bits2, true);//, heightsOption);
+            annotateNode(cladeSystem, node, bits2, true, nodes);//, heightsOption);
         } else {
 
             for (int i = 0; i < node.getChildCount(); i++) {
 
                 Node node1 = node.getChild(i);
 
-                annotateTree(cladeSystem, node1, bits2);//, heightsOption);
+                annotateTree(cladeSystem, node1, bits2, nodes);//, heightsOption);
             }
 
             for (int i=1; i<bits2.length(); i=i+2) {
@@ -845,7 +1215,7 @@ public class TreeAnnotator extends beast.base.inference.Runnable {
                 bits2.set(2 * index + 1);
             }
 
-            annotateNode(cladeSystem, node, bits2, false);//, heightsOption);
+            annotateNode(cladeSystem, node, bits2, false, nodes);//, heightsOption);
         }
 
         if (bits != null) {
@@ -853,10 +1223,15 @@ public class TreeAnnotator extends beast.base.inference.Runnable {
         }
     }
 
-    private void annotateNode(CladeSystem cladeSystem, Node node, BitSet bits, boolean isTip) {//, HeightsSummary heightsOption) {
-        CladeSystem.Clade clade = cladeSystem.getCladeMap().get(bits);
+    private void annotateNode(CladeSystem cladeSystem, Node node, BitSet bits, boolean isTip, List<NodeClade> nodes) {//, HeightsSummary heightsOption) {
+        CladeSystem.Clade clade = cladeSystem.getClade(bits);
         assert clade != null : "Clade missing?";
 
+        if (nodes != null) {
+            nodes.add(new NodeClade(node, clade, isTip));
+            return;
+        }
+
         boolean filter = false;
         if (!isTip) {
             final double posterior = clade.getCredibility();
@@ -868,90 +1243,169 @@ public class TreeAnnotator extends beast.base.inference.Runnable {
 
         int i = 0;
         for (String attributeName : attributeNames) {
+            annotateAttribute(node, node, attributeName, clade.getAttribute(i), filter, true);
+            i++;
+        }
+    }
 
-            if (clade.getAttributeValues() != null && clade.getAttributeValues().size() > 0) {
-                double[] values = new double[clade.getAttributeValues().size()];
+    /** node of the target tree with its clade **/
+    private static class NodeClade {
+        final Node node;
+        final CladeSystem.Clade clade;
+        final boolean isTip;
 
-                HashMap<Object, Integer> hashMap = new HashMap<>();
+        NodeClade(Node node, CladeSystem.Clade clade, boolean isTip) {
+            this.node = node;
+            this.clade = clade;
+            this.isTip = isTip;
+        }
+    }
 
-                Object[] v = clade.getAttributeValues().get(0);
-                if (v[i] != null) {
+    /** metadata summarising the attributes of a node, per attribute in order of attributeNames **/
+    private static class NodeAnnotation {
+        /** holds the metadata of an attribute, or null if there is none **/
+        Node [] metaData;
+        /** statistics of the height values if the attribute is the height, otherwise null **/
+        OrderStatistics [] heights;
+    }
 
-                    final boolean isHeight = attributeName.equals("height");
-                    boolean isBoolean = v[i] instanceof Boolean;
+    /**
+     * As annotateTree, but summarises the attributes of nodes on several threads. Every node gets
+     * its summaries on a scratch node, which are copied to the target tree in the order in which
+     * annotateTree annotates nodes, on the calling thread, so the result is the same.
+     * Node heights are set in the same order as well.
+     * Only used without TreeAnnotationPlugins, which may change nodes while handling attributes.
+     */
+    private void annotateTreeInParallel(CladeSystem cladeSystem, Tree targetTree) throws IOException {
+        List<NodeClade> nodes = new ArrayList<>();
+        annotateTree(cladeSystem, targetTree.getRoot(), null, nodes);
+        final List<String> names = new ArrayList<>(attributeNames);
+
+        try (OrderedBatchExecutor<NodeClade, NodeAnnotation[]> batches = new OrderedBatchExecutor<>(getThreads(), 1,
+            batch -> {
+                NodeAnnotation[] annotations = new NodeAnnotation[batch.size()];
+                for (int j = 0; j < batch.size(); j++) {
+                    NodeClade nodeClade = batch.get(j);
+                    boolean filter = !nodeClade.isTip && nodeClade.clade.getCredibility() < posteriorLimit;
+                    NodeAnnotation annotation = new NodeAnnotation();
+                    annotation.metaData = new Node[names.size()];
+                    annotation.heights = new OrderStatistics[names.size()];
+                    for (int i = 0; i < names.size(); i++) {
+                        Node metaData = new Node();
+                        annotation.heights[i] = annotateAttribute(nodeClade.node, metaData, names.get(i), nodeClade.clade.getAttribute(i), filter, false);
+                        annotation.metaData[i] = metaData;
+                    }
+                    annotations[j] = annotation;
+                }
+                return annotations;
+            },
+            (batch, annotations) -> {
+                for (int j = 0; j < batch.size(); j++) {
+                    NodeClade nodeClade = batch.get(j);
+                    Node node = nodeClade.node;
+                    if (!nodeClade.isTip) {
+                        node.setMetaData("posterior", nodeClade.clade.getCredibility());
+                    }
+                    NodeAnnotation annotation = annotations[j];
+                    for (int i = 0; i < names.size(); i++) {
+                        if (annotation.heights[i] != null) {
+                            nodeHeightSettingService.setNodeHeight(node, annotation.heights[i].getValues(), annotation.heights[i], this);
+                        }
+                        Node metaData = annotation.metaData[i];
+                        for (String name : metaData.getMetaDataNames()) {
+                            node.setMetaData(name, metaData.getMetaData(name));
+                        }
+                    }
+                }
+            })) {
+            for (NodeClade nodeClade : nodes) {
+                batches.add(nodeClade);
+            }
+            batches.finish();
+        }
+    }
 
-                    boolean isDiscrete = v[i] instanceof String;
+    /**
+     * Summarise values of an attribute of a clade as metadata of target. If the attribute is
+     * the height and setHeight is true, also set the height of node.
+     * @param filter if true, no metadata is added
+     * @return statistics of the values of the attribute if it is the height, otherwise null
+     */
+    private OrderStatistics annotateAttribute(Node node, Node target, String attributeName, AttributeAccumulator attribute, boolean filter, boolean setHeight) {
+        OrderStatistics heights = null;
+        if (attribute != null && attribute.size() > 0) {
+            // only numbers and booleans fill values
+            double[] values = null;
 
-                    if (forceIntegerToDiscrete && v[i] instanceof Integer) isDiscrete = true;
+            HashMap<Object, Integer> hashMap = new HashMap<>();
 
-                    double minValue = Double.MAX_VALUE;
-                    double maxValue = -Double.MAX_VALUE;
+            Object v = attribute.getFirst();
+            if (v != null) {
 
-                    final boolean isArray = v[i] instanceof Object[];
-                    boolean isDoubleArray = isArray && ((Object[]) v[i])[0] instanceof Double;
-                    // This is Java, friends - first value type does not imply all.
-                    if (isDoubleArray) {
-                        for (Object n : (Object[]) v[i]) {
-                            if (!(n instanceof Double)) {
-                                isDoubleArray = false;
-                                break;
-                            }
-                        }
-                    }
-                    // todo Handle other types of arrays
+                final boolean isHeight = attributeName.equals("height");
+                boolean isBoolean = v instanceof Boolean;
 
-                    double[][] valuesArray = null;
-                    double[] minValueArray = null;
-                    double[] maxValueArray = null;
-                    int lenArray = 0;
+                boolean isDiscrete = v instanceof String;
 
-                    if (isDoubleArray) {
-                        lenArray = ((Object[]) v[i]).length;
+                if (forceIntegerToDiscrete && v instanceof Integer) isDiscrete = true;
 
-                        valuesArray = new double[lenArray][clade.getAttributeValues().size()];
-                        minValueArray = new double[lenArray];
-                        maxValueArray = new double[lenArray];
+                double minValue = Double.MAX_VALUE;
+                double maxValue = -Double.MAX_VALUE;
 
-                        for (int k = 0; k < lenArray; k++) {
-                            minValueArray[k] = Double.MAX_VALUE;
-                            maxValueArray[k] = -Double.MAX_VALUE;
+                final boolean isArray = v instanceof Object[];
+                boolean isDoubleArray = isArray && ((Object[]) v)[0] instanceof Double;
+                // This is Java, friends - first value type does not imply all.
+                if (isDoubleArray) {
+                    for (Object n : (Object[]) v) {
+                        if (!(n instanceof Double)) {
+                            isDoubleArray = false;
+                            break;
                         }
                     }
-
-                    for (int j = 0; j < clade.getAttributeValues().size(); j++) {
-                        Object value = clade.getAttributeValues().get(j)[i];
-                        if (isDiscrete) {
-                            final Object s = value;
-                            if (hashMap.containsKey(s)) {
-                                hashMap.put(s, hashMap.get(s) + 1);
-                            } else {
-                                hashMap.put(s, 1);
-                            }
-                        } else if (isBoolean) {
-                            values[j] = (((Boolean) value) ? 1.0 : 0.0);
-                        } else if (isDoubleArray) {
-                            // Forcing to Double[] causes a cast exception. MAS
-                            try {
-                                Object[] array = (Object[]) value;
-                                for (int k = 0; k < lenArray; k++) {
-                                    valuesArray[k][j] = ((Double) array[k]);
-                                    if (valuesArray[k][j] < minValueArray[k]) minValueArray[k] = valuesArray[k][j];
-                                    if (valuesArray[k][j] > maxValueArray[k]) maxValueArray[k] = valuesArray[k][j];
-                                }
-                            } catch (Exception e) {
-                                // ignore
-                            }
-                        } else {
-                            // Ignore other (unknown) types
-                            if (value instanceof Number) {
-                                values[j] = ((Number) value).doubleValue();
-                                if (values[j] < minValue) minValue = values[j];
-                                if (values[j] > maxValue) maxValue = values[j];
-                            }
+                }
+                // todo Handle other types of arrays
+
+                double[][] valuesArray = null;
+                double[] minValueArray = null;
+                double[] maxValueArray = null;
+                int lenArray = 0;
+
+                // values of non-height numeric attributes may be summarised instead of stored
+                StreamingStatistics summary = attribute.getSummary();
+                // order statistics of numeric values, sorted once for median, HPD interval, range and node height
+                OrderStatistics statistics = null;
+                OrderStatistics[] statisticsArray = null;
+
+                if (isDiscrete) {
+                    hashMap = attribute.getCounts();
+                } else if (isDoubleArray) {
+                    lenArray = ((Object[]) v).length;
+                    valuesArray = attribute.getArrayValues();
+                    minValueArray = attribute.getMinValueArray();
+                    maxValueArray = attribute.getMaxValueArray();
+                    statisticsArray = new OrderStatistics[lenArray];
+                    for (int k = 0; k < lenArray; k++) {
+                        if (minValueArray[k] < maxValueArray[k]) {
+                            statisticsArray[k] = getOrderStatistics(valuesArray[k]);
                         }
                     }
-                    if (isHeight) {
-                    	nodeHeightSettingService.setNodeHeight(node, values, this);
+                } else if (isBoolean) {
+                    values = attribute.getValues();
+                } else {
+                    if (summary == null) {
+                        values = attribute.getValues();
+                    }
+                    minValue = attribute.getMinValue();
+                    maxValue = attribute.getMaxValue();
+                    if (summary == null && (isHeight || minValue < maxValue)) {
+                        statistics = getOrderStatistics(values);
+                    }
+                }
+                if (isHeight) {
+                    heights = statistics != null ? statistics : getOrderStatistics(values);
+                    if (setHeight) {
+                        nodeHeightSettingService.setNodeHeight(node, values, heights, this);
+                    }
 //                        if (heightsOption == HeightsSummary.MEAN_HEIGHTS) {
 //                            final double mean = DiscreteStatistics.mean(values);
 //                            if (node.isDirectAncestor()) {
@@ -973,76 +1427,89 @@ public class TreeAnnotator extends beast.base.inference.Runnable {
 //                        } else {
 //                            // keep the existing height
 //                        }
-                    }
+                }
 
-                    if (!filter) {
-                        boolean processed = false;
-                        for (TreeAnnotationPlugin beastObject : beastObjects) {
-                            if (beastObject.handleAttribute(node, attributeName, values)) {
-                                processed = true;
-                            }
+                if (!filter) {
+                    boolean processed = false;
+                    for (TreeAnnotationPlugin beastObject : beastObjects) {
+                        // plugins get zeros for other attributes, as they always did
+                        if (beastObject.handleAttribute(node, attributeName, values != null ? values : new double[attribute.size()])) {
+                            processed = true;
                         }
+                    }
 
-                        if (!processed) {
-                            if (!isDiscrete) {
-                                if (!isDoubleArray)
-                                    annotateMeanAttribute(node, attributeName, values);
-                                else {
-                                    for (int k = 0; k < lenArray; k++) {
-                                        annotateMeanAttribute(node, attributeName + (k + 1), valuesArray[k]);
-                                    }
+                    if (!processed && summary != null) {
+                        annotateSummaryAttribute(target, attributeName, summary, minValue < maxValue);
+                    } else if (!processed) {
+                        if (!isDiscrete) {
+                            if (!isDoubleArray)
+                                annotateMeanAttribute(target, attributeName, values);
+                            else {
+                                for (int k = 0; k < lenArray; k++) {
+                                    annotateMeanAttribute(target, attributeName + (k + 1), valuesArray[k]);
                                 }
-                            } else {
-                                annotateModeAttribute(node, attributeName, hashMap);
-                                annotateFrequencyAttribute(node, attributeName, hashMap);
-                            }
-                            if (!isBoolean && minValue < maxValue && !isDiscrete && !isDoubleArray) {
-                                // Basically, if it is a boolean (0, 1) then we don't need the distribution information
-                                // Likewise if it doesn't vary.
-                                annotateMedianAttribute(node, attributeName + "_median", values);
-                                annotateHPDAttribute(node, attributeName + "_95%_HPD", 0.95, values);
-                                annotateRangeAttribute(node, attributeName + "_range", values);
                             }
+                        } else {
+                            annotateModeAttribute(target, attributeName, hashMap);
+                            annotateFrequencyAttribute(target, attributeName, hashMap);
+                        }
+                        if (!isBoolean && minValue < maxValue && !isDiscrete && !isDoubleArray) {
+                            // Basically, if it is a boolean (0, 1) then we don't need the distribution information
+                            // Likewise if it doesn't vary.
+                            annotateMedianAttribute(target, attributeName + "_median", statistics);
+                            annotateHPDAttribute(target, attributeName + "_95%_HPD", 0.95, statistics);
+                            annotateRangeAttribute(target, attributeName + "_range", statistics);
+                        }
 
-                            if (isDoubleArray) {
-                                String name = attributeName;
-                                // todo
+                        if (isDoubleArray) {
+                            String name = attributeName;
+                            // todo
 //                                    if (name.equals(location1Attribute)) {
 //                                        name = locationOutputAttribute;
 //                                    }
-                                boolean want2d = processBivariateAttributes && lenArray == 2;
-                                if (name.equals("dmv")) {  // terrible hack
-                                    want2d = false;
-                                }
-                                for (int k = 0; k < lenArray; k++) {
-                                    if (minValueArray[k] < maxValueArray[k]) {
-                                        annotateMedianAttribute(node, name + (k + 1) + "_median", valuesArray[k]);
-                                        annotateRangeAttribute(node, name + (k + 1) + "_range", valuesArray[k]);
-                                        if (!want2d)
-                                            annotateHPDAttribute(node, name + (k + 1) + "_95%_HPD", 0.95, valuesArray[k]);
-                                    }
+                            boolean want2d = processBivariateAttributes && lenArray == 2;
+                            if (name.equals("dmv")) {  // terrible hack
+                                want2d = false;
+                            }
+                            for (int k = 0; k < lenArray; k++) {
+                                if (minValueArray[k] < maxValueArray[k]) {
+                                    annotateMedianAttribute(target, name + (k + 1) + "_median", statisticsArray[k]);
+                                    annotateRangeAttribute(target, name + (k + 1) + "_range", statisticsArray[k]);
+                                    if (!want2d)
+                                        annotateHPDAttribute(target, name + (k + 1) + "_95%_HPD", 0.95, statisticsArray[k]);
                                 }
-                                // 2D contours
-                                if (want2d) {
+                            }
+                            // 2D contours
+                            if (want2d) {
 
-                                    boolean variationInFirst = (minValueArray[0] < maxValueArray[0]);
-                                    boolean variationInSecond = (minValueArray[1] < maxValueArray[1]);
+                                boolean variationInFirst = (minValueArray[0] < maxValueArray[0]);
+                                boolean variationInSecond = (minValueArray[1] < maxValueArray[1]);
 
-                                    if (variationInFirst && !variationInSecond)
-                                        annotateHPDAttribute(node, name + "1" + "_95%_HPD", 0.95, valuesArray[0]);
+                                if (variationInFirst && !variationInSecond)
+                                    annotateHPDAttribute(target, name + "1" + "_95%_HPD", 0.95, statisticsArray[0]);
 
-                                    if (variationInSecond && !variationInFirst)
-                                        annotateHPDAttribute(node, name + "2" + "_95%_HPD", 0.95, valuesArray[1]);
+                                if (variationInSecond && !variationInFirst)
+                                    annotateHPDAttribute(target, name + "2" + "_95%_HPD", 0.95, statisticsArray[1]);
 
-                                    if (variationInFirst && variationInSecond)
-                                        annotate2DHPDAttribute(node, name, "_" + (int) (100 * hpd2D) + "%HPD", hpd2D, valuesArray);
-                                }
+                                if (variationInFirst && variationInSecond)
+                                    annotate2DHPDAttribute(target, name, "_" + (int) (100 * hpd2D) + "%HPD", hpd2D, valuesArray);
                             }
                         }
                     }
                 }
             }
-            i++;
+        }
+        return heights;
+    }
+
+    /** annotate mean, and if values vary, approximate median, HPD interval and range from streaming statistics **/
+    public static void annotateSummaryAttribute(Node node, String label, StreamingStatistics summary, boolean varies) {
+        node.setMetaData(label, summary.getMean());
+        if (varies) {
+            node.setMetaData(label + "_median", summary.getMedian());
+            double[] hpd = summary.getHPD(0.95);
+            node.setMetaData(label + "_95%_HPD", new Object[]{hpd[0], hpd[1]});
+            node.setMetaData(label + "_range", new Object[]{summary.getMin(), summary.getMax()});
         }
     }
 
@@ -1057,6 +1524,10 @@ public class TreeAnnotator extends beast.base.inference.Runnable {
 
     }
 
+    public static void annotateMedianAttribute(Node node, String label, OrderStatistics statistics) {
+        node.setMetaData(label, statistics.getMedian());
+    }
+
     public static void annotateModeAttribute(Node node, String label, HashMap<Object, Integer> values) {
         Object mode = null;
         int maxCount = 0;
@@ -1107,26 +1578,23 @@ public class TreeAnnotator extends beast.base.inference.Runnable {
         node.setMetaData(label, new Object[]{min, max});
     }
 
+    public static void annotateRangeAttribute(Node node, String label, OrderStatistics statistics) {
+        node.setMetaData(label, new Object[]{statistics.getMin(), statistics.getMax()});
+    }
+
     public static void annotateHPDAttribute(Node node, String label, double hpd, double[] values) {
-        int[] indices = new int[values.length];
-        HeapSort.sort(values, indices);
-
-        double minRange = Double.MAX_VALUE;
-        int hpdIndex = 0;
-
-        int diff = (int) Math.round(hpd * values.length);
-        for (int i = 0; i <= (values.length - diff); i++) {
-            double minValue = values[indices[i]];
-            double maxValue = values[indices[i + diff - 1]];
-            double range = Math.abs(maxValue - minValue);
-            if (range < minRange) {
-                minRange = range;
-                hpdIndex = i;
-            }
-        }
-        double lower = values[indices[hpdIndex]];
-        double upper = values[indices[hpdIndex + diff - 1]];
-        node.setMetaData(label, new Object[]{lower, upper});
+        annotateHPDAttribute(node, label, hpd, new OrderStatistics(values));
+    }
+
+    public static void annotateHPDAttribute(Node node, String label, double hpd, OrderStatistics statistics) {
+        double[] interval = statistics.getHPD(hpd);
+        node.setMetaData(label, new Object[]{interval[0], interval[1]});
+    }
+
+    /** order statistics of values, approximated if there are more values than approximateAbove **/
+    private OrderStatistics getOrderStatistics(double[] values) {
+        boolean approximate = approximateAboveInput.get() != null && values.length > approximateAboveInput.get();
+        return new OrderStatistics(values, approximate);
     }
 
 
@@ -1145,7 +1613,12 @@ public class TreeAnnotator extends beast.base.inference.Runnable {
         } else { // do not use R
             boolean bandwidthLimit = false;
 
-            ContourMaker kde = new ContourWithSynder(values[0], values[1], bandwidthLimit);
+            ContourMaker kde;
+            if (binnedKDEInput.get() != null && binnedKDEInput.get()) {
+                kde = new BinnedKernelDensityEstimator2D(values[0], values[1], bandwidthLimit);
+            } else {
+                kde = new ContourWithSynder(values[0], values[1], bandwidthLimit);
+            }
 
             ContourPath[] paths = kde.getContourPaths(hpd);
 
@@ -1495,8 +1968,23 @@ public class TreeAnnotator extends beast.base.inference.Runnable {
             }
         }
         
+        PrintStream instrumentationStream = null;
+        Instrumentation.Listener instrumentationListener = null;
+        if (instrumentationInput.get() != null) {
+        	PrintStream out = new PrintStream(new FileOutputStream(instrumentationInput.get()));
+        	instrumentationStream = out;
+        	instrumentationListener = (type, phase, json) -> {
+        		out.println(json);
+        		out.flush();
+        	};
+        	instrumentation.addListener(instrumentationListener);
+        }
         try {
-        	run(burninPercentage, lowMem, posteriorLimit, hpd2D, targetTreeFileName, inputFileName, outputFileName);
+        	if (followInput.get() != null && followInput.get()) {
+        		follow(burninPercentage, posteriorLimit, hpd2D, inputFileName, outputFileName);
+        	} else {
+        		run(burninPercentage, lowMem, posteriorLimit, hpd2D, targetTreeFileName, inputFileName, outputFileName);
+        	}
         } catch (Exception e) {
             String msg = e.getMessage();
             if (msg != null && msg.contains("Common ancestor height")) {
@@ -1504,6 +1992,12 @@ public class TreeAnnotator extends beast.base.inference.Runnable {
             } else {
                 e.printStackTrace();
             }
+        } finally {
+        	instrumentation.finish();
+        	if (instrumentationStream != null) {
+        		instrumentation.removeListener(instrumentationListener);
+        		instrumentationStream.close();
+        	}
         }
 
 //        if (args.length == 0) {
@@ -1665,17 +2159,48 @@ public class TreeAnnotator extends beast.base.inference.Runnable {
 //    }
 
     private CladeSystem cladeSystem = null;
+    /** whether follow() is reading a tree log, in which case cladeSystem holds the clades of the trees read so far **/
+    private boolean following = false;
+    /** number of trees per batch when processing trees on several threads **/
+    final static int BATCH_SIZE = 256;
 
     // todo is this function irrelevant?
 	public CladeSystem getCladeSystem() {
+		if (following) {
+			// clades of the trees are counted as they are read, see follow()
+			return cladeSystem;
+		}
+		instrumentation.start(Phase.CLADES);
+		try {
+			return countClades();
+		} finally {
+			instrumentation.end();
+		}
+	}
+
+	/** @return clade system with the clades of all trees in the tree set, or null if the trees cannot be used **/
+	private CladeSystem countClades() {
 		burninPercentage = burnInPercentageInput.get();
         CladeSystem cladeSystem = new CladeSystem();
 	    try {
 	    	treeSet.reset();
 	    	totalTreesUsed = 0;
 	        cladeSystem.setProcessSA(false);
+	        countSampledAncestors = false;
+	        if (recordCladeSequences) {
+	        	cladeSequences = new CladeSequenceFile();
+	        }
+	        OrderedBatchExecutor<Tree, CladeBatch> batches = null;
+	        if (getThreads() > 1) {
+	        	batches = newCladeCounter(cladeSystem);
+	        }
+	        try {
 	    	while (treeSet.hasNext()) {
 	    		Tree tree = treeSet.next();
+	    		if (recordCladeSequences) {
+	    			// replaces the pass through the trees in run()
+	    			checkSampledAncestors(tree);
+	    		} else {
 	            tree.getLeafNodeCount();
 	            if (tree.getDirectAncestorNodeCount() > 0 && !SAmode && processSA) {
 	                SAmode = true;
@@ -1686,11 +2211,34 @@ public class TreeAnnotator extends beast.base.inference.Runnable {
                                 "Please select a different height summary option.");
 	                }
 	                cladeSystem.setProcessSA(true);
+	                countSampledAncestors = true;
 	            }
-	        	cladeSystem.add(tree, false);
+	    		}
+	    		if (batches != null) {
+	    			batches.add(tree);
+	    		} else if (recordCladeSequences) {
+	            	cladeSystem.add(tree, false, cladeSequences);
+	    		} else {
+	            	cladeSystem.add(tree, false);
+	    		}
 	            totalTreesUsed++;
 	        }
+	    	if (batches != null) {
+	    		batches.finish();
+	    	}
+	        } finally {
+	        	if (batches != null) {
+	        		batches.close();
+	        	}
+	        }
 	        totalTrees = totalTreesUsed * 100 / (100-Math.max(burninPercentage, 0));
+	    } catch (RuntimeException e) {
+	    	if (recordCladeSequences) {
+	    		// as thrown by the pass through the trees in run()
+	    		throw e;
+	    	}
+	    	Log.err.println(e.getMessage());
+	        return null;
 	    } catch (Exception e) {
 	    	Log.err.println(e.getMessage());
 	        return null;
@@ -1710,45 +2258,107 @@ public class TreeAnnotator extends beast.base.inference.Runnable {
 	        }
 	    }
 	    cladeSystem.calculateCladeCredibilities(totalTreesUsed);
+	    instrumentation.addTrees(totalTreesUsed);
+	    instrumentation.cladeCount(cladeSystem.getCladeCount());
 	
 	    progressStream.println("Total number of trees " + totalTrees + ", where " + totalTreesUsed + " are used.");
 	
-	    progressStream.println("Total unique clades: " + cladeSystem.getCladeMap().keySet().size());
+	    progressStream.println("Total unique clades: " + cladeSystem.getCladeCount());
 	    progressStream.println();
 	    return cladeSystem;
 	}
 
+    /** whether clades are counted with sampled ancestors, which is switched on at the first tree containing any **/
+    private volatile boolean countSampledAncestors = false;
+
+    /** clades of a batch of trees, with their clade sequences if these are recorded **/
+    private static class CladeBatch {
+    	CladeSystem cladeSystem;
+    	int [][] sequences;
+    }
+
+    /**
+     * @return executor that counts clades of batches of trees in a clade system per batch, on getThreads()
+     * threads, and merges these into cladeSystem in order of the trees. This gives the same clades, counts
+     * and clade sequences as adding the trees one by one.
+     */
+    private OrderedBatchExecutor<Tree, CladeBatch> newCladeCounter(CladeSystem cladeSystem) {
+    	return new OrderedBatchExecutor<>(getThreads(), BATCH_SIZE,
+    		trees -> {
+	    		CladeBatch batch = new CladeBatch();
+	    		batch.cladeSystem = new CladeSystem();
+	    		// trees before the first one with sampled ancestors have none,
+	    		// so it does not matter if they are counted with sampled ancestors or not
+	    		batch.cladeSystem.setProcessSA(countSampledAncestors);
+	    		if (recordCladeSequences) {
+	    			batch.sequences = new int[trees.size()][];
+	    		}
+	    		for (int i = 0; i < trees.size(); i++) {
+	    			if (recordCladeSequences) {
+	    				batch.sequences[i] = batch.cladeSystem.addAndRecord(trees.get(i), false);
+	    			} else {
+	    				batch.cladeSystem.add(trees.get(i), false);
+	    			}
+	    		}
+	    		return batch;
+    		},
+    		(trees, batch) -> {
+	    		int [] indices = cladeSystem.merge(batch.cladeSystem);
+	    		if (recordCladeSequences) {
+	    			for (int [] sequence : batch.sequences) {
+	    				for (int i = 0; i < sequence.length; i += 2) {
+	    					sequence[i] = indices[sequence[i]];
+	    				}
+	    				cladeSequences.write(sequence, sequence.length);
+	    			}
+	    		}
+    		});
+    }
+
 	public CladeSystem getCladeSystem(Tree targetTree) {
     	if (cladeSystem != null) {
     		return cladeSystem;
     	}
-        progressStream.println("Collecting node information...");
-        progressStream.println("0              25             50             75            100");
-        progressStream.println("|--------------|--------------|--------------|--------------|");
+    	instrumentation.start(Phase.CLADES);
+    	try {
+    		return collectAttributes(targetTree);
+    	} finally {
+    		instrumentation.end();
+    	}
+    }
 
-        int stepSize = Math.max(totalTreesUsed / 60, 1);
-        int reported = 0;
+    /** @return clade system with the clades of targetTree and the attributes of these clades in all trees **/
+    private CladeSystem collectAttributes(Tree targetTree) {
+        progressStream.println("Collecting node information...");
+        instrumentation.startProgress(progressStream, totalTreesUsed);
 
         // this call increments the clade counts and it shouldn't
         // this is remedied with removeClades call after while loop below
         cladeSystem = new CladeSystem();
         cladeSystem.setProcessSA(processSA);
+        boolean summarise = streamingStatsInput.get() != null && streamingStatsInput.get();
+        if (summarise && !beastObjects.isEmpty()) {
+        	// plugins get all values of an attribute, so these must be kept
+        	Log.warning("streamingStats is ignored, since annotation plugins need all attribute values");
+        	summarise = false;
+        }
+        cladeSystem.setSummariseAttributes(summarise);
         cladeSystem.add(targetTree, true);
         int totalTreesUsedNew = 0;
         try {
             int counter = 0;
             treeSet.reset();
+            if (getThreads() > 1) {
+            	totalTreesUsedNew = collectAttributesInParallel();
+            	counter = totalTreesUsedNew;
+            }
             while (treeSet.hasNext()) {
             	Tree tree = treeSet.next();
             	if (counter == 0) {
                     setupAttributes(tree);
             	}
                 cladeSystem.collectAttributes(tree, attributeNames);
-    			while (reported < 61 && 1000.0*reported < 61000.0 * (counter + 1) / this.totalTreesUsed) {
-  		          	progressStream.print("*");
-  		          	reported++;
-  		          	progressStream.flush();
-    			}
+                instrumentation.progress();
                 totalTreesUsedNew++;
                 counter++;
         	}
@@ -1756,17 +2366,63 @@ public class TreeAnnotator extends beast.base.inference.Runnable {
             cladeSystem.removeClades(targetTree.getRoot(), true);
             this.totalTreesUsed = totalTreesUsedNew;
             cladeSystem.calculateCladeCredibilities(totalTreesUsedNew);
+            instrumentation.cladeCount(cladeSystem.getCladeCount());
         } catch (Exception e) {
             Log.err.println("Error Parsing Input Tree: " + e.getMessage());
             return null;
         }
-        progressStream.println();
-        progressStream.println();
+        instrumentation.endProgress();
         return cladeSystem;
     }
     
+    /**
+     * as the loop in getCladeSystem(Tree), but the clades of the trees and their attribute values are
+     * looked up on getThreads() threads, and added to the clade system in order of the trees, so
+     * attribute values are in the same order as when collected on a single thread
+     * @return number of trees
+     */
+    private int collectAttributesInParallel() throws IOException {
+    	int [] counter = new int[1];
+    	ThreadLocal<CladeSystem.AttributeCollector> collectors = ThreadLocal.withInitial(cladeSystem::newAttributeCollector);
+    	try (OrderedBatchExecutor<Tree, List<CladeSystem.TreeAttributes>> batches = new OrderedBatchExecutor<>(getThreads(), BATCH_SIZE,
+    		trees -> {
+	    		CladeSystem.AttributeCollector collector = collectors.get();
+	    		List<CladeSystem.TreeAttributes> values = new ArrayList<>(trees.size());
+	    		for (Tree tree : trees) {
+	    			values.add(collector.collect(tree, attributeNames));
+	    		}
+	    		return values;
+    		},
+    		(trees, values) -> {
+	    		for (CladeSystem.TreeAttributes treeValues : values) {
+	    			cladeSystem.addAttributes(treeValues, attributeNames);
+	    			instrumentation.progress();
+	    			counter[0]++;
+	    		}
+    		})) {
+	    	boolean first = true;
+	    	while (treeSet.hasNext()) {
+	    		Tree tree = treeSet.next();
+	    		if (first) {
+	    			// attribute names have to be known before handing out any trees
+	    			setupAttributes(tree);
+	    			first = false;
+	    		}
+	    		batches.add(tree);
+	    	}
+	    	batches.finish();
+    	}
+    	return counter[0];
+    }
+
     public int getTotalTreesUsed() {return totalTreesUsed;}
+    /** @return number of threads to use, at least 1 **/
+    public int getThreads() {return threadsInput.get() == null ? 1 : Math.max(1, threadsInput.get());}
+    /** @return clades of all trees recorded by the last call to getCladeSystem(), or null if they were not recorded **/
+    public CladeSequenceFile getCladeSequences() {return cladeSequences;}
     public TreeSet getTreeSet() {return treeSet;}
+    /** @return timings and throughput of the phases of the run, which services can use for progress reports **/
+    public Instrumentation getInstrumentation() {return instrumentation;}
     public boolean isProcessSA() {return processSA;}
     public int getTotalTrees() {return totalTrees;}
     public int getBurninCount() {return burnInPercentageInput.get();}
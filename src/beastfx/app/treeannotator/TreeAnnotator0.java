@@ -520,7 +520,7 @@ public class TreeAnnotator0 extends Console {
 
             progressStream.println("Total number of trees " + totalTrees + ", where " + totalTreesUsed + " are used.");
 
-            progressStream.println("Total unique clades: " + cladeSystem.getCladeMap().keySet().size());
+            progressStream.println("Total unique clades: " + cladeSystem.getCladeCount());
             progressStream.println();
         }  else {
             // even when a user specified target tree is provided we still need to count the totalTreesUsed for subsequent steps.
@@ -799,7 +799,7 @@ public class TreeAnnotator0 extends Console {
     }
 
     private void annotateNode(CladeSystem cladeSystem, Node node, BitSet bits, boolean isTip, HeightsSummary heightsOption) {
-        CladeSystem.Clade clade = cladeSystem.getCladeMap().get(bits);
+        CladeSystem.Clade clade = cladeSystem.getClade(bits);
         assert clade != null : "Clade missing?";
 
         boolean filter = false;
@@ -811,15 +811,17 @@ public class TreeAnnotator0 extends Console {
             }
         }
 
+        // built from the attribute accumulators on every call, so only once per node
+        List<Object[]> attributeValues = clade.getAttributeValues();
         int i = 0;
         for (String attributeName : attributeNames) {
 
-            if (clade.getAttributeValues() != null && clade.getAttributeValues().size() > 0) {
-                double[] values = new double[clade.getAttributeValues().size()];
+            if (attributeValues != null && attributeValues.size() > 0) {
+                double[] values = new double[attributeValues.size()];
 
                 HashMap<Object, Integer> hashMap = new HashMap<>();
 
-                Object[] v = clade.getAttributeValues().get(0);
+                Object[] v = attributeValues.get(0);
                 if (v[i] != null) {
 
                     final boolean isHeight = attributeName.equals("height");
@@ -853,7 +855,7 @@ public class TreeAnnotator0 extends Console {
                     if (isDoubleArray) {
                         lenArray = ((Object[]) v[i]).length;
 
-                        valuesArray = new double[lenArray][clade.getAttributeValues().size()];
+                        valuesArray = new double[lenArray][attributeValues.size()];
                         minValueArray = new double[lenArray];
                         maxValueArray = new double[lenArray];
 
@@ -863,8 +865,8 @@ public class TreeAnnotator0 extends Console {
                         }
                     }
 
-                    for (int j = 0; j < clade.getAttributeValues().size(); j++) {
-                        Object value = clade.getAttributeValues().get(j)[i];
+                    for (int j = 0; j < attributeValues.size(); j++) {
+                        Object value = attributeValues.get(j)[i];
                         if (isDiscrete) {
                             final Object s = value;
                             if (hashMap.containsKey(s)) {
@@ -1475,7 +1477,7 @@ public class TreeAnnotator0 extends Console {
         // this call increments the clade counts and it shouldn't
         // this is remedied with removeClades call after while loop below
         CladeSystem cladeSystem = new CladeSystem(targetTree);
-        final int clades = cladeSystem.getCladeMap().size();
+        final int clades = cladeSystem.getCladeCount();
 
         // allocate posterior tree nodes order once
         int[] postOrderList = new int[clades];
@@ -0,0 +1,176 @@
+package beastfx.app.treeannotator;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import beast.base.evolution.tree.Tree;
+
+/**
+ * Reads the trees that a running analysis appends to a NEXUS tree log.
+ *
+ * Every call to readTrees() continues at the byte where the previous call stopped, and
+ * only handles complete lines, so a tree that is partly written when the file is read
+ * is picked up by the next call. The log is closed once the "End;" line of the trees
+ * block has been read.
+ */
+public class TreeLogFollower {
+	// states while reading the file
+	private final static int HEADER = 0, BEFORE_TREES_BLOCK = 1, TREES_BLOCK_START = 2, TRANSLATE = 3, IN_TREES_BLOCK = 4, CLOSED = 5;
+
+	final private String fileName;
+	private int state = HEADER;
+
+	/** byte offset of the first byte that has not been read **/
+	private long offset = 0;
+	/** bytes of the current line, which is not complete yet, and the offset where it starts **/
+	private ByteArrayOutputStream line = new ByteArrayOutputStream();
+	private long lineStart = 0;
+	private boolean lastWasCR = false;
+
+	/** lines of the translate block read so far **/
+	private StringBuilder translateBlock = null;
+	private List<String> taxa = null;
+	// label count origin for NEXUS trees
+	private int origin = -1;
+	private int treeCount = 0;
+
+	public TreeLogFollower(String fileName) {
+		this.fileName = fileName;
+	}
+
+	/**
+	 * @param offsets if not null, gets the byte offset of every tree read, for readTree(long)
+	 * @return trees completed since the last call, in order of the file
+	 */
+	public List<Tree> readTrees(List<Long> offsets) throws IOException {
+		List<Tree> trees = new ArrayList<>();
+		try (FileInputStream in = new FileInputStream(fileName)) {
+			if (in.getChannel().size() < offset) {
+				throw new IOException("Tree log " + fileName + " became shorter, was the analysis restarted?");
+			}
+			in.getChannel().position(offset);
+			byte [] buffer = new byte[1 << 16];
+			int n;
+			while (state != CLOSED && (n = in.read(buffer)) > 0) {
+				for (int i = 0; i < n && state != CLOSED; i++, offset++) {
+					byte b = buffer[i];
+					if (b == '\n' && lastWasCR) {
+						// second half of \r\n
+						lastWasCR = false;
+						lineStart = offset + 1;
+					} else if (b == '\n' || b == '\r') {
+						Tree tree = endLine(new String(line.toByteArray(), StandardCharsets.UTF_8));
+						if (tree != null) {
+							trees.add(tree);
+							if (offsets != null) {
+								offsets.add(lineStart);
+							}
+						}
+						line.reset();
+						lastWasCR = b == '\r';
+						lineStart = offset + 1;
+					} else {
+						lastWasCR = false;
+						line.write(b);
+					}
+				}
+			}
+		}
+		return trees;
+	}
+
+	/** @return tree parsed from the line starting at offset, as given by readTrees(List) **/
+	public Tree readTree(long offset) throws IOException {
+		try (BufferedReader fin = openAt(offset)) {
+			return readTree(fin);
+		}
+	}
+
+	/** @return reader positioned at offset, as given by readTrees(List), for reading trees with readTree(BufferedReader) **/
+	public BufferedReader openAt(long offset) throws IOException {
+		return TreeLogIndex.openAt(fileName, offset);
+	}
+
+	/**
+	 * @return next tree from fin, skipping lines without a tree, or null if there are no more trees.
+	 * Only trees that have been returned by readTrees(List) should be read this way.
+	 */
+	public Tree readTree(BufferedReader fin) throws IOException {
+		String str;
+		while ((str = fin.readLine()) != null) {
+			if (TreeLogParser.isTreeLine(str)) {
+				return TreeLogParser.parseNexusTree(str, taxa, origin, "" + treeCount);
+			}
+		}
+		return null;
+	}
+
+	/** @return true when the trees block has ended, so no more trees will be added **/
+	public boolean isClosed() {
+		return state == CLOSED;
+	}
+
+	/** @return number of trees read so far **/
+	public int getTreeCount() {
+		return treeCount;
+	}
+
+	/** handles a complete line, @return the tree on the line, or null if there is none **/
+	private Tree endLine(String str) throws IOException {
+		switch (state) {
+		case HEADER:
+			if (!str.toUpperCase().trim().startsWith("#NEXUS")) {
+				throw new IOException("Only NEXUS tree logs can be followed, but " + fileName + " does not start with #NEXUS");
+			}
+			state = BEFORE_TREES_BLOCK;
+			break;
+		case BEFORE_TREES_BLOCK:
+			if (TreeLogParser.isBeginTreesLine(str)) {
+				state = TREES_BLOCK_START;
+			}
+			break;
+		case TREES_BLOCK_START:
+			if (str.trim().isEmpty()) {
+				break;
+			}
+			if (str.toLowerCase().contains("translate")) {
+				translateBlock = new StringBuilder();
+				state = TRANSLATE;
+				break;
+			}
+			state = IN_TREES_BLOCK;
+			return endLine(str);
+		case TRANSLATE:
+			translateBlock.append(str).append('\n');
+			if (str.trim().equals(";")) {
+				Map<String, String> translationMap = TreeLogParser.parseTranslateBlock(new BufferedReader(new StringReader(translateBlock.toString())));
+				origin = TreeLogParser.getIndexedTranslationMapOrigin(translationMap);
+				if (origin != -1) {
+					taxa = TreeLogParser.getIndexedTranslationMap(translationMap, origin);
+				}
+				translateBlock = null;
+				state = IN_TREES_BLOCK;
+			}
+			break;
+		case IN_TREES_BLOCK:
+			if (TreeLogParser.isTreeLine(str)) {
+				treeCount++;
+				return TreeLogParser.parseNexusTree(str, taxa, origin, "" + treeCount);
+			}
+			if (str.trim().toLowerCase().startsWith("end;")) {
+				state = CLOSED;
+			}
+			break;
+		default:
+			break;
+		}
+		return null;
+	}
+}
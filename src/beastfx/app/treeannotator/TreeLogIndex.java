@@ -0,0 +1,354 @@
+package beastfx.app.treeannotator;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+
+import beast.base.core.Log;
+
+/**
+ * Index of the trees in a tree log: whether it is a NEXUS file, the number of trees,
+ * and the byte offset and line number of every tree and of the translate block.
+ *
+ * Building the index takes one pass through the file that looks at the first bytes of
+ * each line only. With get(String), the index is cached in a sidecar file next to the tree
+ * log, named after the tree log with SUFFIX appended, and is reused as long as size and
+ * modification time of the tree log do not change. If the sidecar file cannot be written,
+ * the index is only kept in memory. With get(String, false), no file is written.
+ */
+public class TreeLogIndex {
+	final static int MAGIC = 0x54494458; // "TIDX"
+	final static int VERSION = 1;
+	public final static String SUFFIX = ".idx";
+
+	private boolean isNexus = true;
+	private int treeCount = 0;
+	/** byte offset and line number (counting from 0) of each tree **/
+	private long [] offsets = new long[1024];
+	private int [] lineNrs = new int[1024];
+	/** byte offset and line number of the line after the "translate" line, or -1 if there is no translate block **/
+	private long translateOffset = -1;
+	private int translateLineNr = -1;
+	/** bytes read to build the index, or to load it from the sidecar file **/
+	private long bytesRead = 0;
+
+	private TreeLogIndex() {}
+
+	/**
+	 * @return index of the tree log, from the sidecar file if it is up to date, otherwise
+	 * by scanning the tree log, in which case the sidecar file is (re)written
+	 */
+	public static TreeLogIndex get(String fileName) throws IOException {
+		return get(fileName, true);
+	}
+
+	/**
+	 * @param writeSidecar if false, the index is only kept in memory, so nothing is written
+	 * next to the tree log; an up to date sidecar file is still used if there is one
+	 * @return index of the tree log, from the sidecar file if it is up to date, otherwise
+	 * by scanning the tree log
+	 */
+	public static TreeLogIndex get(String fileName, boolean writeSidecar) throws IOException {
+		File file = new File(fileName);
+		File sidecar = new File(fileName + SUFFIX);
+		long size = file.length();
+		long lastModified = file.lastModified();
+		if (sidecar.exists()) {
+			try {
+				TreeLogIndex index = read(sidecar, size, lastModified);
+				if (index != null) {
+					return index;
+				}
+			} catch (IOException e) {
+				// rebuild it
+			}
+		}
+		TreeLogIndex index = scan(file);
+		if (!writeSidecar) {
+			return index;
+		}
+		try {
+			index.write(sidecar, size, lastModified);
+		} catch (IOException e) {
+			Log.debug("Could not write tree log index " + sidecar.getPath() + ": " + e.getMessage());
+		}
+		return index;
+	}
+
+	/** true if the file starts with #NEXUS, otherwise every non-empty line is a Newick tree **/
+	public boolean isNexus() {
+		return isNexus;
+	}
+
+	public int getTreeCount() {
+		return treeCount;
+	}
+
+	/** @return byte offset of the i-th tree, counting from 0, or the file size if there are fewer trees **/
+	public long getOffset(int i) {
+		return i < treeCount ? offsets[i] : offsets[treeCount];
+	}
+
+	/** @return number of lines before the i-th tree **/
+	public int getLineNr(int i) {
+		return i < treeCount ? lineNrs[i] : lineNrs[treeCount];
+	}
+
+	/** @return byte offset of the line after the "translate" line of the trees block, or -1 if there is none **/
+	public long getTranslateOffset() {
+		return translateOffset;
+	}
+
+	/** @return number of lines before the line at getTranslateOffset() **/
+	public int getTranslateLineNr() {
+		return translateLineNr;
+	}
+
+	/** @return number of bytes read from the tree log to build this index, or from the sidecar file to load it **/
+	public long getBytesRead() {
+		return bytesRead;
+	}
+
+	/** @return reader of the tree log starting at the given byte offset **/
+	public static BufferedReader openAt(String fileName, long offset) throws IOException {
+		return openAt(fileName, offset, null);
+	}
+
+	/**
+	 * as openAt(fileName, offset), but every read from the file passes the number of bytes
+	 * read to bytesRead, if it is not null
+	 */
+	public static BufferedReader openAt(String fileName, long offset, LongConsumer bytesRead) throws IOException {
+		FileInputStream in = new FileInputStream(fileName);
+		try {
+			in.getChannel().position(offset);
+		} catch (IOException e) {
+			in.close();
+			throw e;
+		}
+		return new BufferedReader(new InputStreamReader(bytesRead == null ? in : new CountingInputStream(in, bytesRead)));
+	}
+
+	/** passes the number of bytes of every read to a consumer **/
+	private static class CountingInputStream extends FilterInputStream {
+		final private LongConsumer bytesRead;
+
+		CountingInputStream(InputStream in, LongConsumer bytesRead) {
+			super(in);
+			this.bytesRead = bytesRead;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b >= 0) {
+				bytesRead.accept(1);
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte [] b, int off, int len) throws IOException {
+			int n = super.read(b, off, len);
+			if (n > 0) {
+				bytesRead.accept(n);
+			}
+			return n;
+		}
+	}
+
+	// states while scanning a NEXUS file
+	private final static int BEFORE_TREES_BLOCK = 0, TREES_BLOCK_START = 1, IN_TREES_BLOCK = 2;
+
+	/** builds the index, counting trees the same way as TreeAnnotator.TreeSet.countTrees used to **/
+	static TreeLogIndex scan(File file) throws IOException {
+		TreeLogIndex index = new TreeLogIndex();
+		try (InputStream in = new FileInputStream(file)) {
+			byte [] buffer = new byte[1 << 16];
+			// text of lines that are needed as strings: the first line and lines up to the start of the trees block
+			ByteArrayOutputStream text = new ByteArrayOutputStream();
+			boolean keepText = true;
+			int state = BEFORE_TREES_BLOCK;
+			long offset = 0;
+			long lineStart = 0;
+			int lineNr = 0;
+			// whether the current line has non-white space characters, and the first of these
+			boolean nonEmpty = false;
+			byte [] prefix = new byte[5];
+			int prefixLength = 0;
+			boolean lastWasCR = false;
+
+			int n;
+			while ((n = in.read(buffer)) > 0) {
+				for (int i = 0; i < n; i++, offset++) {
+					byte b = buffer[i];
+					if (b == '\n' && lastWasCR) {
+						// second half of \r\n
+						lastWasCR = false;
+						lineStart = offset + 1;
+					} else if (b == '\n' || b == '\r') {
+						state = index.endLine(state, lineStart, lineNr, nonEmpty, prefix, prefixLength, keepText ? text : null);
+						lineNr++;
+						keepText = state != IN_TREES_BLOCK;
+						text.reset();
+						nonEmpty = false;
+						prefixLength = 0;
+						lastWasCR = b == '\r';
+						lineStart = offset + 1;
+					} else {
+						lastWasCR = false;
+						if ((b & 0xff) > ' ') {
+							nonEmpty = true;
+						}
+						if (nonEmpty && prefixLength < prefix.length) {
+							prefix[prefixLength++] = b;
+						}
+						if (keepText) {
+							text.write(b);
+						}
+					}
+				}
+			}
+			if (offset == 0) {
+				throw new IOException("File appears empty");
+			}
+			if (lineStart < offset) {
+				// last line has no line terminator
+				index.endLine(state, lineStart, lineNr, nonEmpty, prefix, prefixLength, keepText ? text : null);
+				lineNr++;
+			}
+			index.finish(offset, lineNr);
+			index.bytesRead = offset;
+		}
+		return index;
+	}
+
+	private int endLine(int state, long lineStart, int lineNr, boolean nonEmpty, byte [] prefix, int prefixLength, ByteArrayOutputStream text) {
+		String str = text == null ? null : new String(text.toByteArray());
+		if (lineNr == 0) {
+			isNexus = str.toUpperCase().trim().startsWith("#NEXUS");
+			if (!isNexus) {
+				if (nonEmpty) {
+					addTree(lineStart, lineNr);
+				}
+				return IN_TREES_BLOCK;
+			}
+			return BEFORE_TREES_BLOCK;
+		}
+		if (!isNexus) {
+			if (nonEmpty) {
+				addTree(lineStart, lineNr);
+			}
+			return state;
+		}
+		if (isTreeLine(prefix, prefixLength)) {
+			addTree(lineStart, lineNr);
+		}
+		switch (state) {
+		case BEFORE_TREES_BLOCK:
+			return TreeLogParser.isBeginTreesLine(str) ? TREES_BLOCK_START : state;
+		case TREES_BLOCK_START:
+			if (!nonEmpty) {
+				return state;
+			}
+			if (str.toLowerCase().contains("translate")) {
+				// the line after this one, the position is set when it starts
+				translateLineNr = lineNr + 1;
+				translateOffset = -2;
+			}
+			return IN_TREES_BLOCK;
+		default:
+			if (translateOffset == -2) {
+				translateOffset = lineStart;
+			}
+			return state;
+		}
+	}
+
+	/** case insensitive "tree " at the start of the line, ignoring leading white space **/
+	private static boolean isTreeLine(byte [] prefix, int prefixLength) {
+		if (prefixLength < 5) {
+			return false;
+		}
+		return (prefix[0] | 0x20) == 't' && (prefix[1] | 0x20) == 'r' && (prefix[2] | 0x20) == 'e' && (prefix[3] | 0x20) == 'e' && prefix[4] == ' ';
+	}
+
+	private void addTree(long offset, int lineNr) {
+		if (treeCount + 1 >= offsets.length) {
+			offsets = Arrays.copyOf(offsets, offsets.length * 2);
+			lineNrs = Arrays.copyOf(lineNrs, lineNrs.length * 2);
+		}
+		offsets[treeCount] = offset;
+		lineNrs[treeCount] = lineNr;
+		treeCount++;
+	}
+
+	/** set end of file as offset after the last tree **/
+	private void finish(long fileEnd, int lineCount) {
+		if (translateOffset == -2) {
+			// translate line was the last line
+			translateOffset = fileEnd;
+		}
+		offsets[treeCount] = fileEnd;
+		lineNrs[treeCount] = lineCount;
+	}
+
+	private static TreeLogIndex read(File sidecar, long size, long lastModified) throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(sidecar), 1 << 16))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION || in.readLong() != size || in.readLong() != lastModified) {
+				return null;
+			}
+			TreeLogIndex index = new TreeLogIndex();
+			index.isNexus = in.readBoolean();
+			index.translateOffset = in.readLong();
+			index.translateLineNr = in.readInt();
+			index.treeCount = in.readInt();
+			index.offsets = new long[index.treeCount + 1];
+			index.lineNrs = new int[index.treeCount + 1];
+			for (int i = 0; i <= index.treeCount; i++) {
+				index.offsets[i] = in.readLong();
+				index.lineNrs[i] = in.readInt();
+			}
+			index.bytesRead = sidecar.length();
+			return index;
+		}
+	}
+
+	/** write to a temporary file first, so concurrent readers never see a partial index **/
+	private void write(File sidecar, long size, long lastModified) throws IOException {
+		File tmp = File.createTempFile(sidecar.getName(), ".tmp", sidecar.getAbsoluteFile().getParentFile());
+		try {
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16))) {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeLong(size);
+				out.writeLong(lastModified);
+				out.writeBoolean(isNexus);
+				out.writeLong(translateOffset);
+				out.writeInt(translateLineNr);
+				out.writeInt(treeCount);
+				for (int i = 0; i <= treeCount; i++) {
+					out.writeLong(offsets[i]);
+					out.writeInt(lineNrs[i]);
+				}
+			}
+			Files.move(tmp.toPath(), sidecar.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		} finally {
+			tmp.delete();
+		}
+	}
+}
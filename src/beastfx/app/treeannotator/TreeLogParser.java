@@ -0,0 +1,138 @@
+package beastfx.app.treeannotator;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+
+import beast.base.core.Log;
+import beast.base.evolution.tree.Tree;
+import beast.base.evolution.tree.TreeParser;
+
+/**
+ * Helpers for parsing the trees block of a BEAST tree log one line at a time.
+ * Shared by the TreeSet implementations of TreeAnnotator.
+ */
+public class TreeLogParser {
+
+	private TreeLogParser() {}
+
+	/**
+	 * @return true if line starts a tree in a NEXUS trees block, i.e. starts with "tree " ignoring case
+	 */
+	public static boolean isTreeLine(String line) {
+		int i = 0;
+		int n = line.length();
+		while (i < n && Character.isWhitespace(line.charAt(i))) {
+			i++;
+		}
+		return line.regionMatches(true, i, "tree ", 0, 5);
+	}
+
+	/**
+	 * @return true if line is the "begin trees;" line of a NEXUS file
+	 */
+	public static boolean isBeginTreesLine(String line) {
+		return line.toLowerCase().matches("^\\s*begin\\s+trees;\\s*$");
+	}
+
+	/**
+	 * Parse a translate block, assuming the "translate" line has been read already.
+	 * Reads up to and including the line containing the terminating ";".
+	 * @return a map of taxa translations, keys are generally integer node number starting from 1
+	 *         whereas values are generally descriptive strings.
+	 */
+	public static Map<String, String> parseTranslateBlock(BufferedReader fin) throws IOException {
+
+		final Map<String, String> translationMap = new HashMap<>();
+
+		String line = fin.readLine();
+		final StringBuilder translateBlock = new StringBuilder();
+		while (line != null && !line.trim().toLowerCase().equals(";")) {
+			translateBlock.append(line.trim());
+			line = fin.readLine();
+		}
+		final String[] taxaTranslations = translateBlock.toString().split(",");
+		for (final String taxaTranslation : taxaTranslations) {
+			final String[] translation = taxaTranslation.split("[\t ]+");
+			if (translation.length == 2) {
+				translationMap.put(translation[0], translation[1]);
+			} else {
+				Log.err.println("Ignoring translation:" + Arrays.toString(translation));
+			}
+		}
+		return translationMap;
+	}
+
+	public static List<String> getIndexedTranslationMap(final Map<String, String> translationMap, final int origin) {
+
+		final String[] taxa = new String[translationMap.size()];
+
+		for (final String key : translationMap.keySet()) {
+			taxa[Integer.parseInt(key) - origin] = translationMap.get(key);
+		}
+		return Arrays.asList(taxa);
+	}
+
+	/**
+	 * @param translationMap
+	 * @return minimum key value if keys are a contiguous set of integers starting from zero or one, -1 otherwise
+	 */
+	public static int getIndexedTranslationMapOrigin(final Map<String, String> translationMap) {
+
+		final SortedSet<Integer> indices = new java.util.TreeSet<>();
+
+		int count = 0;
+		for (final String key : translationMap.keySet()) {
+			final int index = Integer.parseInt(key);
+			indices.add(index);
+			count += 1;
+		}
+		if ((indices.last() - indices.first() == count - 1) && (indices.first() == 0 || indices.first() == 1)) {
+			return indices.first();
+		}
+		return -1;
+	}
+
+	/**
+	 * Parse a single "tree STATE_x = (...);" line from a NEXUS trees block
+	 * @param str line containing the tree
+	 * @param taxa taxon names from the translate block, or null if there was none
+	 * @param origin origin of translate block labels, or -1 if not indexed
+	 * @param id identifier to use if the line does not provide one
+	 */
+	public static Tree parseNexusTree(String str, List<String> taxa, int origin, String id) {
+		final int i = str.indexOf('(');
+		try {
+			id = str.substring(5, i).split("=")[0].trim();
+		} catch (Exception e) {
+			// ignore
+		}
+		if (i > 0) {
+			str = str.substring(i);
+		}
+		Tree tree = parseNewick(str, taxa, origin);
+		tree.setID(id);
+		return tree;
+	}
+
+	/**
+	 * Parse a Newick tree, trying label origin 0 and 1 if origin is not known
+	 */
+	public static Tree parseNewick(String str, List<String> taxa, int origin) {
+		TreeParser treeParser;
+		if (origin != -1) {
+			treeParser = new TreeParser(taxa, str, origin, false);
+		} else {
+			try {
+				treeParser = new TreeParser(taxa, str, 0, false);
+			} catch (ArrayIndexOutOfBoundsException e) {
+				treeParser = new TreeParser(taxa, str, 1, false);
+			}
+		}
+		return treeParser;
+	}
+}
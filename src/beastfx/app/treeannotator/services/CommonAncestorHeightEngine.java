@@ -0,0 +1,181 @@
+package beastfx.app.treeannotator.services;
+
+import java.util.List;
+
+import beast.base.evolution.tree.Node;
+import beast.base.evolution.tree.Tree;
+
+/**
+ * Finds the height of the most recent common ancestor (MRCA) of every clade of a target tree
+ * in a sampled tree.
+ *
+ * The MRCA of a set of leaves is the lowest common ancestor (LCA) of the two leaves that are
+ * visited first and last by an Euler tour of the sampled tree. The engine builds the Euler tour
+ * once per sampled tree, puts a sparse table over the node depths for range minimum queries,
+ * and then answers each target clade with a single O(1) query. Each sampled tree
+ * therefore costs O(n log n), where the clade by clade subset test costs O(n^2).
+ *
+ * Taxa are matched by node number, as in CladeSystem.getTreeCladeCodes, so target tree and sampled
+ * trees must share the same taxon ordering. All work arrays are allocated once and reused
+ * for every tree.
+ */
+public class CommonAncestorHeightEngine {
+
+	/** number of nodes in the target tree, and in every sampled tree **/
+	final private int nodeCount;
+
+	/** target tree node numbers in post-order, so children come before their parent **/
+	final private int [] targetPostOrder;
+	/** children of target tree nodes, indexed by node number, null for leafs **/
+	final private int [][] targetChildren;
+
+	/** lowest and highest Euler tour position of the leafs in each target clade **/
+	final private int [] lo, hi;
+
+	// Euler tour of the sampled tree
+	final private int [] euler;
+	final private int [] depth;
+	final private int [] first;
+	final private double [] height;
+
+	// sparse table: sparse[k][i] = position in euler with minimal depth in [i, i + 2^k)
+	final private int [][] sparse;
+	final private int [] log2;
+
+	// scratch for the iterative traversal
+	final private Node [] stack;
+	final private int [] childIndex;
+
+	public CommonAncestorHeightEngine(Tree targetTree) {
+		nodeCount = targetTree.getNodeCount();
+
+		targetPostOrder = new int[nodeCount];
+		targetChildren = new int[nodeCount][];
+		collectTargetTopology(targetTree.getRoot(), new int[1]);
+
+		lo = new int[nodeCount];
+		hi = new int[nodeCount];
+
+		int tourLength = 2 * nodeCount - 1;
+		euler = new int[tourLength];
+		depth = new int[tourLength];
+		first = new int[nodeCount];
+		height = new double[nodeCount];
+
+		log2 = new int[tourLength + 1];
+		for (int i = 2; i <= tourLength; i++) {
+			log2[i] = log2[i / 2] + 1;
+		}
+		sparse = new int[log2[tourLength] + 1][tourLength];
+
+		stack = new Node[nodeCount];
+		childIndex = new int[nodeCount];
+	}
+
+	private void collectTargetTopology(Node node, int [] counter) {
+		if (!node.isLeaf()) {
+			List<Node> children = node.getChildren();
+			int [] nrs = new int[children.size()];
+			for (int i = 0; i < nrs.length; i++) {
+				Node child = children.get(i);
+				collectTargetTopology(child, counter);
+				nrs[i] = child.getNr();
+			}
+			targetChildren[node.getNr()] = nrs;
+		}
+		targetPostOrder[counter[0]++] = node.getNr();
+	}
+
+	/**
+	 * Calculates the heights of the MRCAs of all target clades in tree.
+	 * @param tree sampled tree, with the same taxa as the target tree
+	 * @param heights on return, heights[k] is the height of the MRCA in tree
+	 *        of the clade below node k of the target tree
+	 */
+	public void getCommonAncestorHeights(Tree tree, double [] heights) {
+		if (tree.getNodeCount() != nodeCount) {
+			throw new IllegalArgumentException("Tree has " + tree.getNodeCount() + " nodes but target tree has " + nodeCount);
+		}
+		int tourLength = eulerTour(tree.getRoot());
+		buildSparseTable(tourLength);
+
+		for (int nr : targetPostOrder) {
+			int [] children = targetChildren[nr];
+			if (children == null) {
+				lo[nr] = first[nr];
+				hi[nr] = first[nr];
+				heights[nr] = height[nr];
+			} else {
+				int min = lo[children[0]];
+				int max = hi[children[0]];
+				for (int i = 1; i < children.length; i++) {
+					min = Math.min(min, lo[children[i]]);
+					max = Math.max(max, hi[children[i]]);
+				}
+				lo[nr] = min;
+				hi[nr] = max;
+				heights[nr] = height[euler[rangeMinimum(min, max)]];
+			}
+		}
+	}
+
+	/** iterative Euler tour, so that deep (caterpillar like) trees do not overflow the call stack **/
+	private int eulerTour(Node root) {
+		int pos = 0;
+		int top = 0;
+		stack[0] = root;
+		childIndex[root.getNr()] = 0;
+		first[root.getNr()] = pos;
+		height[root.getNr()] = root.getHeight();
+		euler[pos] = root.getNr();
+		depth[pos++] = 0;
+
+		while (top >= 0) {
+			Node node = stack[top];
+			int nr = node.getNr();
+			if (childIndex[nr] < node.getChildCount()) {
+				Node child = node.getChild(childIndex[nr]++);
+				int childNr = child.getNr();
+				stack[++top] = child;
+				childIndex[childNr] = 0;
+				first[childNr] = pos;
+				height[childNr] = child.getHeight();
+				euler[pos] = childNr;
+				depth[pos++] = top;
+			} else {
+				top--;
+				if (top >= 0) {
+					euler[pos] = stack[top].getNr();
+					depth[pos++] = top;
+				}
+			}
+		}
+		return pos;
+	}
+
+	private void buildSparseTable(int tourLength) {
+		int [] row = sparse[0];
+		for (int i = 0; i < tourLength; i++) {
+			row[i] = i;
+		}
+		for (int k = 1; (1 << k) <= tourLength; k++) {
+			int [] prev = sparse[k - 1];
+			row = sparse[k];
+			int half = 1 << (k - 1);
+			int end = tourLength - (1 << k);
+			for (int i = 0; i <= end; i++) {
+				int a = prev[i];
+				int b = prev[i + half];
+				row[i] = depth[a] <= depth[b] ? a : b;
+			}
+		}
+	}
+
+	/** @return position in the Euler tour of the shallowest node in [from, to] **/
+	private int rangeMinimum(int from, int to) {
+		int k = log2[to - from + 1];
+		int a = sparse[k][from];
+		int b = sparse[k][to - (1 << k) + 1];
+		return depth[a] <= depth[b] ? a : b;
+	}
+}
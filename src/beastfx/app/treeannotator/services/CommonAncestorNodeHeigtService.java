@@ -2,62 +2,61 @@ package beastfx.app.treeannotator.services;
 
 import java.io.IOException;
 import java.io.PrintStream;
-import java.util.BitSet;
 
 import beast.base.core.Citation;
 import beast.base.core.Log;
 import beast.base.evolution.tree.Node;
 import beast.base.evolution.tree.Tree;
-import beast.base.evolution.tree.TreeUtils;
-import beast.base.util.CollectionUtils;
-import beastfx.app.treeannotator.CladeSystem;
+import beastfx.app.treeannotator.Instrumentation;
 import beastfx.app.treeannotator.TreeAnnotator;
 import beastfx.app.treeannotator.TreeAnnotator.TreeSet;
+import beastfx.app.util.OrderStatistics;
+import beastfx.app.util.StreamingStatistics;
 
 @Citation(value = "Heled and Bouckaert (2013). BMC Evolutionary Biology.\nLooking for trees in the forest: summary tree from posterior samples.", DOI = "doi.org/10.1186/1471-2148-13-221")
 public class CommonAncestorNodeHeigtService implements NodeHeightSettingService {
 
 	private int totalTreesUsed;
+	/** number of trees above which heights are summarised while reading instead of stored, or -1 to always store them **/
+	private int approximateAbove = -1;
+
 	@Override
 	public void setNodeHeights(Tree tree, PrintStream progressStream, TreeAnnotator treeAnnotator)  throws IOException {
 //        Log.warning.println("Please cite: Heled and Bouckaert: Looking for trees in the forest:\n" +
 //                "summary tree from posterior samples. BMC Evolutionary Biology 2013 13:221.");
 
         this.totalTreesUsed = treeAnnotator.getTotalTreesUsed();
-		setTreeHeightsByCA(tree, treeAnnotator.getTreeSet(), progressStream);
+        Integer approximateAbove = treeAnnotator.approximateAboveInput.get();
+        this.approximateAbove = approximateAbove == null ? -1 : approximateAbove;
+		setTreeHeightsByCA(tree, treeAnnotator.getTreeSet(), progressStream, treeAnnotator.getInstrumentation());
 
 	}
 
-	boolean setTreeHeightsByCA(Tree targetTree, TreeSet treeSet, PrintStream progressStream) throws IOException {
+	boolean setTreeHeightsByCA(Tree targetTree, TreeSet treeSet, PrintStream progressStream, Instrumentation instrumentation) throws IOException {
 		progressStream.println("Setting node heights...");
-		progressStream.println("0              25             50             75            100");
-		progressStream.println("|--------------|--------------|--------------|--------------|");
-
-		int reportStepSize = totalTreesUsed / 60;
-		if (reportStepSize < 1)
-			reportStepSize = 1;
-		int reported = 0;
-
-// this call increments the clade counts and it shouldn't
-// this is remedied with removeClades call after while loop below
-		CladeSystem cladeSystem = new CladeSystem(targetTree);
-		final int clades = cladeSystem.getCladeMap().size();
-
-// allocate posterior tree nodes order once
-		int[] postOrderList = new int[clades];
-		BitSet[] ctarget = new BitSet[clades];
-		BitSet[] ctree = new BitSet[clades];
-
-		for (int k = 0; k < clades; ++k) {
-			ctarget[k] = new BitSet();
-			ctree[k] = new BitSet();
+		instrumentation.startProgress(progressStream, totalTreesUsed);
+
+		final int clades = targetTree.getNodeCount();
+
+// finds the MRCA of every target clade in a sampled tree through an Euler tour LCA index
+		CommonAncestorHeightEngine engine = new CommonAncestorHeightEngine(targetTree);
+		double[] treeHeights = new double[clades];
+
+// temp collecting heights inside loop allocated once. With many trees, heights are
+// summarised per clade instead, which takes memory independent of the number of trees
+		final int treeCount = treeSet.totalTrees - treeSet.burninCount;
+		final boolean summarise = approximateAbove >= 0 && treeCount > approximateAbove;
+		double[][] hs = null;
+		StreamingStatistics[] summaries = null;
+		if (summarise) {
+			summaries = new StreamingStatistics[clades];
+			for (int k = 0; k < clades; ++k) {
+				summaries[k] = new StreamingStatistics();
+			}
+		} else {
+			hs = new double[clades][treeCount];
 		}
 
-		cladeSystem.getTreeCladeCodes(targetTree, ctarget);
-
-// temp collecting heights inside loop allocated once
-		double[][] hs = new double[clades][treeSet.totalTrees - treeSet.burninCount];
-
 // heights total sum from posterior trees
 		double[] ths = new double[clades];
 
@@ -67,25 +66,17 @@ public class CommonAncestorNodeHeigtService implements NodeHeightSettingService
 		treeSet.reset();
 		while (treeSet.hasNext()) {
 			Tree tree = treeSet.next();
-			TreeUtils.preOrderTraversalList(tree, postOrderList);
-			cladeSystem.getTreeCladeCodes(tree, ctree);
+			engine.getCommonAncestorHeights(tree, treeHeights);
 			for (int k = 0; k < clades; ++k) {
-				int j = postOrderList[k];
-				for (int i = 0; i < clades; ++i) {
-					if (CollectionUtils.isSubSet(ctarget[i], ctree[j])) {
-						hs[i][counter] = tree.getNode(j).getHeight();
-					}
+				if (summarise) {
+					summaries[k].add(treeHeights[k]);
+				} else {
+					hs[k][counter] = treeHeights[k];
 				}
-			}
-			for (int k = 0; k < clades; ++k) {
-				ths[k] += hs[k][counter];
+				ths[k] += treeHeights[k];
 			}
 			totalTreesUsed += 1;
-			while (reported < 61 && 1000.0 * reported < 61000.0 * (counter + 1) / this.totalTreesUsed) {
-				progressStream.print("*");
-				reported++;
-				progressStream.flush();
-			}
+			instrumentation.progress();
 			counter++;
 
 		}
@@ -93,12 +84,15 @@ public class CommonAncestorNodeHeigtService implements NodeHeightSettingService
 //		if (targetOption != Target.USER_TARGET_TREE)
 //			targetTree.initAndValidate();
 
-		cladeSystem.removeClades(targetTree.getRoot(), true);
 		for (int k = 0; k < clades; ++k) {
 			ths[k] /= totalTreesUsed;
 			final Node node = targetTree.getNode(k);
 			node.setHeight(ths[k]);
 			String attributeName = "CAheight";
+			if (summarise) {
+				annotateSummary(node, attributeName, ths[k], summaries[k]);
+				continue;
+			}
 			double[] values = hs[k];
 			double min = values[0];
 			double max = values[0];
@@ -107,21 +101,33 @@ public class CommonAncestorNodeHeigtService implements NodeHeightSettingService
 				max = Math.max(d, max);
 			}
 			if (Math.abs(min - max) > 1e-10) {
-				TreeAnnotator.annotateMeanAttribute(node, attributeName + "_mean", values);
-				TreeAnnotator.annotateMedianAttribute(node, attributeName + "_median", values);
-				TreeAnnotator.annotateHPDAttribute(node, attributeName + "_95%_HPD", 0.95, values);
-				TreeAnnotator.annotateRangeAttribute(node, attributeName + "_range", values);
+				// sorted once for median, HPD interval and range
+				OrderStatistics statistics = new OrderStatistics(values);
+				node.setMetaData(attributeName + "_mean", statistics.getMean());
+				TreeAnnotator.annotateMedianAttribute(node, attributeName + "_median", statistics);
+				TreeAnnotator.annotateHPDAttribute(node, attributeName + "_95%_HPD", 0.95, statistics);
+				TreeAnnotator.annotateRangeAttribute(node, attributeName + "_range", statistics);
 			}
 		}
 
 		assert (totalTreesUsed == this.totalTreesUsed);
 		this.totalTreesUsed = totalTreesUsed;
-		progressStream.println();
-		progressStream.println();
+		instrumentation.endProgress();
 
 		return true;
 	}
 
+	/** annotates CA heights summarised while reading the trees, where mean is the exact mean height **/
+	private void annotateSummary(Node node, String attributeName, double mean, StreamingStatistics summary) {
+		if (Math.abs(summary.getMin() - summary.getMax()) > 1e-10) {
+			OrderStatistics statistics = new OrderStatistics(summary);
+			node.setMetaData(attributeName + "_mean", mean);
+			TreeAnnotator.annotateMedianAttribute(node, attributeName + "_median", statistics);
+			TreeAnnotator.annotateHPDAttribute(node, attributeName + "_95%_HPD", 0.95, statistics);
+			TreeAnnotator.annotateRangeAttribute(node, attributeName + "_range", statistics);
+		}
+	}
+
 	@Override
 	public String getServiceName() {
 		return "CA";
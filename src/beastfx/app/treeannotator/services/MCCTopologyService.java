@@ -3,24 +3,39 @@ package beastfx.app.treeannotator.services;
 
 import java.io.IOException;
 import java.io.PrintStream;
+import java.util.List;
 
 import beast.base.evolution.tree.Tree;
+import beastfx.app.treeannotator.CladeSequenceFile;
 import beastfx.app.treeannotator.CladeSystem;
+import beastfx.app.treeannotator.Instrumentation;
+import beastfx.app.treeannotator.OrderedBatchExecutor;
 import beastfx.app.treeannotator.TreeAnnotator;
 import beastfx.app.treeannotator.TreeAnnotator.TreeSet;
 
 public class MCCTopologyService implements TopologySettingService {
-
+	/** number of trees scored by one task when scoring on several threads **/
+	final static int BATCH_SIZE = 256;
 	
 	protected TreeSet treeSet;
 	protected int totalTreesUsed;
+	/** clades of all trees, when recorded while building the clade system **/
+	protected CladeSequenceFile cladeSequences;
+	/** number of threads used for scoring trees **/
+	protected int threads = 1;
+	/** progress bar and counts of trees scored **/
+	protected Instrumentation instrumentation = new Instrumentation();
 	
 	@Override
 	public Tree setTopology(TreeSet treeSet, PrintStream progressStream, TreeAnnotator annotator) throws IOException {
         progressStream.println("Finding maximum credibility tree...");
 		this.treeSet = treeSet;
+		CladeSystem cladeSystem = annotator.getCladeSystem();
 		this.totalTreesUsed = annotator.getTotalTreesUsed();
-		return summarizeTrees(annotator.getCladeSystem(), false, progressStream);
+		this.cladeSequences = annotator.getCladeSequences();
+		this.threads = annotator.getThreads();
+		this.instrumentation = annotator.getInstrumentation();
+		return summarizeTrees(cladeSystem, false, progressStream);
 	}
 
     protected Tree summarizeTrees(CladeSystem cladeSystem, boolean useSumCladeCredibility, PrintStream progressStream) throws IOException  {
@@ -29,30 +44,46 @@ public class MCCTopologyService implements TopologySettingService {
         double bestScore = Double.NEGATIVE_INFINITY;
 
         progressStream.println("Analyzing " + totalTreesUsed + " trees...");
-        progressStream.println("0              25             50             75            100");
-        progressStream.println("|--------------|--------------|--------------|--------------|");
-
-        int stepSize = Math.max(totalTreesUsed / 60, 1);
-        int reported = 0;
+        instrumentation.startProgress(progressStream, totalTreesUsed);
 
         int counter = 0;
-        treeSet.reset();
-        while (treeSet.hasNext()) {
-        	Tree tree = treeSet.next();
-            double score = scoreTree(tree, cladeSystem, useSumCladeCredibility);
-          if (score > bestScore) {
-              bestTree = tree;
-              bestScore = score;
-          }
-		  while (reported < 61 && 1000.0 * reported < 61000.0 * (counter + 1) / totalTreesUsed) {
-              progressStream.print("*");
-              reported++;
-              progressStream.flush();
-    	  }
-          counter++;
+        if (threads > 1) {
+        	ParallelScoring scoring = new ParallelScoring(cladeSystem, useSumCladeCredibility);
+        	bestTree = scoring.run();
+        	bestScore = scoring.bestScore;
+        } else if (cladeSequences != null) {
+        	// score from recorded clades instead of parsing the trees again
+        	int bestIndex = -1;
+        	int [] sequence = null;
+        	int [] length = new int[1];
+        	cladeSequences.reset();
+        	while ((sequence = cladeSequences.read(sequence, length)) != null) {
+        		double score = cladeSystem.getCladeCredibility(sequence, length[0], useSumCladeCredibility);
+        		if (score > bestScore) {
+        			bestIndex = counter;
+        			bestScore = score;
+        		}
+        		instrumentation.progress();
+        		counter++;
+        	}
+        	bestTree = bestIndex >= 0 ? treeSet.getTree(bestIndex) : null;
+        } else {
+	        treeSet.reset();
+	        while (treeSet.hasNext()) {
+	        	Tree tree = treeSet.next();
+	            double score = scoreTree(tree, cladeSystem, useSumCladeCredibility);
+	          if (score > bestScore) {
+	              bestTree = tree;
+	              bestScore = score;
+	          }
+	          instrumentation.progress();
+	          counter++;
+	        }
+        }
+        instrumentation.endProgress();
+        if (bestTree == null) {
+        	throw new IOException("No trees after burn-in to choose a maximum clade credibility tree from");
         }
-        progressStream.println();
-        progressStream.println();
         if (useSumCladeCredibility) {
             progressStream.println("Highest Sum Clade Credibility: " + bestScore);
         } else {
@@ -63,6 +94,88 @@ public class MCCTopologyService implements TopologySettingService {
         return bestTree;
     }
 
+    /**
+     * Scores trees on a pool of threads, each with its own CladeSystem.Scorer.
+     * Trees, or the clades recorded for them, are read on the calling thread and handed to the
+     * pool in batches. At most a few batches per thread are queued, so a MemoryFriendlyTreeSet
+     * still only holds a small part of the trees in memory. Scores are collected in the order the
+     * trees were read, so as when scoring sequentially the earliest of equally scoring trees wins.
+     */
+    private class ParallelScoring {
+    	final boolean useSumCladeCredibility;
+    	final ThreadLocal<CladeSystem.Scorer> scorers;
+
+    	Tree bestTree = null;
+    	int bestIndex = -1;
+    	double bestScore = Double.NEGATIVE_INFINITY;
+    	int counter = 0;
+
+    	ParallelScoring(CladeSystem cladeSystem, boolean useSumCladeCredibility) {
+    		this.useSumCladeCredibility = useSumCladeCredibility;
+    		scorers = ThreadLocal.withInitial(cladeSystem::newScorer);
+    	}
+
+    	/** @return tree with the highest score, or null if there are no trees **/
+    	Tree run() throws IOException {
+    		if (cladeSequences != null) {
+    			try (OrderedBatchExecutor<int[], double[]> batches = new OrderedBatchExecutor<>(threads, BATCH_SIZE,
+    					sequences -> {
+    						CladeSystem.Scorer scorer = scorers.get();
+    						double [] scores = new double[sequences.size()];
+    						for (int i = 0; i < scores.length; i++) {
+    							int [] sequence = sequences.get(i);
+    							scores[i] = scorer.score(sequence, sequence.length, useSumCladeCredibility);
+    						}
+    						return scores;
+    					},
+    					(sequences, scores) -> collect(null, scores))) {
+    				int [] length = new int[1];
+    				int [] sequence;
+    				cladeSequences.reset();
+    				// read into a new buffer every time, since the sequences are kept until scored
+    				while ((sequence = cladeSequences.read(null, length)) != null) {
+    					batches.add(sequence);
+    				}
+    				batches.finish();
+    			}
+    			return bestIndex >= 0 ? treeSet.getTree(bestIndex) : null;
+    		} else {
+    			try (OrderedBatchExecutor<Tree, double[]> batches = new OrderedBatchExecutor<>(threads, BATCH_SIZE,
+    					trees -> {
+    						CladeSystem.Scorer scorer = scorers.get();
+    						double [] scores = new double[trees.size()];
+    						for (int i = 0; i < scores.length; i++) {
+    							scores[i] = scorer.score(trees.get(i), useSumCladeCredibility);
+    						}
+    						return scores;
+    					},
+    					(trees, scores) -> collect(trees, scores))) {
+    				treeSet.reset();
+    				while (treeSet.hasNext()) {
+    					batches.add(treeSet.next());
+    				}
+    				batches.finish();
+    			}
+    			return bestTree;
+    		}
+    	}
+
+    	/** update the best tree with scores of the next batch, where trees is null when scoring clade sequences **/
+    	private void collect(List<Tree> trees, double [] scores) {
+    		for (int i = 0; i < scores.length; i++) {
+    			if (scores[i] > bestScore) {
+    				bestIndex = counter;
+    				bestScore = scores[i];
+    				if (trees != null) {
+    					bestTree = trees.get(i);
+    				}
+    			}
+    			instrumentation.progress();
+    			counter++;
+    		}
+    	}
+    }
+
     public double scoreTree(Tree tree, CladeSystem cladeSystem, boolean useSumCladeCredibility) {
         if (useSumCladeCredibility) {
             return cladeSystem.getSumCladeCredibility(tree.getRoot(), null);
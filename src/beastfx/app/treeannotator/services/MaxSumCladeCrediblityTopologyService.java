@@ -5,6 +5,7 @@ import java.io.IOException;
 import java.io.PrintStream;
 
 import beast.base.evolution.tree.Tree;
+import beastfx.app.treeannotator.CladeSystem;
 import beastfx.app.treeannotator.TreeAnnotator;
 import beastfx.app.treeannotator.TreeAnnotator.TreeSet;
 
@@ -14,8 +15,12 @@ public class MaxSumCladeCrediblityTopologyService extends MCCTopologyService {
 	public Tree setTopology(TreeSet treeSet, PrintStream progressStream, TreeAnnotator annotator) throws IOException {
         progressStream.println("Finding maximum sum clade credibility tree...");
 		this.treeSet = treeSet;
+		CladeSystem cladeSystem = annotator.getCladeSystem();
 		this.totalTreesUsed = annotator.getTotalTreesUsed();
-		return summarizeTrees(annotator.getCladeSystem(), true, progressStream);
+		this.cladeSequences = annotator.getCladeSequences();
+		this.threads = annotator.getThreads();
+		this.instrumentation = annotator.getInstrumentation();
+		return summarizeTrees(cladeSystem, true, progressStream);
 	}
 	
 	@Override
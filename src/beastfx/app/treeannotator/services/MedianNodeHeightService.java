@@ -3,12 +3,21 @@ package beastfx.app.treeannotator.services;
 import beast.base.evolution.tree.Node;
 import beast.base.util.DiscreteStatistics;
 import beastfx.app.treeannotator.TreeAnnotator;
+import beastfx.app.util.OrderStatistics;
 
 public class MedianNodeHeightService implements NodeHeightSettingService {
 
 	@Override
 	public void setNodeHeight(Node node, double[] values, TreeAnnotator treeAnnotator) {
-        final double median = DiscreteStatistics.median(values);
+        setNodeHeight(node, DiscreteStatistics.median(values), treeAnnotator);
+	}
+
+	@Override
+	public void setNodeHeight(Node node, double[] values, OrderStatistics statistics, TreeAnnotator treeAnnotator) {
+        setNodeHeight(node, statistics.getMedian(), treeAnnotator);
+	}
+
+	private void setNodeHeight(Node node, double median, TreeAnnotator treeAnnotator) {
         if (node.isDirectAncestor()) {
             node.getParent().setHeight(median);
         }
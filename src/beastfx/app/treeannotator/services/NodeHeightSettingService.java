@@ -9,15 +9,22 @@ import beast.base.core.Description;
 import beast.base.evolution.tree.Node;
 import beast.base.evolution.tree.Tree;
 import beastfx.app.treeannotator.TreeAnnotator;
+import beastfx.app.util.OrderStatistics;
 
 @Description("Service for setting node heights when running TreeAnnotator")
 public interface NodeHeightSettingService extends Citable {
 	
-	/** set node heights for tree to be annotated **/
+	/** set node heights for tree to be annotated.
+	 * Progress bars and trees processed can be reported through treeAnnotator.getInstrumentation() **/
 	default void setNodeHeights(Tree tree, PrintStream progressStream, TreeAnnotator treeAnnotator) throws IOException {};
 	
 	/** set node heights for single node to be annotated **/
 	default void setNodeHeight(Node tree, double [] values, TreeAnnotator treeAnnotator) {};
+
+	/** as setNodeHeight above, with order statistics of values so that services need not sort values again **/
+	default void setNodeHeight(Node node, double [] values, OrderStatistics statistics, TreeAnnotator treeAnnotator) {
+		setNodeHeight(node, values, treeAnnotator);
+	};
 	
 	/** return service name for use in TreeAnnotator interface **/
 	String getServiceName();
@@ -13,7 +13,8 @@ import beastfx.app.treeannotator.TreeAnnotator.TreeSet;
 @Description("Service for setting topology when running TreeAnnotator")
 public interface TopologySettingService extends Citable {
 	
-	/** set node heights for tree to be annotated **/
+	/** set node heights for tree to be annotated.
+	 * Progress bars and trees processed can be reported through annotator.getInstrumentation() **/
 	Tree setTopology(TreeSet trees, PrintStream progressStream, TreeAnnotator annotator) throws IOException;
 	
 	/** return service name for use in TreeAnnotator interface **/
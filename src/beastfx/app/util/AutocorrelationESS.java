@@ -0,0 +1,128 @@
+package beastfx.app.util;
+
+/**
+ * Effective sample size of a trace from its autocovariance, which is calculated for all lags
+ * at once with a fast Fourier transform. This takes O(n log n) time, where ESS.ACT takes time
+ * proportional to n times the maximum lag.
+ *
+ * The autocorrelations are summed with Geyer's initial monotone sequence estimator: sums of
+ * pairs of consecutive autocovariances are added while they are positive, and each pair is
+ * capped at the previous one, so that noise in the tail of the autocorrelation is cut off.
+ *
+ * Geyer, C. J. (1992). Practical Markov chain Monte Carlo. Statistical Science 7(4), 473-483.
+ */
+public class AutocorrelationESS {
+	final private int n;
+	final private double variance;
+	/** integrated autocorrelation time, in samples **/
+	final private double tau;
+
+	public AutocorrelationESS(double [] trace) {
+		n = trace.length;
+		double [] autoCovariance = autoCovariance(trace);
+		double gamma0 = n > 0 ? autoCovariance[0] : 0;
+		variance = n > 1 ? gamma0 * n / (n - 1) : 0;
+		if (!(gamma0 > 0)) {
+			// constant trace
+			tau = Double.NaN;
+			return;
+		}
+
+		double sum = 0;
+		double previous = Double.POSITIVE_INFINITY;
+		for (int k = 0; 2 * k + 1 < n; k++) {
+			double pair = autoCovariance[2 * k] + autoCovariance[2 * k + 1];
+			if (pair <= 0) {
+				break;
+			}
+			pair = Math.min(pair, previous);
+			sum += pair;
+			previous = pair;
+		}
+		// as in Stan, the time is bounded from below for traces that are anti-correlated
+		tau = Math.max(-1 + 2 * sum / gamma0, 1 / Math.log10(Math.max(n, 10)));
+	}
+
+	/** @return autocorrelation time in units of the sample number, as ESS.ACT **/
+	public double getACT(int sampleInterval) {
+		return tau * sampleInterval;
+	}
+
+	public double getESS() {
+		return n / tau;
+	}
+
+	public double getStdErrorOfMean() {
+		return Double.isNaN(tau) ? 0 : Math.sqrt(variance * tau / n);
+	}
+
+	/** @return autocovariance of trace for lags 0 to trace.length - 1, divided by trace.length **/
+	public static double [] autoCovariance(double [] trace) {
+		int n = trace.length;
+		double mean = 0;
+		for (double x : trace) {
+			mean += x;
+		}
+		mean /= Math.max(n, 1);
+
+		// zero padding to at least 2n prevents the circular correlation from wrapping around
+		int size = Integer.highestOneBit(Math.max(2 * n - 1, 1)) << 1;
+		double [] re = new double[size];
+		double [] im = new double[size];
+		for (int i = 0; i < n; i++) {
+			re[i] = trace[i] - mean;
+		}
+		fft(re, im, false);
+		for (int i = 0; i < size; i++) {
+			re[i] = re[i] * re[i] + im[i] * im[i];
+			im[i] = 0;
+		}
+		fft(re, im, true);
+
+		double [] autoCovariance = new double[n];
+		for (int k = 0; k < n; k++) {
+			autoCovariance[k] = re[k] / size / n;
+		}
+		return autoCovariance;
+	}
+
+	/** in place radix 2 fast Fourier transform, the length of re and im must be a power of 2 **/
+	private static void fft(double [] re, double [] im, boolean inverse) {
+		int size = re.length;
+		for (int i = 1, j = 0; i < size; i++) {
+			int bit = size >> 1;
+			for (; (j & bit) != 0; bit >>= 1) {
+				j ^= bit;
+			}
+			j ^= bit;
+			if (i < j) {
+				double t = re[i]; re[i] = re[j]; re[j] = t;
+				t = im[i]; im[i] = im[j]; im[j] = t;
+			}
+		}
+		// twiddle factors of the last stage, which earlier stages use with a stride,
+		// computed directly rather than by repeated multiplication to limit rounding errors
+		double [] cos = new double[size / 2];
+		double [] sin = new double[size / 2];
+		for (int k = 0; k < size / 2; k++) {
+			cos[k] = Math.cos(2 * Math.PI * k / size);
+			sin[k] = (inverse ? 1 : -1) * Math.sin(2 * Math.PI * k / size);
+		}
+		for (int length = 2; length <= size; length <<= 1) {
+			int half = length >> 1;
+			int stride = size / length;
+			for (int i = 0; i < size; i += length) {
+				for (int k = 0; k < half; k++) {
+					int a = i + k, b = a + half;
+					double c = cos[k * stride], s = sin[k * stride];
+					double xr = re[b] * c - im[b] * s;
+					double xi = re[b] * s + im[b] * c;
+					re[b] = re[a] - xr;
+					im[b] = im[a] - xi;
+					re[a] += xr;
+					im[a] += xi;
+				}
+			}
+		}
+	}
+}
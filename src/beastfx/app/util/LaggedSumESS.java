@@ -0,0 +1,75 @@
+package beastfx.app.util;
+
+/**
+ * Effective sample size of a trace as calculated by ESS.ACT and ESS.stdErrorOfMean, but on
+ * a primitive array, and with the autocorrelations summed once for both. Autocorrelations
+ * are summed up to MAX_LAG, which takes time proportional to n times MAX_LAG.
+ *
+ * The sums are taken in the same order as in ESS, so results are the same.
+ */
+public class LaggedSumESS {
+	/** maximum lag of the autocorrelations, as in ESS **/
+	final static int MAX_LAG = 2000;
+
+	final private int n;
+	/** autocorrelation at lag 0, that is, the variance of the trace **/
+	final private double autoCorrelation0;
+	/** twice the integral of the autocorrelation function **/
+	final private double integralOfACFunctionTimes2;
+
+	public LaggedSumESS(double [] trace) {
+		n = trace.length;
+		// sum of trace
+		double sum = 0.0;
+		// keep track of sums of trace(i)*trace(i_+ lag) for all lags
+		double [] squareLaggedSums = new double[MAX_LAG];
+		double [] autoCorrelation = new double[MAX_LAG];
+		for (int i = 0; i < n; i++) {
+			sum += trace[i];
+			final double mean = sum / (i + 1);
+			// sum1 = \sum_{start ... totalSamples-lag-1} trace
+			double sum1 = sum;
+			// sum2 = \sum_{start+lag ... totalSamples-1} trace
+			double sum2 = sum;
+			for (int lagIndex = 0; lagIndex < Math.min(i + 1, MAX_LAG); lagIndex++) {
+				squareLaggedSums[lagIndex] = squareLaggedSums[lagIndex] + trace[i - lagIndex] * trace[i];
+				// the same approximation as in Tracer
+				autoCorrelation[lagIndex] = squareLaggedSums[lagIndex] - (sum1 + sum2) * mean + mean * mean * (i + 1 - lagIndex);
+				autoCorrelation[lagIndex] /= (i + 1 - lagIndex);
+				sum1 -= trace[i - lagIndex];
+				sum2 -= trace[lagIndex];
+			}
+		}
+
+		final int maxLag = Math.min(n, MAX_LAG);
+		double integral = 0.0;
+		for (int lagIndex = 0; lagIndex < maxLag; lagIndex++) {
+			if (lagIndex == 0) {
+				integral = autoCorrelation[0];
+			} else if (lagIndex % 2 == 0) {
+				// stop once the sum of a pair of autocorrelations is no longer positive
+				if (autoCorrelation[lagIndex - 1] + autoCorrelation[lagIndex] > 0) {
+					integral += 2.0 * (autoCorrelation[lagIndex - 1] + autoCorrelation[lagIndex]);
+				} else {
+					break;
+				}
+			}
+		}
+		autoCorrelation0 = autoCorrelation[0];
+		integralOfACFunctionTimes2 = integral;
+	}
+
+	/** @return autocorrelation time in units of the sample number, as ESS.ACT **/
+	public double getACT(int sampleInterval) {
+		return sampleInterval * integralOfACFunctionTimes2 / autoCorrelation0;
+	}
+
+	public double getESS() {
+		return n / (integralOfACFunctionTimes2 / autoCorrelation0);
+	}
+
+	/** @return standard error of the mean, as ESS.stdErrorOfMean **/
+	public double getStdErrorOfMean() {
+		return Math.sqrt(integralOfACFunctionTimes2 / n);
+	}
+}
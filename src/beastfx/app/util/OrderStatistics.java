@@ -0,0 +1,109 @@
+package beastfx.app.util;
+
+import java.util.Arrays;
+
+import beast.base.util.DiscreteStatistics;
+
+/**
+ * Mean, median, range and HPD intervals at any number of levels of a sample,
+ * all served from a single sorted copy of the values, so summarising a sample
+ * takes one sort instead of one per statistic.
+ *
+ * In approximate mode the values are added to a StreamingStatistics instead of
+ * being sorted, which takes time linear in the number of values. Mean, minimum
+ * and maximum are still exact, medians and HPD intervals are approximate.
+ */
+public class OrderStatistics {
+	/** values as passed in, or null if only a summary is available **/
+	final private double [] values;
+	/** values in ascending order, or null in approximate mode **/
+	final private double [] sorted;
+	/** summary used in approximate mode, otherwise null **/
+	final private StreamingStatistics summary;
+	final private double mean;
+
+	public OrderStatistics(double [] values) {
+		this(values, false);
+	}
+
+	public OrderStatistics(double [] values, boolean approximate) {
+		if (values.length == 0) {
+			throw new IllegalArgumentException("no values to summarise");
+		}
+		this.values = values;
+		mean = DiscreteStatistics.mean(values);
+		if (approximate) {
+			summary = new StreamingStatistics();
+			for (double value : values) {
+				summary.add(value);
+			}
+			sorted = null;
+		} else {
+			sorted = values.clone();
+			Arrays.sort(sorted);
+			summary = null;
+		}
+	}
+
+	/** statistics of values that have been summarised already **/
+	public OrderStatistics(StreamingStatistics summary) {
+		this.values = null;
+		this.sorted = null;
+		this.summary = summary;
+		mean = summary.getMean();
+	}
+
+	public boolean isApproximate() {
+		return sorted == null;
+	}
+
+	/** @return the values as passed to the constructor, or null if constructed from a summary **/
+	public double [] getValues() {
+		return values;
+	}
+
+	public double getMean() {
+		return mean;
+	}
+
+	public double getMin() {
+		return sorted != null ? sorted[0] : summary.getMin();
+	}
+
+	public double getMax() {
+		return sorted != null ? sorted[sorted.length - 1] : summary.getMax();
+	}
+
+	/** @return median, the average of the two middle values for an even number of values, as DiscreteStatistics.median **/
+	public double getMedian() {
+		if (sorted == null) {
+			return summary.getMedian();
+		}
+		int pos = sorted.length / 2;
+		if (sorted.length % 2 == 1) {
+			return sorted[pos];
+		}
+		return (sorted[pos - 1] + sorted[pos]) / 2.0;
+	}
+
+	/**
+	 * @return shortest interval {lower, upper} containing round(mass * n) of the n values,
+	 * the first such interval if there are several
+	 */
+	public double [] getHPD(double mass) {
+		if (sorted == null) {
+			return summary.getHPD(mass);
+		}
+		int diff = (int) Math.round(mass * sorted.length);
+		double minRange = Double.MAX_VALUE;
+		int hpdIndex = 0;
+		for (int i = 0; i <= sorted.length - diff; i++) {
+			double range = Math.abs(sorted[i + diff - 1] - sorted[i]);
+			if (range < minRange) {
+				minRange = range;
+				hpdIndex = i;
+			}
+		}
+		return new double[]{sorted[hpdIndex], sorted[hpdIndex + diff - 1]};
+	}
+}
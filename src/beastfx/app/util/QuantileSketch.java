@@ -0,0 +1,224 @@
+package beastfx.app.util;
+
+import java.util.Arrays;
+
+/**
+ * Mergeable sketch for approximate quantiles of a stream of doubles in bounded memory,
+ * following Karnin, Lang and Liberty (KLL) "Optimal Quantile Approximation in Streams" (2016).
+ *
+ * Values are kept in levels, where a value at level h stands for 2^h values of the stream.
+ * When a level is full it is sorted and every other value is promoted to the next level.
+ * With the default accuracy k=200 the rank error is around 1%, while the
+ * sketch holds at most a few thousand values however long the stream is.
+ *
+ * Whether odd or even positions are promoted is chosen by a pseudo random generator with
+ * a fixed seed, so the same stream always gives the same result.
+ */
+public class QuantileSketch {
+	public final static int DEFAULT_K = 200;
+	final static int MIN_CAPACITY = 8;
+
+	final private int k;
+
+	private double [][] levels;
+	private int [] sizes;
+	private int levelCount;
+	private long count;
+	/** state of the xorshift generator choosing odd or even positions **/
+	private long random = 0x9E3779B97F4A7C15L;
+
+	public QuantileSketch() {
+		this(DEFAULT_K);
+	}
+
+	public QuantileSketch(int k) {
+		if (k < 8) {
+			throw new IllegalArgumentException("k should be at least 8, not " + k);
+		}
+		this.k = k;
+		levels = new double[1][8];
+		sizes = new int[1];
+		levelCount = 1;
+		count = 0;
+	}
+
+	/** number of values added to the sketch, including those of merged sketches **/
+	public long getCount() {
+		return count;
+	}
+
+	public void add(double value) {
+		append(0, value);
+		count++;
+		if (sizes[0] >= capacity(0)) {
+			compress();
+		}
+	}
+
+	/** add all values of other to this sketch. other is not changed. **/
+	public void merge(QuantileSketch other) {
+		for (int h = 0; h < other.levelCount; h++) {
+			while (levelCount <= h) {
+				addLevel();
+			}
+			for (int i = 0; i < other.sizes[h]; i++) {
+				append(h, other.levels[h][i]);
+			}
+		}
+		count += other.count;
+		compress();
+	}
+
+	/**
+	 * @param p fraction between 0 and 1
+	 * @return approximation of the p-quantile, or NaN if the sketch is empty
+	 */
+	public double getQuantile(double p) {
+		if (count == 0) {
+			return Double.NaN;
+		}
+		double [] values = new double[retained()];
+		long [] cumulative = new long[values.length];
+		sortedValues(values, cumulative);
+		long rank = (long) Math.ceil(p * count);
+		for (int i = 0; i < values.length; i++) {
+			if (cumulative[i] >= rank) {
+				return values[i];
+			}
+		}
+		return values[values.length - 1];
+	}
+
+	/**
+	 * @param mass fraction of values the interval should contain
+	 * @return approximation of the shortest interval {lower, upper} containing the mass, as used for HPD intervals
+	 */
+	public double [] getHPD(double mass) {
+		if (count == 0) {
+			return new double[]{Double.NaN, Double.NaN};
+		}
+		double [] values = new double[retained()];
+		long [] cumulative = new long[values.length];
+		sortedValues(values, cumulative);
+
+		long required = Math.max(1, Math.round(mass * count));
+		double minRange = Double.MAX_VALUE;
+		double lower = values[0];
+		double upper = values[values.length - 1];
+		int j = 0;
+		for (int i = 0; i < values.length; i++) {
+			long below = i == 0 ? 0 : cumulative[i - 1];
+			while (j < values.length && cumulative[j] - below < required) {
+				j++;
+			}
+			if (j == values.length) {
+				break;
+			}
+			double range = values[j] - values[i];
+			if (range < minRange) {
+				minRange = range;
+				lower = values[i];
+				upper = values[j];
+			}
+		}
+		return new double[]{lower, upper};
+	}
+
+	/** fill values with all retained values in ascending order, and cumulative with their cumulative weights **/
+	private void sortedValues(double [] values, long [] cumulative) {
+		// merge the sorted levels one by one
+		int n = 0;
+		long [] weights = new long[values.length];
+		double [] mergedValues = new double[values.length];
+		long [] mergedWeights = new long[values.length];
+		for (int h = 0; h < levelCount; h++) {
+			double [] level = Arrays.copyOf(levels[h], sizes[h]);
+			Arrays.sort(level);
+			long weight = 1L << h;
+			int a = 0, b = 0, m = 0;
+			while (a < n || b < level.length) {
+				if (b == level.length || (a < n && values[a] <= level[b])) {
+					mergedValues[m] = values[a];
+					mergedWeights[m++] = weights[a++];
+				} else {
+					mergedValues[m] = level[b++];
+					mergedWeights[m++] = weight;
+				}
+			}
+			System.arraycopy(mergedValues, 0, values, 0, m);
+			System.arraycopy(mergedWeights, 0, weights, 0, m);
+			n = m;
+		}
+		long sum = 0;
+		for (int i = 0; i < n; i++) {
+			sum += weights[i];
+			cumulative[i] = sum;
+		}
+	}
+
+	private int retained() {
+		int n = 0;
+		for (int h = 0; h < levelCount; h++) {
+			n += sizes[h];
+		}
+		return n;
+	}
+
+	/** level capacities shrink by a factor 2/3 going down from the top level **/
+	private int capacity(int level) {
+		int depth = levelCount - 1 - level;
+		return Math.max(MIN_CAPACITY, (int) Math.ceil(k * Math.pow(2.0 / 3.0, depth)));
+	}
+
+	private void append(int level, double value) {
+		if (sizes[level] == levels[level].length) {
+			levels[level] = Arrays.copyOf(levels[level], Math.max(8, levels[level].length * 2));
+		}
+		levels[level][sizes[level]++] = value;
+	}
+
+	private void addLevel() {
+		levels = Arrays.copyOf(levels, levelCount + 1);
+		sizes = Arrays.copyOf(sizes, levelCount + 1);
+		levels[levelCount] = new double[8];
+		levelCount++;
+	}
+
+	private void compress() {
+		boolean compressed = true;
+		// merged sketches can leave a level more than twice over capacity, so repeat till all levels fit
+		while (compressed) {
+			compressed = false;
+			for (int h = 0; h < levelCount; h++) {
+				if (sizes[h] >= capacity(h)) {
+					compressLevel(h);
+					compressed = true;
+				}
+			}
+		}
+	}
+
+	/** sort level h and promote every other value to the next level **/
+	private void compressLevel(int h) {
+		if (h + 1 == levelCount) {
+			addLevel();
+		}
+		double [] level = levels[h];
+		int n = sizes[h];
+		Arrays.sort(level, 0, n);
+		// with an odd number of values, the largest one stays behind
+		int even = n - (n % 2);
+		random ^= random << 13;
+		random ^= random >>> 7;
+		random ^= random << 17;
+		for (int i = (int) (random & 1); i < even; i += 2) {
+			append(h + 1, level[i]);
+		}
+		if (n % 2 == 1) {
+			level[0] = level[n - 1];
+			sizes[h] = 1;
+		} else {
+			sizes[h] = 0;
+		}
+	}
+}
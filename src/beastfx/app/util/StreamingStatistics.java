@@ -0,0 +1,99 @@
+package beastfx.app.util;
+
+/**
+ * Summary statistics of a stream of doubles in constant memory: count, mean and variance
+ * by Welford's method, minimum, maximum, and approximate quantiles from a QuantileSketch.
+ * Two summaries can be merged, e.g. when parts of a stream are processed on different threads.
+ */
+public class StreamingStatistics {
+	private long count = 0;
+	private double mean = 0;
+	/** sum of squared differences from the mean **/
+	private double m2 = 0;
+	private double min = Double.POSITIVE_INFINITY;
+	private double max = Double.NEGATIVE_INFINITY;
+	final private QuantileSketch sketch;
+
+	public StreamingStatistics() {
+		this(QuantileSketch.DEFAULT_K);
+	}
+
+	/** @param k accuracy of the quantile sketch, see QuantileSketch **/
+	public StreamingStatistics(int k) {
+		sketch = new QuantileSketch(k);
+	}
+
+	public void add(double value) {
+		count++;
+		double delta = value - mean;
+		mean += delta / count;
+		m2 += delta * (value - mean);
+		if (value < min) {
+			min = value;
+		}
+		if (value > max) {
+			max = value;
+		}
+		sketch.add(value);
+	}
+
+	/** add the values summarised by other to this summary **/
+	public void merge(StreamingStatistics other) {
+		if (other.count == 0) {
+			return;
+		}
+		if (count == 0) {
+			mean = other.mean;
+			m2 = other.m2;
+		} else {
+			long n = count + other.count;
+			double delta = other.mean - mean;
+			mean += delta * other.count / n;
+			m2 += other.m2 + delta * delta * ((double) count * other.count / n);
+		}
+		count += other.count;
+		min = Math.min(min, other.min);
+		max = Math.max(max, other.max);
+		sketch.merge(other.sketch);
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public double getMean() {
+		return count == 0 ? Double.NaN : mean;
+	}
+
+	/** @return sample variance, with n-1 in the denominator **/
+	public double getVariance() {
+		return count < 2 ? Double.NaN : m2 / (count - 1);
+	}
+
+	public double getStdDev() {
+		return Math.sqrt(getVariance());
+	}
+
+	public double getMin() {
+		return count == 0 ? Double.NaN : min;
+	}
+
+	public double getMax() {
+		return count == 0 ? Double.NaN : max;
+	}
+
+	/** @return approximate p-quantile **/
+	public double getQuantile(double p) {
+		return sketch.getQuantile(p);
+	}
+
+	/** @return approximate median **/
+	public double getMedian() {
+		return sketch.getQuantile(0.5);
+	}
+
+	/** @return approximate shortest interval {lower, upper} containing the given mass **/
+	public double [] getHPD(double mass) {
+		return sketch.getHPD(mass);
+	}
+}
@@ -0,0 +1,74 @@
+package benchmark.beastfx.app.treeannotator;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import beastfx.app.treeannotator.BinnedKernelDensityEstimator2D;
+import beastfx.app.treeannotator.ContourMaker;
+import beastfx.app.treeannotator.ContourPath;
+import beastfx.app.treeannotator.ContourWithSynder;
+
+/**
+ * Benchmark for the 2D HPD of a single node, as calculated by TreeAnnotator for
+ * bivariate traits: density estimation and contouring of a sample of locations
+ * from two well separated modes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class KernelDensityEstimatorBenchmark {
+
+	@Param({"1000", "20000"})
+	public int samples;
+
+	/** exact or binned **/
+	@Param({"exact", "binned"})
+	public String estimator;
+
+	private double [] x;
+	private double [] y;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		Random random = new Random(127);
+		x = new double[samples];
+		y = new double[samples];
+		for (int i = 0; i < samples; i++) {
+			int mode = random.nextInt(2);
+			x[i] = random.nextGaussian() + 6 * mode;
+			y[i] = 0.5 * random.nextGaussian() - 2 * mode;
+		}
+	}
+
+	@Benchmark
+	public ContourPath [] hpd2D() {
+		ContourMaker kde;
+		switch (estimator) {
+		case "exact":
+			kde = new ContourWithSynder(x, y, false);
+			break;
+		case "binned":
+			kde = new BinnedKernelDensityEstimator2D(x, y, false);
+			break;
+		default:
+			throw new IllegalArgumentException("unknown estimator " + estimator + ", choose exact or binned");
+		}
+		return kde.getContourPaths(0.8);
+	}
+}
@@ -0,0 +1,160 @@
+package benchmark.beastfx.app.treeannotator;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Writes a synthetic posterior tree set in the NEXUS format used by BEAST tree loggers.
+ *
+ * Every tree is built from the same leaf order and a height for each gap between
+ * neighbouring leaves: the highest gap becomes the root, and each side is split
+ * recursively the same way. Gap heights are perturbed per tree, so trees share most
+ * clades but not all of them, as in a posterior sample.
+ *
+ * Attributes logged on all nodes can be chosen from
+ * rate (a number), loc (a 2 dimensional location) and type (a discrete trait).
+ */
+public class SyntheticPosterior {
+	final static String [] ALL_ATTRIBUTES = {"rate", "loc", "type"};
+
+	final private int taxonCount;
+	final private Set<String> attributes;
+	final private Random random;
+	/** height of the gap between leaf i and leaf i+1 in the typical tree **/
+	final private double [] gapHeights;
+	/** amount of variation in gap heights between trees, larger means fewer shared clades **/
+	final private double noise;
+
+	public SyntheticPosterior(int taxonCount, String [] attributes, long seed) {
+		this(taxonCount, attributes, seed, 0.3);
+	}
+
+	public SyntheticPosterior(int taxonCount, String [] attributes, long seed, double noise) {
+		if (taxonCount < 2) {
+			throw new IllegalArgumentException("need at least 2 taxa");
+		}
+		this.taxonCount = taxonCount;
+		this.attributes = new HashSet<>();
+		for (String attribute : attributes) {
+			if (attribute.isEmpty()) {
+				continue;
+			}
+			this.attributes.add(attribute);
+			if (!Arrays.asList(ALL_ATTRIBUTES).contains(attribute)) {
+				throw new IllegalArgumentException("unknown attribute " + attribute + ", choose from " + Arrays.toString(ALL_ATTRIBUTES));
+			}
+		}
+		this.random = new Random(seed);
+		this.noise = noise;
+		gapHeights = new double[taxonCount - 1];
+		for (int i = 0; i < gapHeights.length; i++) {
+			gapHeights[i] = -Math.log(random.nextDouble());
+		}
+	}
+
+	/** write treeCount trees to file **/
+	public void write(File file, int treeCount) throws IOException {
+		try (PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(file), 1 << 16))) {
+			out.println("#NEXUS");
+			out.println();
+			out.println("Begin taxa;");
+			out.println("\tDimensions ntax=" + taxonCount + ";");
+			out.println("\t\tTaxlabels");
+			for (int i = 1; i <= taxonCount; i++) {
+				out.println("\t\t\ttaxon_" + i + " ");
+			}
+			out.println("\t\t\t;");
+			out.println("End;");
+			out.println("Begin trees;");
+			out.println("\tTranslate");
+			for (int i = 1; i <= taxonCount; i++) {
+				out.println("\t\t\t" + i + " taxon_" + i + (i < taxonCount ? "," : ""));
+			}
+			out.println(";");
+			for (int i = 0; i < treeCount; i++) {
+				out.println("tree STATE_" + (i * 1000L) + " = " + nextTree() + ";");
+			}
+			out.println("End;");
+		}
+	}
+
+	/** @return a tree in Newick format, with taxa numbered from 1 **/
+	public String nextTree() {
+		double [] heights = new double[gapHeights.length];
+		for (int i = 0; i < heights.length; i++) {
+			heights[i] = gapHeights[i] * Math.exp(noise * random.nextGaussian());
+		}
+		StringBuilder b = new StringBuilder();
+		double [] location = {random.nextGaussian(), random.nextGaussian()};
+		subtree(b, heights, 0, taxonCount - 1, Double.NaN, location);
+		return b.toString();
+	}
+
+	/** append subtree over leaves first...last, location is that of the parent **/
+	private void subtree(StringBuilder b, double [] heights, int first, int last, double parentHeight, double [] location) {
+		double height = 0;
+		int split = first;
+		if (first < last) {
+			for (int i = first + 1; i < last; i++) {
+				if (heights[i] > heights[split]) {
+					split = i;
+				}
+			}
+			height = heights[split];
+		}
+		// location diffuses along the branch
+		double length = Double.isNaN(parentHeight) ? 0 : parentHeight - height;
+		double [] nodeLocation = {
+				location[0] + Math.sqrt(length) * random.nextGaussian(),
+				location[1] + Math.sqrt(length) * random.nextGaussian()};
+		if (first == last) {
+			b.append(first + 1);
+		} else {
+			b.append('(');
+			subtree(b, heights, first, split, height, nodeLocation);
+			b.append(',');
+			subtree(b, heights, split + 1, last, height, nodeLocation);
+			b.append(')');
+		}
+		appendMetaData(b, nodeLocation);
+		if (!Double.isNaN(parentHeight)) {
+			b.append(':').append(length);
+		}
+	}
+
+	private void appendMetaData(StringBuilder b, double [] location) {
+		if (attributes.isEmpty()) {
+			return;
+		}
+		StringBuilder meta = new StringBuilder();
+		if (attributes.contains("rate")) {
+			meta.append(",rate=").append(Math.exp(0.3 * random.nextGaussian()));
+		}
+		if (attributes.contains("loc")) {
+			meta.append(String.format(Locale.US, ",loc={%s,%s}", location[0], location[1]));
+		}
+		if (attributes.contains("type")) {
+			meta.append(",type=\"t").append(random.nextInt(3)).append('"');
+		}
+		b.append("[&").append(meta.substring(1)).append(']');
+	}
+
+	/** SyntheticPosterior file taxa trees [attributes [seed]] **/
+	public static void main(String[] args) throws IOException {
+		if (args.length < 3) {
+			System.err.println("Usage: SyntheticPosterior <output file> <number of taxa> <number of trees> [<attributes, e.g. rate,loc,type> [<seed>]]");
+			System.exit(1);
+		}
+		String [] attributes = args.length > 3 ? args[3].split(",") : ALL_ATTRIBUTES;
+		long seed = args.length > 4 ? Long.parseLong(args[4]) : 127;
+		new SyntheticPosterior(Integer.parseInt(args[1]), attributes, seed).write(new File(args[0]), Integer.parseInt(args[2]));
+	}
+}
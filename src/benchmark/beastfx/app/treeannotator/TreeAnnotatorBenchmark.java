@@ -0,0 +1,135 @@
+package benchmark.beastfx.app.treeannotator;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import beast.base.evolution.tree.Tree;
+import beastfx.app.treeannotator.CladeSystem;
+import beastfx.app.treeannotator.ParallelTreeLoader;
+import beastfx.app.treeannotator.TreeAnnotator;
+import beastfx.app.treeannotator.TreeLogIndex;
+
+/**
+ * Benchmarks for the stages of TreeAnnotator on a synthetic posterior:
+ * parsing, clade counting and MCC scoring separately, and the whole pipeline
+ * with common ancestor, mean and median node heights.
+ *
+ * The tree set is generated in the temporary directory for every combination of parameters,
+ * see SyntheticPosterior. Parameters can be changed on the command line, e.g.
+ * -p taxa=200 -p trees=20000 -p attributes=rate,loc
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TreeAnnotatorBenchmark {
+
+	@Param({"50"})
+	public int taxa;
+
+	@Param({"2000"})
+	public int trees;
+
+	/** comma separated attributes logged on every node, from rate, loc and type **/
+	@Param({"rate,loc,type"})
+	public String attributes;
+
+	@Param({"1"})
+	public int threads;
+
+	private File treeFile;
+	private File outputFile;
+	private Tree [] parsedTrees;
+	private CladeSystem cladeSystem;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		treeFile = File.createTempFile("TreeAnnotatorBenchmark", ".trees");
+		outputFile = File.createTempFile("TreeAnnotatorBenchmark", ".tree");
+		new SyntheticPosterior(taxa, attributes.split(","), 127).write(treeFile, trees);
+
+		parsedTrees = parse();
+		cladeSystem = countClades();
+		cladeSystem.calculateCladeCredibilities(parsedTrees.length);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		Files.deleteIfExists(treeFile.toPath());
+		Files.deleteIfExists(new File(treeFile.getPath() + TreeLogIndex.SUFFIX).toPath());
+		Files.deleteIfExists(outputFile.toPath());
+	}
+
+	/** parse all trees, including building the tree log index **/
+	@Benchmark
+	public Tree [] parse() throws IOException {
+		Files.deleteIfExists(new File(treeFile.getPath() + TreeLogIndex.SUFFIX).toPath());
+		String fileName = treeFile.getPath();
+		return new ParallelTreeLoader(fileName, TreeLogIndex.get(fileName), 0, threads).load();
+	}
+
+	@Benchmark
+	public CladeSystem countClades() {
+		CladeSystem cladeSystem = new CladeSystem();
+		for (Tree tree : parsedTrees) {
+			cladeSystem.add(tree, false);
+		}
+		return cladeSystem;
+	}
+
+	/** find the tree with highest log clade credibility **/
+	@Benchmark
+	public Tree scoreMCC() {
+		Tree best = null;
+		double bestScore = Double.NEGATIVE_INFINITY;
+		for (Tree tree : parsedTrees) {
+			double score = cladeSystem.getLogCladeCredibility(tree.getRoot(), null);
+			if (score > bestScore) {
+				best = tree;
+				bestScore = score;
+			}
+		}
+		return best;
+	}
+
+	@Benchmark
+	public void annotateCommonAncestorHeights() throws IOException {
+		annotate("CA");
+	}
+
+	@Benchmark
+	public void annotateMeanHeights() throws IOException {
+		annotate("mean");
+	}
+
+	@Benchmark
+	public void annotateMedianHeights() throws IOException {
+		annotate("median");
+	}
+
+	/** run TreeAnnotator with MCC topology, no burn-in and 80% HPD for locations **/
+	private void annotate(String height) throws IOException {
+		TreeAnnotator treeAnnotator = new TreeAnnotator();
+		treeAnnotator.heightInput.setValue(height, treeAnnotator);
+		treeAnnotator.threadsInput.setValue(threads, treeAnnotator);
+		treeAnnotator.run(0, false, 0.0, 0.8, null, treeFile.getPath(), outputFile.getPath());
+	}
+}
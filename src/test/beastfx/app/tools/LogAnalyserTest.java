@@ -0,0 +1,148 @@
+package test.beastfx.app.tools;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.jupiter.api.Test;
+
+import beast.base.inference.util.ESS;
+import beastfx.app.tools.LogAnalyser;
+
+/**
+ * check that statistics calculated for columns in parallel are those calculated one column
+ * at a time, with ACT and standard error as ESS gives, that one-line output is in input
+ * order, and that subclasses still get the traces as boxed values
+ */
+public class LogAnalyserTest {
+
+	/** exposes the deprecated field, as subclasses elsewhere use it **/
+	static class BoxedTraces extends LogAnalyser {
+		BoxedTraces(String fileName) throws IOException {
+			super(fileName, 10, true);
+		}
+
+		BoxedTraces() {
+		}
+
+		@SuppressWarnings("deprecation")
+		Double[][] traces() {
+			return m_fTraces;
+		}
+	}
+
+	@Test
+	public void testParallelMatchesSerial() throws IOException, InterruptedException, ExecutionException {
+		File file = createLog(new Random(22), 3000);
+		LogAnalyser analyser = new LogAnalyser(file.getPath(), 10, true);
+		for (LogAnalyser.ESSMethod method : LogAnalyser.ESSMethod.values()) {
+			analyser.setESSMethod(method);
+			analyser.calcStats();
+			Double [][] parallel = statistics(analyser);
+			// a parallel stream started in a pool with one thread runs on that thread only
+			ForkJoinPool pool = new ForkJoinPool(1);
+			try {
+				pool.submit(() -> analyser.calcStats()).get();
+			} finally {
+				pool.shutdown();
+			}
+			Double [][] serial = statistics(analyser);
+			for (int i = 0; i < serial.length; i++) {
+				assertArrayEquals(serial[i], parallel[i], method + " statistic " + i);
+			}
+		}
+
+		// ESS.ACT and ESS.stdErrorOfMean on the boxed traces of the numeric columns
+		analyser.setESSMethod(LogAnalyser.ESSMethod.ACT);
+		analyser.calcStats();
+		for (int i = 1; i <= 2; i++) {
+			Double [] trace = analyser.getTrace(i);
+			assertEquals(ESS.ACT(trace, 1000), analyser.getACT(i), 1e-12 * analyser.getACT(i));
+			assertEquals(ESS.stdErrorOfMean(trace, 1000), analyser.getStdError(i), 1e-12 * analyser.getStdError(i));
+			assertEquals(trace.length / (ESS.ACT(trace, 1000) / 1000), analyser.getESS(i), 1e-9 * analyser.getESS(i));
+		}
+	}
+
+	/** @return statistics of all columns, with null for those that are not calculated for a column **/
+	private Double [][] statistics(LogAnalyser analyser) {
+		return new Double[][]{analyser.getMean(), analyser.getStdDev(), analyser.getStdError(),
+				analyser.getMedian(), analyser.get95HPDlow(), analyser.get95HPDup(),
+				analyser.getESS(), analyser.getACT(), analyser.getGeometricMean()};
+	}
+
+	@Test
+	public void testOneLineOrder() throws InterruptedException, IOException {
+		// the first file takes longest, and a missing file leaves no line
+		Random random = new Random(25);
+		List<String> files = new ArrayList<>();
+		files.add(createLog(random, 100000).getPath());
+		for (int i = 0; i < 8; i++) {
+			files.add(i == 3 ? "missing.log" : createLog(random, 100 + 500 * i).getPath());
+		}
+
+		String sequential = oneLine(files, 1);
+		String [] lines = sequential.split("\n");
+		assertTrue(lines[0].startsWith("sample\tfilename\t"));
+		int line = 1;
+		for (int i = 0; i < files.size(); i++) {
+			if (i != 4) {
+				assertTrue(lines[line++].startsWith(i + "\t" + files.get(i) + "\t"), lines[line - 1]);
+			}
+		}
+		assertEquals(line, lines.length);
+		assertEquals(sequential, oneLine(files, 4));
+	}
+
+	private String oneLine(List<String> files, int threads) throws InterruptedException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		new LogAnalyser.OneLineAnalysis(files, 10, null, LogAnalyser.ESSMethod.FFT, false, new PrintStream(out)).run(threads);
+		return out.toString();
+	}
+
+	@Test
+	public void testDeprecatedTraces() throws IOException {
+		File file = createLog(new Random(21), 1000);
+		BoxedTraces analyser = new BoxedTraces(file.getPath());
+		// boxed on first use only
+		assertNull(analyser.traces());
+		assertSame(analyser.getTraces(), analyser.traces());
+		assertEquals(4, analyser.traces().length);
+		for (int i = 0; i < 4; i++) {
+			assertArrayEquals(analyser.getTrace(i), analyser.traces()[i]);
+		}
+		assertEquals(900, analyser.traces()[1].length);
+
+		BoxedTraces data = new BoxedTraces();
+		data.setData(new Double[]{1.0, 2.0, 4.0}, 10);
+		assertArrayEquals(new Double[]{1.0, 2.0, 4.0}, data.traces()[1]);
+		assertEquals(7.0 / 3, data.getMean(1), 1e-12);
+	}
+
+	/** @return log with an AR(1) column, a uniform column and a boolean column **/
+	static File createLog(Random random, int samples) throws IOException {
+		File file = File.createTempFile("LogAnalyserTest", ".log");
+		file.deleteOnExit();
+		StringBuilder b = new StringBuilder("# log\nSample\tx\tu\tflag\n");
+		double x = 0;
+		for (int i = 0; i < samples; i++) {
+			x = 0.8 * x + random.nextGaussian();
+			b.append(i * 1000).append('\t').append(x).append('\t').append(random.nextDouble())
+				.append('\t').append(random.nextBoolean()).append('\n');
+		}
+		Files.writeString(file.toPath(), b.toString());
+		return file;
+	}
+}
@@ -0,0 +1,57 @@
+package test.beastfx.app.tools;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import beastfx.app.tools.LogAnalyser;
+import beastfx.app.tools.StreamingLogAnalyser;
+
+/**
+ * check that streaming statistics are close to those calculated from the full traces
+ */
+public class StreamingLogAnalyserTest {
+
+	@Test
+	public void testAgainstLogAnalyser() throws IOException {
+		File file = File.createTempFile("StreamingLogAnalyserTest", ".log");
+		file.deleteOnExit();
+		Random random = new Random(42);
+		StringBuilder b = new StringBuilder("# log\nSample\tx\tflag\n");
+		double x = 0;
+		for (int i = 0; i < 50000; i++) {
+			x = 0.8 * x + random.nextGaussian();
+			b.append(i * 1000).append('\t').append(x).append('\t').append(random.nextBoolean()).append('\n');
+		}
+		Files.writeString(file.toPath(), b.toString());
+
+		LogAnalyser exact = new LogAnalyser(file.getPath(), 10, true);
+		StreamingLogAnalyser streaming = new StreamingLogAnalyser(file.getPath(), 10, true, null);
+
+		assertEquals(exact.getMean("x"), streaming.getMean("x"), 1e-10);
+		assertEquals(exact.getStdDev("x"), streaming.getStdDev("x"), 1e-10);
+		double sd = exact.getStdDev("x");
+		assertEquals(exact.getMedian("x"), streaming.getMedian("x"), 0.05 * sd);
+		assertEquals(exact.get95HPDlow("x"), streaming.get95HPDlow("x"), 0.25 * sd);
+		assertEquals(exact.get95HPDup("x"), streaming.get95HPDup("x"), 0.25 * sd);
+		assertEquals(exact.getESS("x"), streaming.getESS("x"), 0.3 * exact.getESS("x"));
+		assertEquals(exact.getACT("x"), streaming.getACT("x"), 0.3 * exact.getACT("x"));
+		assertEquals(exact.getStdError("x"), streaming.getStdError("x"), 0.3 * exact.getStdError("x"));
+		assertEquals(exact.getMean("flag"), streaming.getMean("flag"), 1e-10);
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		streaming.print(new PrintStream(out));
+		assertTrue(out.toString().startsWith(StreamingLogAnalyser.APPROXIMATE));
+		assertThrows(UnsupportedOperationException.class, () -> streaming.getTrace("x"));
+		assertThrows(IllegalArgumentException.class, () -> streaming.setESSMethod(LogAnalyser.ESSMethod.FFT));
+	}
+}
@@ -0,0 +1,89 @@
+package test.beastfx.app.tools;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import beast.base.evolution.tree.Tree;
+import beast.base.evolution.tree.TreeParser;
+import beastfx.app.tools.TopologyFingerprint;
+import beastfx.app.tools.TreeTraceAnalysis;
+import test.beastfx.app.treeannotator.TreeLogs;
+
+/**
+ * check that fingerprints identify rooted topologies as the sorted Newick strings do,
+ * and that counting by fingerprint gives the counts of counting by Newick string
+ */
+public class TopologyFingerprintTest {
+
+	@Test
+	public void testChildOrder() {
+		// children swapped at the root and below it, and branch lengths changed
+		String [] same = {
+				"(((A:1,B:1):1,C:2):1,(D:1,E:1):2);",
+				"((E:1,D:1):2,(C:2,(B:1,A:1):1):1);",
+				"((D:0.5,E:0.5):1,(C:1,(A:0.5,B:0.5):0.5):0.5);"
+		};
+		TopologyFingerprint fingerprint = TopologyFingerprint.of(new TreeParser(same[0]), true);
+		for (String newick : same) {
+			assertEquals(fingerprint, TopologyFingerprint.of(new TreeParser(newick), true));
+		}
+	}
+
+	@Test
+	public void testRooting() {
+		// the same unrooted tree with three different roots are different rooted topologies,
+		// as they are for the sorted Newick strings
+		String [] roots = {
+				"(((A:1,B:1):1,C:2):1,D:3);",
+				"((A:1,B:1):2,(C:2,D:2):1);",
+				"(A:3,(B:2,(C:1,D:1):1):1);"
+		};
+		TreeTraceAnalysis analysis = new TreeTraceAnalysis();
+		for (int i = 0; i < roots.length; i++) {
+			for (int j = i + 1; j < roots.length; j++) {
+				Tree tree1 = new TreeParser(roots[i]);
+				Tree tree2 = new TreeParser(roots[j]);
+				assertNotEquals(analysis.uniqueNewick(tree1), analysis.uniqueNewick(tree2));
+				assertNotEquals(TopologyFingerprint.of(tree1, true), TopologyFingerprint.of(tree2, true));
+			}
+		}
+	}
+
+	@Test
+	public void testAgainstNewick() {
+		// 6 taxa have 945 rooted topologies, so most trees share their topology with others
+		Random random = new Random(18);
+		List<Tree> trees = new ArrayList<>();
+		for (int i = 0; i < 3000; i++) {
+			trees.add(new TreeParser(TreeLogs.randomNewick(random, 6)));
+		}
+
+		TreeTraceAnalysis analysis = new TreeTraceAnalysis();
+		Map<String, TopologyFingerprint> fingerprints = new HashMap<>();
+		Map<TopologyFingerprint, String> newicks = new HashMap<>();
+		for (Tree tree : trees) {
+			String newick = analysis.uniqueNewick(tree);
+			TopologyFingerprint fingerprint = TopologyFingerprint.of(tree, true);
+			assertEquals(fingerprints.computeIfAbsent(newick, s -> fingerprint), fingerprint);
+			assertEquals(newicks.computeIfAbsent(fingerprint, f -> newick), newick);
+		}
+
+		TreeTraceAnalysis byNewick = new TreeTraceAnalysis(trees, 0.1);
+		for (int threads : new int[]{1, 4}) {
+			TreeTraceAnalysis byFingerprint = new TreeTraceAnalysis();
+			byFingerprint.setUseFingerprints(true, true);
+			byFingerprint.setThreads(threads);
+			byFingerprint.addAllTrees(trees, 0.1);
+			assertEquals(byNewick.getNTrees(), byFingerprint.getNTrees());
+			assertEquals(byNewick.getTopologyCounts(), byFingerprint.getTopologyCounts());
+		}
+	}
+}
@@ -0,0 +1,104 @@
+package test.beastfx.app.tools;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import beastfx.app.tools.TraceLogReader;
+
+/**
+ * check that numbers are parsed exactly as Double.parseDouble does, and that columns
+ * are read as LogAnalyser always did
+ */
+public class TraceLogReaderTest {
+
+	@Test
+	public void testParseDouble() {
+		String [] numbers = {"0", "-0", "0.0", "-0.0", "+1", "1.", ".5", "-.5", "1e5", "1E-5", "123.456e-7",
+				"9007199254740993", "1.7976931348623157E308", "1.7976931348623159E308", "4.9E-324",
+				"2.2250738585072014E-308", "1e400", "1e-400", "123456789012345678901234567890",
+				"0.000000000000000000000000000001", "NaN", "-Infinity", "0x1.8p1", "1.0f"};
+		for (String str : numbers) {
+			assertParsed(str);
+		}
+
+		Random random = new Random(123);
+		for (int i = 0; i < 100000; i++) {
+			assertParsed(Double.toString(Double.longBitsToDouble(random.nextLong())));
+			assertParsed(Double.toString(random.nextGaussian() * Math.pow(10, random.nextInt(40) - 20)));
+			assertParsed((random.nextLong() >>> random.nextInt(64)) + "e" + (random.nextInt(660) - 330));
+		}
+
+		for (String str : new String[]{"", "-", ".", "e5", "1e", "1e+", "true", "1,5"}) {
+			byte [] bytes = str.getBytes(StandardCharsets.ISO_8859_1);
+			assertThrows(NumberFormatException.class, () -> TraceLogReader.parseDouble(bytes, 0, bytes.length));
+		}
+	}
+
+	private void assertParsed(String str) {
+		byte [] bytes = ("\t" + str + "\t").getBytes(StandardCharsets.ISO_8859_1);
+		double expected = Double.parseDouble(str);
+		double parsed = TraceLogReader.parseDouble(bytes, 1, bytes.length - 1);
+		assertEquals(Double.doubleToRawLongBits(expected), Double.doubleToRawLongBits(parsed), str);
+	}
+
+	@Test
+	public void testRead() throws IOException {
+		File file = File.createTempFile("TraceLogReaderTest", ".log");
+		file.deleteOnExit();
+		Files.writeString(file.toPath(), "# comment\r\n\r\nSample\tposterior\tmodel\tflag\r\n" +
+				"0\t-10\tA\ttrue\r\n" +
+				"1000\t-5.5\tB\tfalse\t\r\n" +
+				"2000\t-4\tC\ttrue\r\n" +
+				"# another comment\r\n" +
+				"3000\t-3\tB\ttrue\r\n" +
+				"4000\t-2.");
+
+		TraceLogReader reader = new TraceLogReader(file.getPath());
+		reader.read();
+		assertEquals("# comment\n\n# another comment\n", reader.getPreamble());
+		assertArrayEquals(new String[]{"Sample", "posterior", "model", "flag"}, reader.getLabels());
+		// the last line is not complete, so it is skipped
+		assertEquals(4, reader.getRowCount());
+
+		assertArrayEquals(new double[]{0, 1000, 2000, 3000}, reader.getColumn(0, 0));
+		assertArrayEquals(new double[]{-4, -3}, reader.getColumn(1, 2));
+		assertTrue(reader.hasDecimalPoint(1, 1));
+		assertFalse(reader.hasDecimalPoint(1, 2));
+		assertNull(reader.getRange(1, 0));
+
+		// nominal values are numbered by first appearance after burn-in
+		assertEquals(Arrays.asList("A", "B", "C"), reader.getRange(2, 0));
+		assertArrayEquals(new double[]{0, 1, 2, 1}, reader.getColumn(2, 0));
+		assertEquals(Arrays.asList("C", "B"), reader.getRange(2, 2));
+		assertArrayEquals(new double[]{0, 1}, reader.getColumn(2, 2));
+		assertEquals(Arrays.asList("true"), reader.getRange(3, 2));
+
+		// columns handed over are those getColumn copies
+		assertArrayEquals(new double[]{0, 1}, reader.takeColumn(2, 2));
+		assertArrayEquals(new double[]{0, 0}, reader.takeColumn(3, 2));
+		assertArrayEquals(new double[]{-10, -5.5, -4, -3}, reader.takeColumn(1, 0));
+
+		assertEquals(4, reader.countRows());
+	}
+
+	@Test
+	public void testTooManyValues() throws IOException {
+		File file = File.createTempFile("TraceLogReaderTest", ".log");
+		file.deleteOnExit();
+		Files.writeString(file.toPath(), "Sample\tposterior\n0\t-10\n1000\t-5.5\t3\n");
+		assertThrows(IOException.class, () -> new TraceLogReader(file.getPath()).read());
+	}
+}
@@ -0,0 +1,41 @@
+package test.beastfx.app.tools;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.jupiter.api.Test;
+
+import beast.base.parser.NexusParser;
+import beastfx.app.tools.TreeTraceAnalysis;
+import beastfx.app.treeannotator.TreeLogIndex;
+import test.beastfx.app.treeannotator.TreeLogs;
+
+/**
+ * check that streaming the trees of a file gives the counts of parsing the whole file,
+ * and that no index file is left next to the tree file
+ */
+public class TreeTraceAnalysisTest {
+
+	@Test
+	public void testAddAllTreesFromFile() throws IOException {
+		File file = TreeLogs.createNexus(19, 500, 5);
+		NexusParser parser = new NexusParser();
+		parser.parseFile(file);
+		TreeTraceAnalysis parsed = new TreeTraceAnalysis(parser.trees, 0.1);
+
+		for (boolean useFingerprints : new boolean[]{false, true}) {
+			for (int threads : new int[]{1, 3}) {
+				TreeTraceAnalysis streamed = new TreeTraceAnalysis();
+				streamed.setUseFingerprints(useFingerprints, false);
+				streamed.setThreads(threads);
+				streamed.addAllTrees(file, 0.1);
+				assertEquals(parsed.getNTrees(), streamed.getNTrees());
+				assertEquals(parsed.getTopologyCounts(), streamed.getTopologyCounts());
+			}
+		}
+		assertFalse(new File(file.getPath() + TreeLogIndex.SUFFIX).exists());
+	}
+}
@@ -0,0 +1,55 @@
+package test.beastfx.app.treeannotator;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import beastfx.app.treeannotator.AttributeAccumulator;
+import beastfx.app.util.OrderStatistics;
+import beastfx.app.util.StreamingStatistics;
+
+/**
+ * check that summarised numeric attributes agree with attributes that keep all values
+ */
+public class AttributeAccumulatorTest {
+
+	@Test
+	public void testNumberAgainstSummary() {
+		Random random = new Random(5);
+		AttributeAccumulator.Dictionary dictionary = new AttributeAccumulator.Dictionary();
+		AttributeAccumulator number = new AttributeAccumulator(dictionary, false);
+		AttributeAccumulator summarised = new AttributeAccumulator(dictionary, true);
+		int n = 20000;
+		for (int i = 0; i < n; i++) {
+			double value = Math.exp(random.nextGaussian());
+			number.add(value);
+			summarised.add(value);
+		}
+		assertEquals(n, number.size());
+		assertEquals(n, summarised.size());
+		assertNull(number.getSummary());
+		StreamingStatistics summary = summarised.getSummary();
+		assertNotNull(summary);
+
+		OrderStatistics exact = new OrderStatistics(number.getValues());
+		assertEquals(exact.getMean(), summary.getMean(), 1e-10);
+		assertEquals(exact.getMin(), summary.getMin(), 0.0);
+		assertEquals(exact.getMax(), summary.getMax(), 0.0);
+		assertEquals(number.getMinValue(), summarised.getMinValue(), 0.0);
+		assertEquals(number.getMaxValue(), summarised.getMaxValue(), 0.0);
+		assertEquals(exact.getMin(), number.getMinValue(), 0.0);
+		assertEquals(exact.getMax(), number.getMaxValue(), 0.0);
+
+		// sketch quantiles are accurate to about 1% in rank
+		double [] hpd = exact.getHPD(0.95);
+		double [] approximateHPD = summary.getHPD(0.95);
+		double spread = hpd[1] - hpd[0];
+		assertEquals(hpd[0], approximateHPD[0], 0.02 * spread);
+		assertEquals(hpd[1], approximateHPD[1], 0.05 * spread);
+		assertEquals(exact.getMedian(), summary.getMedian(), 0.02 * spread);
+	}
+}
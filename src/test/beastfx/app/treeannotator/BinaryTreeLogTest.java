@@ -0,0 +1,74 @@
+package test.beastfx.app.treeannotator;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.jupiter.api.Test;
+
+import beast.base.evolution.tree.Node;
+import beast.base.evolution.tree.Tree;
+import beast.base.evolution.tree.TreeParser;
+import beastfx.app.treeannotator.BinaryTreeLog;
+
+/**
+ * check trees read from a binary tree log are the ones written, also when read out of order
+ */
+public class BinaryTreeLogTest {
+
+	@Test
+	public void testRoundTrip() throws IOException {
+		File file = File.createTempFile("BinaryTreeLogTest", BinaryTreeLog.EXTENSION);
+		file.deleteOnExit();
+		Tree [] trees = new Tree[TreeLogs.TREES.length];
+		try (BinaryTreeLog.Writer writer = new BinaryTreeLog.Writer(file.getPath())) {
+			for (int i = 0; i < trees.length; i++) {
+				trees[i] = new TreeParser(TreeLogs.TREES[i], false, false, true, 0);
+				trees[i].setID("STATE_" + i);
+				writer.add(trees[i]);
+			}
+		}
+		assertTrue(BinaryTreeLog.isBinaryTreeLog(file.getPath()));
+
+		try (BinaryTreeLog.Reader reader = new BinaryTreeLog.Reader(file.getPath())) {
+			assertEquals(trees.length, reader.size());
+			assertEquals(3, reader.getTaxa().size());
+			for (int i = trees.length - 1; i >= 0; i--) {
+				TreeLogs.assertSameTree(trees[i], reader.get(i));
+			}
+		}
+	}
+
+	@Test
+	public void testOtherNumbers() throws IOException {
+		File file = File.createTempFile("BinaryTreeLogTest", BinaryTreeLog.EXTENSION);
+		file.deleteOnExit();
+		Tree tree = new TreeParser(TreeLogs.TREES[2], false, false, true, 0);
+		Node node = tree.getNode(0);
+		node.setMetaData("long", 12345678901L);
+		node.setMetaData("float", 0.5f);
+		node.setMetaData("array", new Object[]{3L, 1.5f});
+		try (BinaryTreeLog.Writer writer = new BinaryTreeLog.Writer(file.getPath())) {
+			writer.add(tree);
+		}
+		try (BinaryTreeLog.Reader reader = new BinaryTreeLog.Reader(file.getPath())) {
+			Node copy = reader.get(0).getNode(0);
+			assertEquals(12345678901.0, copy.getMetaData("long"));
+			assertEquals(0.5, copy.getMetaData("float"));
+			Object [] array = (Object[]) copy.getMetaData("array");
+			assertEquals(3.0, array[0]);
+			assertEquals(1.5, array[1]);
+		}
+	}
+
+	@Test
+	public void testTextIsNotBinary() throws IOException {
+		File file = File.createTempFile("BinaryTreeLogTest", ".trees");
+		file.deleteOnExit();
+		java.nio.file.Files.writeString(file.toPath(), "#NEXUS\n\nBegin trees;\n" + TreeLogs.TREES[0] + "\nEnd;\n");
+		assertFalse(BinaryTreeLog.isBinaryTreeLog(file.getPath()));
+	}
+}
@@ -0,0 +1,50 @@
+package test.beastfx.app.treeannotator;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import beastfx.app.treeannotator.BinnedKernelDensityEstimator2D;
+import beastfx.app.treeannotator.ContourWithSynder;
+import beastfx.app.treeannotator.KernelDensityEstimator2D;
+
+/**
+ * check the binned density estimate is within tolerance of the exact one
+ */
+public class BinnedKernelDensityEstimator2DTest {
+
+	@Test
+	public void testBimodal() {
+		Random random = new Random(123);
+		int n = 5000;
+		double [] x = new double[n];
+		double [] y = new double[n];
+		for (int i = 0; i < n; i++) {
+			int mode = random.nextInt(2);
+			x[i] = random.nextGaussian() + 6 * mode;
+			y[i] = 0.3 * random.nextGaussian() - 2 * mode + 0.2 * x[i];
+		}
+
+		KernelDensityEstimator2D exact = new ContourWithSynder(x, y, false);
+		KernelDensityEstimator2D binned = new BinnedKernelDensityEstimator2D(x, y, false);
+		assertArrayEquals(exact.getXGrid(), binned.getXGrid(), 0.0);
+		assertArrayEquals(exact.getYGrid(), binned.getYGrid(), 0.0);
+
+		double max = 0;
+		double maxDiff = 0;
+		double [][] z = exact.getKDE();
+		double [][] z2 = binned.getKDE();
+		for (int i = 0; i < z.length; i++) {
+			for (int j = 0; j < z[i].length; j++) {
+				max = Math.max(max, z[i][j]);
+				maxDiff = Math.max(maxDiff, Math.abs(z[i][j] - z2[i][j]));
+			}
+		}
+		assertTrue(maxDiff < BinnedKernelDensityEstimator2D.TOLERANCE * max, "relative difference " + maxDiff / max);
+		assertEquals(exact.getContourPaths(0.8).length, binned.getContourPaths(0.8).length);
+	}
+}
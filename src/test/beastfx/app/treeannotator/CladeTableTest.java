@@ -0,0 +1,100 @@
+package test.beastfx.app.treeannotator;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+import beast.base.evolution.tree.Node;
+import beast.base.evolution.tree.Tree;
+import beast.base.evolution.tree.TreeParser;
+import beastfx.app.treeannotator.CladeKey;
+import beastfx.app.treeannotator.CladeSystem;
+
+/**
+ * check clade keys, and that the clade table in CladeSystem finds every clade
+ * with its count after growing, compared to counting clades in a HashMap
+ */
+public class CladeTableTest {
+
+	@Test
+	public void testCladeKey() {
+		BitSet bits = new BitSet();
+		bits.set(0);
+		bits.set(130);
+		CladeKey key = CladeKey.valueOf(bits);
+		BitSet copy = (BitSet) bits.clone();
+		// trailing zero words do not change the key
+		copy.set(500);
+		copy.clear(500);
+		assertEquals(key, CladeKey.valueOf(copy));
+		assertEquals(key.hashCode(), CladeKey.valueOf(copy).hashCode());
+		assertEquals(bits, key.toBitSet());
+
+		copy.set(2);
+		assertNotEquals(key, CladeKey.valueOf(copy));
+		assertEquals(CladeKey.valueOf(new BitSet()), CladeKey.valueOf(new BitSet()));
+
+		// all sets of at most two of 64 taxa have distinct hash codes
+		Set<Integer> hashCodes = new HashSet<>();
+		int count = 0;
+		for (int i = 0; i < 64; i++) {
+			for (int j = i; j < 64; j++) {
+				BitSet b = new BitSet();
+				b.set(2 * i);
+				b.set(2 * j);
+				hashCodes.add(CladeKey.valueOf(b).hashCode());
+				count++;
+			}
+		}
+		assertEquals(count, hashCodes.size());
+	}
+
+	@Test
+	public void testLookupAfterGrowth() {
+		Random random = new Random(7);
+		CladeSystem cladeSystem = new CladeSystem();
+		Map<BitSet, Integer> counts = new HashMap<>();
+		// about 4000 distinct clades, so the table grows from its initial capacity several times
+		for (int i = 0; i < 100; i++) {
+			Tree tree = new TreeParser(TreeLogs.randomNewick(random, 40), false, false, true, 0);
+			cladeSystem.add(tree, true);
+			countClades(tree.getRoot(), counts);
+		}
+		assertEquals(counts.size(), cladeSystem.getCladeCount());
+		assertEquals(counts.size(), cladeSystem.getCladeMap().size());
+		for (Map.Entry<BitSet, Integer> entry : counts.entrySet()) {
+			CladeSystem.Clade clade = cladeSystem.getClade(entry.getKey());
+			assertNotNull(clade, entry.getKey().toString());
+			assertEquals((int) entry.getValue(), clade.getCount());
+			assertEquals(entry.getKey(), clade.getKey().toBitSet());
+		}
+		// taxon 40 does not exist
+		BitSet missing = new BitSet();
+		missing.set(80);
+		assertNull(cladeSystem.getClade(missing));
+	}
+
+	/** @return taxa below node, with bit 2*i for taxon i, as CladeSystem encodes clades **/
+	private BitSet countClades(Node node, Map<BitSet, Integer> counts) {
+		BitSet bits = new BitSet();
+		if (node.isLeaf()) {
+			bits.set(2 * node.getNr());
+		} else {
+			for (Node child : node.getChildren()) {
+				bits.or(countClades(child, counts));
+			}
+		}
+		counts.merge(bits, 1, Integer::sum);
+		return bits;
+	}
+}
@@ -0,0 +1,70 @@
+package test.beastfx.app.treeannotator;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+import java.util.BitSet;
+
+import org.junit.jupiter.api.Test;
+
+import beast.base.evolution.tree.Tree;
+import beast.base.evolution.tree.TreeParser;
+import beast.base.evolution.tree.TreeUtils;
+import beast.base.util.CollectionUtils;
+import beastfx.app.treeannotator.CladeSystem;
+import beastfx.app.treeannotator.services.CommonAncestorHeightEngine;
+
+/**
+ * check the LCA based common ancestor heights agree with the clade by clade subset test
+ */
+public class CommonAncestorHeightEngineTest {
+
+	final static String TARGET = "((((1:1.0,2:1.0):1.0,3:2.0):0.5,(4:0.5,5:0.5):2.0):1.0,(6:3.0,7:3.0):0.5);";
+
+	final static String [] TREES = {
+			"((((1:1.0,2:1.0):1.0,3:2.0):0.5,(4:0.5,5:0.5):2.0):1.0,(6:3.0,7:3.0):0.5);",
+			"((1:2.0,(2:1.5,(3:1.0,4:1.0):0.5):0.5):1.5,((5:0.2,6:0.2):1.0,7:1.2):2.3);",
+			"(1:6.0,(2:5.0,(3:4.0,(4:3.0,(5:2.0,(6:1.0,7:1.0):1.0):1.0):1.0):1.0):1.0);",
+			"((7:0.7,(6:0.4,5:0.4):0.3):2.0,((4:1.1,3:1.1):0.6,(2:0.9,1:0.9):0.8):1.0);"
+	};
+
+	@Test
+	public void testMatchesSubsetTest() {
+		Tree target = new TreeParser(null, TARGET, 1, false);
+		CommonAncestorHeightEngine engine = new CommonAncestorHeightEngine(target);
+		int clades = target.getNodeCount();
+		double [] heights = new double[clades];
+
+		for (String newick : TREES) {
+			Tree tree = new TreeParser(null, newick, 1, false);
+			engine.getCommonAncestorHeights(tree, heights);
+			assertArrayEquals(subsetHeights(target, tree), heights, 0.0);
+		}
+	}
+
+	/** the clades x clades subset test the engine replaces **/
+	private double [] subsetHeights(Tree target, Tree tree) {
+		int clades = target.getNodeCount();
+		CladeSystem cladeSystem = new CladeSystem();
+		BitSet [] ctarget = new BitSet[clades];
+		BitSet [] ctree = new BitSet[clades];
+		for (int k = 0; k < clades; k++) {
+			ctarget[k] = new BitSet();
+			ctree[k] = new BitSet();
+		}
+		cladeSystem.getTreeCladeCodes(target, ctarget);
+		cladeSystem.getTreeCladeCodes(tree, ctree);
+
+		int [] preOrderList = new int[clades];
+		TreeUtils.preOrderTraversalList(tree, preOrderList);
+		double [] heights = new double[clades];
+		for (int k = 0; k < clades; k++) {
+			int j = preOrderList[k];
+			for (int i = 0; i < clades; i++) {
+				if (CollectionUtils.isSubSet(ctarget[i], ctree[j])) {
+					heights[i] = tree.getNode(j).getHeight();
+				}
+			}
+		}
+		return heights;
+	}
+}
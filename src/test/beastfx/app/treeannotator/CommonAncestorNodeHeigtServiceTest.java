@@ -0,0 +1,121 @@
+package test.beastfx.app.treeannotator;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.jupiter.api.Test;
+
+import beastfx.app.treeannotator.TreeAnnotator;
+
+/**
+ * check that CA heights summarised while reading the trees, as done above approximateAbove trees,
+ * give the node heights and means of the exact heights, and medians, HPD intervals and ranges close to them
+ */
+public class CommonAncestorNodeHeigtServiceTest {
+
+	final static Pattern METADATA = Pattern.compile("\\[&([^\\]]*)\\]");
+	final static Pattern BRANCH_LENGTH = Pattern.compile("\\]:([^,)\\[]+)");
+
+	@Test
+	public void testApproximateAbove() throws IOException {
+		// enough trees for the quantile sketches to compact
+		File trees = TreeLogs.createNexus(17, 2000, 6);
+		String exact = annotate(trees, null);
+		String approximate = annotate(trees, 100);
+
+		assertEquals(branchLengths(exact), branchLengths(approximate));
+		List<Map<String, String>> exactNodes = metaData(exact);
+		List<Map<String, String>> approximateNodes = metaData(approximate);
+		assertEquals(exactNodes.size(), approximateNodes.size());
+		int annotated = 0;
+		for (int i = 0; i < exactNodes.size(); i++) {
+			Map<String, String> node = exactNodes.get(i);
+			Map<String, String> node2 = approximateNodes.get(i);
+			assertEquals(node.containsKey("CAheight_mean"), node2.containsKey("CAheight_mean"));
+			if (!node.containsKey("CAheight_mean")) {
+				continue;
+			}
+			annotated++;
+			assertEquals(node.get("CAheight_mean"), node2.get("CAheight_mean"));
+			// min and max are tracked exactly
+			assertEquals(node.get("CAheight_range"), node2.get("CAheight_range"));
+			double [] range = values(node.get("CAheight_range"));
+			double tolerance = 0.05 * (range[1] - range[0]);
+			assertEquals(values(node.get("CAheight_median"))[0], values(node2.get("CAheight_median"))[0], tolerance);
+			double [] hpd = values(node.get("CAheight_95%_HPD"));
+			double [] hpd2 = values(node2.get("CAheight_95%_HPD"));
+			assertEquals(hpd[0], hpd2[0], tolerance);
+			assertEquals(hpd[1], hpd2[1], tolerance);
+		}
+		// the internal nodes
+		assertTrue(annotated >= 5);
+	}
+
+	private String annotate(File trees, Integer approximateAbove) throws IOException {
+		TreeAnnotator annotator = new TreeAnnotator();
+		annotator.heightInput.setValue("CA", annotator);
+		annotator.approximateAboveInput.setValue(approximateAbove, annotator);
+		File out = File.createTempFile("CommonAncestorNodeHeigtServiceTest", ".tree");
+		out.deleteOnExit();
+		annotator.run(10, false, 0.0, 0.95, null, trees.getPath(), out.getPath());
+		for (String line : Files.readAllLines(out.toPath())) {
+			if (line.trim().startsWith("tree ")) {
+				return line;
+			}
+		}
+		throw new AssertionError("no tree in " + out);
+	}
+
+	private List<String> branchLengths(String tree) {
+		List<String> lengths = new ArrayList<>();
+		Matcher matcher = BRANCH_LENGTH.matcher(tree);
+		while (matcher.find()) {
+			lengths.add(matcher.group(1));
+		}
+		return lengths;
+	}
+
+	/** @return metadata of the nodes in the order they are written, with arrays kept as strings **/
+	private List<Map<String, String>> metaData(String tree) {
+		List<Map<String, String>> nodes = new ArrayList<>();
+		Matcher matcher = METADATA.matcher(tree);
+		while (matcher.find()) {
+			Map<String, String> node = new LinkedHashMap<>();
+			String metaData = matcher.group(1);
+			int depth = 0, start = 0;
+			for (int i = 0; i <= metaData.length(); i++) {
+				char c = i < metaData.length() ? metaData.charAt(i) : ',';
+				if (c == '{') {
+					depth++;
+				} else if (c == '}') {
+					depth--;
+				} else if (c == ',' && depth == 0) {
+					String [] pair = metaData.substring(start, i).split("=", 2);
+					node.put(pair[0], pair[1]);
+					start = i + 1;
+				}
+			}
+			nodes.add(node);
+		}
+		return nodes;
+	}
+
+	private double [] values(String value) {
+		String [] strs = value.replaceAll("[{}]", "").split(",");
+		double [] values = new double[strs.length];
+		for (int i = 0; i < strs.length; i++) {
+			values[i] = Double.parseDouble(strs[i]);
+		}
+		return values;
+	}
+}
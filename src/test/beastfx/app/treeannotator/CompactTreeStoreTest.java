@@ -0,0 +1,30 @@
+package test.beastfx.app.treeannotator;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+import beast.base.evolution.tree.Tree;
+import beast.base.evolution.tree.TreeParser;
+import beastfx.app.treeannotator.CompactTreeStore;
+
+/**
+ * check trees come out of the compact store the way they went in
+ */
+public class CompactTreeStoreTest {
+
+	@Test
+	public void testRoundTrip() {
+		CompactTreeStore store = new CompactTreeStore();
+		Tree [] trees = new Tree[TreeLogs.TREES.length];
+		for (int i = 0; i < trees.length; i++) {
+			trees[i] = new TreeParser(TreeLogs.TREES[i], false, false, true, 0);
+			trees[i].setID("STATE_" + i);
+			store.add(trees[i]);
+		}
+		assertEquals(trees.length, store.size());
+		for (int i = 0; i < trees.length; i++) {
+			TreeLogs.assertSameTree(trees[i], store.get(i));
+		}
+	}
+}
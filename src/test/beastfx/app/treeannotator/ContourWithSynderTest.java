@@ -0,0 +1,120 @@
+package test.beastfx.app.treeannotator;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import beastfx.app.treeannotator.ContourPath;
+import beastfx.app.treeannotator.ContourWithSynder;
+
+/**
+ * check contour paths against those traced by the implementation that collected points
+ * in linked lists, and that reusing the scratch space of a thread for another grid size
+ * does not change the paths
+ */
+public class ContourWithSynderTest {
+
+	/** paths at 50% HPD, as x0, y0, x1, y1, ... **/
+	final static double [][] PATHS_50 = {
+			{
+				-0.7472699130545499, -0.8476888384837367, 0.11600883088521785, -0.945313228182433,
+				0.774110817439913, -0.8476888384837367, 1.1121843396935813, -0.7987800999706707,
+				1.8485620334033634, -0.3383376408119423, 2.0103579703713828, 0.1710135568598521,
+				1.5078908213370847, 0.6803647545316462, 1.1121843396935813, 0.8370879143657433,
+				0.11600883088521785, 0.9908672698400902, -0.8801666779231461, 0.8375682464003009,
+				-1.2610394169092265, 0.6803647545316462, -1.87634218673151, 0.22359268263265197,
+				-1.940869886927134, 0.1710135568598521, -1.87634218673151, -0.019346320023899244,
+				-1.7981598801362546, -0.3383376408119423, -0.8801666779231461, -0.8349534390884958,
+				-0.7472699130545499, -0.8476888384837367,
+			},
+			{
+				4.100710866118673, 1.4229976819771795, 3.140246360722951, 1.6990671498752354,
+				3.1963275009742618, 2.2084183475470294, 4.100710866118673, 2.5969408604392514,
+				4.909354625412128, 2.2084183475470294, 5.096886374927037, 1.8533265160003072,
+				5.1506896767063, 1.6990671498752354, 5.096886374927037, 1.661800803179225,
+				4.100710866118673, 1.4229976819771795,
+			},
+	};
+	/** paths at 95% HPD, as x0, y0, x1, y1, ... **/
+	final static double [][] PATHS_95 = {
+			{
+				-1.8859725282856417, -1.357040036155531, -1.87634218673151, -1.3619184014320649,
+				-0.8801666779231461, -1.647398832887961, 0.11600883088521785, -1.7066011228574005,
+				1.1121843396935813, -1.6707840037404855, 1.975325885183849, -1.357040036155531,
+				2.1083598485019457, -1.318453487036449, 2.9102762627516046, -0.8476888384837367,
+				3.10453535731031, -0.39864177937763334, 3.167340774814033, -0.3383376408119423,
+				3.4394404337102054, 0.1710135568598521, 4.100710866118673, 0.6630078240941948,
+				4.48827438981106, 0.6803647545316462, 5.096886374927037, 0.6868762456450466,
+				6.0930618837354, 0.8947732052932234, 6.6318002753724326, 1.1897159522034408,
+				6.971950435145343, 1.6990671498752354, 6.986899703188795, 2.2084183475470294,
+				6.645262488102524, 2.7177695452188235, 6.0930618837354, 3.058996426185633,
+				5.843697307657896, 3.2271207428906177, 5.096886374927037, 3.5557320932987793,
+				4.100710866118673, 3.6408142393570726, 3.10453535731031, 3.529263749673964,
+				2.363100280581888, 3.2271207428906177, 2.1083598485019457, 3.1162310036386245,
+				1.28541787687417, 2.7177695452188235, 1.1121843396935813, 2.359914905513267,
+				0.9507980874747601, 2.2084183475470294, 1.1121843396935813, 1.7822111596112336,
+				1.1223685647581294, 1.6990671498752354, 1.1121843396935813, 1.694556665921836,
+				0.11600883088521785, 1.698885158722532, -0.8801666779231461, 1.6239540378602422,
+				-1.8581666959457075, 1.1897159522034408, -1.87634218673151, 1.1840009797949393,
+				-2.872517695539874, 0.6956895647195986, -2.9030671102372474, 0.6803647545316462,
+				-3.5133414391799374, 0.1710135568598521, -3.3342544757773758, -0.3383376408119423,
+				-2.872517695539874, -0.6805847871925976, -2.760081120501884, -0.8476888384837367,
+				-1.8859725282856417, -1.357040036155531,
+			},
+	};
+	@Test
+	public void testAgainstPreviousPaths() {
+		assertPaths(PATHS_50, new ContourWithSynder(x(), y(), 12).getContourPaths(0.5));
+		assertPaths(PATHS_95, new ContourWithSynder(x(), y(), 12).getContourPaths(0.95));
+	}
+
+	@Test
+	public void testReuseForOtherGridSize() {
+		ContourPath [] before = new ContourWithSynder(x(), y(), 12).getContourPaths(0.5);
+		// contours a larger grid on this thread, then the first grid again
+		new ContourWithSynder(x(), y(), 50).getContourPaths(0.8);
+		ContourPath [] after = new ContourWithSynder(x(), y(), 12).getContourPaths(0.5);
+		assertEquals(before.length, after.length);
+		for (int i = 0; i < before.length; i++) {
+			assertArrayEquals(before[i].getAllX(), after[i].getAllX(), 0.0);
+			assertArrayEquals(before[i].getAllY(), after[i].getAllY(), 0.0);
+		}
+	}
+
+	private void assertPaths(double [][] expected, ContourPath [] paths) {
+		assertEquals(expected.length, paths.length);
+		for (int i = 0; i < expected.length; i++) {
+			double [] x = paths[i].getAllX();
+			double [] y = paths[i].getAllY();
+			assertEquals(expected[i].length / 2, x.length);
+			for (int j = 0; j < x.length; j++) {
+				assertEquals(expected[i][2 * j], x[j], 1e-10);
+				assertEquals(expected[i][2 * j + 1], y[j], 1e-10);
+			}
+		}
+	}
+
+	/** bimodal sample, with a third of the points around (4, 2) **/
+	private double [] x() {
+		return sample()[0];
+	}
+
+	private double [] y() {
+		return sample()[1];
+	}
+
+	private double [][] sample() {
+		Random random = new Random(16);
+		int n = 200;
+		double [][] xy = new double[2][n];
+		for (int i = 0; i < n; i++) {
+			boolean second = i % 3 == 0;
+			xy[0][i] = (second ? 4 : 0) + random.nextGaussian();
+			xy[1][i] = (second ? 2 : 0) + 0.5 * random.nextGaussian();
+		}
+		return xy;
+	}
+}
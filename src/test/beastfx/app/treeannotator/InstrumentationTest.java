@@ -0,0 +1,101 @@
+package test.beastfx.app.treeannotator;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import beastfx.app.treeannotator.Instrumentation;
+import beastfx.app.treeannotator.Instrumentation.Phase;
+import beastfx.app.treeannotator.TreeAnnotator;
+import beastfx.app.treeannotator.TreeLogIndex;
+
+/**
+ * check that nested phases are accounted separately, that bytes are counted where the tree
+ * log is read, and that the progress bar is the same as before
+ */
+public class InstrumentationTest {
+
+	@Test
+	public void testNestedPhases() throws InterruptedException {
+		Instrumentation instrumentation = new Instrumentation();
+		List<String> events = new ArrayList<>();
+		instrumentation.addListener((type, phase, json) -> events.add(json));
+
+		instrumentation.start(Phase.TOPOLOGY);
+		instrumentation.start(Phase.CLADES);
+		instrumentation.addTrees(10);
+		Thread.sleep(300);
+		instrumentation.cladeCount(17);
+		instrumentation.end();
+		instrumentation.addTrees(5);
+		instrumentation.end();
+		instrumentation.finish();
+
+		assertEquals(10, instrumentation.getTrees(Phase.CLADES));
+		assertEquals(5, instrumentation.getTrees(Phase.TOPOLOGY));
+		assertTrue(instrumentation.getMilliseconds(Phase.CLADES) >= 300);
+		// time of the nested phase is not counted for the outer one
+		assertTrue(instrumentation.getMilliseconds(Phase.TOPOLOGY) < 300);
+		assertEquals(17, instrumentation.getPeakCladeCount());
+
+		assertEquals(5, events.size());
+		assertEquals("{\"event\":\"start\",\"phase\":\"topology\"}", events.get(0));
+		assertTrue(events.get(2).startsWith("{\"event\":\"end\",\"phase\":\"clades\","));
+		assertTrue(events.get(2).contains("\"trees\":10,"));
+		assertTrue(events.get(4).startsWith("{\"event\":\"summary\","));
+		assertTrue(events.get(4).contains("\"peakClades\":17,"));
+	}
+
+	@Test
+	public void testBytesRead() throws IOException {
+		// low memory: indexing reads the whole file, passes through the trees after burn-in read
+		// them again, and only the part of the file around the MCC tree is read to get it
+		File trees = TreeLogs.createNexus(20, 200, 8);
+		Instrumentation instrumentation = annotate(trees, true, 1);
+		assertEquals(trees.length(), instrumentation.getBytes(Phase.COUNT));
+		assertTrue(instrumentation.getBytes(Phase.CLADES) > 0);
+		assertTrue(instrumentation.getBytes(Phase.TOPOLOGY) > 0);
+		assertTrue(instrumentation.getBytes(Phase.TOPOLOGY) < trees.length());
+
+		// parsing on several threads skips the burn-in, and the index is loaded from the sidecar file
+		instrumentation = annotate(trees, false, 3);
+		assertEquals(new File(trees.getPath() + TreeLogIndex.SUFFIX).length(), instrumentation.getBytes(Phase.COUNT));
+		assertTrue(instrumentation.getBytes(Phase.PARSE) > 0);
+		assertTrue(instrumentation.getBytes(Phase.PARSE) < trees.length());
+	}
+
+	private Instrumentation annotate(File trees, boolean lowMemory, int threads) throws IOException {
+		TreeAnnotator annotator = new TreeAnnotator();
+		annotator.threadsInput.setValue(threads, annotator);
+		annotator.heightInput.setValue("mean", annotator);
+		File out = File.createTempFile("InstrumentationTest", ".tree");
+		out.deleteOnExit();
+		annotator.run(50, lowMemory, 0.0, 0.95, null, trees.getPath(), out.getPath());
+		return annotator.getInstrumentation();
+	}
+
+	@Test
+	public void testProgressBar() {
+		for (int total : new int[] {1, 7, 60, 61, 1000}) {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			PrintStream out = new PrintStream(bytes);
+			Instrumentation instrumentation = new Instrumentation();
+			instrumentation.startProgress(out, total);
+			for (int i = 0; i < total; i++) {
+				instrumentation.progress();
+			}
+			instrumentation.endProgress();
+			String [] lines = bytes.toString().split("\n");
+			assertEquals(3, lines.length);
+			assertEquals(61, lines[2].trim().length());
+		}
+	}
+}
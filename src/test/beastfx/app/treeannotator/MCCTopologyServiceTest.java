@@ -0,0 +1,60 @@
+package test.beastfx.app.treeannotator;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.junit.jupiter.api.Test;
+
+import beastfx.app.treeannotator.TreeAnnotator;
+
+/**
+ * check that scoring from clades recorded in low memory mode picks the same tree as
+ * scoring trees parsed from the tree set, and that no trees after burn-in is reported clearly
+ */
+public class MCCTopologyServiceTest {
+
+	@Test
+	public void testRecordedCladesMatchParsedTrees() throws IOException {
+		// few taxa, so that many trees share clades and scores differ
+		File trees = TreeLogs.createNexus(1, 200, 6);
+		for (String topology : new String[]{"MCC", "MSCC"}) {
+			String parsed = summaryTree(trees, topology, false);
+			String recorded = summaryTree(trees, topology, true);
+			assertEquals(parsed, recorded, topology);
+		}
+	}
+
+	@Test
+	public void testNoTreesAfterBurnin() throws IOException {
+		File trees = TreeLogs.createNexus(2, 10, 6);
+		for (boolean lowMemory : new boolean[]{false, true}) {
+			TreeAnnotator annotator = new TreeAnnotator();
+			File out = File.createTempFile("MCCTopologyServiceTest", ".tree");
+			out.deleteOnExit();
+			IOException e = assertThrows(IOException.class,
+					() -> annotator.run(100, lowMemory, 0.0, 0.95, null, trees.getPath(), out.getPath()));
+			assertTrue(e.getMessage().startsWith("No trees after burn-in"));
+		}
+	}
+
+	/** @return tree line of the summary tree, where lowMemory records clade sequences for MCC and MSCC **/
+	private String summaryTree(File trees, String topology, boolean lowMemory) throws IOException {
+		TreeAnnotator annotator = new TreeAnnotator();
+		annotator.topologyInput.setValue(topology, annotator);
+		annotator.heightInput.setValue("mean", annotator);
+		File out = File.createTempFile("MCCTopologyServiceTest", ".tree");
+		out.deleteOnExit();
+		annotator.run(10, lowMemory, 0.0, 0.95, null, trees.getPath(), out.getPath());
+		for (String line : Files.readAllLines(out.toPath())) {
+			if (line.startsWith("tree ")) {
+				return line;
+			}
+		}
+		throw new AssertionError("No summary tree in " + out);
+	}
+}
@@ -0,0 +1,115 @@
+package test.beastfx.app.treeannotator;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+import beast.base.evolution.tree.Tree;
+import beast.base.evolution.tree.TreeParser;
+import beastfx.app.treeannotator.AttributeAccumulator;
+import beastfx.app.treeannotator.CladeSystem;
+import beastfx.app.treeannotator.TreeAnnotator;
+
+/**
+ * check that evicting the oldest trees from a clade system, as following a tree log does,
+ * leaves the same clade counts and attribute values as building it from the remaining trees
+ */
+public class SlidingWindowTest {
+
+	@Test
+	public void testRemoveOldest() {
+		Random random = new Random(3);
+		int window = 30, extra = 20;
+		List<Tree> trees = new ArrayList<>();
+		for (int i = 0; i < window + extra; i++) {
+			trees.add(new TreeParser(TreeLogs.randomNewick(random, 6), false, false, true, 0));
+		}
+		Set<String> attributeNames = new LinkedHashSet<>(List.of("height", "length", "rate"));
+
+		CladeSystem sliding = new CladeSystem();
+		List<int[]> clades = new ArrayList<>();
+		for (int i = 0; i < window + extra; i++) {
+			clades.add(sliding.addWithAttributes(trees.get(i), attributeNames));
+			if (i == window + extra / 2) {
+				// evict in two steps, the second after more trees are added
+				sliding.removeOldest(clades.subList(0, extra / 2));
+				clades.subList(0, extra / 2).clear();
+			}
+		}
+		sliding.removeOldest(clades.subList(0, extra - extra / 2));
+
+		CladeSystem fresh = new CladeSystem();
+		for (int i = extra; i < window + extra; i++) {
+			fresh.addWithAttributes(trees.get(i), attributeNames);
+		}
+
+		int counted = 0;
+		for (Map.Entry<BitSet, CladeSystem.Clade> entry : sliding.getCladeMap().entrySet()) {
+			CladeSystem.Clade clade = entry.getValue();
+			CladeSystem.Clade expected = fresh.getClade(entry.getKey());
+			if (expected == null) {
+				// clades that are only in evicted trees are kept with count 0
+				assertEquals(0, clade.getCount());
+				continue;
+			}
+			counted++;
+			assertEquals(expected.getCount(), clade.getCount());
+			for (int i = 0; i < attributeNames.size(); i++) {
+				AttributeAccumulator attribute = clade.getAttribute(i);
+				AttributeAccumulator expectedAttribute = expected.getAttribute(i);
+				assertEquals(expectedAttribute.size(), attribute.size());
+				assertArrayEquals(expectedAttribute.getValues(), attribute.getValues(), 0.0);
+				assertEquals(expectedAttribute.getMinValue(), attribute.getMinValue(), 0.0);
+				assertEquals(expectedAttribute.getMaxValue(), attribute.getMaxValue(), 0.0);
+			}
+		}
+		assertEquals(fresh.getCladeCount(), counted);
+	}
+
+	@Test
+	public void testFollowMatchesRun() throws IOException, InterruptedException {
+		// the log is complete, so follow() reads all trees, evicts the burn-in and writes a single summary
+		File trees = TreeLogs.createNexus(4, 100, 6);
+		TreeAnnotator annotator = new TreeAnnotator();
+		File followed = File.createTempFile("SlidingWindowTest", ".tree");
+		followed.deleteOnExit();
+		annotator.follow(25, 0.0, 0.95, trees.getPath(), followed.getPath());
+
+		annotator = new TreeAnnotator();
+		File summarised = File.createTempFile("SlidingWindowTest", ".tree");
+		summarised.deleteOnExit();
+		annotator.run(25, false, 0.0, 0.95, null, trees.getPath(), summarised.getPath());
+
+		assertEquals(summaryTree(summarised), summaryTree(followed));
+	}
+
+	@Test
+	public void testFollowRejectsStreamingStats() throws IOException {
+		File trees = TreeLogs.createNexus(5, 10, 6);
+		TreeAnnotator annotator = new TreeAnnotator();
+		annotator.streamingStatsInput.setValue(true, annotator);
+		assertThrows(IllegalArgumentException.class, () -> annotator.follow(10, 0.0, 0.95, trees.getPath(), null));
+	}
+
+	private String summaryTree(File file) throws IOException {
+		for (String line : Files.readAllLines(file.toPath())) {
+			if (line.startsWith("tree ")) {
+				return line;
+			}
+		}
+		throw new AssertionError("No summary tree in " + file);
+	}
+}
@@ -0,0 +1,43 @@
+package test.beastfx.app.treeannotator;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.junit.jupiter.api.Test;
+
+import beastfx.app.treeannotator.TreeAnnotator;
+
+/**
+ * check that annotating on several threads writes the same file as on one thread, which covers
+ * parsing and clade counting in parallel, the order of attributes, breaking ties between
+ * summary trees and annotating nodes in parallel, for each kind of tree set
+ */
+public class ThreadsTest {
+
+	@Test
+	public void testSameOutput() throws IOException {
+		// few taxa, so that many trees share clades and summary trees may tie
+		File trees = TreeLogs.createNexus(8, 400, 6);
+		for (String treeSet : new String[]{"default", "lowMem", "compact"}) {
+			for (String topology : new String[]{"MCC", "MSCC"}) {
+				String serial = annotate(trees, treeSet, topology, 1);
+				String parallel = annotate(trees, treeSet, topology, 4);
+				assertEquals(serial, parallel, treeSet + " " + topology);
+			}
+		}
+	}
+
+	private String annotate(File trees, String treeSet, String topology, int threads) throws IOException {
+		TreeAnnotator annotator = new TreeAnnotator();
+		annotator.topologyInput.setValue(topology, annotator);
+		annotator.threadsInput.setValue(threads, annotator);
+		annotator.compactInput.setValue(treeSet.equals("compact"), annotator);
+		File out = File.createTempFile("ThreadsTest", ".tree");
+		out.deleteOnExit();
+		annotator.run(10, treeSet.equals("lowMem"), 0.0, 0.95, null, trees.getPath(), out.getPath());
+		return Files.readString(out.toPath());
+	}
+}
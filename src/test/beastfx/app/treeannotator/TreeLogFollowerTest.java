@@ -0,0 +1,59 @@
+package test.beastfx.app.treeannotator;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import beast.base.evolution.tree.Tree;
+import beastfx.app.treeannotator.TreeLogFollower;
+
+/**
+ * check that trees are read as they are appended, including trees that were partly written at the previous read
+ */
+public class TreeLogFollowerTest {
+
+	@Test
+	public void testAppendedTrees() throws IOException {
+		File file = File.createTempFile("TreeLogFollowerTest", ".trees");
+		file.deleteOnExit();
+		Files.writeString(file.toPath(), "#NEXUS\r\n\r\nBegin trees;\r\n  Translate\r\n  1 A,\r\n  2 B\r\n;\r\n" +
+				"tree STATE_0 = (1:1.0,2:1.0);\r\ntree STATE_10 = (1:2.0,");
+
+		TreeLogFollower follower = new TreeLogFollower(file.getPath());
+		List<Long> offsets = new ArrayList<>();
+		List<Tree> trees = follower.readTrees(offsets);
+		assertEquals(1, trees.size());
+		assertEquals("STATE_0", trees.get(0).getID());
+		assertFalse(follower.isClosed());
+
+		append(file, "2:2.0);\r\n");
+		trees = follower.readTrees(offsets);
+		assertEquals(1, trees.size());
+		assertEquals("STATE_10", trees.get(0).getID());
+		assertEquals(2.0, trees.get(0).getRoot().getHeight(), 1e-10);
+
+		append(file, "tree STATE_20 = (1:3.0,2:3.0);\r\nEnd;\r\n");
+		trees = follower.readTrees(offsets);
+		assertEquals(1, trees.size());
+		assertTrue(follower.isClosed());
+		assertEquals(3, follower.getTreeCount());
+
+		assertEquals(3, offsets.size());
+		Tree tree = follower.readTree(offsets.get(1));
+		assertEquals("STATE_10", tree.getID());
+		assertEquals(2.0, tree.getRoot().getHeight(), 1e-10);
+	}
+
+	private void append(File file, String content) throws IOException {
+		Files.writeString(file.toPath(), content, StandardOpenOption.APPEND);
+	}
+}
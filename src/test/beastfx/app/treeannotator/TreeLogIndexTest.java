@@ -0,0 +1,72 @@
+package test.beastfx.app.treeannotator;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.junit.jupiter.api.Test;
+
+import beastfx.app.treeannotator.TreeLogIndex;
+
+/**
+ * check tree offsets in the index point at tree lines, and a stale sidecar file is rebuilt
+ */
+public class TreeLogIndexTest {
+
+	final static String NEXUS = "#NEXUS\r\n\r\nBegin taxa;\r\nEnd;\r\nBegin trees;\r\n  Translate\r\n  1 A,\r\n  2 B\r\n;\r\n" +
+			"tree STATE_0 = (1:1.0,2:1.0);\r\n\r\n  TREE STATE_10 = (1:2.0,2:2.0);\r\ntree STATE_20 = (1:3.0,2:3.0);";
+
+	@Test
+	public void testNexus() throws IOException {
+		File file = createFile(NEXUS);
+		TreeLogIndex index = TreeLogIndex.get(file.getPath());
+		assertTrue(index.isNexus());
+		assertEquals(3, index.getTreeCount());
+		assertEquals(6, index.getTranslateLineNr());
+		assertEquals("  1 A,", readLine(file, index.getTranslateOffset()));
+		assertEquals("tree STATE_0 = (1:1.0,2:1.0);", readLine(file, index.getOffset(0)));
+		assertEquals("  TREE STATE_10 = (1:2.0,2:2.0);", readLine(file, index.getOffset(1)));
+		assertEquals("tree STATE_20 = (1:3.0,2:3.0);", readLine(file, index.getOffset(2)));
+		assertEquals(9, index.getLineNr(0));
+		assertEquals(11, index.getLineNr(1));
+		assertEquals(file.length(), index.getOffset(3));
+		assertTrue(new File(file.getPath() + TreeLogIndex.SUFFIX).exists());
+	}
+
+	@Test
+	public void testNewick() throws IOException {
+		File file = createFile("(A:1.0,B:1.0);\n\n(A:2.0,B:2.0);\n");
+		TreeLogIndex index = TreeLogIndex.get(file.getPath());
+		assertFalse(index.isNexus());
+		assertEquals(2, index.getTreeCount());
+		assertEquals(-1, index.getTranslateOffset());
+		assertEquals("(A:2.0,B:2.0);", readLine(file, index.getOffset(1)));
+	}
+
+	@Test
+	public void testStaleSidecar() throws IOException {
+		File file = createFile("(A:1.0,B:1.0);\n");
+		assertEquals(1, TreeLogIndex.get(file.getPath()).getTreeCount());
+		Files.writeString(file.toPath(), "(A:1.0,B:1.0);\n(A:2.0,B:2.0);\n");
+		assertEquals(2, TreeLogIndex.get(file.getPath()).getTreeCount());
+	}
+
+	private File createFile(String content) throws IOException {
+		File file = File.createTempFile("TreeLogIndexTest", ".trees");
+		file.deleteOnExit();
+		new File(file.getPath() + TreeLogIndex.SUFFIX).deleteOnExit();
+		Files.writeString(file.toPath(), content);
+		return file;
+	}
+
+	private String readLine(File file, long offset) throws IOException {
+		try (BufferedReader fin = TreeLogIndex.openAt(file.getPath(), offset)) {
+			return fin.readLine();
+		}
+	}
+}
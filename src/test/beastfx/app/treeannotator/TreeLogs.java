@@ -0,0 +1,94 @@
+package test.beastfx.app.treeannotator;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import beast.base.evolution.tree.Node;
+import beast.base.evolution.tree.Tree;
+import beastfx.app.treeannotator.TreeLogIndex;
+
+/**
+ * trees and tree logs for tests of tree stores, the tree annotator and tree trace analysis
+ */
+public class TreeLogs {
+
+	/** trees with numbers, arrays and strings as metadata, and with metadata missing on some nodes **/
+	public final static String [] TREES = {
+			"((A[&rate=0.5,loc={1.0,2.0},type=\"x\"]:1.0,B:1.0)[&rate=1.5]:1.0,C:2.0);",
+			"((C:0.5,B[&type=\"y\"]:0.5):2.0,A[&loc={3.0,4.0}]:2.5);",
+			"(A:1.0,(B[&rate=2.5]:0.25,C:0.25):0.75);"
+	};
+
+	/** assert copy has the ID, nodes, node heights and metadata of tree **/
+	public static void assertSameTree(Tree tree, Tree copy) {
+		assertEquals(tree.getID(), copy.getID());
+		assertEquals(tree.getNodeCount(), copy.getNodeCount());
+		for (Node node : tree.getNodesAsArray()) {
+			Node node2 = copy.getNode(node.getNr());
+			assertEquals(node.getID(), node2.getID());
+			assertEquals(node.getHeight(), node2.getHeight(), 0.0);
+			assertEquals(node.isRoot() ? -1 : node.getParent().getNr(), node2.isRoot() ? -1 : node2.getParent().getNr());
+			assertEquals(node.getMetaDataNames(), node2.getMetaDataNames());
+			for (String name : node.getMetaDataNames()) {
+				Object value = node.getMetaData(name);
+				if (value instanceof Object[]) {
+					assertArrayEquals((Object[]) value, (Object[]) node2.getMetaData(name));
+				} else {
+					assertEquals(value, node2.getMetaData(name));
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return random tree, formed by joining random pairs of subtrees of taxa t0, t1, ...
+	 * at increasing heights, with a rate on every branch
+	 */
+	public static String randomNewick(Random random, int taxonCount) {
+		List<String> subtrees = new ArrayList<>();
+		List<Double> heights = new ArrayList<>();
+		for (int i = 0; i < taxonCount; i++) {
+			subtrees.add("t" + i);
+			heights.add(0.0);
+		}
+		double height = 0;
+		while (subtrees.size() > 1) {
+			height += random.nextDouble();
+			int i = random.nextInt(subtrees.size());
+			String left = branch(random, subtrees.remove(i), height - heights.remove(i));
+			int j = random.nextInt(subtrees.size());
+			String right = branch(random, subtrees.remove(j), height - heights.remove(j));
+			subtrees.add("(" + left + "," + right + ")");
+			heights.add(height);
+		}
+		return subtrees.get(0) + ";";
+	}
+
+	private static String branch(Random random, String subtree, double length) {
+		return String.format(Locale.US, "%s[&rate=%.4f]:%.6f", subtree, random.nextDouble(), length);
+	}
+
+	/** @return temporary NEXUS file with treeCount random trees, taken from few topologies when taxonCount is small **/
+	public static File createNexus(long seed, int treeCount, int taxonCount) throws IOException {
+		Random random = new Random(seed);
+		StringBuilder b = new StringBuilder("#NEXUS\n\nBegin trees;\n");
+		for (int i = 0; i < treeCount; i++) {
+			b.append("tree STATE_").append(i * 1000).append(" = ").append(randomNewick(random, taxonCount)).append('\n');
+		}
+		b.append("End;\n");
+		File file = File.createTempFile("TreeLogs", ".trees");
+		file.deleteOnExit();
+		// TreeAnnotator writes an index next to the tree log
+		new File(file.getPath() + TreeLogIndex.SUFFIX).deleteOnExit();
+		Files.writeString(file.toPath(), b.toString());
+		return file;
+	}
+}
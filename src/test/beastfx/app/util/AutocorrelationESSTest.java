@@ -0,0 +1,66 @@
+package test.beastfx.app.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import beastfx.app.util.AutocorrelationESS;
+
+/**
+ * check the FFT autocovariance against the direct sums, and the autocorrelation time
+ * of an AR(1) process against its theoretical value (1 + phi) / (1 - phi)
+ */
+public class AutocorrelationESSTest {
+
+	@Test
+	public void testAutoCovariance() {
+		Random random = new Random(1);
+		for (int n : new int[]{1, 2, 3, 17, 256, 1000}) {
+			double [] trace = ar1(random, n, 0.5);
+			double [] autoCovariance = AutocorrelationESS.autoCovariance(trace);
+			double mean = 0;
+			for (double x : trace) {
+				mean += x;
+			}
+			mean /= n;
+			for (int k = 0; k < n; k++) {
+				double sum = 0;
+				for (int i = 0; i + k < n; i++) {
+					sum += (trace[i] - mean) * (trace[i + k] - mean);
+				}
+				assertEquals(sum / n, autoCovariance[k], 1e-12);
+			}
+		}
+	}
+
+	@Test
+	public void testAR1() {
+		Random random = new Random(2);
+		int n = 200000;
+		for (double phi : new double[]{0, 0.5, 0.9}) {
+			AutocorrelationESS ess = new AutocorrelationESS(ar1(random, n, phi));
+			double tau = (1 + phi) / (1 - phi);
+			assertEquals(tau, ess.getACT(1), 0.1 * tau);
+			assertEquals(10 * ess.getACT(1), ess.getACT(10), 1e-10);
+			assertEquals(n / tau, ess.getESS(), 0.1 * n / tau);
+		}
+	}
+
+	@Test
+	public void testConstantTrace() {
+		AutocorrelationESS ess = new AutocorrelationESS(new double[]{1, 1, 1, 1});
+		assertTrue(Double.isNaN(ess.getESS()));
+		assertEquals(0, ess.getStdErrorOfMean());
+	}
+
+	private double [] ar1(Random random, int n, double phi) {
+		double [] trace = new double[n];
+		for (int i = 0; i < n; i++) {
+			trace[i] = (i > 0 ? phi * trace[i - 1] : 0) + random.nextGaussian();
+		}
+		return trace;
+	}
+}
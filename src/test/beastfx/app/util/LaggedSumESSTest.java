@@ -0,0 +1,37 @@
+package test.beastfx.app.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import beast.base.inference.util.ESS;
+import beastfx.app.util.LaggedSumESS;
+
+/**
+ * check ACT and standard error of the mean against ESS, for traces shorter and longer than
+ * the maximum lag
+ */
+public class LaggedSumESSTest {
+
+	@Test
+	public void testAgainstESS() {
+		Random random = new Random(3);
+		for (int n : new int[]{2, 3, 50, 1999, 2000, 5000}) {
+			for (double phi : new double[]{0, 0.5, 0.95}) {
+				double [] trace = new double[n];
+				Double [] boxed = new Double[n];
+				for (int i = 0; i < n; i++) {
+					trace[i] = (i > 0 ? phi * trace[i - 1] : 0) + random.nextGaussian();
+					boxed[i] = trace[i];
+				}
+				LaggedSumESS ess = new LaggedSumESS(trace);
+				assertEquals(ESS.ACT(boxed, 10), ess.getACT(10), 0.0);
+				assertEquals(n / (ESS.ACT(boxed, 1)), ess.getESS(), 1e-12 * ess.getESS());
+				double stdError = ESS.stdErrorOfMean(boxed, 10);
+				assertEquals(stdError, ess.getStdErrorOfMean(), 1e-12 * stdError);
+			}
+		}
+	}
+}
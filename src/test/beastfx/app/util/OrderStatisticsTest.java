@@ -0,0 +1,64 @@
+package test.beastfx.app.util;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import beast.base.util.DiscreteStatistics;
+import beast.base.util.HeapSort;
+import beastfx.app.util.OrderStatistics;
+
+/**
+ * check order statistics from a single sort against DiscreteStatistics and the
+ * HPD interval TreeAnnotator calculated with a sort per attribute
+ */
+public class OrderStatisticsTest {
+
+	@Test
+	public void testAgainstDiscreteStatistics() {
+		Random random = new Random(11);
+		for (int n : new int[]{1, 2, 3, 10, 101, 1000}) {
+			for (boolean ties : new boolean[]{false, true}) {
+				double [] values = new double[n];
+				for (int i = 0; i < n; i++) {
+					values[i] = ties ? random.nextInt(5) : random.nextGaussian();
+				}
+				double [] copy = values.clone();
+				OrderStatistics statistics = new OrderStatistics(values);
+				assertEquals(DiscreteStatistics.mean(copy), statistics.getMean(), 0.0);
+				assertEquals(DiscreteStatistics.median(copy), statistics.getMedian(), 0.0);
+				assertEquals(DiscreteStatistics.min(copy), statistics.getMin(), 0.0);
+				assertEquals(DiscreteStatistics.max(copy), statistics.getMax(), 0.0);
+				for (double mass : new double[]{0.5, 0.95}) {
+					assertArrayEquals(hpd(copy, mass), statistics.getHPD(mass), 0.0);
+				}
+				// values are not reordered
+				assertArrayEquals(copy, values, 0.0);
+			}
+		}
+	}
+
+	/** HPD interval as TreeAnnotator.annotateHPDAttribute calculated it before order statistics **/
+	private double [] hpd(double [] values, double hpd) {
+		int[] indices = new int[values.length];
+		HeapSort.sort(values, indices);
+
+		double minRange = Double.MAX_VALUE;
+		int hpdIndex = 0;
+
+		int diff = (int) Math.round(hpd * values.length);
+		for (int i = 0; i <= (values.length - diff); i++) {
+			double minValue = values[indices[i]];
+			double maxValue = values[indices[i + diff - 1]];
+			double range = Math.abs(maxValue - minValue);
+			if (range < minRange) {
+				minRange = range;
+				hpdIndex = i;
+			}
+		}
+		return new double[]{values[indices[hpdIndex]], values[indices[hpdIndex + diff - 1]]};
+	}
+}
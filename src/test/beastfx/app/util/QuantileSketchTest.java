@@ -0,0 +1,69 @@
+package test.beastfx.app.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import beastfx.app.util.QuantileSketch;
+import beastfx.app.util.StreamingStatistics;
+
+/**
+ * check approximate quantiles against exact ones, also after merging
+ */
+public class QuantileSketchTest {
+
+	@Test
+	public void testQuantiles() {
+		Random random = new Random(123);
+		int n = 100000;
+		double [] x = new double[n];
+		QuantileSketch sketch = new QuantileSketch();
+		for (int i = 0; i < n; i++) {
+			x[i] = random.nextGaussian();
+			sketch.add(x[i]);
+		}
+		Arrays.sort(x);
+		assertEquals(n, sketch.getCount());
+		for (double p : new double[]{0.025, 0.25, 0.5, 0.75, 0.975}) {
+			assertEquals(p, rank(x, sketch.getQuantile(p)), 0.02);
+		}
+	}
+
+	@Test
+	public void testMerge() {
+		Random random = new Random(456);
+		int n = 50000;
+		double [] x = new double[2 * n];
+		StreamingStatistics a = new StreamingStatistics();
+		StreamingStatistics b = new StreamingStatistics();
+		double sum = 0;
+		for (int i = 0; i < 2 * n; i++) {
+			x[i] = random.nextDouble() * 10;
+			sum += x[i];
+			if (i < n) {
+				a.add(x[i]);
+			} else {
+				b.add(x[i]);
+			}
+		}
+		a.merge(b);
+		Arrays.sort(x);
+		assertEquals(2 * n, a.getCount());
+		assertEquals(sum / (2 * n), a.getMean(), 1e-10);
+		assertEquals(x[0], a.getMin(), 0.0);
+		assertEquals(x[2 * n - 1], a.getMax(), 0.0);
+		assertEquals(0.5, rank(x, a.getMedian()), 0.02);
+		// uniform on [0,10]: any interval of width 9.5 is a 95% HPD interval
+		double [] hpd = a.getHPD(0.95);
+		assertEquals(9.5, hpd[1] - hpd[0], 0.2);
+	}
+
+	/** fraction of sorted values x below value **/
+	private double rank(double [] x, double value) {
+		int i = Arrays.binarySearch(x, value);
+		return (i < 0 ? -i - 1 : i) / (double) x.length;
+	}
+}